@@ -59,6 +59,10 @@ def _j2cl_rta_impl(ctx):
     jvm_args = []
     if ctx.attr.generate_unused_methods_for_testing_do_not_use:
         jvm_args.append("--jvm_flag=-Dj2clrta.generate_unused_methods_for_testing=true")
+    if ctx.attr.parallelism_for_testing_do_not_use > 1:
+        jvm_args.append(
+            "--jvm_flag=-Dj2cl.rta.parallelism=%s" % ctx.attr.parallelism_for_testing_do_not_use,
+        )
 
     # Run rta algorithm
     ctx.actions.run(
@@ -67,7 +71,7 @@ def _j2cl_rta_impl(ctx):
         arguments = jvm_args + [rta_args],
         progress_message = "Running J2CL rapid type analysis",
         executable = ctx.executable._rta_runner,
-        execution_requirements = {"supports-workers": "1"},
+        execution_requirements = {"supports-workers": "1", "supports-multiplex-workers": "1"},
         mnemonic = "J2clRta",
     )
 
@@ -84,6 +88,7 @@ j2cl_rta = rule(
         "targets": attr.label_list(aspects = [_library_info_aspect]),
         "generate_unused_methods_for_testing_do_not_use": attr.bool(default = False),
         "legacy_keep_jstype_interfaces_do_not_use": attr.bool(default = False),
+        "parallelism_for_testing_do_not_use": attr.int(default = 1),
         "_rta_runner": attr.label(
             default = Label("//build_defs/internal_do_not_use:J2clRta"),
             cfg = "exec",
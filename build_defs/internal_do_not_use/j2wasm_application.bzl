@@ -78,16 +78,18 @@ def _impl_j2wasm_application(ctx):
             executable = ctx.executable._j2cl_transpiler,
             arguments = [args],
             env = dict(LANG = "en_US.UTF-8"),
-            execution_requirements = {"supports-workers": "1"},
+            execution_requirements = {"supports-workers": "1", "supports-multiplex-workers": "1"},
             mnemonic = "J2wasmTranspile",
         )
 
-        # Link the wat file for the named output
+        # Link the wat file for the named output. When the module is emitted in binary form it
+        # stands in for the wat file since binaryen detects the format of its input.
+        module_file = "module.wasm" if "-experimentalWasmEmitBinary" in ctx.attr.transpiler_args else "module.wat"
         ctx.actions.run_shell(
             inputs = [transpile_out],
             outputs = [ctx.outputs.wat],
             # TODO(b/176105504): Link instead copying when Blaze native tree support lands.
-            command = "cp %s/module.wat %s" % (transpile_out.path, ctx.outputs.wat.path),
+            command = "cp %s/%s %s" % (transpile_out.path, module_file, ctx.outputs.wat.path),
             mnemonic = "J2wasm",
         )
 
@@ -136,7 +138,7 @@ def _impl_j2wasm_application(ctx):
             executable = ctx.executable._bundler,
             arguments = [bundler_args],
             env = dict(LANG = "en_US.UTF-8"),
-            execution_requirements = {"supports-workers": "1"},
+            execution_requirements = {"supports-workers": "1", "supports-multiplex-workers": "1"},
             mnemonic = "J2wasm",
         )
 
@@ -123,6 +123,36 @@ def setup_j2cl_workspace(**kwargs):
         licenses = ["notice"],
     )
 
+    jvm_maven_import_external(
+        name = "org_openjdk_jmh_core",
+        artifact = "org.openjdk.jmh:jmh-core:1.37",
+        server_urls = _MAVEN_CENTRAL_URLS,
+        # GPLv2 with the classpath exception, only used by the benchmarks.
+        licenses = ["restricted"],
+    )
+
+    jvm_maven_import_external(
+        name = "org_openjdk_jmh_generator_annprocess",
+        artifact = "org.openjdk.jmh:jmh-generator-annprocess:1.37",
+        server_urls = _MAVEN_CENTRAL_URLS,
+        # GPLv2 with the classpath exception, only used by the benchmarks.
+        licenses = ["restricted"],
+    )
+
+    jvm_maven_import_external(
+        name = "net_sf_jopt_simple",
+        artifact = "net.sf.jopt-simple:jopt-simple:5.0.4",
+        server_urls = _MAVEN_CENTRAL_URLS,
+        licenses = ["notice"],
+    )
+
+    jvm_maven_import_external(
+        name = "org_apache_commons_math3",
+        artifact = "org.apache.commons:commons-math3:3.6.1",
+        server_urls = _MAVEN_CENTRAL_URLS,
+        licenses = ["notice"],
+    )
+
     # TODO(b/135461024): for now J2CL uses a prepackaged version of javac. But in the future it
     # might be better to tie in to the Java platform in bazel and control the version there.
     jvm_maven_import_external(
@@ -14,26 +14,39 @@
 package com.google.j2cl.tools.minifier;
 
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.collect.Iterables.getLast;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.HashMultiset;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Multiset;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CharStreams;
 import com.google.j2cl.tools.rta.CodeRemovalInfo;
 import com.google.j2cl.tools.rta.LineRange;
 import com.google.j2cl.tools.rta.UnusedLines;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
@@ -75,6 +88,20 @@ public class J2clMinifier {
     // due to constructs like "for(;;)" where the condition might be mistaken for a statement.
     private int statementStartIndex = 0;
     private boolean nextIsStatementStart = true;
+    // When set, minifiable identifiers are only collected here in order of appearance instead of
+    // being replaced by their minified names.
+    @Nullable private final Set<String> collectedIdentifiers;
+    // The state of the scan, kept here so that content can be fed to the state machine in chunks.
+    private int parseState = S_NON_IDENTIFIER;
+    private int lineNumber = 0;
+
+    Buffer() {
+      this(null);
+    }
+
+    Buffer(@Nullable Set<String> collectedIdentifiers) {
+      this.collectedIdentifiers = collectedIdentifiers;
+    }
 
     void append(char c) {
       int nextIndex = contentBuffer.length();
@@ -124,6 +151,14 @@ public class J2clMinifier {
       return contentBuffer.substring(identifierStartIndex);
     }
 
+    boolean hasIdentifier() {
+      return identifierStartIndex != -1;
+    }
+
+    void endIdentifier() {
+      identifierStartIndex = -1;
+    }
+
     void replaceIdentifier(String newIdentifier) {
       contentBuffer.replace(identifierStartIndex, contentBuffer.length(), newIdentifier);
       identifierStartIndex = -1;
@@ -149,6 +184,25 @@ public class J2clMinifier {
       whitespaceStartIndex = statementStartIndex;
     }
 
+    /**
+     * Writes out the content that will not be looked at anymore, i.e. everything before the
+     * current identifier, statement and trailing whitespace, and drops it from the buffer.
+     */
+    void flushTo(Writer output) throws IOException {
+      int flushedLength = Math.min(whitespaceStartIndex, statementStartIndex);
+      if (identifierStartIndex != -1) {
+        flushedLength = Math.min(flushedLength, identifierStartIndex);
+        identifierStartIndex -= flushedLength;
+      }
+      if (flushedLength == 0) {
+        return;
+      }
+      output.append(contentBuffer, 0, flushedLength);
+      contentBuffer.delete(0, flushedLength);
+      whitespaceStartIndex -= flushedLength;
+      statementStartIndex -= flushedLength;
+    }
+
     @Override
     public String toString() {
       return contentBuffer.toString();
@@ -401,7 +455,7 @@ public class J2clMinifier {
    * These fields contain the persistent state that allows for name collision dodging and consistent
    * renaming within and across multiple files.
    */
-  private final Multiset<String> countsByIdentifier = HashMultiset.create();
+  private final Map<String, AtomicInteger> countsByIdentifier = new ConcurrentHashMap<>();
 
   private final boolean minifierDisabled = Boolean.getBoolean("j2cl_minifier_disabled");
 
@@ -418,15 +472,31 @@ public class J2clMinifier {
   // the performance.
   private Map<String, boolean[]> unusedLinesPerFile;
 
+  /** The number of characters that are read at a time when streaming content. */
+  private static final int STREAMING_CHUNK_SIZE = 8 * 1024;
+
+  /** The default capacity of the minified content cache, in characters of minified content. */
+  private static final long DEFAULT_CACHE_CAPACITY = 64 * 1024 * 1024;
+
   /**
    * This is a cache of previously minified content (presumably whole files). This makes reloads in
    * fast concatenating uncompiled JS servers extra-extra fast.
+   *
+   * <p>Entries are keyed by a digest of the content and of the lines that RTA removes from it, and
+   * the least recently used ones are evicted once the minified content exceeds the capacity, so
+   * that long running servers do not keep every version of every file they ever served.
    */
-  private final Map<String, String> minifiedContentByContent = new Hashtable<>();
+  private final Cache<HashCode, String> minifiedContentCache =
+      CacheBuilder.newBuilder()
+          .maximumWeight(Long.getLong("j2cl_minifier_cache_capacity", DEFAULT_CACHE_CAPACITY))
+          .<HashCode, String>weigher((key, value) -> value.length())
+          .recordStats()
+          .build();
 
   private final TransitionFunction[][] transFn;
 
-  @VisibleForTesting Map<String, String> minifiedIdentifiersByIdentifier = new HashMap<>();
+  @VisibleForTesting
+  Map<String, String> minifiedIdentifiersByIdentifier = new ConcurrentHashMap<>();
 
   public J2clMinifier() {
     this(null);
@@ -529,18 +599,104 @@ public class J2clMinifier {
       return "";
     }
 
+    boolean[] unusedLines = unusedLinesPerFile.get(fileKey);
+
     // Return a previously cached version of minified output, if possible.
-    String minifiedContent = minifiedContentByContent.get(content);
+    HashCode cacheKey = computeCacheKey(content, unusedLines);
+    String minifiedContent = minifiedContentCache.getIfPresent(cacheKey);
     if (minifiedContent != null) {
       return minifiedContent;
     }
 
-    boolean[] unusedLines = unusedLinesPerFile.get(fileKey);
+    Buffer buffer = new Buffer();
+    scan(content, unusedLines, buffer);
+
+    minifiedContent = buffer.toString();
+    // Update the minified content cache for next time.
+    minifiedContentCache.put(cacheKey, minifiedContent);
+
+    return minifiedContent;
+  }
+
+  /**
+   * Process the content of a file like {@link #minify(String, String)} but streams it from {@code
+   * input} (e.g. a {@link java.io.Reader} or a {@link CharBuffer}) to {@code output}.
+   *
+   * <p>Only the current statement or identifier is held in memory instead of the whole file, which
+   * means the result is not added to the minified content cache.
+   */
+  public void minify(String filePath, Readable input, Writer output) throws IOException {
+    if (minifierDisabled) {
+      CharStreams.copy(input, output);
+      return;
+    }
 
+    String fileKey = extractFileKey(filePath);
+    if (unusedFiles.contains(fileKey)) {
+      return;
+    }
+
+    boolean[] unusedLines = unusedLinesPerFile.get(fileKey);
     Buffer buffer = new Buffer();
-    int lastParseState = S_NON_IDENTIFIER;
-    int lineNumber = 0;
-    boolean skippingLine = unusedLines != null && unusedLines[lineNumber];
+    CharBuffer chunk = CharBuffer.allocate(STREAMING_CHUNK_SIZE);
+    while (input.read(chunk) != -1) {
+      chunk.flip();
+      scanChunk(chunk, unusedLines, buffer);
+      buffer.flushTo(output);
+      chunk.clear();
+    }
+    endScan(unusedLines, buffer);
+    output.append(buffer.toString());
+  }
+
+  /**
+   * Minifies the content of many files in parallel and returns the minified content by file path.
+   *
+   * <p>Identifiers are named in the iteration order of {@code contentByFilePath}, so the result is
+   * the same as minifying the files one after the other in that order, regardless of how the work
+   * is scheduled.
+   */
+  public ImmutableMap<String, String> minify(Map<String, String> contentByFilePath) {
+    ImmutableList<Map.Entry<String, String>> entries =
+        ImmutableList.copyOf(contentByFilePath.entrySet());
+    if (!minifierDisabled) {
+      // Find the identifiers of each file in parallel but name them sequentially so that the
+      // names do not depend on the order in which the files happen to be processed.
+      ImmutableList<Set<String>> identifiersByFile =
+          entries.parallelStream()
+              .map(e -> collectMinifiableIdentifiers(e.getKey(), e.getValue()))
+              .collect(toImmutableList());
+      identifiersByFile.forEach(identifiers -> identifiers.forEach(this::getMinifiedIdentifier));
+    }
+    // All the identifiers are named at this point so minification only reads the shared state.
+    return entries.parallelStream()
+        .collect(toImmutableMap(Map.Entry::getKey, e -> minify(e.getKey(), e.getValue())));
+  }
+
+  private Set<String> collectMinifiableIdentifiers(String filePath, String content) {
+    Set<String> identifiers = new LinkedHashSet<>();
+    String fileKey = extractFileKey(filePath);
+    if (!unusedFiles.contains(fileKey)) {
+      scan(content, unusedLinesPerFile.get(fileKey), new Buffer(identifiers));
+    }
+    return identifiers;
+  }
+
+  /** Runs the content through the state machine, writing the result into the buffer. */
+  private void scan(String content, @Nullable boolean[] unusedLines, Buffer buffer) {
+    scanChunk(content, unusedLines, buffer);
+    endScan(unusedLines, buffer);
+  }
+
+  /**
+   * Runs the next chunk of the content through the state machine, continuing from where the
+   * previous chunk left off.
+   */
+  private void scanChunk(CharSequence content, @Nullable boolean[] unusedLines, Buffer buffer) {
+    int lastParseState = buffer.parseState;
+    int lineNumber = buffer.lineNumber;
+    boolean skippingLine =
+        unusedLines != null && unusedLines.length > lineNumber && unusedLines[lineNumber];
 
     /**
      * Loop over the chars in the content, keeping track of in/not-in identifier state, copying
@@ -567,51 +723,82 @@ public class J2clMinifier {
       lastParseState = parseState;
     }
 
+    buffer.parseState = lastParseState;
+    buffer.lineNumber = lineNumber;
+  }
+
+  private void endScan(@Nullable boolean[] unusedLines, Buffer buffer) {
+    int lineNumber = buffer.lineNumber;
+    int lastParseState = buffer.parseState;
+
     // if we used RTA to remove lines, ensure that we removed everything expected by RTA.
     checkState(unusedLines == null || lineNumber >= unusedLines.length - 1);
 
     // Transition to the end state
     transFn[lastParseState][S_END_STATE].transition(buffer, (char) 0);
+  }
 
-    minifiedContent = buffer.toString();
-    // Update the minified content cache for next time.
-    minifiedContentByContent.put(content, minifiedContent);
+  private static HashCode computeCacheKey(String content, @Nullable boolean[] unusedLines) {
+    Hasher hasher = Hashing.sha256().newHasher().putUnencodedChars(content);
+    if (unusedLines != null) {
+      // The same content minifies differently depending on the lines that are removed from it.
+      hasher.putInt(unusedLines.length);
+      for (boolean unusedLine : unusedLines) {
+        hasher.putBoolean(unusedLine);
+      }
+    }
+    return hasher.hash();
+  }
 
-    return minifiedContent;
+  /** Returns the hit, miss and eviction statistics of the minified content cache. */
+  public CacheStats getCacheStats() {
+    return minifiedContentCache.stats();
   }
 
   /**
-   * The minifier might be used from multiple threads so make sure that this function (which along
-   * with the makeUnique function, which is also only called from here, is the only place that
-   * mutates class state) is synchronized.
+   * The minifier might be used from multiple threads so the names are kept in concurrent maps.
+   * Identifiers that were already seen are looked up without locking and each new identifier is
+   * named exactly once, so the names only depend on the order in which identifiers are first seen.
    */
-  private synchronized String getMinifiedIdentifier(String identifier) {
-    if (minifiedIdentifiersByIdentifier.containsKey(identifier)) {
-      return minifiedIdentifiersByIdentifier.get(identifier);
+  private String getMinifiedIdentifier(String identifier) {
+    String minifiedIdentifier = minifiedIdentifiersByIdentifier.get(identifier);
+    if (minifiedIdentifier != null) {
+      return minifiedIdentifier;
     }
+    return minifiedIdentifiersByIdentifier.computeIfAbsent(
+        identifier, this::computeMinifiedIdentifier);
+  }
 
+  private String computeMinifiedIdentifier(String identifier) {
     String prettyIdentifier = computePrettyIdentifier(identifier);
     if (prettyIdentifier.isEmpty()) {
       // The identifier must contain something strange like triple _'s. Leave the whole thing alone
       // just to be safe.
-      minifiedIdentifiersByIdentifier.put(identifier, identifier);
       return identifier;
     }
 
-    String uniquePrettyIdentifier = makeUnique(prettyIdentifier);
-    minifiedIdentifiersByIdentifier.put(identifier, uniquePrettyIdentifier);
-
-    return uniquePrettyIdentifier;
+    return makeUnique(prettyIdentifier);
   }
 
   private String makeUnique(String identifier) {
-    int count = countsByIdentifier.add(identifier, 1) + 1;
+    int count =
+        countsByIdentifier.computeIfAbsent(identifier, k -> new AtomicInteger()).incrementAndGet();
     return identifier + MINIFICATION_SEPARATOR + count;
   }
 
   private void maybeReplaceIdentifier(Buffer buffer, @SuppressWarnings("unused") char c) {
+    if (!buffer.hasIdentifier()) {
+      // Strings that are not started right after a non identifier character (e.g. 1/'m_foo__') are
+      // not tracked as identifiers.
+      return;
+    }
     String identifier = buffer.getIdentifier();
-    if (isMinifiableIdentifier(identifier)) {
+    if (!isMinifiableIdentifier(identifier)) {
+      buffer.endIdentifier();
+    } else if (buffer.collectedIdentifiers != null) {
+      buffer.collectedIdentifiers.add(identifier);
+      buffer.endIdentifier();
+    } else {
       buffer.replaceIdentifier(getMinifiedIdentifier(identifier));
     }
   }
@@ -641,6 +828,8 @@ public class J2clMinifier {
 
   @VisibleForTesting
   void setupRtaCodeRemoval(CodeRemovalInfo codeRemovalInfo) {
+    // Content minified with a different pruning would not be looked up anymore.
+    minifiedContentCache.invalidateAll();
     if (codeRemovalInfo != null) {
       unusedFiles = ImmutableSet.copyOf(codeRemovalInfo.getUnusedFilesList());
       unusedLinesPerFile = createUnusedLinesPerFileMap(codeRemovalInfo);
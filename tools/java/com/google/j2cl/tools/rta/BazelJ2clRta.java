@@ -40,6 +40,9 @@ final class BazelJ2clRta extends BazelWorker {
   private static final int CACHE_SIZE =
       Integer.parseInt(System.getProperty("j2cl.rta.protocachesize", "5000"));
 
+  /** Number of threads that build and traverse the type graph. */
+  private static final int PARALLELISM = Integer.getInteger("j2cl.rta.parallelism", 1);
+
   private static final FileCache<LibraryInfo> libraryInfoCache =
       new FileCache<>(BazelJ2clRta::readLibraryInfo, CACHE_SIZE);
 
@@ -71,7 +74,8 @@ final class BazelJ2clRta extends BazelWorker {
     List<LibraryInfo> libraryInfos =
         inputs.parallelStream().map(libraryInfoCache::get).collect(toImmutableList());
 
-    RtaResult rtaResult = RapidTypeAnalyser.analyse(libraryInfos, keepJsTypeInterfaces);
+    RtaResult rtaResult =
+        RapidTypeAnalyser.analyse(libraryInfos, keepJsTypeInterfaces, PARALLELISM);
 
     writeToFile(unusedTypesOutputFilePath, rtaResult.getUnusedTypes(), problems);
     writeToFile(removalCodeInfoOutputFilePath, rtaResult.getCodeRemovalInfo(), problems);
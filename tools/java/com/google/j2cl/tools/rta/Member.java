@@ -30,18 +30,26 @@ final class Member {
     return member;
   }
 
+  private int id;
   private MemberInfo memberInfo;
   private Type declaringType;
   private boolean isStatic;
   private boolean isConstructor;
 
-  private boolean fullyTraversed;
-  private boolean live;
   private final List<Type> referencedTypes = new ArrayList<>();
   private final List<Member> referencedMembers = new ArrayList<>();
 
   private Member() {}
 
+  /** Returns the index of the member, which is unique and dense among the members of the graph. */
+  int getId() {
+    return id;
+  }
+
+  void setId(int id) {
+    this.id = id;
+  }
+
   Type getDeclaringType() {
     return declaringType;
   }
@@ -70,22 +78,6 @@ final class Member {
     return !isStatic && !isConstructor();
   }
 
-  boolean isLive() {
-    return live;
-  }
-
-  void markLive() {
-    this.live = true;
-  }
-
-  boolean isFullyTraversed() {
-    return fullyTraversed;
-  }
-
-  void markFullyTraversed() {
-    this.fullyTraversed = true;
-  }
-
   List<Type> getReferencedTypes() {
     return referencedTypes;
   }
@@ -15,113 +15,301 @@
  */
 package com.google.j2cl.tools.rta;
 
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfo;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.Nullable;
 
+/**
+ * Computes the live types and members of an application.
+ *
+ * <p>The traversal is driven by explicit worklists instead of recursion, so that its depth does
+ * not depend on the depth of the call graph, and its state is kept in bitsets indexed by the type
+ * and member ids. The bits are set atomically so that the worklists can be processed by several
+ * threads; since the live types and members are a fixpoint that does not depend on the order in
+ * which the work is done, the result is the same whatever the parallelism.
+ */
 final class RapidTypeAnalyser {
 
   static RtaResult analyse(List<LibraryInfo> libraryInfos, boolean keepJsTypeInterfaces) {
-    Collection<Type> types = TypeGraphBuilder.build(libraryInfos);
+    return analyse(libraryInfos, keepJsTypeInterfaces, /* parallelism= */ 1);
+  }
+
+  static RtaResult analyse(
+      List<LibraryInfo> libraryInfos, boolean keepJsTypeInterfaces, int parallelism) {
+    if (parallelism <= 1) {
+      return analyse(libraryInfos, keepJsTypeInterfaces, /* pool= */ null);
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      return analyse(libraryInfos, keepJsTypeInterfaces, pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static RtaResult analyse(
+      List<LibraryInfo> libraryInfos, boolean keepJsTypeInterfaces, @Nullable ForkJoinPool pool) {
+    Collection<Type> types =
+        TypeGraphBuilder.build(
+            libraryInfos, pool == null ? MoreExecutors.newDirectExecutorService() : pool);
+    RapidTypeAnalyser analyser = new RapidTypeAnalyser(types);
+    Worker worker = analyser.new Worker(/* parent= */ null, new long[1024], 0);
 
     if (keepJsTypeInterfaces) {
-      types.stream().filter(Type::isJsTypeInterface).forEach(RapidTypeAnalyser::markTypeLive);
+      types.stream().filter(Type::isJsTypeInterface).forEach(worker::markTypeLive);
     }
 
     // Go over the entry points to start the traversal.
     types.stream()
         .flatMap(t -> t.getMembers().stream())
         .filter(Member::isJsAccessible)
-        .forEach(m -> onMemberReference(m));
-
-    return RtaResult.build(types);
-  }
+        .forEach(worker::onMemberReference);
 
-  private static void onMemberReference(Member member) {
-    if (member.isPolymorphic()) {
-      traversePolymorphicReference(member.getDeclaringType(), member.getName());
+    if (pool == null) {
+      worker.invoke();
     } else {
-      markTypeLive(member.getDeclaringType());
-      markMemberLive(member.getDeclaringType().getMemberByName("$clinit"));
-      markMemberLive(member);
+      pool.invoke(worker);
     }
+
+    return RtaResult.build(
+        types, analyser.liveTypes.toBitSet(), analyser.liveMembers.toBitSet());
   }
 
-  private static void markMemberLive(Member member) {
-    if (member.isLive()) {
-      return;
+  // Kinds of the work items. The low 32 bits of a work item are the id of a type or member shifted
+  // left by TASK_KIND_BITS and combined with its kind. The high 32 bits of TRAVERSE_OVERRIDES items
+  // are the id of the referenced member, whose name is looked up in the subtypes.
+  private static final int TASK_KIND_BITS = 2;
+  private static final int TASK_KIND_MASK = (1 << TASK_KIND_BITS) - 1;
+  private static final int PROCESS_LIVE_TYPE = 0;
+  private static final int PROCESS_LIVE_MEMBER = 1;
+  private static final int TRAVERSE_OVERRIDES = 2;
+
+  /** Minimum number of pending work items for a worker to share half of them with idle threads. */
+  private static final int MIN_SPLIT_SIZE = 256;
+
+  private final Type[] typesById;
+  private final Member[] membersById;
+
+  private final AtomicBitSet liveTypes;
+  private final AtomicBitSet instantiatedTypes;
+  private final AtomicBitSet liveMembers;
+  private final AtomicBitSet fullyTraversedMembers;
+  /** Members that become live as soon as their declaring type is instantiated. */
+  private final AtomicBitSet potentiallyLiveMembers;
+
+  private RapidTypeAnalyser(Collection<Type> types) {
+    typesById = types.toArray(new Type[0]);
+    membersById = types.stream().flatMap(t -> t.getMembers().stream()).toArray(Member[]::new);
+    checkState(Math.max(typesById.length, membersById.length) <= Integer.MAX_VALUE >>> 2);
+
+    liveTypes = new AtomicBitSet(typesById.length);
+    instantiatedTypes = new AtomicBitSet(typesById.length);
+    liveMembers = new AtomicBitSet(membersById.length);
+    fullyTraversedMembers = new AtomicBitSet(membersById.length);
+    potentiallyLiveMembers = new AtomicBitSet(membersById.length);
+  }
+
+  /**
+   * Processes a worklist, pushing the work it discovers on the same worklist.
+   *
+   * <p>When running in a pool, a worker hands half of its pending work to a new worker whenever
+   * there might be idle threads to take it.
+   */
+  private final class Worker extends CountedCompleter<Void> {
+    private long[] worklist;
+    private int worklistSize;
+
+    Worker(@Nullable Worker parent, long[] worklist, int worklistSize) {
+      super(parent);
+      this.worklist = worklist;
+      this.worklistSize = worklistSize;
+    }
+
+    @Override
+    public void compute() {
+      while (worklistSize > 0) {
+        if (worklistSize >= MIN_SPLIT_SIZE
+            && inForkJoinPool()
+            && getSurplusQueuedTaskCount() <= 0) {
+          split();
+        }
+
+        long task = worklist[--worklistSize];
+        int id = (int) task >>> TASK_KIND_BITS;
+        switch ((int) task & TASK_KIND_MASK) {
+          case PROCESS_LIVE_TYPE:
+            processLiveType(typesById[id]);
+            break;
+          case PROCESS_LIVE_MEMBER:
+            processLiveMember(membersById[id]);
+            break;
+          case TRAVERSE_OVERRIDES:
+            traversePolymorphicReference(typesById[id], membersById[(int) (task >>> 32)]);
+            break;
+          default:
+            throw new AssertionError();
+        }
+      }
+      tryComplete();
     }
 
-    member.markLive();
+    private void split() {
+      // Hand over the oldest half, which is the closest to the roots and likely to lead to the
+      // most work.
+      int half = worklistSize / 2;
+      addToPendingCount(1);
+      new Worker(this, Arrays.copyOf(worklist, half), half).fork();
+      System.arraycopy(worklist, half, worklist, 0, worklistSize - half);
+      worklistSize -= half;
+    }
 
-    Type declaringType = member.getDeclaringType();
-    if (!declaringType.isInstantiated() && member.isConstructor()) {
-      declaringType.instantiate();
-      declaringType.getPotentiallyLiveMembers().forEach(RapidTypeAnalyser::markMemberLive);
+    private void pushTask(int kind, int id) {
+      push(id << TASK_KIND_BITS | kind);
     }
 
-    member.getReferencedMembers().forEach(RapidTypeAnalyser::onMemberReference);
-    member.getReferencedTypes().forEach(RapidTypeAnalyser::markTypeLive);
-  }
+    private void pushTraversal(Type type, Member referencedMember) {
+      long task = type.getId() << TASK_KIND_BITS | TRAVERSE_OVERRIDES;
+      push((long) referencedMember.getId() << 32 | task);
+    }
 
-  private static void traversePolymorphicReference(Type type, String memberName) {
-    Member member = type.getMemberByName(memberName);
-    if (member == null) {
-      // No member found in this class. In this case we need to mark the supertype method as
-      // potentially live since it might be an accidental override.
-      markOverriddenMembersPotentiallyLive(type, memberName);
-    } else if (member.isPolymorphic()) {
-      if (member.isFullyTraversed()) {
-        return;
+    private void push(long task) {
+      if (worklistSize == worklist.length) {
+        worklist = Arrays.copyOf(worklist, Math.max(16, worklistSize * 2));
       }
-      member.markFullyTraversed();
+      worklist[worklistSize++] = task;
+    }
 
-      markMemberPotentiallyLive(member);
+    private void onMemberReference(Member member) {
+      if (member.isPolymorphic()) {
+        pushTraversal(member.getDeclaringType(), member);
+      } else {
+        markTypeLive(member.getDeclaringType());
+        markMemberLive(member.getDeclaringType().getMemberByName("$clinit"));
+        markMemberLive(member);
+      }
     }
 
-    // Recursively unfold the overriding chain.
-    type.getImmediateSubtypes()
-        .forEach(subtype -> traversePolymorphicReference(subtype, memberName));
-  }
+    private void markMemberLive(Member member) {
+      if (liveMembers.set(member.getId())) {
+        pushTask(PROCESS_LIVE_MEMBER, member.getId());
+      }
+    }
+
+    private void processLiveMember(Member member) {
+      Type declaringType = member.getDeclaringType();
+      if (member.isConstructor() && instantiatedTypes.set(declaringType.getId())) {
+        for (Member potentiallyLiveMember : declaringType.getMembers()) {
+          if (potentiallyLiveMembers.get(potentiallyLiveMember.getId())) {
+            markMemberLive(potentiallyLiveMember);
+          }
+        }
+      }
+
+      member.getReferencedMembers().forEach(this::onMemberReference);
+      member.getReferencedTypes().forEach(this::markTypeLive);
+    }
 
-  private static void markOverriddenMembersPotentiallyLive(Type type, String memberName) {
-    while ((type = type.getSuperClass()) != null) {
+    private void traversePolymorphicReference(Type type, Member referencedMember) {
+      String memberName = referencedMember.getName();
       Member member = type.getMemberByName(memberName);
-      if (member != null && member.isPolymorphic()) {
+      if (member == null) {
+        // No member found in this class. In this case we need to mark the supertype method as
+        // potentially live since it might be an accidental override.
+        markOverriddenMembersPotentiallyLive(type, memberName);
+      } else if (member.isPolymorphic()) {
+        if (!fullyTraversedMembers.set(member.getId())) {
+          return;
+        }
+
         markMemberPotentiallyLive(member);
-        return;
       }
+
+      // Unfold the overriding chain.
+      type.getImmediateSubtypes().forEach(subtype -> pushTraversal(subtype, referencedMember));
     }
-  }
 
-  private static void markMemberPotentiallyLive(Member member) {
-    Type declaringType = member.getDeclaringType();
-    if (declaringType.isInstantiated()) {
-      markMemberLive(member);
-    } else {
-      // Type is not instantiated, defer making it live until the type is instantiated.
-      declaringType.addPotentiallyLiveMember(member);
+    private void markOverriddenMembersPotentiallyLive(Type type, String memberName) {
+      while ((type = type.getSuperClass()) != null) {
+        Member member = type.getMemberByName(memberName);
+        if (member != null && member.isPolymorphic()) {
+          markMemberPotentiallyLive(member);
+          return;
+        }
+      }
     }
-  }
 
-  private static void markTypeLive(Type type) {
-    if (type.isLive()) {
-      return;
+    private void markMemberPotentiallyLive(Member member) {
+      // Defer making the member live until the type is instantiated. The member is flagged before
+      // looking at the type, and the type is flagged as instantiated before looking for flagged
+      // members, so that a member is not missed when the type is instantiated concurrently.
+      potentiallyLiveMembers.set(member.getId());
+      if (instantiatedTypes.get(member.getDeclaringType().getId())) {
+        markMemberLive(member);
+      }
     }
 
-    type.markLive();
+    private void markTypeLive(Type type) {
+      if (liveTypes.set(type.getId())) {
+        pushTask(PROCESS_LIVE_TYPE, type.getId());
+      }
+    }
 
-    // When a type is marked as live, we need to explicitly mark the super interfaces as live since
-    // we need markImplementor call (which are not tracked in AST).
-    type.getSuperInterfaces().forEach(RapidTypeAnalyser::markTypeLive);
+    private void processLiveType(Type type) {
+      // When a type is marked as live, we need to explicitly mark the super interfaces as live
+      // since we need markImplementor call (which are not tracked in AST).
+      type.getSuperInterfaces().forEach(this::markTypeLive);
 
-    // Types are made live by `instanceof` and casts, so if the type has a custom $isInstance
-    // it should be also considered as if it was called.
-    Member isInstanceMember = type.getMemberByName("$isInstance");
-    if (isInstanceMember != null) {
-      onMemberReference(isInstanceMember);
+      // Types are made live by `instanceof` and casts, so if the type has a custom $isInstance
+      // it should be also considered as if it was called.
+      Member isInstanceMember = type.getMemberByName("$isInstance");
+      if (isInstanceMember != null) {
+        onMemberReference(isInstanceMember);
+      }
     }
   }
 
-  private RapidTypeAnalyser() {}
+  /** A fixed size bit set whose bits can be set concurrently. */
+  private static final class AtomicBitSet {
+    private final AtomicLongArray words;
+
+    AtomicBitSet(int size) {
+      words = new AtomicLongArray((size + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    boolean get(int index) {
+      return (words.get(index / Long.SIZE) & (1L << index)) != 0;
+    }
+
+    /** Sets the bit and returns whether it was not set before. */
+    boolean set(int index) {
+      int wordIndex = index / Long.SIZE;
+      long mask = 1L << index;
+      long word;
+      do {
+        word = words.get(wordIndex);
+        if ((word & mask) != 0) {
+          return false;
+        }
+      } while (!words.compareAndSet(wordIndex, word, word | mask));
+      return true;
+    }
+
+    BitSet toBitSet() {
+      long[] bits = new long[words.length()];
+      for (int i = 0; i < bits.length; i++) {
+        bits[i] = words.get(i);
+      }
+      return BitSet.valueOf(bits);
+    }
+  }
 }
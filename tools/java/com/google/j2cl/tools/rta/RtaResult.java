@@ -19,6 +19,7 @@ import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.j2cl.transpiler.backend.libraryinfo.SourcePosition;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 
 /**
@@ -39,15 +40,15 @@ abstract class RtaResult {
     abstract RtaResult build();
   }
 
-  static RtaResult build(Collection<Type> types) {
+  static RtaResult build(Collection<Type> types, BitSet liveTypes, BitSet liveMembers) {
     Builder builder = new AutoValue_RtaResult.Builder();
     CodeRemovalInfo.Builder codeRemovalInfoBuilder = CodeRemovalInfo.newBuilder();
 
     for (Type type : types) {
-      if (type.isLive()) {
+      if (liveTypes.get(type.getId())) {
         ArrayList<LineRange> unusedLines = new ArrayList<>();
         for (Member member : type.getMembers()) {
-          if (member.isLive() || !member.hasPosition()) {
+          if (liveMembers.get(member.getId()) || !member.hasPosition()) {
             continue;
           }
 
@@ -72,9 +73,9 @@ abstract class RtaResult {
 
     if (Boolean.getBoolean("j2clrta.generate_unused_methods_for_testing")) {
       types.stream()
-          .filter(Type::isLive)
+          .filter(t -> liveTypes.get(t.getId()))
           .flatMap(t -> t.getMembers().stream())
-          .filter(m -> !m.isLive())
+          .filter(m -> !liveMembers.get(m.getId()))
           .map(m -> m.getDeclaringType().getName() + "#" + m.getName())
           .forEach(builder.unusedTypesBuilder()::add);
     }
@@ -24,6 +24,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 
 final class Type {
+  private int id;
   private String name;
   private Type superClass;
   private final List<Type> superInterfaces = new ArrayList<>();
@@ -31,10 +32,7 @@ final class Type {
   private final LinkedHashMap<String, Member> membersByName = new LinkedHashMap<>();
   private String implSourceFile;
   private String headerSourceFile;
-  private boolean live;
-  private boolean instantiated;
   private boolean isJsTypeInterface;
-  private final List<Member> potentiallyLiveMembers = new ArrayList<>();
 
   static Type buildFrom(TypeInfo typeInfo, String name) {
     Type type = new Type();
@@ -51,6 +49,15 @@ final class Type {
 
   private Type() {}
 
+  /** Returns the index of the type, which is unique and dense among the types of the graph. */
+  int getId() {
+    return id;
+  }
+
+  void setId(int id) {
+    this.id = id;
+  }
+
   String getHeaderSourceFile() {
     return headerSourceFile;
   }
@@ -92,32 +99,6 @@ final class Type {
     this.superInterfaces.add(superInterface);
   }
 
-  void markLive() {
-    this.live = true;
-  }
-
-  boolean isLive() {
-    return live;
-  }
-
-  boolean isInstantiated() {
-    return instantiated;
-  }
-
-  void instantiate() {
-    this.instantiated = true;
-  }
-
-  /** Returns the list of members that need to mark as live when the type becomes live. */
-  List<Member> getPotentiallyLiveMembers() {
-    return potentiallyLiveMembers;
-  }
-
-  void addPotentiallyLiveMember(Member member) {
-    checkState(!isInstantiated());
-    potentiallyLiveMembers.add(member);
-  }
-
   public void addImmediateSubtype(Type type) {
     immediateSubtypes.add(type);
   }
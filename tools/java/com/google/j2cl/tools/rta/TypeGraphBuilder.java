@@ -16,7 +16,10 @@
 package com.google.j2cl.tools.rta;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
 import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfo;
 import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfoBuilder;
 import com.google.j2cl.transpiler.backend.libraryinfo.MemberInfo;
@@ -26,68 +29,132 @@ import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 /** Give information about inheritance relationships between types. */
 class TypeGraphBuilder {
 
-  static Collection<Type> build(List<LibraryInfo> libraryInfos) {
+  /**
+   * Builds the type graph of the application. The work that is local to a library is done on the
+   * executor, one task per library.
+   */
+  static Collection<Type> build(List<LibraryInfo> libraryInfos, ExecutorService executor) {
+    // Create all types and members.
+    ImmutableList<ImmutableList<Type>> typesByLibrary =
+        invokeAll(executor, libraryInfos, TypeGraphBuilder::buildTypes);
+
+    // Register the types in library order so that the result does not depend on the parallelism.
     Map<String, Type> typesByName = new LinkedHashMap<>();
+    for (List<Type> types : typesByLibrary) {
+      types.forEach(type -> typesByName.put(type.getName(), type));
+    }
 
-    // Create all types and members.
-    for (LibraryInfo libraryInfo : libraryInfos) {
-      for (TypeInfo typeInfo : libraryInfo.getTypesList()) {
-        Type type = Type.buildFrom(typeInfo, libraryInfo.getTypeNames(typeInfo.getTypeId()));
-        typesByName.put(type.getName(), type);
-      }
+    // Build cross-references between members and types. Each library resolves its own type names
+    // once, which gives a table to look types up by their id in the library.
+    ImmutableList<Type[]> typesByIdByLibrary =
+        invokeAll(executor, libraryInfos, l -> buildCrossReferences(typesByName, l));
+
+    // Build the type hierarchy, which links types across libraries, sequentially.
+    for (int i = 0; i < libraryInfos.size(); i++) {
+      buildTypeHierarchy(typesByIdByLibrary.get(i), libraryInfos.get(i));
     }
 
-    // Build cross-references between types and members
-    for (LibraryInfo libraryInfo : libraryInfos) {
-      buildCrossReferences(typesByName, libraryInfo);
+    // Number types and members so that the analysis can keep its state in dense arrays.
+    int typeId = 0;
+    int memberId = 0;
+    for (Type type : typesByName.values()) {
+      type.setId(typeId++);
+      for (Member member : type.getMembers()) {
+        member.setId(memberId++);
+      }
     }
 
     return typesByName.values();
   }
 
-  private static void buildCrossReferences(Map<String, Type> typesByName, LibraryInfo libraryInfo) {
+  private static ImmutableList<Type> buildTypes(LibraryInfo libraryInfo) {
+    return libraryInfo.getTypesList().stream()
+        .map(t -> Type.buildFrom(t, libraryInfo.getTypeNames(t.getTypeId())))
+        .collect(toImmutableList());
+  }
+
+  private static Type[] buildCrossReferences(
+      Map<String, Type> typesByName, LibraryInfo libraryInfo) {
+    Type[] typesById = new Type[libraryInfo.getTypeNamesCount()];
+    for (int i = 0; i < typesById.length; i++) {
+      if (i != LibraryInfoBuilder.NULL_TYPE) {
+        typesById[i] = typesByName.get(libraryInfo.getTypeNames(i));
+      }
+    }
+
+    for (TypeInfo typeInfo : libraryInfo.getTypesList()) {
+      Type type = typesById[typeInfo.getTypeId()];
+
+      // A type that is defined in several libraries is shared by their tasks.
+      synchronized (type) {
+        for (MemberInfo memberInfo : typeInfo.getMembersList()) {
+          Member member = type.getMemberByName(memberInfo.getName());
+
+          for (int referencedId : memberInfo.getReferencedTypesList()) {
+            member.addReferencedType(checkNotNull(typesById[referencedId]));
+          }
+
+          for (MethodInvocation methodInvocation : memberInfo.getInvokedMethodsList()) {
+            Type enclosingType = typesById[methodInvocation.getEnclosingType()];
+            String methodName = methodInvocation.getMethod();
+
+            member.addReferencedMember(
+                checkNotNull(
+                    enclosingType.getMemberByName(methodName),
+                    "Missing %s.%s",
+                    enclosingType.getName(),
+                    methodName));
+          }
+        }
+      }
+    }
+
+    return typesById;
+  }
+
+  private static void buildTypeHierarchy(Type[] typesById, LibraryInfo libraryInfo) {
     for (TypeInfo typeInfo : libraryInfo.getTypesList()) {
-      Type type = typesByName.get(libraryInfo.getTypeNames(typeInfo.getTypeId()));
+      Type type = typesById[typeInfo.getTypeId()];
 
       int extendsId = typeInfo.getExtendsType();
       if (extendsId != LibraryInfoBuilder.NULL_TYPE) {
-        Type superClass = typesByName.get(libraryInfo.getTypeNames(extendsId));
+        Type superClass = typesById[extendsId];
         superClass.addImmediateSubtype(type);
         type.setSuperClass(superClass);
       }
 
       for (int implementsId : typeInfo.getImplementsTypesList()) {
-        Type superInterface = typesByName.get(libraryInfo.getTypeNames(implementsId));
+        Type superInterface = typesById[implementsId];
         superInterface.addImmediateSubtype(type);
         type.addSuperInterface(superInterface);
       }
+    }
+  }
 
-      for (MemberInfo memberInfo : typeInfo.getMembersList()) {
-        Member member = type.getMemberByName(memberInfo.getName());
-
-        for (int referencedId : memberInfo.getReferencedTypesList()) {
-          Type referencedType = typesByName.get(libraryInfo.getTypeNames(referencedId));
-          member.addReferencedType(checkNotNull(referencedType));
-        }
-
-        for (MethodInvocation methodInvocation : memberInfo.getInvokedMethodsList()) {
-          String enclosingTypeName = libraryInfo.getTypeNames(methodInvocation.getEnclosingType());
-          String methodName = methodInvocation.getMethod();
-
-          Type enclosingType = typesByName.get(enclosingTypeName);
-          member.addReferencedMember(
-              checkNotNull(
-                  enclosingType.getMemberByName(methodName),
-                  "Missing %s.%s",
-                  enclosingTypeName,
-                  methodName));
-        }
-      }
+  private static <T> ImmutableList<T> invokeAll(
+      ExecutorService executor,
+      List<LibraryInfo> libraryInfos,
+      Function<LibraryInfo, T> function) {
+    List<Future<T>> futures;
+    try {
+      futures =
+          executor.invokeAll(
+              libraryInfos.stream()
+                  .map(l -> (Callable<T>) () -> function.apply(l))
+                  .collect(toImmutableList()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
     }
+    return futures.stream().map(Futures::getUnchecked).collect(toImmutableList());
   }
 
   private TypeGraphBuilder() {}
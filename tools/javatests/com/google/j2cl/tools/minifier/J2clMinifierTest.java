@@ -13,6 +13,11 @@
  */
 package com.google.j2cl.tools.minifier;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import junit.framework.TestCase;
 
 /** Tests for {@link J2clMinifier}. */
@@ -85,6 +90,60 @@ public class J2clMinifierTest extends TestCase {
     assertChange("this.m_foo__();", "this.foo_$1();");
   }
 
+  public void testCachesMinifiedContent() {
+    assertChange("this.m_foo__();", "this.foo_$1();");
+    assertChange("this.m_foo__();", "this.foo_$1();");
+    assertChange("this.m_bar__();", "this.bar_$1();");
+
+    assertEquals(1, minifier.getCacheStats().hitCount());
+    assertEquals(2, minifier.getCacheStats().missCount());
+  }
+
+  public void testMinifiesFilesInParallel() {
+    Map<String, String> contentByFilePath = new LinkedHashMap<>();
+    for (int i = 0; i < 100; i++) {
+      contentByFilePath.put(
+          "file" + i + ".js",
+          "this.m_foo" + i + "__(); this.m_foo" + (i + 1) + "__com_google_Bar();");
+    }
+
+    J2clMinifier sequentialMinifier = new J2clMinifier();
+    Map<String, String> expected = new LinkedHashMap<>();
+    contentByFilePath.forEach(
+        (path, content) -> expected.put(path, sequentialMinifier.minify(path, content)));
+
+    assertEquals(expected, minifier.minify(contentByFilePath));
+  }
+
+  public void testStreaming() throws IOException {
+    String content =
+        "goog.module('a.b');\n"
+        + "goog.require('a.c');\n"
+        + "/* comment */ let $x = goog.forwardDeclare('a.d');\n"
+        + "this.m_foo__(); this.f_bar__com_google_Bar  \n"
+        + "'m_foo__' + 1/'m_foo__'.length();\n";
+    String expected = new J2clMinifier().minify(content);
+
+    StringWriter output = new StringWriter();
+    minifier.minify(/* filePath= */ null, new StringReader(content), output);
+    assertEquals(expected, output.toString());
+
+    // Feed one character at a time to exercise the state kept across chunks.
+    StringReader reader = new StringReader(content);
+    Readable slowReader =
+        buffer -> {
+          int c = reader.read();
+          if (c == -1) {
+            return -1;
+          }
+          buffer.put((char) c);
+          return 1;
+        };
+    output = new StringWriter();
+    new J2clMinifier().minify(/* filePath= */ null, slowReader, output);
+    assertEquals(expected, output.toString());
+  }
+
   public void testFields() {
     assertChange("f_someInstanceField__com_google_j2cl_MyClass", "someInstanceField_$1");
     assertChange("$static_someStaticField__com_google_j2cl_MyClass", "someStaticField_$1");
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.tools.rta;
+
+import com.google.common.collect.ImmutableList;
+import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfo;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures the analysis of a synthetic application, from the library infos to the result. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class RapidTypeAnalyserBenchmark {
+
+  @Param({"100000", "1000000"})
+  public int memberCount;
+
+  @Param({"1", "4"})
+  public int parallelism;
+
+  private ImmutableList<LibraryInfo> libraryInfos;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    libraryInfos =
+        SyntheticLibraryInfo.generate(memberCount, /* libraryCount= */ 100, /* seed= */ 42);
+  }
+
+  @Benchmark
+  public void analyse(Blackhole blackhole) {
+    blackhole.consume(
+        RapidTypeAnalyser.analyse(
+            libraryInfos, /* keepJsTypeInterfaces= */ false, parallelism));
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.tools.rta;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.common.collect.ImmutableList;
+import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfo;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks the analysis on synthetic applications, which are large enough to be split in tasks.
+ *
+ * <p>The goldens of the {@code rta_test} targets check it on real applications.
+ */
+@RunWith(JUnit4.class)
+public final class RapidTypeAnalyserTest {
+  private static final int MEMBER_COUNT = 50_000;
+  private static final int LIBRARY_COUNT = 20;
+  private static final int SEEDS = 4;
+  private static final int REPETITIONS = 5;
+  // The recursive analysis needs a stack as deep as the longest reference chain.
+  private static final long RECURSIVE_ANALYSIS_STACK_SIZE = 1L << 30;
+
+  @Test
+  public void testWorklistAnalysisMatchesRecursiveAnalysis() throws Exception {
+    for (int memberCount : new int[] {2_000, 20_000}) {
+      for (long seed = 0; seed < SEEDS; seed++) {
+        ImmutableList<LibraryInfo> libraryInfos =
+            SyntheticLibraryInfo.generate(memberCount, LIBRARY_COUNT, seed);
+        for (boolean keepJsTypeInterfaces : new boolean[] {false, true}) {
+          assertWithMessage(
+                  "Member count %s, seed %s, keepJsTypeInterfaces %s",
+                  memberCount, seed, keepJsTypeInterfaces)
+              .that(RapidTypeAnalyser.analyse(libraryInfos, keepJsTypeInterfaces))
+              .isEqualTo(analyseRecursively(libraryInfos, keepJsTypeInterfaces));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testParallelAnalysisMatchesSequentialAnalysis() {
+    for (long seed = 0; seed < SEEDS; seed++) {
+      ImmutableList<LibraryInfo> libraryInfos =
+          SyntheticLibraryInfo.generate(MEMBER_COUNT, LIBRARY_COUNT, seed);
+      for (boolean keepJsTypeInterfaces : new boolean[] {false, true}) {
+        RtaResult expected =
+            RapidTypeAnalyser.analyse(libraryInfos, keepJsTypeInterfaces, /* parallelism= */ 1);
+        // Make sure that the application is neither entirely live nor entirely dead.
+        assertThat(expected.getUnusedTypes()).isNotEmpty();
+        assertThat(expected.getCodeRemovalInfo().getUnusedLinesCount()).isGreaterThan(0);
+
+        // Races show up nondeterministically, hence each parallelism is tried several times.
+        for (int parallelism : new int[] {2, 4, 8}) {
+          for (int i = 0; i < REPETITIONS; i++) {
+            assertWithMessage(
+                    "Seed %s, keepJsTypeInterfaces %s, parallelism %s, run %s",
+                    seed, keepJsTypeInterfaces, parallelism, i)
+                .that(RapidTypeAnalyser.analyse(libraryInfos, keepJsTypeInterfaces, parallelism))
+                .isEqualTo(expected);
+          }
+        }
+      }
+    }
+  }
+
+  private static RtaResult analyseRecursively(
+      ImmutableList<LibraryInfo> libraryInfos, boolean keepJsTypeInterfaces) throws Exception {
+    AtomicReference<RtaResult> result = new AtomicReference<>();
+    Runnable analysis =
+        () -> result.set(RecursiveRapidTypeAnalyser.analyse(libraryInfos, keepJsTypeInterfaces));
+    Thread thread = new Thread(null, analysis, "recursive-rta", RECURSIVE_ANALYSIS_STACK_SIZE);
+    thread.start();
+    thread.join();
+    assertWithMessage("The recursive analysis failed").that(result.get()).isNotNull();
+    return result.get();
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.tools.rta;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfo;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The analysis as it was implemented before it was driven by worklists, i.e. by mutually recursive
+ * calls, kept as a reference for the current implementation.
+ *
+ * <p>The recursion follows the depth of the call graph, so it needs a large enough stack.
+ */
+final class RecursiveRapidTypeAnalyser {
+
+  static RtaResult analyse(List<LibraryInfo> libraryInfos, boolean keepJsTypeInterfaces) {
+    Collection<Type> types =
+        TypeGraphBuilder.build(libraryInfos, MoreExecutors.newDirectExecutorService());
+    RecursiveRapidTypeAnalyser analyser = new RecursiveRapidTypeAnalyser();
+
+    if (keepJsTypeInterfaces) {
+      types.stream().filter(Type::isJsTypeInterface).forEach(analyser::markTypeLive);
+    }
+
+    // Go over the entry points to start the traversal.
+    types.stream()
+        .flatMap(t -> t.getMembers().stream())
+        .filter(Member::isJsAccessible)
+        .forEach(analyser::onMemberReference);
+
+    return RtaResult.build(types, analyser.liveTypes, analyser.liveMembers);
+  }
+
+  private final BitSet liveTypes = new BitSet();
+  private final BitSet instantiatedTypes = new BitSet();
+  private final BitSet liveMembers = new BitSet();
+  private final BitSet fullyTraversedMembers = new BitSet();
+  private final Map<Type, List<Member>> potentiallyLiveMembersByType = new HashMap<>();
+
+  private void onMemberReference(Member member) {
+    if (member.isPolymorphic()) {
+      traversePolymorphicReference(member.getDeclaringType(), member.getName());
+    } else {
+      markTypeLive(member.getDeclaringType());
+      markMemberLive(member.getDeclaringType().getMemberByName("$clinit"));
+      markMemberLive(member);
+    }
+  }
+
+  private void markMemberLive(Member member) {
+    if (liveMembers.get(member.getId())) {
+      return;
+    }
+
+    liveMembers.set(member.getId());
+
+    Type declaringType = member.getDeclaringType();
+    if (!instantiatedTypes.get(declaringType.getId()) && member.isConstructor()) {
+      instantiatedTypes.set(declaringType.getId());
+      potentiallyLiveMembersByType
+          .getOrDefault(declaringType, new ArrayList<>())
+          .forEach(this::markMemberLive);
+    }
+
+    member.getReferencedMembers().forEach(this::onMemberReference);
+    member.getReferencedTypes().forEach(this::markTypeLive);
+  }
+
+  private void traversePolymorphicReference(Type type, String memberName) {
+    Member member = type.getMemberByName(memberName);
+    if (member == null) {
+      // No member found in this class. In this case we need to mark the supertype method as
+      // potentially live since it might be an accidental override.
+      markOverriddenMembersPotentiallyLive(type, memberName);
+    } else if (member.isPolymorphic()) {
+      if (fullyTraversedMembers.get(member.getId())) {
+        return;
+      }
+      fullyTraversedMembers.set(member.getId());
+
+      markMemberPotentiallyLive(member);
+    }
+
+    // Recursively unfold the overriding chain.
+    type.getImmediateSubtypes()
+        .forEach(subtype -> traversePolymorphicReference(subtype, memberName));
+  }
+
+  private void markOverriddenMembersPotentiallyLive(Type type, String memberName) {
+    while ((type = type.getSuperClass()) != null) {
+      Member member = type.getMemberByName(memberName);
+      if (member != null && member.isPolymorphic()) {
+        markMemberPotentiallyLive(member);
+        return;
+      }
+    }
+  }
+
+  private void markMemberPotentiallyLive(Member member) {
+    Type declaringType = member.getDeclaringType();
+    if (instantiatedTypes.get(declaringType.getId())) {
+      markMemberLive(member);
+    } else {
+      // Type is not instantiated, defer making it live until the type is instantiated.
+      potentiallyLiveMembersByType
+          .computeIfAbsent(declaringType, t -> new ArrayList<>())
+          .add(member);
+    }
+  }
+
+  private void markTypeLive(Type type) {
+    if (liveTypes.get(type.getId())) {
+      return;
+    }
+
+    liveTypes.set(type.getId());
+
+    // When a type is marked as live, we need to explicitly mark the super interfaces as live since
+    // we need markImplementor call (which are not tracked in AST).
+    type.getSuperInterfaces().forEach(this::markTypeLive);
+
+    // Types are made live by `instanceof` and casts, so if the type has a custom $isInstance
+    // it should be also considered as if it was called.
+    Member isInstanceMember = type.getMemberByName("$isInstance");
+    if (isInstanceMember != null) {
+      onMemberReference(isInstanceMember);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.tools.rta;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.Iterables.getLast;
+
+import com.google.common.collect.ImmutableList;
+import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfo;
+import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfoBuilder;
+import com.google.j2cl.transpiler.backend.libraryinfo.MemberInfo;
+import com.google.j2cl.transpiler.backend.libraryinfo.MethodInvocation;
+import com.google.j2cl.transpiler.backend.libraryinfo.SourcePosition;
+import com.google.j2cl.transpiler.backend.libraryinfo.TypeInfo;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a random but reproducible application to measure the analysis on.
+ *
+ * <p>The types are split in libraries that reference each other. The application mixes class
+ * hierarchies, interfaces and accidental overrides, and contains a call chain that goes through
+ * every type, which makes the call graph as deep as it is large.
+ */
+final class SyntheticLibraryInfo {
+  private static final int MEMBERS_PER_TYPE = 10;
+  private static final int POLYMORPHIC_METHOD_NAMES = 200;
+
+  static ImmutableList<LibraryInfo> generate(int memberCount, int libraryCount, long seed) {
+    Random random = new Random(seed);
+    int typeCount = Math.max(1, memberCount / MEMBERS_PER_TYPE);
+
+    // Decide the shape of the types and the names of their members first, so that invocations
+    // can target any type.
+    boolean[] isInterface = new boolean[typeCount];
+    List<List<String>> memberNamesByType = new ArrayList<>();
+    for (int i = 0; i < typeCount; i++) {
+      isInterface[i] = i > 0 && random.nextInt(10) == 0;
+      List<String> memberNames = new ArrayList<>();
+      memberNames.add("$clinit");
+      memberNames.add("next");
+      if (!isInterface[i]) {
+        memberNames.add("constructor");
+      }
+      if (random.nextInt(4) == 0) {
+        memberNames.add("$isInstance");
+      }
+      while (memberNames.size() < MEMBERS_PER_TYPE) {
+        String name =
+            random.nextBoolean()
+                ? "m" + random.nextInt(POLYMORPHIC_METHOD_NAMES)
+                : "s" + memberNames.size();
+        if (!memberNames.contains(name)) {
+          memberNames.add(name);
+        }
+      }
+      memberNamesByType.add(memberNames);
+    }
+
+    // Split the types in libraries of consecutive types, each library with its own type ids.
+    List<LibraryInfo.Builder> libraryInfos = new ArrayList<>();
+    List<TypeIds> typeIdsByLibrary = new ArrayList<>();
+    for (int i = 0; i < libraryCount; i++) {
+      LibraryInfo.Builder libraryInfo = LibraryInfo.newBuilder().addTypeNames("<no-type>");
+      libraryInfos.add(libraryInfo);
+      typeIdsByLibrary.add(new TypeIds(libraryInfo));
+    }
+
+    for (int i = 0; i < typeCount; i++) {
+      TypeIds typeIds = typeIdsByLibrary.get((int) ((long) i * libraryCount / typeCount));
+      TypeInfo.Builder typeInfo =
+          TypeInfo.newBuilder()
+              .setTypeId(typeIds.get(i))
+              .setHeaderSourceFilePath("T" + i + ".java.js")
+              .setImplSourceFilePath("T" + i + ".impl.java.js")
+              .setJstypeInterface(isInterface[i] && random.nextInt(10) == 0);
+      if (i > 0 && !isInterface[i] && random.nextInt(10) < 7) {
+        int superClass = random.nextInt(i);
+        if (!isInterface[superClass]) {
+          typeInfo.setExtendsType(typeIds.get(superClass));
+        }
+      }
+      if (i > 0 && random.nextBoolean()) {
+        int superInterface = random.nextInt(i);
+        if (isInterface[superInterface]) {
+          typeInfo.addImplementsTypes(typeIds.get(superInterface));
+        }
+      }
+
+      List<String> memberNames = memberNamesByType.get(i);
+      for (int j = 0; j < memberNames.size(); j++) {
+        String name = memberNames.get(j);
+        MemberInfo.Builder memberInfo =
+            MemberInfo.newBuilder()
+                .setName(name)
+                .setStatic(name.startsWith("$") || name.startsWith("s") || name.equals("next"))
+                .setJsAccessible(random.nextInt(10_000) == 0)
+                .setPosition(SourcePosition.newBuilder().setStart(j * 10).setEnd(j * 10 + 10));
+        if (name.equals("next") && i + 1 < typeCount) {
+          // Call chain through all the types.
+          memberInfo.addInvokedMethods(invocation(typeIds.get(i + 1), "next"));
+        }
+        for (int k = random.nextInt(4); k > 0; k--) {
+          int target = random.nextInt(typeCount);
+          List<String> targetMemberNames = memberNamesByType.get(target);
+          memberInfo.addInvokedMethods(
+              invocation(
+                  typeIds.get(target),
+                  targetMemberNames.get(random.nextInt(targetMemberNames.size()))));
+        }
+        if (random.nextInt(4) == 0) {
+          memberInfo.addReferencedTypes(typeIds.get(random.nextInt(typeCount)));
+        }
+        typeInfo.addMembers(memberInfo);
+      }
+      typeIds.libraryInfo.addTypes(typeInfo);
+    }
+
+    // Make sure that the call chain is reachable from a main type.
+    TypeIds typeIds = getLast(typeIdsByLibrary);
+    typeIds.libraryInfo.addTypes(
+        TypeInfo.newBuilder()
+            .setTypeId(typeIds.get(typeCount))
+            .setHeaderSourceFilePath("Main.java.js")
+            .setImplSourceFilePath("Main.impl.java.js")
+            .addMembers(MemberInfo.newBuilder().setName("$clinit").setStatic(true))
+            .addMembers(
+                MemberInfo.newBuilder()
+                    .setName("main")
+                    .setStatic(true)
+                    .setJsAccessible(true)
+                    .addInvokedMethods(invocation(typeIds.get(0), "next"))));
+
+    return libraryInfos.stream().map(LibraryInfo.Builder::build).collect(toImmutableList());
+  }
+
+  private static MethodInvocation invocation(int typeId, String methodName) {
+    return MethodInvocation.newBuilder().setEnclosingType(typeId).setMethod(methodName).build();
+  }
+
+  /** Assigns the ids of types in the type name table of a library as they are referenced. */
+  private static final class TypeIds {
+    private final LibraryInfo.Builder libraryInfo;
+    private final Map<Integer, Integer> idsByTypeIndex = new HashMap<>();
+
+    TypeIds(LibraryInfo.Builder libraryInfo) {
+      this.libraryInfo = libraryInfo;
+    }
+
+    int get(int typeIndex) {
+      return idsByTypeIndex.computeIfAbsent(
+          typeIndex,
+          i -> {
+            libraryInfo.addTypeNames("T" + i);
+            // Type ids start from 1 since 0 is reserved for the absence of type.
+            return LibraryInfoBuilder.NULL_TYPE + idsByTypeIndex.size() + 1;
+          });
+    }
+  }
+
+  private SyntheticLibraryInfo() {}
+}
@@ -10,7 +10,8 @@ def rta_test(
     """Test macro used for testing j2cl_rta.
 
     The macro defines the j2cl_rta rule and then create a java_test for comparing the result of the
-    RTA algorithm with the golden files passed as parameters.
+    RTA algorithm with the golden files passed as parameters. The same is done with the analysis
+    running on several threads, in the test named "<name>_parallel".
 
     Args:
         name: name of the test
@@ -21,27 +22,29 @@ def rta_test(
     if not unused_types_golden_file:
         fail("missing golden file for unused types")
 
-    rta_rule_name = "%s_rta" % name
-
-    j2cl_rta(
-        name = rta_rule_name,
-        targets = targets,
-        legacy_keep_jstype_interfaces_do_not_use = keep_jstype_interfaces,
-        generate_unused_methods_for_testing_do_not_use = True,
-    )
-
-    native.java_test(
-        name = name,
-        test_class = "com.google.j2cl.tools.rta.GoldenFileTester",
-        runtime_deps = [
-            "//tools/javatests/com/google/j2cl/tools/rta:golden_file_tester_lib",
-        ],
-        data = [
-            ":%s_unused_types.list" % rta_rule_name,
-            unused_types_golden_file,
-        ],
-        jvm_flags = [
-            "-Dunused_types_rta=$(location :%s_unused_types.list)" % rta_rule_name,
-            "-Dunused_types_golden_file=$(location %s)" % unused_types_golden_file,
-        ],
-    )
+    for test_name, parallelism in [(name, 1), (name + "_parallel", 4)]:
+        rta_rule_name = "%s_rta" % test_name
+
+        j2cl_rta(
+            name = rta_rule_name,
+            targets = targets,
+            legacy_keep_jstype_interfaces_do_not_use = keep_jstype_interfaces,
+            generate_unused_methods_for_testing_do_not_use = True,
+            parallelism_for_testing_do_not_use = parallelism,
+        )
+
+        native.java_test(
+            name = test_name,
+            test_class = "com.google.j2cl.tools.rta.GoldenFileTester",
+            runtime_deps = [
+                "//tools/javatests/com/google/j2cl/tools/rta:golden_file_tester_lib",
+            ],
+            data = [
+                ":%s_unused_types.list" % rta_rule_name,
+                unused_types_golden_file,
+            ],
+            jvm_flags = [
+                "-Dunused_types_rta=$(location :%s_unused_types.list)" % rta_rule_name,
+                "-Dunused_types_golden_file=$(location %s)" % unused_types_golden_file,
+            ],
+        )
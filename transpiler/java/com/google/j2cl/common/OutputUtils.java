@@ -15,44 +15,81 @@
  */
 package com.google.j2cl.common;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.j2cl.common.Problems.FatalError;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 import javax.annotation.Nullable;
 
 /** Utilities for tools to process output. */
 public class OutputUtils {
 
-  /** Abstract output of a command. */
-  public static class Output implements AutoCloseable {
-    private final ExecutorService fileService = Executors.newSingleThreadExecutor();
-    private final Problems problems;
-    private final Path root;
+  /**
+   * Maximum size, in bytes (chars for string contents), of the contents waiting to be written.
+   *
+   * <p>Writes block once this limit is reached, so that the producer cannot get arbitrarily ahead
+   * of the disk.
+   */
+  private static final int MAX_PENDING_BYTES =
+      Integer.getInteger("j2cl.output.maxPendingBytes", 64 * 1024 * 1024);
+
+  /** Number of threads that write files concurrently into directory outputs. */
+  private static final int DIRECTORY_OUTPUT_PARALLELISM =
+      Integer.getInteger("j2cl.output.parallelism", 1);
+
+  /**
+   * Abstract output of a command.
+   *
+   * <p>When a path is written more than once, the last write wins.
+   */
+  public abstract static class Output implements AutoCloseable {
+    /**
+     * The threads that write the files; all the writes to a path go to the same thread, so that
+     * they happen in the order in which they were requested.
+     */
+    private final ImmutableList<ExecutorService> fileServices;
 
-    private Output(Problems problems, Path root) {
+    private final Semaphore pendingBytes = new Semaphore(MAX_PENDING_BYTES);
+    final Problems problems;
+
+    private Output(Problems problems, int parallelism) {
       this.problems = problems;
-      this.root = root;
+      this.fileServices =
+          Stream.generate(Executors::newSingleThreadExecutor)
+              .limit(parallelism)
+              .collect(toImmutableList());
     }
 
     public void write(String path, byte[] content) {
-      Path outputPath = root.resolve(path);
-      fileService.execute(() -> OutputUtils.writeToFile(outputPath, content, problems));
+      schedule(path, content.length, () -> writeContent(path, content));
     }
 
     public void write(String path, String content) {
@@ -60,21 +97,46 @@ public class OutputUtils {
     }
 
     public void write(String path, ImmutableList<String> contentChunks) {
-      Path outputPath = root.resolve(path);
-      fileService.execute(() -> OutputUtils.writeToFile(outputPath, contentChunks, problems));
+      long size = contentChunks.stream().mapToLong(String::length).sum();
+      schedule(path, size, () -> writeContent(path, contentChunks));
     }
 
     public void copyFile(String fromAbsolute, String to) {
       Path fromPath = Paths.get(fromAbsolute);
-      Path toPath = root.resolve(to);
-      fileService.execute(() -> OutputUtils.copyFile(fromPath, toPath, problems));
+      schedule(to, 0, () -> copyContent(fromPath, to));
     }
 
+    /**
+     * Schedules {@code task}, which writes {@code path}, to be run by a file service, waiting for
+     * pending writes to complete if they are holding too much content.
+     */
+    private void schedule(String path, long size, Runnable task) {
+      // Contents larger than the limit are allowed through alone.
+      int permits = (int) Math.min(size, MAX_PENDING_BYTES);
+      pendingBytes.acquireUninterruptibly(permits);
+      fileServices.get(Math.floorMod(path.hashCode(), fileServices.size())).execute(
+          () -> {
+            try {
+              task.run();
+            } finally {
+              pendingBytes.release(permits);
+            }
+          });
+    }
+
+    abstract void writeContent(String path, byte[] content);
+
+    abstract void writeContent(String path, ImmutableList<String> contentChunks);
+
+    abstract void copyContent(Path from, String to);
+
     @Override
     public void close() {
       try {
-        fileService.shutdown();
-        fileService.awaitTermination(Long.MAX_VALUE, SECONDS);
+        fileServices.forEach(ExecutorService::shutdown);
+        for (ExecutorService fileService : fileServices) {
+          fileService.awaitTermination(Long.MAX_VALUE, SECONDS);
+        }
       } catch (InterruptedException ie) {
         // Preserve interrupt status
         Thread.currentThread().interrupt();
@@ -89,42 +151,212 @@ public class OutputUtils {
   }
 
   private static Output getDirOutput(Path output, Problems problems) {
+    return getDirOutput(output, problems, DIRECTORY_OUTPUT_PARALLELISM);
+  }
+
+  @VisibleForTesting
+  static Output getDirOutput(Path output, Problems problems, int parallelism) {
     if (Files.isRegularFile(output)) {
       problems.fatal(FatalError.OUTPUT_LOCATION, output);
     }
 
-    return new Output(problems, output);
+    return new DirectoryOutput(problems, output, parallelism);
+  }
+
+  /** Output that writes files in a directory, possibly using multiple threads. */
+  private static class DirectoryOutput extends Output {
+    private final Path root;
+
+    private DirectoryOutput(Problems problems, Path root, int parallelism) {
+      super(problems, parallelism);
+      this.root = root;
+    }
+
+    @Override
+    void writeContent(String path, byte[] content) {
+      OutputUtils.writeToFile(root.resolve(path), content, problems);
+    }
+
+    @Override
+    void writeContent(String path, ImmutableList<String> contentChunks) {
+      OutputUtils.writeToFile(root.resolve(path), contentChunks, problems);
+    }
+
+    @Override
+    void copyContent(Path from, String to) {
+      OutputUtils.copyFile(from, root.resolve(to), problems);
+    }
   }
 
   private static Output getZipOutput(Path output, Problems problems) {
-    FileSystem newFileSystem = initZipOutput(output, problems);
+    return new ZipOutput(problems, output, initZipOutput(output, problems));
+  }
+
+  /**
+   * Output that streams entries into a zip file.
+   *
+   * <p>Entries are written by a single thread in the order in which they were requested, which
+   * together with {@code j2cl.deterministicTimestamps} makes the zip contents reproducible.
+   *
+   * <p>As in directory outputs the last write to a path wins. Since entries cannot be replaced in a
+   * zip stream, the contents written again to a path are kept aside and replace the contents of the
+   * entry, which keeps its position, when the output is closed.
+   */
+  private static class ZipOutput extends Output {
+    /** Writes the content of an entry. */
+    private interface ContentWriter {
+      void writeTo(OutputStream outputStream) throws IOException;
+    }
+
+    private final Path output;
+    private final ZipOutputStream zipOutputStream;
+    private final Set<String> entryNames = new HashSet<>();
+    /** The files holding the last contents of the entries that were written more than once. */
+    private final Map<String, Path> replacementByEntryName = new HashMap<>();
+
+    private ZipOutput(Problems problems, Path output, ZipOutputStream zipOutputStream) {
+      super(problems, 1);
+      this.output = output;
+      this.zipOutputStream = zipOutputStream;
+    }
+
+    @Override
+    void writeContent(String path, byte[] content) {
+      try {
+        writeEntry(path, outputStream -> outputStream.write(content));
+      } catch (IOException e) {
+        problems.fatal(FatalError.CANNOT_WRITE_FILE, e.toString());
+      }
+    }
+
+    @Override
+    void writeContent(String path, ImmutableList<String> contentChunks) {
+      try {
+        writeEntry(
+            path,
+            outputStream -> {
+              // Not closed since that would close the underlying stream.
+              Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8));
+              for (String chunk : contentChunks) {
+                writer.append(chunk);
+              }
+              writer.flush();
+            });
+      } catch (IOException e) {
+        problems.fatal(FatalError.CANNOT_WRITE_FILE, e.toString());
+      }
+    }
+
+    @Override
+    void copyContent(Path from, String to) {
+      try {
+        writeEntry(to, outputStream -> Files.copy(from, outputStream));
+      } catch (IOException e) {
+        problems.fatal(FatalError.CANNOT_COPY_FILE, e.toString());
+      }
+    }
+
+    /** Writes an entry, preceded by the entries for its directories if not yet written. */
+    private void writeEntry(String path, ContentWriter contentWriter) throws IOException {
+      String entryName = Paths.get("/").resolve(path).normalize().toString().substring(1);
+      if (entryNames.contains(entryName)) {
+        Path replacement = replacementByEntryName.get(entryName);
+        if (replacement == null) {
+          replacement = Files.createTempFile("j2cl-output", null);
+          replacementByEntryName.put(entryName, replacement);
+        }
+        try (OutputStream outputStream = Files.newOutputStream(replacement)) {
+          contentWriter.writeTo(outputStream);
+        }
+        return;
+      }
+
+      int separatorIndex = entryName.indexOf('/');
+      while (separatorIndex != -1) {
+        String directoryName = entryName.substring(0, separatorIndex + 1);
+        if (entryNames.add(directoryName)) {
+          zipOutputStream.putNextEntry(newZipEntry(directoryName));
+          zipOutputStream.closeEntry();
+        }
+        separatorIndex = entryName.indexOf('/', separatorIndex + 1);
+      }
+      entryNames.add(entryName);
+      zipOutputStream.putNextEntry(newZipEntry(entryName));
+      contentWriter.writeTo(zipOutputStream);
+      zipOutputStream.closeEntry();
+    }
 
-    return new Output(problems, newFileSystem.getPath("/")) {
+    private static ZipEntry newZipEntry(String name) {
+      ZipEntry entry = new ZipEntry(name);
+      if (DETERMINISTIC_TIMESTAMPS) {
+        // Wipe entries modification time so that input->output mapping is stable
+        // regardless of the time of day.
+        entry.setLastModifiedTime(FileTime.fromMillis(0));
+      }
+      return entry;
+    }
+
+    @Override
+    public void close() {
+      super.close();
+      try {
+        zipOutputStream.close();
+        if (!replacementByEntryName.isEmpty()) {
+          replaceEntries();
+        }
+      } catch (IOException e) {
+        problems.fatal(FatalError.CANNOT_CLOSE_ZIP, e.getMessage());
+      } finally {
+        for (Path replacement : replacementByEntryName.values()) {
+          try {
+            Files.deleteIfExists(replacement);
+          } catch (IOException e) {
+            // Only a temporary file is left behind.
+          }
+        }
+      }
+    }
 
-      @Override
-      public void close() {
-        super.close();
-        try {
-          newFileSystem.close();
-        } catch (IOException e) {
-          problems.fatal(FatalError.CANNOT_CLOSE_ZIP, e.getMessage());
+    /** Rewrites the zip with the contents of the entries that were written more than once. */
+    private void replaceEntries() throws IOException {
+      Path rewrittenOutput =
+          Files.createTempFile(
+              output.toAbsolutePath().getParent(), output.getFileName().toString(), null);
+      try (ZipInputStream zipInputStream =
+              new ZipInputStream(new BufferedInputStream(Files.newInputStream(output)));
+          ZipOutputStream rewrittenZipOutputStream =
+              new ZipOutputStream(
+                  new BufferedOutputStream(Files.newOutputStream(rewrittenOutput)))) {
+        for (ZipEntry entry = zipInputStream.getNextEntry();
+            entry != null;
+            entry = zipInputStream.getNextEntry()) {
+          ZipEntry rewrittenEntry = newZipEntry(entry.getName());
+          if (!DETERMINISTIC_TIMESTAMPS) {
+            rewrittenEntry.setTime(entry.getTime());
+          }
+          rewrittenZipOutputStream.putNextEntry(rewrittenEntry);
+          Path replacement = replacementByEntryName.get(entry.getName());
+          if (replacement != null) {
+            Files.copy(replacement, rewrittenZipOutputStream);
+          } else {
+            zipInputStream.transferTo(rewrittenZipOutputStream);
+          }
+          rewrittenZipOutputStream.closeEntry();
         }
       }
-    };
+      Files.move(rewrittenOutput, output, StandardCopyOption.REPLACE_EXISTING);
+    }
   }
 
   @Nullable
-  private static FileSystem initZipOutput(Path output, Problems problems) {
+  private static ZipOutputStream initZipOutput(Path output, Problems problems) {
     if (Files.isDirectory(output)) {
       problems.fatal(FatalError.OUTPUT_LOCATION, output);
     }
 
-    // Ensures that we will not fail if the zip already exists.
-    output.toFile().delete();
-
     try {
-      return FileSystems.newFileSystem(
-          URI.create("jar:" + output.toAbsolutePath().toUri()), ImmutableMap.of("create", "true"));
+      // Truncates the zip if it already exists.
+      return new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(output)));
     } catch (IOException e) {
       problems.fatal(FatalError.CANNOT_CREATE_ZIP, output, e.getMessage());
       return null;
@@ -185,7 +417,12 @@ public class OutputUtils {
       return;
     }
     createDirectories(outputPath.getParent());
-    Files.createDirectory(outputPath);
+    try {
+      Files.createDirectory(outputPath);
+    } catch (FileAlreadyExistsException e) {
+      // Created by another thread writing into the same directory.
+      return;
+    }
     maybeResetAllTimeStamps(outputPath);
   }
 
@@ -176,6 +176,11 @@ public class Problems {
     problemsBySeverity.put(severity, message);
   }
 
+  /** Records all the problems reported in {@code other}, preserving their order. */
+  public void merge(Problems other) {
+    problemsBySeverity.putAll(other.problemsBySeverity);
+  }
+
   @FormatMethod
   public void info(String detailMessage, Object... args) {
     problem(Severity.INFO, String.format(detailMessage, args));
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.common;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * A thread local that holds per compilation state which can be shared with helper threads.
+ *
+ * <p>The compiler has no static state, but rather uses thread local variables and runs each
+ * compilation in its own thread. Values held by instances of this class are captured from the
+ * thread that drives the compilation and installed in the threads created by {@link
+ * #newThreadFactory()}, so that work for the same compilation can be split across threads.
+ *
+ * <p>Values stored here are seen concurrently by all the threads of a compilation, hence they need
+ * to be immutable or thread safe.
+ */
+public class SharedThreadLocal<T> extends ThreadLocal<T> {
+
+  private static final Set<SharedThreadLocal<?>> instances = ConcurrentHashMap.newKeySet();
+
+  @Nullable private final Supplier<? extends T> initialValueSupplier;
+
+  public SharedThreadLocal() {
+    this(null);
+  }
+
+  public SharedThreadLocal(@Nullable Supplier<? extends T> initialValueSupplier) {
+    this.initialValueSupplier = initialValueSupplier;
+    instances.add(this);
+  }
+
+  @Override
+  protected T initialValue() {
+    return initialValueSupplier == null ? null : initialValueSupplier.get();
+  }
+
+  /**
+   * Returns a thread factory whose threads see the values that the shared thread locals have in the
+   * calling thread at the time of this call.
+   */
+  public static ThreadFactory newThreadFactory() {
+    Map<SharedThreadLocal<?>, Object> valueByThreadLocal = new IdentityHashMap<>();
+    for (SharedThreadLocal<?> threadLocal : instances) {
+      Object value = threadLocal.get();
+      if (value != null) {
+        valueByThreadLocal.put(threadLocal, value);
+      }
+    }
+
+    ThreadFactory defaultThreadFactory = Executors.defaultThreadFactory();
+    return runnable ->
+        defaultThreadFactory.newThread(
+            () -> {
+              valueByThreadLocal.forEach(SharedThreadLocal::install);
+              runnable.run();
+            });
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> void install(SharedThreadLocal<T> threadLocal, Object value) {
+    threadLocal.set((T) value);
+  }
+}
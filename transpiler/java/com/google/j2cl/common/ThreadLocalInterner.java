@@ -17,16 +17,29 @@ package com.google.j2cl.common;
 
 import com.google.common.collect.Interner;
 import com.google.common.collect.Interners;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-/** An interner that provides per thread isolation. */
+/**
+ * An interner that provides per thread isolation.
+ *
+ * <p>Threads that share the state of a compilation (see {@link SharedThreadLocal}) also share the
+ * interners, so that canonical instances are the same across all the threads of a compilation.
+ */
 // TODO(rlubble): This class should extend com.google.common.collect.Interner<T> but that class
 // is marked @GwtIncompatible.
 public class ThreadLocalInterner<T> {
-  private final ThreadLocal<Interner<T>> interner =
-      ThreadLocal.withInitial(Interners::newStrongInterner);
+  private static final SharedThreadLocal<Map<ThreadLocalInterner<?>, Interner<?>>>
+      internerByThreadLocalInterner = new SharedThreadLocal<>(ConcurrentHashMap::new);
 
+  @SuppressWarnings("unchecked")
   public T intern(T t) {
-    return interner.get().intern(t);
+    Interner<T> interner =
+        (Interner<T>)
+            internerByThreadLocalInterner
+                .get()
+                .computeIfAbsent(this, k -> Interners.newStrongInterner());
+    return interner.intern(t);
   }
 
 }
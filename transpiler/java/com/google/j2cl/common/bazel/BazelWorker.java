@@ -27,8 +27,12 @@ import com.google.j2cl.common.Problems;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.function.Supplier;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -37,6 +41,10 @@ import org.kohsuke.args4j.CmdLineParser;
  * A base class for running processes as blaze workers. Used for both the transpiler
  * and @GwtIncompatible stripper tool.
  *
+ * <p>Persistent workers support both the singleplex and the multiplex protocols. Multiplex requests
+ * are processed concurrently, each in its own thread, since tools keep per request state in thread
+ * locals. At most {@code j2cl.worker.maxconcurrentrequests} requests are processed at a time.
+ *
  * <p>Partially adapted from {@code com.google.devtools.build.buildjar.BazelJavaBuilder}.
  */
 public abstract class BazelWorker {
@@ -47,7 +55,7 @@ public abstract class BazelWorker {
    * Process the request described by the arguments. Note that you must output errors and warnings
    * via {@link Problems} to avoid interrupting the worker protocol which occurs over stdout.
    */
-  private int processRequest(List<String> args) {
+  private int processRequest(List<String> args, PrintStream output) {
     CmdLineParser parser = new CmdLineParser(this);
     Problems problems = new Problems();
 
@@ -55,7 +63,7 @@ public abstract class BazelWorker {
       parser.parseArgument(args);
     } catch (CmdLineException e) {
       problems.error("%s", e.getMessage());
-      return problems.reportAndGetExitCode(System.err);
+      return problems.reportAndGetExitCode(output);
     }
 
     try {
@@ -64,10 +72,10 @@ public abstract class BazelWorker {
       // Program aborted due to errors recorded in problems.
     } catch (Throwable e) {
       // Program crash.
-      e.printStackTrace(System.err);
+      e.printStackTrace(output);
       return 1;
     }
-    return problems.reportAndGetExitCode(System.err);
+    return problems.reportAndGetExitCode(output);
   }
 
   public static final void start(String[] args, Supplier<BazelWorker> workerSupplier)
@@ -82,19 +90,78 @@ public abstract class BazelWorker {
   @SuppressWarnings("SystemExitOutsideMain")
   private static void runStandaloneWorker(Supplier<BazelWorker> workerSupplier, List<String> args) {
     // This is a single invocation of builder that exits after it processed the request.
-    int exitCode = workerSupplier.get().processRequest(args);
+    int exitCode = workerSupplier.get().processRequest(args, System.err);
     System.exit(exitCode);
   }
 
+  /**
+   * Maximum number of multiplex requests that are processed concurrently; further requests wait
+   * for one of them to finish.
+   */
+  private static final int MAX_CONCURRENT_REQUESTS =
+      Integer.getInteger(
+          "j2cl.worker.maxconcurrentrequests", Runtime.getRuntime().availableProcessors());
+
+  /**
+   * The output of the request being processed by the current thread. It is inherited by the threads
+   * spawned while processing the request so that their output is attributed to it.
+   */
+  private static final InheritableThreadLocal<PrintStream> requestOutput =
+      new InheritableThreadLocal<>();
+
+  /** The outputs of the requests that are being processed. */
+  private static final Set<PrintStream> activeRequestOutputs = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Where output that cannot be attributed to a request goes, i.e. the standard error of the worker
+   * process, which Bazel keeps in the worker log.
+   */
+  private static PrintStream workerLog = System.err;
+
+  /**
+   * Returns the output for text written by the current thread.
+   *
+   * <p>Threads that are not spawned by a request, like the ones in the common fork join pool, do not
+   * inherit its output. Their output is attributed to the request being processed if there is only
+   * one, and otherwise written to the worker log rather than dropped.
+   */
+  private static PrintStream getCurrentOutput() {
+    PrintStream output = requestOutput.get();
+    if (output != null) {
+      return output;
+    }
+    if (activeRequestOutputs.size() == 1) {
+      output = Iterables.getFirst(activeRequestOutputs, null);
+    }
+    return output != null ? output : workerLog;
+  }
+
+  /** Captures output written to the standard streams into the output of the current request. */
+  private static final OutputStream requestOutputRouter =
+      new OutputStream() {
+        @Override
+        public void write(int b) {
+          getCurrentOutput().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+          getCurrentOutput().write(b, off, len);
+        }
+      };
+
   private static void runPersistentWorker(Supplier<BazelWorker> workerSupplier) throws IOException {
     PrintStream realStdOut = System.out;
+    workerLog = System.err;
 
     // Ensure we capture stdout/sterr for potential debug/error messages.
-    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-    PrintStream ps = new PrintStream(buffer, true);
+    PrintStream ps = new PrintStream(requestOutputRouter, true);
     System.setOut(ps);
     System.setErr(ps);
 
+    // Each multiplex request gets a fresh thread, since tools keep per request state in thread
+    // locals, but only a bounded number of them run at the same time.
+    Semaphore concurrentRequests = new Semaphore(MAX_CONCURRENT_REQUESTS);
     while (true) {
       WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
 
@@ -102,14 +169,61 @@ public abstract class BazelWorker {
         break;
       }
 
-      int exitCode = workerSupplier.get().processRequest(request.getArgumentsList());
-      WorkResponse.newBuilder()
-          .setOutput(buffer.toString())
-          .setExitCode(exitCode)
-          .build()
-          .writeDelimitedTo(realStdOut);
-      realStdOut.flush();
-      buffer.reset();
+      if (request.getRequestId() == 0) {
+        // Singleplex requests are processed one at a time, in order.
+        processPersistentRequest(workerSupplier, request, realStdOut);
+      } else {
+        concurrentRequests.acquireUninterruptibly();
+        new Thread(
+                () -> {
+                  try {
+                    processPersistentRequest(workerSupplier, request, realStdOut);
+                  } finally {
+                    concurrentRequests.release();
+                  }
+                })
+            .start();
+      }
+    }
+  }
+
+  private static void processPersistentRequest(
+      Supplier<BazelWorker> workerSupplier, WorkRequest request, PrintStream realStdOut) {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    PrintStream output = new PrintStream(buffer, true);
+    requestOutput.set(output);
+    activeRequestOutputs.add(output);
+    int exitCode = 1;
+    try {
+      exitCode = workerSupplier.get().processRequest(request.getArgumentsList(), output);
+    } catch (Throwable e) {
+      // Bazel waits for a response to every request, make sure it gets one.
+      e.printStackTrace(output);
+    } finally {
+      activeRequestOutputs.remove(output);
+      requestOutput.remove();
+      sendResponse(
+          WorkResponse.newBuilder()
+              .setOutput(buffer.toString())
+              .setExitCode(exitCode)
+              .setRequestId(request.getRequestId())
+              .build(),
+          realStdOut);
+    }
+  }
+
+  @SuppressWarnings("SystemExitOutsideMain")
+  private static void sendResponse(WorkResponse response, PrintStream realStdOut) {
+    // Responses to concurrent requests must not interleave.
+    synchronized (realStdOut) {
+      try {
+        response.writeDelimitedTo(realStdOut);
+        realStdOut.flush();
+      } catch (IOException e) {
+        // Bazel would wait forever for the response, exit so that it notices the worker is gone.
+        e.printStackTrace(workerLog);
+        System.exit(1);
+      }
     }
   }
 
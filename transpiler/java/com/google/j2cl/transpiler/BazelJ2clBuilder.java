@@ -131,6 +131,62 @@ final class BazelJ2clBuilder extends BazelWorker {
   @Option(name = "-experimentalWasmEnableNonNativeJsEnum", hidden = true)
   boolean wasmEnableNonNativeJsEnum = false;
 
+  @Option(
+      name = "-experimentalWasmEmitBinary",
+      usage = "Emits the Wasm module in binary form instead of in text form.",
+      hidden = true)
+  boolean wasmEmitBinary = false;
+
+  @Option(
+      name = "-experimentalWasmClosedWorld",
+      usage =
+          "Optimizes the Wasm module assuming that it contains the whole program, e.g. by"
+              + " devirtualizing calls.",
+      hidden = true)
+  boolean wasmClosedWorld = false;
+
+  @Option(
+      name = "-experimentalPassParallelism",
+      usage = "Number of threads used to run the per compilation unit normalization passes.",
+      hidden = true)
+  int passParallelism = 1;
+
+  @Option(
+      name = "-experimentalFusePasses",
+      usage =
+          "Applies consecutive per compilation unit passes to a compilation unit before moving on"
+              + " to the next one.",
+      hidden = true)
+  boolean fusePasses = false;
+
+  @Option(
+      name = "-experimentalRenderingParallelism",
+      usage = "Number of threads used to render the outputs.",
+      hidden = true)
+  int renderingParallelism = 1;
+
+  @Option(
+      name = "-experimentalProfileOutput",
+      metaVar = "<path>",
+      usage = "Specifies the file into which to write the time and memory spent per pass.",
+      hidden = true)
+  Path profileOutput;
+
+  @Option(
+      name = "-experimentalReportProfile",
+      usage = "Reports the time and memory spent per pass.",
+      hidden = true)
+  boolean reportProfile = false;
+
+  @Option(
+      name = "-experimentalIncrementalCacheDir",
+      metaVar = "<path>",
+      usage =
+          "Specifies a directory where outputs are cached to be reused for unchanged compilation"
+              + " units. Only supported by the CLOSURE backend.",
+      hidden = true)
+  Path incrementalCacheDir;
+
   @Override
   protected void run(Problems problems) {
     try (Output out = OutputUtils.initOutput(this.output, problems)) {
@@ -202,9 +258,17 @@ final class BazelJ2clBuilder extends BazelWorker {
         .setDefinesForWasm(ImmutableMap.copyOf(definesForWasm))
         .setWasmRemoveAssertStatement(wasmRemoveAssertStatement)
         .setWasmEnableNonNativeJsEnum(wasmEnableNonNativeJsEnum)
+        .setWasmEmitBinary(wasmEmitBinary)
+        .setWasmClosedWorld(wasmClosedWorld)
         .setNullMarkedSupported(this.enableJSpecifySupport)
         .setKotlincOptions(ImmutableList.copyOf(kotlincOptions))
         .setForbiddenAnnotations(ImmutableList.copyOf(forbiddenAnnotations))
+        .setPassParallelism(passParallelism)
+        .setFusePasses(fusePasses)
+        .setRenderingParallelism(renderingParallelism)
+        .setProfileOutput(profileOutput)
+        .setReportProfile(reportProfile)
+        .setIncrementalCacheDirectory(incrementalCacheDir)
         .build(problems);
   }
 
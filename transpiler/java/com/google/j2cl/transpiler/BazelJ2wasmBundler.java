@@ -17,16 +17,21 @@ package com.google.j2cl.transpiler;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.ImmutableList.toImmutableList;
-import static com.google.common.collect.ImmutableMap.toImmutableMap;
-import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Streams;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
+import com.google.common.io.MoreFiles;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.Problems.FatalError;
 import com.google.j2cl.common.SourcePosition;
@@ -54,20 +59,34 @@ import com.google.j2cl.transpiler.backend.wasm.WasmGeneratorStage;
 import com.google.j2cl.transpiler.frontend.jdt.JdtEnvironment;
 import com.google.j2cl.transpiler.frontend.jdt.JdtParser;
 import com.google.j2cl.transpiler.passes.RewriteReferenceEqualityOperations;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
@@ -79,9 +98,6 @@ final class BazelJ2wasmBundler extends BazelWorker {
   private static final int CACHE_SIZE =
       Integer.parseInt(System.getProperty("j2cl.bundler.cachesize", "5000"));
 
-  private static final FileCache<String> moduleContentsCache =
-      new FileCache<>(BazelJ2wasmBundler::readModule, CACHE_SIZE);
-
   private static final FileCache<Summary> summaryCache =
       new FileCache<>(BazelJ2wasmBundler::readSummary, CACHE_SIZE);
 
@@ -118,72 +134,304 @@ final class BazelJ2wasmBundler extends BazelWorker {
   }
 
   private void createBundle(Problems problems) {
-    emitModuleFile(problems);
-    emitJsImportsFile(problems);
+    // Read all the summaries in a single pass, they are only accessed through the index afterwards.
+    var summaryIndex = new SummaryIndex(getSummaries());
+    emitModuleFile(summaryIndex, problems);
+    emitJsImportsFile(summaryIndex, problems);
   }
 
-  private void emitModuleFile(Problems problems) {
-    var typeGraph = new TypeGraph(getSummaries());
-
-    // Create an environment to initialize the well known type descriptors to be able to synthesize
-    // code.
-    // TODO(b/294284380): consider removing JDT and manually synthesizing required types.
-    var classPathEntries = Splitter.on(File.pathSeparatorChar).splitToList(this.classPath);
-    new JdtEnvironment(
-        new JdtParser(classPathEntries, problems), TypeDescriptors.getWellKnownTypeNames());
+  private void emitModuleFile(SummaryIndex summaryIndex, Problems problems) {
+    var typeGraph = summaryIndex.typeGraph;
+
+    SynthesizedCode synthesizedCode =
+        runWithWellKnownTypes(() -> synthesizeCode(summaryIndex, problems), problems);
+
+    // The modular outputs are by far the largest part of the module, they are copied into the
+    // output as they are instead of being read into strings.
+    try (var moduleWriter = new ModuleWriter(output)) {
+      moduleWriter.append("(module (rec");
+      moduleWriter.appendModuleParts("types");
+      summaryIndex.typeSnippets.values().forEach(moduleWriter::append);
+      moduleWriter.append(typeGraph.getTopLevelItableStructDeclaration());
+      typeGraph.getClasses().stream()
+          .map(TypeGraph.Type::getItableStructDeclaration)
+          .forEach(moduleWriter::append);
+      moduleWriter.append(")");
+      moduleWriter.appendModuleParts("data");
+      moduleWriter.append(synthesizedCode.literalData);
+      moduleWriter.appendModuleParts("globals");
+      summaryIndex.globalSnippets.values().forEach(moduleWriter::append);
+      moduleWriter.append(typeGraph.getEmptyItableStructDeclaration());
+      typeGraph.getClasses().stream()
+          .map(TypeGraph.Type::getItableInitialization)
+          .forEach(moduleWriter::append);
+      moduleWriter.append(synthesizedCode.literalGlobals);
+      summaryIndex.wasmImportSnippets.values().forEach(moduleWriter::append);
+      moduleWriter.append(synthesizedCode.exceptionTag);
+      moduleWriter.appendModuleParts("functions");
+      synthesizedCode.literalGetterMethods.forEach(moduleWriter::append);
+      moduleWriter.append(")");
+    } catch (IOException | UncheckedIOException e) {
+      problems.fatal(FatalError.CANNOT_WRITE_FILE, e.toString());
+    }
+  }
 
-    var referencedPropertyKeys =
-        getSummaries().flatMap(s -> s.getPropertyKeysList().stream()).collect(toImmutableSet());
+  /** The code synthesized at bundling time, rendered. */
+  private static final class SynthesizedCode {
+    private final String literalData;
+    private final ImmutableList<String> literalGetterMethods;
+    private final String literalGlobals;
+    private final String exceptionTag;
+
+    private SynthesizedCode(
+        String literalData,
+        ImmutableList<String> literalGetterMethods,
+        String literalGlobals,
+        String exceptionTag) {
+      this.literalData = literalData;
+      this.literalGetterMethods = literalGetterMethods;
+      this.literalGlobals = literalGlobals;
+      this.exceptionTag = exceptionTag;
+    }
+  }
 
+  private SynthesizedCode synthesizeCode(SummaryIndex summaryIndex, Problems problems) {
     // Synthesize globals and methods for string literals.
-    synthesizeStringLiteralGetters(referencedPropertyKeys);
+    synthesizeStringLiteralGetters(summaryIndex);
 
     var generatorStage = new WasmGeneratorStage(library, problems);
 
-    Stream<String> literalGetterMethods =
+    // The data segments are emitted first since they determine how the literals are read.
+    String literalData = generatorStage.emitToString(g -> g.emitDataSegments(library));
+    ImmutableList<String> literalGetterMethods =
         compilationUnit.getTypes().stream()
             .flatMap(t -> t.getMethods().stream())
-            .map(m -> generatorStage.emitToString(g -> g.renderMethod(m)));
-
+            .map(m -> generatorStage.emitToString(g -> g.renderMethod(m)))
+            .collect(toImmutableList());
     String literalGlobals = generatorStage.emitToString(g -> g.emitGlobals(library));
+    String exceptionTag = generatorStage.emitToString(WasmConstructsGenerator::emitExceptionTag);
+    return new SynthesizedCode(literalData, literalGetterMethods, literalGlobals, exceptionTag);
+  }
 
-    ImmutableList<String> moduleContents =
-        Streams.concat(
-                Stream.of("(module (rec"),
-                getModuleParts("types"),
-                streamDedupedValues(Summary::getTypeSnippetsList),
-                Stream.of(typeGraph.getTopLevelItableStructDeclaration()),
-                typeGraph.getClasses().stream().map(TypeGraph.Type::getItableStructDeclaration),
-                Stream.of(")"),
-                getModuleParts("data"),
-                getModuleParts("globals"),
-                streamDedupedValues(Summary::getGlobalSnippetsList),
-                Stream.of(typeGraph.getEmptyItableStructDeclaration()),
-                typeGraph.getClasses().stream().map(TypeGraph.Type::getItableInitialization),
-                Stream.of(literalGlobals),
-                streamDedupedValues(Summary::getWasmImportSnippetsList),
-                Stream.of(generatorStage.emitToString(WasmConstructsGenerator::emitExceptionTag)),
-                getModuleParts("functions"),
-                literalGetterMethods,
-                Stream.of(")"))
-            .collect(toImmutableList());
+  private static final int WELL_KNOWN_TYPES_CACHE_SIZE =
+      Integer.parseInt(System.getProperty("j2cl.bundler.wellknowntypescachesize", "2"));
+
+  /** How long the well known types of a classpath are kept after the last request using them. */
+  private static final Duration WELL_KNOWN_TYPES_IDLE_TIMEOUT = Duration.ofMinutes(5);
+
+  /**
+   * The threads that synthesize code for the requests on a classpath, keyed by the hash of the
+   * contents of the classpath.
+   *
+   * <p>Synthesizing code needs the well known type descriptors, which are resolved through a JDT
+   * environment on the classpath; creating it is the bulk of the cost of bundling. The descriptors
+   * are kept, like all the compilation state, in thread locals of the thread that created them, and
+   * they resolve their members lazily through the JDT environment, which is not thread safe. Hence
+   * all the code for a classpath is synthesized by the same thread, which keeps the descriptors
+   * across requests. Once the thread has been idle for a while it terminates, releasing them along
+   * with the JDT environment.
+   *
+   * <p>Since the thread serves many requests it does not inherit the thread locals, e.g. the
+   * output, of the request that happened to create it.
+   */
+  private static final Cache<HashCode, ExecutorService> wellKnownTypesExecutorByClassPathHash =
+      CacheBuilder.newBuilder().maximumSize(WELL_KNOWN_TYPES_CACHE_SIZE).build();
+
+  /** Runs {@code task} in a thread where the well known type descriptors are initialized. */
+  private <T> T runWithWellKnownTypes(Supplier<T> task, Problems problems) {
+    // TODO(b/294284380): consider removing JDT and manually synthesizing required types.
+    var classPathEntries = Splitter.on(File.pathSeparatorChar).splitToList(this.classPath);
+    HashCode classPathHash = hashClassPath(classPathEntries, problems);
+    ExecutorService executor;
+    try {
+      executor =
+          wellKnownTypesExecutorByClassPathHash.get(
+              classPathHash, BazelJ2wasmBundler::newWellKnownTypesExecutor);
+    } catch (ExecutionException e) {
+      throw new AssertionError(e);
+    }
+
+    Future<T> result =
+        executor.submit(
+            () -> {
+              if (!TypeDescriptors.isInitialized()) {
+                // The parser outlives the request, so it does not get its problems; it only reports
+                // problems while parsing sources, i.e. here while resolving the well known types.
+                Problems initializationProblems = new Problems();
+                try {
+                  new JdtEnvironment(
+                      new JdtParser(classPathEntries, initializationProblems),
+                      TypeDescriptors.getWellKnownTypeNames());
+                } finally {
+                  problems.merge(initializationProblems);
+                }
+              }
+              return task.get();
+            });
+    try {
+      return Uninterruptibles.getUninterruptibly(result);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new AssertionError(e.getCause());
+    }
+  }
 
-    writeToFile(output.toString(), moduleContents, problems);
+  private static ExecutorService newWellKnownTypesExecutor() {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            WELL_KNOWN_TYPES_IDLE_TIMEOUT.toMillis(),
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setThreadFactory(
+                    r ->
+                        new Thread(
+                            /* group= */ null,
+                            r,
+                            "well-known-types",
+                            /* stackSize= */ 0,
+                            /* inheritThreadLocals= */ false))
+                .build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
-  private Stream<String> streamDedupedValues(
-      Function<Summary, Collection<SharedSnippet>> snippetGetter) {
-    return getDedupedSnippets(snippetGetter).values().stream();
+  /** Digests of the files in the classpath, which are only recomputed when they are modified. */
+  private static final FileCache<HashCode> classPathFileDigestCache =
+      new FileCache<>(p -> MoreFiles.asByteSource(p).hash(Hashing.murmur3_128()), CACHE_SIZE);
+
+  /**
+   * Returns a hash of the contents of the classpath, which only changes when the types that can be
+   * resolved on it do.
+   */
+  private static HashCode hashClassPath(List<String> classPathEntries, Problems problems) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    for (String classPathEntry : classPathEntries) {
+      hasher.putString(classPathEntry, UTF_8).putChar(File.pathSeparatorChar);
+      // Entries that do not exist are reported by the frontend.
+      Path classPathEntryPath = Path.of(classPathEntry);
+      try (Stream<Path> files = java.nio.file.Files.walk(classPathEntryPath)) {
+        for (Path file :
+            files.filter(java.nio.file.Files::isRegularFile).sorted().collect(toImmutableList())) {
+          hasher.putString(classPathEntryPath.relativize(file).toString(), UTF_8);
+          hasher.putBytes(classPathFileDigestCache.get(file.toString()).asBytes());
+        }
+      } catch (NoSuchFileException e) {
+        // Nothing to hash.
+      } catch (IOException | RuntimeException e) {
+        problems.fatal(FatalError.CANNOT_OPEN_FILE, e.toString());
+      }
+    }
+    return hasher.hash();
+  }
+
+  /**
+   * The contents of the summaries of all the modules, collected in a single pass over them.
+   *
+   * <p>Shared snippets are deduplicated by key, keeping the first one seen; the snippets themselves
+   * are not copied.
+   */
+  private static final class SummaryIndex {
+    private final TypeGraph typeGraph = new TypeGraph();
+    private final Set<String> referencedPropertyKeys = new LinkedHashSet<>();
+    private final List<StringLiteralInfo> stringLiterals = new ArrayList<>();
+    private final Set<String> jsImportRequires = new LinkedHashSet<>();
+    private final Map<String, String> typeSnippets = new LinkedHashMap<>();
+    private final Map<String, String> globalSnippets = new LinkedHashMap<>();
+    private final Map<String, String> wasmImportSnippets = new LinkedHashMap<>();
+    private final Map<String, String> jsImportSnippets = new LinkedHashMap<>();
+
+    private SummaryIndex(Stream<Summary> summaries) {
+      summaries.forEachOrdered(this::addSummary);
+    }
+
+    private void addSummary(Summary summary) {
+      typeGraph.addToTypeGraph(summary);
+      referencedPropertyKeys.addAll(summary.getPropertyKeysList());
+      stringLiterals.addAll(summary.getStringLiteralsList());
+      jsImportRequires.addAll(summary.getJsImportRequiresList());
+      addSnippets(typeSnippets, summary.getTypeSnippetsList());
+      addSnippets(globalSnippets, summary.getGlobalSnippetsList());
+      addSnippets(wasmImportSnippets, summary.getWasmImportSnippetsList());
+      addSnippets(jsImportSnippets, summary.getJsImportSnippetsList());
+    }
+
+    private static void addSnippets(
+        Map<String, String> snippetsByKey, List<SharedSnippet> snippets) {
+      for (SharedSnippet snippet : snippets) {
+        snippetsByKey.putIfAbsent(snippet.getKey(), snippet.getSnippet());
+      }
+    }
   }
 
-  private ImmutableMap<String, String> getDedupedSnippets(
-      Function<Summary, Collection<SharedSnippet>> snippetGetter) {
-    return getSummaries()
-        .flatMap(s -> snippetGetter.apply(s).stream())
-        .collect(toImmutableMap(SharedSnippet::getKey, SharedSnippet::getSnippet, (i1, i2) -> i1));
+  /**
+   * Writes the bundled module, one line per piece of content.
+   *
+   * <p>The parts of the module that are produced by the modular compilation are memory mapped and
+   * copied into the output without decoding them.
+   */
+  private final class ModuleWriter implements Closeable {
+    /** The largest region of a file that is mapped at once. */
+    private static final long MAX_MAPPED_REGION_SIZE = 1 << 30;
+
+    private final byte[] lineSeparator = System.lineSeparator().getBytes(UTF_8);
+    private final FileChannel channel;
+
+    private ModuleWriter(Path path) throws IOException {
+      this.channel =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE);
+    }
+
+    private void append(String content) {
+      write(ByteBuffer.wrap(content.getBytes(UTF_8)));
+      write(ByteBuffer.wrap(lineSeparator));
+    }
+
+    /** Appends the part {@code name} of all the modules, in the order of the inputs. */
+    private void appendModuleParts(String name) {
+      getModulePartPaths(name).forEach(this::appendFile);
+    }
+
+    private void appendFile(Path path) {
+      try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+        long size = fileChannel.size();
+        for (long position = 0; position < size; position += MAX_MAPPED_REGION_SIZE) {
+          write(
+              fileChannel.map(
+                  MapMode.READ_ONLY,
+                  position,
+                  Math.min(MAX_MAPPED_REGION_SIZE, size - position)));
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      write(ByteBuffer.wrap(lineSeparator));
+    }
+
+    private void write(ByteBuffer buffer) {
+      try {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
   }
 
-  private void synthesizeStringLiteralGetters(Set<String> referencedPropertyKeys) {
+  private void synthesizeStringLiteralGetters(SummaryIndex summaryIndex) {
 
     var stringLiteralHolder =
         new com.google.j2cl.transpiler.ast.Type(
@@ -199,9 +447,7 @@ final class BazelJ2wasmBundler extends BazelWorker {
     var stringLiteralGetterCreator = new StringLiteralGettersCreator();
 
     // Synthesize the getters and forwarding methods for the string literals in the code.
-    getSummaries()
-        .flatMap(s -> s.getStringLiteralsList().stream())
-        .forEach(
+    summaryIndex.stringLiterals.forEach(
             s ->
                 // Get descriptor for the getter and synthesize the method logic if it is the
                 // first time it was found.
@@ -209,7 +455,7 @@ final class BazelJ2wasmBundler extends BazelWorker {
 
     // Synthesize the getters and forwarding methods for the string literals that are values of
     // system properties.
-    referencedPropertyKeys.forEach(
+    summaryIndex.referencedPropertyKeys.forEach(
         pk -> {
           var value = defines.get(pk);
           MethodDescriptor systemGetPropertyGetter = AstUtils.getSystemGetPropertyGetter(pk);
@@ -320,11 +566,6 @@ final class BazelJ2wasmBundler extends BazelWorker {
     private final List<TypeGraph.Type> interfaces = new ArrayList<>();
     private final Map<String, TypeGraph.Type> typesByName = new LinkedHashMap<>();
 
-    private TypeGraph(Stream<Summary> summaries) {
-      // Collect all types from all summaries.
-      summaries.forEachOrdered(this::addToTypeGraph);
-    }
-
     private void addToTypeGraph(Summary summary) {
       for (int interfaceId : summary.getInterfacesList()) {
         var interfaceName = summary.getTypeNames(interfaceId);
@@ -438,18 +679,12 @@ final class BazelJ2wasmBundler extends BazelWorker {
     }
   }
 
-  private void emitJsImportsFile(Problems problems) {
-    var requiredModules =
-        getSummaries()
-            .flatMap(s -> s.getJsImportRequiresList().stream())
-            .distinct()
-            .collect(toImmutableList());
-
-    var jsImportsContents = getDedupedSnippets(Summary::getJsImportSnippetsList);
-
+  private void emitJsImportsFile(SummaryIndex summaryIndex, Problems problems) {
     writeToFile(
         jsimportPath.toString(),
-        ImmutableList.of(JsImportsGenerator.generateOutputs(requiredModules, jsImportsContents)),
+        ImmutableList.of(
+            JsImportsGenerator.generateOutputs(
+                summaryIndex.jsImportRequires, summaryIndex.jsImportSnippets)),
         problems);
   }
 
@@ -460,11 +695,10 @@ final class BazelJ2wasmBundler extends BazelWorker {
         .map(summaryCache::get);
   }
 
-  private Stream<String> getModuleParts(String name) {
+  private Stream<Path> getModulePartPaths(String name) {
     return inputs.stream()
-        .map(d -> format("%s/%s.wat", d, name))
-        .filter(n -> new File(n).exists())
-        .map(BazelJ2wasmBundler.moduleContentsCache::get);
+        .map(d -> Path.of(format("%s/%s.wat", d, name)))
+        .filter(java.nio.file.Files::exists);
   }
 
   private static Summary readSummary(Path summaryPath) throws IOException {
@@ -473,10 +707,6 @@ final class BazelJ2wasmBundler extends BazelWorker {
     }
   }
 
-  private static String readModule(Path modulePath) throws IOException {
-    return java.nio.file.Files.readString(modulePath);
-  }
-
   private static void writeToFile(String filePath, List<String> contents, Problems problems) {
     try {
       Files.asCharSink(new File(filePath), UTF_8).writeLines(contents);
@@ -119,6 +119,61 @@ public final class J2clCommandLineRunner extends CommandLineTool {
   @Option(name = "-defineForWasm", handler = MapOptionHandler.class, hidden = true)
   Map<String, String> definesForWasm = new HashMap<>();
 
+  @Option(
+      name = "-wasmEmitBinary",
+      usage = "Emits the Wasm module in binary form instead of in text form.",
+      hidden = true)
+  boolean wasmEmitBinary = false;
+
+  @Option(
+      name = "-wasmClosedWorld",
+      usage =
+          "Optimizes the Wasm module assuming that it contains the whole program, e.g. by"
+              + " devirtualizing calls.",
+      hidden = true)
+  boolean wasmClosedWorld = false;
+
+  @Option(
+      name = "-passParallelism",
+      usage = "Number of threads used to run the per compilation unit normalization passes.",
+      hidden = true)
+  int passParallelism = 1;
+
+  @Option(
+      name = "-fusePasses",
+      usage =
+          "Applies consecutive per compilation unit passes to a compilation unit before moving on"
+              + " to the next one.",
+      hidden = true)
+  boolean fusePasses = false;
+
+  @Option(
+      name = "-renderingParallelism",
+      usage = "Number of threads used to render the outputs.",
+      hidden = true)
+  int renderingParallelism = 1;
+
+  @Option(
+      name = "-profileOutput",
+      metaVar = "<path>",
+      usage = "Specifies the file into which to write the time and memory spent per pass.",
+      hidden = true)
+  Path profileOutput;
+
+  @Option(
+      name = "-reportProfile",
+      usage = "Reports the time and memory spent per pass.",
+      hidden = true)
+  boolean reportProfile = false;
+
+  @Option(
+      name = "-incrementalCacheDir",
+      usage =
+          "Specifies a directory where outputs are cached to be reused for unchanged compilation"
+              + " units. Only supported by the CLOSURE backend.",
+      hidden = true)
+  Path incrementalCacheDir;
+
   private J2clCommandLineRunner() {
     super("j2cl");
   }
@@ -174,7 +229,15 @@ public final class J2clCommandLineRunner extends CommandLineTool {
         .setBackend(this.backend)
         .setWasmEntryPointStrings(ImmutableList.copyOf(wasmEntryPoints))
         .setDefinesForWasm(ImmutableMap.copyOf(definesForWasm))
+        .setWasmEmitBinary(wasmEmitBinary)
+        .setWasmClosedWorld(wasmClosedWorld)
         .setForbiddenAnnotations(ImmutableList.copyOf(forbiddenAnnotations))
+        .setPassParallelism(passParallelism)
+        .setFusePasses(fusePasses)
+        .setRenderingParallelism(renderingParallelism)
+        .setProfileOutput(profileOutput)
+        .setReportProfile(reportProfile)
+        .setIncrementalCacheDirectory(incrementalCacheDir)
         .build(problems);
   }
 
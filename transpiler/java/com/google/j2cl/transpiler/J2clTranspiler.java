@@ -14,22 +14,15 @@
 package com.google.j2cl.transpiler;
 
 import com.google.common.base.Throwables;
-import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.j2cl.common.Problems;
-import com.google.j2cl.transpiler.ast.CompilationUnit;
-import com.google.j2cl.transpiler.ast.FieldDescriptor;
 import com.google.j2cl.transpiler.ast.Library;
-import com.google.j2cl.transpiler.ast.MemberDescriptor;
-import com.google.j2cl.transpiler.ast.MethodDescriptor;
-import com.google.j2cl.transpiler.ast.TypeDeclaration;
-import com.google.j2cl.transpiler.passes.LibraryNormalizationPass;
-import com.google.j2cl.transpiler.passes.NormalizationPass;
+import com.google.j2cl.transpiler.backend.Backend;
+import com.google.j2cl.transpiler.backend.closure.IncrementalCompilation;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.function.Supplier;
 
 /** Translation tool for generating JavaScript source files from Java sources. */
 class J2clTranspiler {
@@ -48,6 +41,10 @@ class J2clTranspiler {
     // out of main() and the process lingers due the live threads from these executors.
     executorService.shutdown();
 
+    waitForCompletion(result);
+  }
+
+  static void waitForCompletion(Future<?> result) {
     try {
       Uninterruptibles.getUninterruptibly(result);
     } catch (ExecutionException e) {
@@ -59,72 +56,83 @@ class J2clTranspiler {
 
   private final J2clTranspilerOptions options;
   private final Problems problems;
+  private final PerformanceProfiler profiler;
 
   private J2clTranspiler(J2clTranspilerOptions options, Problems problems) {
     this.options = options;
     this.problems = problems;
+    this.profiler =
+        new PerformanceProfiler(options.getProfileOutput() != null || options.getReportProfile());
   }
 
   private void transpileImpl() {
-    if (options.getBackend().isWasm()) {
-      // TODO(b/178738483): Remove hack that makes mangling backend dependent.
-      MemberDescriptor.setWasmManglingPatterns();
-      if (options.getWasmEnableNonNativeJsEnum()) {
-        // TODO(b/181615162): Remove hack that makes it possible to ignore JsEnum in Wasm.
-        TypeDeclaration.setIgnoreNativeJsEnumAnnotations();
-      } else {
-        // TODO(b/181615162): Remove hack that makes it possible to ignore JsEnum in Wasm.
-        TypeDeclaration.setIgnoreJsEnumAnnotations();
-      }
-      // TODO(b/317164851): Remove hack that makes jsinfo ignored for non-native types in Wasm.
-      FieldDescriptor.setIgnoreNonNativeJsInfo();
-      MethodDescriptor.setIgnoreNonNativeJsInfo();
-      // TODO(b/178738483): Remove hack that makes it possible to ignore DoNotAutobox in Wasm.
-      MethodDescriptor.ParameterDescriptor.setIgnoreDoNotAutoboxAnnotations();
+    try {
+      compile();
+    } finally {
+      // The profile is also reported when the compilation aborts, it might tell why.
+      reportProfile();
+    }
+  }
+
+  private void compile() {
+    options.getBackend().initializeCompilation(options);
+    Library library =
+        profiler
+            .getMeasurement("frontend", options.getFrontend().name())
+            .measure(() -> options.getFrontend().getLibrary(options, problems));
+    if (options.getIncrementalCacheDirectory() != null && options.getBackend() == Backend.CLOSURE) {
+      IncrementalCompilation.init(
+          options.getIncrementalCacheDirectory(),
+          options.getFrontend().name(),
+          options,
+          options.getClasspaths());
     }
-    Library library = options.getFrontend().getLibrary(options, problems);
     if (!library.isEmpty()) {
-      desugarLibrary(library);
-      checkLibrary(library);
-      normalizeLibrary(library);
+      // Created after the frontend has run so that the pass threads share the state that it set up
+      // for this compilation.
+      try (PassRunner passRunner = new PassRunner(options, problems, profiler)) {
+        desugarLibrary(passRunner, library);
+        checkLibrary(library);
+        if (IncrementalCompilation.get() != null) {
+          // Compilation units whose outputs are cached are still normalized, since library wide
+          // passes need to see the whole library, but are not rendered again.
+          IncrementalCompilation.get().lookUpCachedOutputs(library);
+        }
+        normalizeLibrary(passRunner, library);
+      }
     }
-    options.getBackend().generateOutputs(options, library, problems);
+    generateOutputs(library);
   }
 
-  private void desugarLibrary(Library library) {
-    runPasses(library, options.getBackend().getDesugaringPassFactories());
+  private void reportProfile() {
+    if (options.getProfileOutput() != null) {
+      profiler.writeReport(options.getProfileOutput(), problems);
+    }
+    if (options.getReportProfile()) {
+      profiler.reportAsInfo(problems);
+    }
   }
 
-  private void checkLibrary(Library library) {
-    // Check backend-specific restrictions.
-    options.getBackend().checkRestrictions(options, library, problems);
-
-    problems.abortIfHasErrors();
+  private void generateOutputs(Library library) {
+    profiler
+        .getMeasurement("backend", options.getBackend().name())
+        .measure(() -> options.getBackend().generateOutputs(options, library, problems));
   }
 
-  private void normalizeLibrary(Library library) {
-    runPasses(library, options.getBackend().getPassFactories(options));
+  private void desugarLibrary(PassRunner passRunner, Library library) {
+    passRunner.runPasses(library, "desugaring", options.getBackend().getDesugaringPassFactories());
   }
 
-  private void runPasses(
-      Library library, ImmutableList<Supplier<NormalizationPass>> passFactories) {
-    for (Supplier<NormalizationPass> passFactory : passFactories) {
-      NormalizationPass pass = instantiatePass(passFactory);
-      if (pass instanceof LibraryNormalizationPass) {
-        ((LibraryNormalizationPass) pass).execute(library);
-        problems.abortIfHasErrors();
-        continue;
-      }
-      for (CompilationUnit compilationUnit : library.getCompilationUnits()) {
-        instantiatePass(passFactory).execute(compilationUnit);
-      }
-      problems.abortIfHasErrors();
-    }
+  private void checkLibrary(Library library) {
+    // Check backend-specific restrictions.
+    profiler
+        .getMeasurement("checks", options.getBackend().name())
+        .measure(() -> options.getBackend().checkRestrictions(options, library, problems));
+
+    problems.abortIfHasErrors();
   }
 
-  private NormalizationPass instantiatePass(Supplier<NormalizationPass> passFactory) {
-    NormalizationPass pass = passFactory.get();
-    pass.setProblems(problems);
-    return pass;
+  private void normalizeLibrary(PassRunner passRunner, Library library) {
+    passRunner.runPasses(library, "normalization", options.getBackend().getPassFactories(options));
   }
 }
@@ -46,7 +46,13 @@ public abstract class J2clTranspilerOptions implements FrontendOptions, BackendO
         .setOptimizeAutoValue(false)
         .setWasmRemoveAssertStatement(false)
         .setWasmEnableNonNativeJsEnum(false)
-        .setNullMarkedSupported(false);
+        .setWasmEmitBinary(false)
+        .setWasmClosedWorld(false)
+        .setNullMarkedSupported(false)
+        .setPassParallelism(1)
+        .setFusePasses(false)
+        .setRenderingParallelism(1)
+        .setReportProfile(false);
   }
 
   @Override
@@ -56,6 +62,38 @@ public abstract class J2clTranspilerOptions implements FrontendOptions, BackendO
   @Override
   public abstract ImmutableList<String> getForbiddenAnnotations();
 
+  /** Number of threads used to run the per compilation unit normalization passes. */
+  public abstract int getPassParallelism();
+
+  /**
+   * Whether consecutive per compilation unit passes are all applied to a compilation unit before
+   * moving on to the next one, instead of applying each pass to the whole library in turn.
+   */
+  public abstract boolean getFusePasses();
+
+  @Override
+  public abstract int getRenderingParallelism();
+
+  @Override
+  public boolean getResolveDescriptorsEagerly() {
+    return getPassParallelism() > 1 || getRenderingParallelism() > 1;
+  }
+
+  /** File into which a JSON report of the time and memory spent per phase and pass is written. */
+  @Nullable
+  public abstract Path getProfileOutput();
+
+  /** Whether the time and memory spent per phase and pass is reported as info messages. */
+  @Override
+  public abstract boolean getReportProfile();
+
+  /**
+   * Directory where the outputs of compilation units are cached to be reused by later compilations
+   * when they are unchanged.
+   */
+  @Nullable
+  public abstract Path getIncrementalCacheDirectory();
+
   /** A Builder for J2clTranspilerOptions. */
   @AutoValue.Builder
   public abstract static class Builder {
@@ -95,12 +133,28 @@ public abstract class J2clTranspilerOptions implements FrontendOptions, BackendO
 
     public abstract Builder setWasmEnableNonNativeJsEnum(boolean wasmEnableNonNativeJsEnum);
 
+    public abstract Builder setWasmEmitBinary(boolean wasmEmitBinary);
+
+    public abstract Builder setWasmClosedWorld(boolean wasmClosedWorld);
+
     public abstract Builder setNullMarkedSupported(boolean isNullMarkedSupported);
 
     public abstract Builder setKotlincOptions(ImmutableList<String> kotlincOptions);
 
     public abstract Builder setForbiddenAnnotations(ImmutableList<String> forbiddenAnnotations);
 
+    public abstract Builder setPassParallelism(int passParallelism);
+
+    public abstract Builder setFusePasses(boolean fusePasses);
+
+    public abstract Builder setRenderingParallelism(int renderingParallelism);
+
+    public abstract Builder setProfileOutput(@Nullable Path profileOutput);
+
+    public abstract Builder setReportProfile(boolean reportProfile);
+
+    public abstract Builder setIncrementalCacheDirectory(@Nullable Path incrementalCacheDirectory);
+
     abstract J2clTranspilerOptions autoBuild();
 
     public J2clTranspilerOptions build(Problems problems) {
@@ -119,6 +173,8 @@ public abstract class J2clTranspilerOptions implements FrontendOptions, BackendO
       checkState(
           !options.getEmitReadableSourceMap() || !options.getGenerateKytheIndexingMetadata());
       checkState(!options.getEmitReadableLibraryInfo() || options.getLibraryInfoOutput() != null);
+      checkState(options.getPassParallelism() > 0);
+      checkState(options.getRenderingParallelism() > 0);
       return options;
     }
   }
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler;
+
+import static java.util.stream.Collectors.joining;
+
+import com.google.j2cl.common.Problems;
+import com.google.j2cl.common.SharedThreadLocal;
+import com.google.j2cl.transpiler.ast.CompilationUnit;
+import com.google.j2cl.transpiler.ast.Library;
+import com.google.j2cl.transpiler.passes.LibraryNormalizationPass;
+import com.google.j2cl.transpiler.passes.NormalizationPass;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Runs desugaring and normalization passes on a library, fusing and running them concurrently as
+ * the options request.
+ *
+ * <p>The runner has to be created in the thread of the compilation once the frontend has run, since
+ * its threads share the state that the frontend set up for the compilation.
+ */
+public final class PassRunner implements AutoCloseable {
+  private final J2clTranspilerOptions options;
+  private final Problems problems;
+  private final PerformanceProfiler profiler;
+  @Nullable private final ExecutorService passExecutorService;
+
+  public PassRunner(J2clTranspilerOptions options, Problems problems) {
+    this(options, problems, new PerformanceProfiler(false));
+  }
+
+  PassRunner(J2clTranspilerOptions options, Problems problems, PerformanceProfiler profiler) {
+    this.options = options;
+    this.problems = problems;
+    this.profiler = profiler;
+    this.passExecutorService =
+        options.getPassParallelism() > 1
+            ? Executors.newFixedThreadPool(
+                options.getPassParallelism(), SharedThreadLocal.newThreadFactory())
+            : null;
+  }
+
+  /** A per compilation unit pass and the measurement that accounts for its cost. */
+  private static final class CompilationUnitPass {
+    private final Supplier<NormalizationPass> passFactory;
+    private final PerformanceProfiler.Measurement measurement;
+
+    private CompilationUnitPass(
+        Supplier<NormalizationPass> passFactory, PerformanceProfiler.Measurement measurement) {
+      this.passFactory = passFactory;
+      this.measurement = measurement;
+    }
+  }
+
+  /**
+   * Runs the passes created by {@code passFactories}, in order, on {@code library}; {@code phase}
+   * names the group of passes in the profile.
+   */
+  public void runPasses(
+      Library library, String phase, List<Supplier<NormalizationPass>> passFactories) {
+    List<CompilationUnitPass> compilationUnitPasses = new ArrayList<>();
+    for (Supplier<NormalizationPass> passFactory : passFactories) {
+      NormalizationPass pass = instantiatePass(passFactory, problems);
+      PerformanceProfiler.Measurement measurement =
+          profiler.getMeasurement(phase, pass.getClass().getSimpleName());
+      if (pass instanceof LibraryNormalizationPass) {
+        // Library passes act as barriers, all the preceding passes need to be completed on every
+        // compilation unit before they run.
+        runCompilationUnitPasses(library, phase, compilationUnitPasses);
+        compilationUnitPasses.clear();
+        measurement.measure(() -> ((LibraryNormalizationPass) pass).execute(library));
+        problems.abortIfHasErrors();
+        continue;
+      }
+      compilationUnitPasses.add(new CompilationUnitPass(passFactory, measurement));
+      if (!options.getFusePasses()) {
+        runCompilationUnitPasses(library, phase, compilationUnitPasses);
+        compilationUnitPasses.clear();
+      }
+    }
+    runCompilationUnitPasses(library, phase, compilationUnitPasses);
+  }
+
+  /**
+   * Runs a sequence of per compilation unit passes, applying all of them to a compilation unit
+   * before moving on to the next one.
+   *
+   * <p>Each compilation unit reports to its own {@link Problems}, which are merged back in
+   * compilation unit order so that the reported problems do not depend on whether the compilation
+   * units are processed concurrently.
+   */
+  private void runCompilationUnitPasses(
+      Library library, String phase, List<CompilationUnitPass> compilationUnitPasses) {
+    if (compilationUnitPasses.isEmpty()) {
+      return;
+    }
+
+    // The passes run interleaved, and maybe concurrently, so only the wall time of the whole
+    // sequence is known; it is attributed to the pass if there is only one.
+    PerformanceProfiler.Measurement wallTimeMeasurement =
+        compilationUnitPasses.size() == 1
+            ? compilationUnitPasses.get(0).measurement
+            : profiler.getMeasurement(
+                phase,
+                compilationUnitPasses.stream()
+                    .map(p -> p.measurement.getName())
+                    .collect(joining("+")));
+    wallTimeMeasurement.measureWallTime(
+        () -> runCompilationUnitPassesImpl(library, compilationUnitPasses));
+  }
+
+  private void runCompilationUnitPassesImpl(
+      Library library, List<CompilationUnitPass> compilationUnitPasses) {
+    List<Problems> problemsByCompilationUnit = new ArrayList<>();
+    List<Future<?>> results = new ArrayList<>();
+    for (CompilationUnit compilationUnit : library.getCompilationUnits()) {
+      Problems compilationUnitProblems = new Problems();
+      if (passExecutorService == null) {
+        try {
+          runPasses(compilationUnit, compilationUnitPasses, compilationUnitProblems);
+        } finally {
+          problems.merge(compilationUnitProblems);
+        }
+        continue;
+      }
+      problemsByCompilationUnit.add(compilationUnitProblems);
+      results.add(
+          passExecutorService.submit(
+              () -> runPasses(compilationUnit, compilationUnitPasses, compilationUnitProblems)));
+    }
+
+    for (int i = 0; i < results.size(); i++) {
+      try {
+        J2clTranspiler.waitForCompletion(results.get(i));
+      } catch (RuntimeException | Error e) {
+        // Stop at the first failure, as a sequential run would have done.
+        results.forEach(r -> r.cancel(true));
+        throw e;
+      } finally {
+        problems.merge(problemsByCompilationUnit.get(i));
+      }
+    }
+    problems.abortIfHasErrors();
+  }
+
+  private static void runPasses(
+      CompilationUnit compilationUnit,
+      List<CompilationUnitPass> compilationUnitPasses,
+      Problems problems) {
+    for (CompilationUnitPass compilationUnitPass : compilationUnitPasses) {
+      compilationUnitPass.measurement.measureCpuTime(
+          () ->
+              instantiatePass(compilationUnitPass.passFactory, problems).execute(compilationUnit));
+      if (problems.hasErrors()) {
+        // Do not run further passes on a compilation unit that is known to be erroneous.
+        return;
+      }
+    }
+  }
+
+  private static NormalizationPass instantiatePass(
+      Supplier<NormalizationPass> passFactory, Problems problems) {
+    NormalizationPass pass = passFactory.get();
+    pass.setProblems(problems);
+    return pass;
+  }
+
+  @Override
+  public void close() {
+    if (passExecutorService != null) {
+      passExecutorService.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.SerializedName;
+import com.google.j2cl.common.OutputUtils;
+import com.google.j2cl.common.Problems;
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Collects the wall time, cpu time and allocated bytes spent in the phases and passes of a
+ * transpilation.
+ *
+ * <p>The cpu time and allocated bytes are measured on the thread that does the work and
+ * accumulated, so that work split across threads is accounted for in full. The wall time is
+ * measured by the thread that waits for all of that work, since the wall times of work running
+ * concurrently overlap.
+ *
+ * <p>Phases and passes that run more than once, e.g. passes that appear several times in the
+ * pipeline, are reported once with the totals of all their executions.
+ */
+final class PerformanceProfiler {
+
+  private static final ThreadMXBean threadMXBean =
+      (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  /** Accumulated cost of all the executions of a phase or pass. */
+  @SuppressWarnings("unused") // Fields are accessed through reflection by GSON.
+  static final class Measurement {
+    private final transient boolean enabled;
+
+    private final String phase;
+
+    private final String name;
+
+    private long invocations;
+
+    /**
+     * The wall time of the executions that were not fused with other passes, whose wall time is
+     * reported for the group of fused passes; absent if there were no such executions.
+     */
+    @Nullable
+    @SerializedName("wall_time_ms")
+    private Long wallTimeMillis;
+
+    @SerializedName("cpu_time_ms")
+    private long cpuTimeMillis;
+
+    @SerializedName("allocated_bytes")
+    private long allocatedBytes;
+
+    private transient long wallTimeNanos;
+
+    private transient long cpuTimeNanos;
+
+    private Measurement(boolean enabled, String phase, String name) {
+      this.enabled = enabled;
+      this.phase = phase;
+      this.name = name;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    /** Runs {@code work} in the current thread, accounting for its cost. */
+    void measure(Runnable work) {
+      measure(
+          () -> {
+            work.run();
+            return null;
+          });
+    }
+
+    /** Runs {@code work} in the current thread, accounting for its cost. */
+    <T> T measure(Supplier<T> work) {
+      if (!enabled) {
+        return work.get();
+      }
+
+      long startWallTime = System.nanoTime();
+      try {
+        return measureCpuTime(work);
+      } finally {
+        addWallTime(System.nanoTime() - startWallTime);
+      }
+    }
+
+    /**
+     * Runs {@code work} in the current thread, accounting for its cpu time and allocated bytes but
+     * not for its wall time, which is measured around all the concurrent executions with {@link
+     * #measureWallTime}.
+     */
+    void measureCpuTime(Runnable work) {
+      measureCpuTime(
+          () -> {
+            work.run();
+            return null;
+          });
+    }
+
+    private <T> T measureCpuTime(Supplier<T> work) {
+      if (!enabled) {
+        return work.get();
+      }
+
+      long threadId = Thread.currentThread().getId();
+      long startCpuTime = threadMXBean.getCurrentThreadCpuTime();
+      long startAllocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+      try {
+        return work.get();
+      } finally {
+        addCost(
+            threadMXBean.getCurrentThreadCpuTime() - startCpuTime,
+            threadMXBean.getThreadAllocatedBytes(threadId) - startAllocatedBytes);
+      }
+    }
+
+    /** Runs {@code work}, accounting only for its wall time. */
+    void measureWallTime(Runnable work) {
+      if (!enabled) {
+        work.run();
+        return;
+      }
+
+      long startWallTime = System.nanoTime();
+      try {
+        work.run();
+      } finally {
+        addWallTime(System.nanoTime() - startWallTime);
+      }
+    }
+
+    private synchronized void addCost(long cpuTimeNanos, long allocatedBytes) {
+      this.invocations++;
+      this.cpuTimeNanos += cpuTimeNanos;
+      this.allocatedBytes += allocatedBytes;
+      this.cpuTimeMillis = TimeUnit.NANOSECONDS.toMillis(this.cpuTimeNanos);
+    }
+
+    private synchronized void addWallTime(long wallTimeNanos) {
+      this.wallTimeNanos += wallTimeNanos;
+      this.wallTimeMillis = TimeUnit.NANOSECONDS.toMillis(this.wallTimeNanos);
+    }
+
+    private synchronized String describe() {
+      return String.format(
+          "%-14s %-60s %6s ms wall, %6d ms cpu, %8d KB allocated, %6d invocations",
+          phase,
+          name,
+          wallTimeMillis == null ? "-" : wallTimeMillis,
+          cpuTimeMillis,
+          allocatedBytes / 1024,
+          invocations);
+    }
+  }
+
+  private final boolean enabled;
+  private final Map<List<String>, Measurement> measurementByPhaseAndName = new LinkedHashMap<>();
+
+  PerformanceProfiler(boolean enabled) {
+    this.enabled = enabled;
+    if (enabled) {
+      threadMXBean.setThreadCpuTimeEnabled(true);
+      threadMXBean.setThreadAllocatedMemoryEnabled(true);
+    }
+  }
+
+  /**
+   * Returns the measurement for {@code name} in {@code phase}, which accumulates the cost of all
+   * the work measured under that name; it does not record anything if profiling is disabled.
+   */
+  synchronized Measurement getMeasurement(String phase, String name) {
+    if (!enabled) {
+      return new Measurement(false, phase, name);
+    }
+    return measurementByPhaseAndName.computeIfAbsent(
+        ImmutableList.of(phase, name), k -> new Measurement(true, phase, name));
+  }
+
+  /** Writes the collected measurements as JSON into {@code outputPath}. */
+  synchronized void writeReport(Path outputPath, Problems problems) {
+    OutputUtils.writeToFile(
+        outputPath,
+        new GsonBuilder()
+            .setPrettyPrinting()
+            .create()
+            .toJson(measurementByPhaseAndName.values())
+            .getBytes(UTF_8),
+        problems);
+  }
+
+  /** Reports the collected measurements as info messages. */
+  synchronized void reportAsInfo(Problems problems) {
+    measurementByPhaseAndName.values().forEach(m -> problems.info("%s", m.describe()));
+  }
+}
@@ -21,10 +21,9 @@ import com.google.j2cl.common.visitor.Visitable;
 /** Boolean literal node. */
 @Visitable
 public class BooleanLiteral extends Literal {
-  private static final ThreadLocal<BooleanLiteral> FALSE =
-      ThreadLocal.withInitial(() -> new BooleanLiteral(false));
-  private static final ThreadLocal<BooleanLiteral> TRUE =
-      ThreadLocal.withInitial(() -> new BooleanLiteral(true));
+  // Boolean literals are immutable and shared by all the threads that work on a compilation.
+  private static final BooleanLiteral FALSE = new BooleanLiteral(false);
+  private static final BooleanLiteral TRUE = new BooleanLiteral(true);
   private final boolean value;
 
   private BooleanLiteral(boolean value) {
@@ -32,7 +31,7 @@ public class BooleanLiteral extends Literal {
   }
 
   public static BooleanLiteral get(boolean value) {
-    return value ? TRUE.get() : FALSE.get();
+    return value ? TRUE : FALSE;
   }
 
   public boolean getValue() {
@@ -1123,7 +1123,8 @@ public abstract class DeclaredTypeDescriptor extends TypeDescriptor
         .filter(Predicates.notNull());
   }
 
-  private Map<TypeVariable, TypeDescriptor> getLocalParameterization() {
+  /** Returns the type arguments of this type by the type parameters of its declaration. */
+  public Map<TypeVariable, TypeDescriptor> getLocalParameterization() {
     ImmutableList<TypeVariable> typeVariables = getTypeDeclaration().getTypeParameterDescriptors();
     ImmutableList<TypeDescriptor> typeArguments = getTypeArgumentDescriptors();
 
@@ -21,6 +21,7 @@ import static com.google.common.base.Preconditions.checkState;
 import com.google.auto.value.AutoValue;
 import com.google.auto.value.extension.memoized.Memoized;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.google.j2cl.common.SharedThreadLocal;
 import com.google.j2cl.common.ThreadLocalInterner;
 import java.util.Map;
 import java.util.Optional;
@@ -33,8 +34,8 @@ import javax.annotation.Nullable;
 public abstract class FieldDescriptor extends MemberDescriptor {
 
   // TODO(b/317164851): Remove hack that makes jsinfo ignored for non-native types in Wasm.
-  private static final ThreadLocal<Boolean> ignoreNonNativeJsInfo =
-      ThreadLocal.withInitial(() -> false);
+  private static final SharedThreadLocal<Boolean> ignoreNonNativeJsInfo =
+      new SharedThreadLocal<>(() -> false);
 
   public static void setIgnoreNonNativeJsInfo() {
     ignoreNonNativeJsInfo.set(true);
@@ -121,6 +122,7 @@ public abstract class FieldDescriptor extends MemberDescriptor {
   @Memoized
   public FieldDescriptor toRawMemberDescriptor() {
     return toBuilder()
+        .setDeclarationDescriptor(getDeclarationDescriptor())
         .setEnclosingTypeDescriptor(getEnclosingTypeDescriptor().toRawTypeDescriptor())
         .setTypeDescriptor(getTypeDescriptor().toRawTypeDescriptor())
         .build();
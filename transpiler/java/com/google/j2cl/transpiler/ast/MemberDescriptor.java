@@ -19,6 +19,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.j2cl.common.InternalCompilerError;
+import com.google.j2cl.common.SharedThreadLocal;
 import com.google.j2cl.transpiler.ast.MethodDescriptor.MethodOrigin;
 import java.util.Map;
 import java.util.function.Function;
@@ -286,8 +287,8 @@ public abstract class MemberDescriptor
 
   // TODO(b/178738483): This is a temporary hack to be able to reuse bridging logic in Closure
   // and Wasm.
-  private static final ThreadLocal<Boolean> useWasmManglingPatterns =
-      ThreadLocal.withInitial(() -> false);
+  private static final SharedThreadLocal<Boolean> useWasmManglingPatterns =
+      new SharedThreadLocal<>(() -> false);
 
   public static void setWasmManglingPatterns() {
     useWasmManglingPatterns.set(true);
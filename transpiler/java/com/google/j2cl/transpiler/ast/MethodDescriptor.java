@@ -27,6 +27,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Streams;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.google.j2cl.common.SharedThreadLocal;
 import com.google.j2cl.common.ThreadLocalInterner;
 import com.google.j2cl.transpiler.ast.FieldDescriptor.FieldOrigin;
 import com.google.j2cl.transpiler.ast.TypeDeclaration.SourceLanguage;
@@ -53,8 +54,8 @@ public abstract class MethodDescriptor extends MemberDescriptor {
 
     // TODO(b/182341814): This is a temporary hack to be able to disable DoNotAutobox annotations
     //   on wasm
-    private static final ThreadLocal<Boolean> ignoreDoNotAutoboxAnnotations =
-        ThreadLocal.withInitial(() -> false);
+    private static final SharedThreadLocal<Boolean> ignoreDoNotAutoboxAnnotations =
+        new SharedThreadLocal<>(() -> false);
 
     public static void setIgnoreDoNotAutoboxAnnotations() {
       ignoreDoNotAutoboxAnnotations.set(true);
@@ -186,8 +187,8 @@ public abstract class MethodDescriptor extends MemberDescriptor {
   }
 
   // TODO(b/317164851): Remove hack that makes jsinfo ignored for non-native types in Wasm.
-  private static final ThreadLocal<Boolean> ignoreNonNativeJsInfo =
-      ThreadLocal.withInitial(() -> false);
+  private static final SharedThreadLocal<Boolean> ignoreNonNativeJsInfo =
+      new SharedThreadLocal<>(() -> false);
 
   public static void setIgnoreNonNativeJsInfo() {
     ignoreNonNativeJsInfo.set(true);
@@ -402,6 +403,7 @@ public abstract class MethodDescriptor extends MemberDescriptor {
   @Memoized
   public MethodDescriptor toRawMemberDescriptor() {
     return toBuilder()
+        .setDeclarationDescriptor(getDeclarationDescriptor())
         .setEnclosingTypeDescriptor(getEnclosingTypeDescriptor().toRawTypeDescriptor())
         .setTypeParameterTypeDescriptors(ImmutableList.of())
         .setTypeArgumentTypeDescriptors(ImmutableList.of())
@@ -27,6 +27,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Streams;
+import com.google.j2cl.common.SharedThreadLocal;
 import com.google.j2cl.common.ThreadLocalInterner;
 import com.google.j2cl.transpiler.ast.TypeDescriptors.BootstrapType;
 import java.util.LinkedHashSet;
@@ -881,8 +882,8 @@ public abstract class TypeDeclaration
 
   // TODO(b/181615162): This is a temporary hack to be able to reuse bridging logic in Closure
   // and Wasm.
-  private static final ThreadLocal<IgnoreJsEnumsType> ignoreJsEnumAnnotations =
-      ThreadLocal.withInitial(() -> IgnoreJsEnumsType.NONE);
+  private static final SharedThreadLocal<IgnoreJsEnumsType> ignoreJsEnumAnnotations =
+      new SharedThreadLocal<>(() -> IgnoreJsEnumsType.NONE);
 
   public static void setIgnoreJsEnumAnnotations() {
     ignoreJsEnumAnnotations.set(IgnoreJsEnumsType.ALL);
@@ -30,6 +30,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.j2cl.common.InternalCompilerError;
+import com.google.j2cl.common.SharedThreadLocal;
 import com.google.j2cl.transpiler.ast.TypeDeclaration.Kind;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
@@ -206,7 +207,8 @@ public class TypeDescriptors {
   private final BiMap<PrimitiveTypeDescriptor, DeclaredTypeDescriptor> boxedTypeByPrimitiveType =
       HashBiMap.create();
 
-  private static final ThreadLocal<TypeDescriptors> typeDescriptors = new ThreadLocal<>();
+  private static final SharedThreadLocal<TypeDescriptors> typeDescriptors =
+      new SharedThreadLocal<>();
 
   private static void set(TypeDescriptors typeDescriptors) {
     checkState(
@@ -207,7 +207,22 @@ public abstract class TypeVariable extends TypeDescriptor implements HasName {
 
   @Override
   public String getReadableDescription() {
-    return getName();
+    TypeDescriptor lowerBound = getLowerBoundTypeDescriptor();
+    TypeDescriptor upperBound = getUpperBoundTypeDescriptor();
+    if (!isWildcard()
+        || (lowerBound != null && lowerBound.hasReferenceTo(this, ImmutableSet.of()))
+        || upperBound.hasReferenceTo(this, ImmutableSet.of())) {
+      return getName();
+    }
+    // Wildcards are described by their bounds rather than their name, since wildcards with the same
+    // bounds are the same and might have been named differently by the frontend and by
+    // specialization.
+    if (lowerBound != null) {
+      return "? super " + lowerBound.getReadableDescription();
+    }
+    return TypeDescriptors.isJavaLangObject(upperBound)
+        ? "?"
+        : "? extends " + upperBound.getReadableDescription();
   }
 
   @Override
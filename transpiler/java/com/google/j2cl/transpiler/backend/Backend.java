@@ -17,7 +17,11 @@ package com.google.j2cl.transpiler.backend;
 
 import com.google.common.collect.ImmutableList;
 import com.google.j2cl.common.Problems;
+import com.google.j2cl.transpiler.ast.FieldDescriptor;
 import com.google.j2cl.transpiler.ast.Library;
+import com.google.j2cl.transpiler.ast.MemberDescriptor;
+import com.google.j2cl.transpiler.ast.MethodDescriptor;
+import com.google.j2cl.transpiler.ast.TypeDeclaration;
 import com.google.j2cl.transpiler.backend.closure.OutputGeneratorStage;
 import com.google.j2cl.transpiler.backend.kotlin.KotlinGeneratorStage;
 import com.google.j2cl.transpiler.backend.wasm.WasmGeneratorStage;
@@ -192,6 +196,7 @@ public enum Backend {
               options.getEmitReadableLibraryInfo(),
               options.getEmitReadableSourceMap(),
               options.getGenerateKytheIndexingMetadata(),
+              options.getRenderingParallelism(),
               problems)
           .generateOutputs(library);
     }
@@ -354,7 +359,14 @@ public enum Backend {
     @Override
     public void generateOutputs(BackendOptions options, Library library, Problems problems) {
       WasmGeneratorStage.generateMonolithicOutput(
-          library, options.getOutput(), options.getLibraryInfoOutput(), problems);
+          library,
+          options.getOutput(),
+          options.getLibraryInfoOutput(),
+          options.getWasmEmitBinary(),
+          options.getWasmClosedWorld(),
+          options.getRenderingParallelism(),
+          options.getReportProfile(),
+          problems);
     }
 
     @Override
@@ -504,7 +516,11 @@ public enum Backend {
     @Override
     public void generateOutputs(BackendOptions options, Library library, Problems problems) {
       WasmGeneratorStage.generateModularOutput(
-          library, options.getOutput(), options.getLibraryInfoOutput(), problems);
+          library,
+          options.getOutput(),
+          options.getLibraryInfoOutput(),
+          options.getRenderingParallelism(),
+          problems);
     }
 
     @Override
@@ -747,6 +763,29 @@ public enum Backend {
 
   public void checkRestrictions(BackendOptions options, Library library, Problems problems) {}
 
+  /**
+   * Sets up the backend dependent state of the compilation running in the current thread; needs to
+   * be called before the frontend runs.
+   */
+  public void initializeCompilation(BackendOptions options) {
+    if (isWasm()) {
+      // TODO(b/178738483): Remove hack that makes mangling backend dependent.
+      MemberDescriptor.setWasmManglingPatterns();
+      if (options.getWasmEnableNonNativeJsEnum()) {
+        // TODO(b/181615162): Remove hack that makes it possible to ignore JsEnum in Wasm.
+        TypeDeclaration.setIgnoreNativeJsEnumAnnotations();
+      } else {
+        // TODO(b/181615162): Remove hack that makes it possible to ignore JsEnum in Wasm.
+        TypeDeclaration.setIgnoreJsEnumAnnotations();
+      }
+      // TODO(b/317164851): Remove hack that makes jsinfo ignored for non-native types in Wasm.
+      FieldDescriptor.setIgnoreNonNativeJsInfo();
+      MethodDescriptor.setIgnoreNonNativeJsInfo();
+      // TODO(b/178738483): Remove hack that makes it possible to ignore DoNotAutobox in Wasm.
+      MethodDescriptor.ParameterDescriptor.setIgnoreDoNotAutoboxAnnotations();
+    }
+  }
+
   public abstract void generateOutputs(BackendOptions options, Library library, Problems problems);
 
   public boolean isWasm() {
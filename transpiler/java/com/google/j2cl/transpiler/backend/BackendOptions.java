@@ -42,6 +42,15 @@ public interface BackendOptions {
 
   boolean getWasmEnableNonNativeJsEnum();
 
+  /** Whether the Wasm module is emitted in binary form instead of in text form. */
+  boolean getWasmEmitBinary();
+
+  /**
+   * Whether the Wasm module is optimized assuming that it contains the whole program, e.g. by
+   * devirtualizing calls using class hierarchy analysis.
+   */
+  boolean getWasmClosedWorld();
+
   boolean getOptimizeAutoValue();
 
   boolean getEmitReadableLibraryInfo();
@@ -51,4 +60,10 @@ public interface BackendOptions {
   boolean getGenerateKytheIndexingMetadata();
 
   boolean isNullMarkedSupported();
+
+  /** Number of threads used to render the outputs. */
+  int getRenderingParallelism();
+
+  /** Whether statistics about the compilation are reported as info messages. */
+  boolean getReportProfile();
 }
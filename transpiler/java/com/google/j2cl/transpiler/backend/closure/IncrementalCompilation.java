@@ -0,0 +1,754 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.backend.closure;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.primitives.Ints;
+import com.google.j2cl.common.SharedThreadLocal;
+import com.google.j2cl.common.SourceUtils.FileInfo;
+import com.google.j2cl.common.bazel.FileCache;
+import com.google.j2cl.transpiler.ast.AbstractVisitor;
+import com.google.j2cl.transpiler.ast.ArrayTypeDescriptor;
+import com.google.j2cl.transpiler.ast.CompilationUnit;
+import com.google.j2cl.transpiler.ast.DeclaredTypeDescriptor;
+import com.google.j2cl.transpiler.ast.Expression;
+import com.google.j2cl.transpiler.ast.Field;
+import com.google.j2cl.transpiler.ast.FieldDescriptor;
+import com.google.j2cl.transpiler.ast.IntersectionTypeDescriptor;
+import com.google.j2cl.transpiler.ast.Library;
+import com.google.j2cl.transpiler.ast.MemberReference;
+import com.google.j2cl.transpiler.ast.Method;
+import com.google.j2cl.transpiler.ast.MethodDescriptor;
+import com.google.j2cl.transpiler.ast.Type;
+import com.google.j2cl.transpiler.ast.TypeDescriptor;
+import com.google.j2cl.transpiler.ast.TypeVariable;
+import com.google.j2cl.transpiler.ast.UnionTypeDescriptor;
+import com.google.j2cl.transpiler.ast.Variable;
+import com.google.j2cl.transpiler.backend.BackendOptions;
+import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfoBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * Reuses the outputs generated for compilation units that did not change since a previous
+ * compilation.
+ *
+ * <p>The outputs of each compilation unit are stored in a cache directory keyed by a digest of its
+ * source, of the sources of all the compilation units in the library it depends on directly or
+ * indirectly, of the classpath and of the options. After a change only the modified compilation
+ * units and the ones that depend on them are rendered; the rest are still compiled, so that their
+ * diagnostics are reported and so that library wide passes see the whole library, but reuse their
+ * cached outputs.
+ *
+ * <p>Entries are written atomically so that the cache directory can be shared by concurrent
+ * compilations. The least recently used entries are removed once the entries take more than
+ * {@code j2cl.incremental.cachesize} bytes.
+ */
+public final class IncrementalCompilation {
+
+  private static final long CACHE_SIZE =
+      Long.getLong("j2cl.incremental.cachesize", 1024L * 1024 * 1024);
+
+  /** Changes whenever the outputs or the format of the entries change. */
+  private static final int FORMAT_VERSION = 2;
+
+  /** The format version followed by the digest of the payload. */
+  private static final int ENTRY_HEADER_SIZE = Integer.BYTES + Hashing.sha256().bits() / 8;
+
+  private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+  /** Digests of input files such as classpath jars, which are only recomputed when modified. */
+  private static final FileCache<HashCode> digestByFilePath =
+      new FileCache<>(
+          p -> MoreFiles.asByteSource(p).hash(Hashing.sha256()),
+          Integer.getInteger("j2cl.incremental.classpathcachesize", 2000));
+
+  private static final SharedThreadLocal<IncrementalCompilation> incrementalCompilationStorage =
+      new SharedThreadLocal<>();
+
+  /** Returns the incremental compilation for the current compilation, if enabled. */
+  @Nullable
+  public static IncrementalCompilation get() {
+    return incrementalCompilationStorage.get();
+  }
+
+  /** Enables incremental compilation for the current compilation. */
+  public static void init(
+      Path cacheDirectory,
+      String frontendName,
+      BackendOptions options,
+      List<String> classpathEntries) {
+    incrementalCompilationStorage.set(
+        new IncrementalCompilation(
+            cacheDirectory,
+            computeConfigurationDigest(frontendName, options, classpathEntries),
+            options.getOptimizeAutoValue()));
+  }
+
+  /** The outputs generated for a compilation unit. */
+  static final class CompilationUnitOutputs {
+    private final Map<String, String> contentByPath = new LinkedHashMap<>();
+    private final List<String> nativeFilePaths = new ArrayList<>();
+    private final List<Consumer<LibraryInfoBuilder>> libraryInfoTypes = new ArrayList<>();
+    private byte[] libraryInfo = new byte[0];
+
+    void addOutput(String path, String content) {
+      contentByPath.put(path, content);
+    }
+
+    void addNativeFile(NativeJavaScriptFile nativeFile) {
+      nativeFilePaths.add(nativeFile.getRelativeFilePath());
+    }
+
+    /**
+     * Records a type to be added to the library info, which is done when the outputs are emitted
+     * so that the types are added in compilation unit order.
+     */
+    void addLibraryInfoType(Consumer<LibraryInfoBuilder> libraryInfoType) {
+      libraryInfoTypes.add(libraryInfoType);
+    }
+
+    /** Adds the types recorded by {@link #addLibraryInfoType} to {@code libraryInfoBuilder}. */
+    void addLibraryInfoTypesTo(LibraryInfoBuilder libraryInfoBuilder) {
+      libraryInfoTypes.forEach(t -> t.accept(libraryInfoBuilder));
+    }
+
+    void setLibraryInfo(byte[] libraryInfo) {
+      this.libraryInfo = libraryInfo;
+    }
+
+    Map<String, String> getContentByPath() {
+      return contentByPath;
+    }
+
+    List<String> getNativeFilePaths() {
+      return nativeFilePaths;
+    }
+
+    byte[] getLibraryInfo() {
+      return libraryInfo;
+    }
+  }
+
+  private final Path cacheDirectory;
+  private final HashCode configurationDigest;
+  private final boolean optimizeAutoValue;
+  private final Map<CompilationUnit, HashCode> keyByCompilationUnit = new IdentityHashMap<>();
+  private final Map<CompilationUnit, CompilationUnitOutputs> cachedOutputsByCompilationUnit =
+      new IdentityHashMap<>();
+  private boolean hasStoredEntries;
+
+  private IncrementalCompilation(
+      Path cacheDirectory, HashCode configurationDigest, boolean optimizeAutoValue) {
+    this.cacheDirectory = cacheDirectory;
+    this.configurationDigest = configurationDigest;
+    this.optimizeAutoValue = optimizeAutoValue;
+  }
+
+  /**
+   * Looks up the cached outputs of the compilation units of {@code library}, which is done before
+   * normalization since the keys are computed from the references in the desugared AST.
+   */
+  public void lookUpCachedOutputs(Library library) {
+    keyByCompilationUnit.putAll(computeKeys(library.getCompilationUnits()));
+
+    for (CompilationUnit compilationUnit : library.getCompilationUnits()) {
+      HashCode key = keyByCompilationUnit.get(compilationUnit);
+      CompilationUnitOutputs cachedOutputs = key == null ? null : readEntry(key);
+      if (cachedOutputs != null) {
+        cachedOutputsByCompilationUnit.put(compilationUnit, cachedOutputs);
+      }
+    }
+  }
+
+  /** Returns the cached outputs for {@code compilationUnit}, or null if it needs to be rendered. */
+  @Nullable
+  CompilationUnitOutputs getCachedOutputs(CompilationUnit compilationUnit) {
+    return cachedOutputsByCompilationUnit.get(compilationUnit);
+  }
+
+  /** Stores the outputs generated for {@code compilationUnit} to be reused by later compiles. */
+  void store(CompilationUnit compilationUnit, CompilationUnitOutputs outputs) {
+    HashCode key = keyByCompilationUnit.get(compilationUnit);
+    if (key == null) {
+      return;
+    }
+    writeEntry(key, outputs);
+    hasStoredEntries = true;
+  }
+
+  /** Removes the least recently used entries if the cache grew over its maximum size. */
+  void trimToSize() {
+    if (!hasStoredEntries) {
+      return;
+    }
+    try {
+      List<Path> entries;
+      try (Stream<Path> files = Files.list(cacheDirectory)) {
+        entries =
+            files
+                .filter(p -> !p.getFileName().toString().endsWith(TEMPORARY_FILE_SUFFIX))
+                .collect(ImmutableList.toImmutableList());
+      }
+      Map<Path, FileTime> lastModifiedByEntry = new HashMap<>();
+      long totalSize = 0;
+      for (Path entry : entries) {
+        try {
+          lastModifiedByEntry.put(entry, Files.getLastModifiedTime(entry));
+          totalSize += Files.size(entry);
+        } catch (NoSuchFileException e) {
+          // Removed by a concurrent compilation.
+        }
+      }
+      if (totalSize <= CACHE_SIZE) {
+        return;
+      }
+
+      List<Path> entriesByAge = new ArrayList<>(lastModifiedByEntry.keySet());
+      entriesByAge.sort(Comparator.comparing(lastModifiedByEntry::get));
+      for (Path entry : entriesByAge) {
+        if (totalSize <= CACHE_SIZE) {
+          break;
+        }
+        try {
+          long size = Files.size(entry);
+          Files.delete(entry);
+          totalSize -= size;
+        } catch (NoSuchFileException e) {
+          // Removed by a concurrent compilation.
+        }
+      }
+    } catch (IOException e) {
+      // The cache is only an optimization, leave it as is.
+    }
+  }
+
+  /**
+   * Computes the keys for the compilation units, which include the digests of all the compilation
+   * units they depend on directly or indirectly.
+   */
+  private Map<CompilationUnit, HashCode> computeKeys(List<CompilationUnit> compilationUnits) {
+    Map<CompilationUnit, HashCode> contentDigestByCompilationUnit = new IdentityHashMap<>();
+    Map<String, CompilationUnit> compilationUnitByTypeName = new HashMap<>();
+    for (CompilationUnit compilationUnit : compilationUnits) {
+      HashCode contentDigest = computeContentDigest(compilationUnit);
+      if (contentDigest != null) {
+        contentDigestByCompilationUnit.put(compilationUnit, contentDigest);
+      }
+      compilationUnit
+          .streamTypes()
+          .forEach(
+              t ->
+                  compilationUnitByTypeName.put(
+                      t.getDeclaration().getQualifiedBinaryName(), compilationUnit));
+    }
+
+    Map<CompilationUnit, Set<CompilationUnit>> dependenciesByCompilationUnit =
+        new IdentityHashMap<>();
+    for (CompilationUnit compilationUnit : compilationUnits) {
+      Set<CompilationUnit> dependencies = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (String typeName : collectReferencedTypeNames(compilationUnit)) {
+        CompilationUnit dependency = compilationUnitByTypeName.get(typeName);
+        if (dependency != null && dependency != compilationUnit) {
+          dependencies.add(dependency);
+        }
+      }
+      dependenciesByCompilationUnit.put(compilationUnit, dependencies);
+    }
+    if (optimizeAutoValue) {
+      // OptimizeAutoValue inlines the generated AutoValue subclasses into their super classes, so
+      // the outputs of a class also depend on its subclasses.
+      for (CompilationUnit compilationUnit : compilationUnits) {
+        compilationUnit
+            .streamTypes()
+            .map(t -> t.getDeclaration().getSuperTypeDeclaration())
+            .filter(s -> s != null)
+            .map(s -> compilationUnitByTypeName.get(s.getQualifiedBinaryName()))
+            .filter(s -> s != null && s != compilationUnit)
+            .forEach(s -> dependenciesByCompilationUnit.get(s).add(compilationUnit));
+      }
+    }
+
+    // References to compile time constants are folded by the frontend and do not show up in the
+    // AST, so the digest of all the constants in the library is part of every key.
+    HashCode constantsDigest = computeConstantsDigest(compilationUnits);
+
+    Map<CompilationUnit, HashCode> keyByCompilationUnit = new IdentityHashMap<>();
+    // Compilation units that depend on each other are changed together, so the digest is computed
+    // for each strongly connected component after the ones it depends on.
+    for (List<CompilationUnit> component :
+        new StronglyConnectedComponents(compilationUnits, dependenciesByCompilationUnit)
+            .compute()) {
+      HashCode componentDigest =
+          computeComponentDigest(
+              component,
+              constantsDigest,
+              dependenciesByCompilationUnit,
+              contentDigestByCompilationUnit,
+              keyByCompilationUnit);
+      if (componentDigest == null) {
+        continue;
+      }
+      for (CompilationUnit compilationUnit : component) {
+        keyByCompilationUnit.put(
+            compilationUnit,
+            Hashing.sha256()
+                .newHasher()
+                .putBytes(componentDigest.asBytes())
+                .putBytes(contentDigestByCompilationUnit.get(compilationUnit).asBytes())
+                .hash());
+      }
+    }
+    return keyByCompilationUnit;
+  }
+
+  /**
+   * Returns the digest of a strongly connected component, or null if any of the compilation units
+   * it depends on cannot be cached.
+   */
+  @Nullable
+  private HashCode computeComponentDigest(
+      List<CompilationUnit> component,
+      HashCode constantsDigest,
+      Map<CompilationUnit, Set<CompilationUnit>> dependenciesByCompilationUnit,
+      Map<CompilationUnit, HashCode> contentDigestByCompilationUnit,
+      Map<CompilationUnit, HashCode> keyByCompilationUnit) {
+    Set<CompilationUnit> componentMembers = Collections.newSetFromMap(new IdentityHashMap<>());
+    componentMembers.addAll(component);
+
+    List<String> digests = new ArrayList<>();
+    for (CompilationUnit compilationUnit : component) {
+      HashCode contentDigest = contentDigestByCompilationUnit.get(compilationUnit);
+      if (contentDigest == null) {
+        return null;
+      }
+      digests.add(contentDigest.toString());
+      for (CompilationUnit dependency : dependenciesByCompilationUnit.get(compilationUnit)) {
+        if (componentMembers.contains(dependency)) {
+          continue;
+        }
+        // Components are processed after the components they depend on.
+        HashCode dependencyKey = keyByCompilationUnit.get(dependency);
+        if (dependencyKey == null) {
+          return null;
+        }
+        digests.add(dependencyKey.toString());
+      }
+    }
+    // Sort to make the digest independent of the order of the compilation units.
+    Collections.sort(digests);
+
+    Hasher hasher =
+        Hashing.sha256()
+            .newHasher()
+            .putBytes(configurationDigest.asBytes())
+            .putBytes(constantsDigest.asBytes());
+    digests.forEach(d -> hasher.putString(d, UTF_8));
+    return hasher.hash();
+  }
+
+  @Nullable
+  private static HashCode computeContentDigest(CompilationUnit compilationUnit) {
+    if (compilationUnit.isSynthetic()) {
+      return null;
+    }
+    try {
+      return Hashing.sha256()
+          .newHasher()
+          // The file path is not part of the key since sources from srcjars are extracted to
+          // temporary directories.
+          .putString(compilationUnit.getPackageRelativePath(), UTF_8)
+          .putBytes(Files.readAllBytes(Paths.get(compilationUnit.getFilePath())))
+          .hash();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Computes a digest of the names, types and values of all the compile time constants declared in
+   * the library.
+   *
+   * <p>Uses of constants are replaced by their values before the dependencies are collected, so
+   * changing the value of any constant conservatively invalidates all the compilation units.
+   */
+  private static HashCode computeConstantsDigest(List<CompilationUnit> compilationUnits) {
+    List<String> constants = new ArrayList<>();
+    for (CompilationUnit compilationUnit : compilationUnits) {
+      compilationUnit
+          .streamTypes()
+          .flatMap(t -> t.getFields().stream())
+          .map(Field::getDescriptor)
+          .filter(FieldDescriptor::isCompileTimeConstant)
+          .forEach(
+              fieldDescriptor ->
+                  constants.add(
+                      String.join(
+                          ":",
+                          fieldDescriptor.getQualifiedBinaryName(),
+                          fieldDescriptor.getTypeDescriptor().getUniqueId(),
+                          fieldDescriptor.getConstantValue().getSourceText())));
+    }
+    // Sort to make the digest independent of the order of the compilation units.
+    Collections.sort(constants);
+
+    Hasher hasher = Hashing.sha256().newHasher();
+    constants.forEach(c -> hasher.putString(c, UTF_8).putByte((byte) 0));
+    return hasher.hash();
+  }
+
+  /** Collects the names of all the types that are referenced by the compilation unit. */
+  private static Set<String> collectReferencedTypeNames(CompilationUnit compilationUnit) {
+    Set<String> typeNames = new HashSet<>();
+    Set<TypeDescriptor> seenTypeDescriptors = new HashSet<>();
+    compilationUnit.accept(
+        new AbstractVisitor() {
+          @Override
+          public void exitType(Type type) {
+            type.getSuperTypesStream().forEach(this::collect);
+          }
+
+          @Override
+          public void exitMethod(Method method) {
+            collect(method.getDescriptor());
+          }
+
+          @Override
+          public void exitField(Field field) {
+            collect(field.getDescriptor().getTypeDescriptor());
+          }
+
+          @Override
+          public void exitVariable(Variable variable) {
+            collect(variable.getTypeDescriptor());
+          }
+
+          @Override
+          public void exitExpression(Expression expression) {
+            collect(expression.getTypeDescriptor());
+          }
+
+          @Override
+          public void exitMemberReference(MemberReference memberReference) {
+            collect(memberReference.getTarget().getEnclosingTypeDescriptor());
+            if (memberReference.getTarget() instanceof MethodDescriptor) {
+              collect((MethodDescriptor) memberReference.getTarget());
+            }
+          }
+
+          private void collect(MethodDescriptor methodDescriptor) {
+            collect(methodDescriptor.getReturnTypeDescriptor());
+            methodDescriptor.getParameterTypeDescriptors().forEach(this::collect);
+          }
+
+          private void collect(@Nullable TypeDescriptor typeDescriptor) {
+            if (typeDescriptor == null || !seenTypeDescriptors.add(typeDescriptor)) {
+              return;
+            }
+            if (typeDescriptor instanceof DeclaredTypeDescriptor) {
+              DeclaredTypeDescriptor declaredTypeDescriptor =
+                  (DeclaredTypeDescriptor) typeDescriptor;
+              typeNames.add(declaredTypeDescriptor.getTypeDeclaration().getQualifiedBinaryName());
+              declaredTypeDescriptor.getTypeArgumentDescriptors().forEach(this::collect);
+            } else if (typeDescriptor instanceof ArrayTypeDescriptor) {
+              collect(((ArrayTypeDescriptor) typeDescriptor).getComponentTypeDescriptor());
+            } else if (typeDescriptor instanceof TypeVariable) {
+              TypeVariable typeVariable = (TypeVariable) typeDescriptor;
+              collect(typeVariable.getUpperBoundTypeDescriptor());
+              collect(typeVariable.getLowerBoundTypeDescriptor());
+            } else if (typeDescriptor instanceof UnionTypeDescriptor) {
+              ((UnionTypeDescriptor) typeDescriptor)
+                  .getUnionTypeDescriptors()
+                  .forEach(this::collect);
+            } else if (typeDescriptor instanceof IntersectionTypeDescriptor) {
+              ((IntersectionTypeDescriptor) typeDescriptor)
+                  .getIntersectionTypeDescriptors()
+                  .forEach(this::collect);
+            }
+          }
+        });
+    return typeNames;
+  }
+
+  /**
+   * Computes the strongly connected components of the dependency graph, each component after all
+   * the components it depends on.
+   */
+  private static final class StronglyConnectedComponents {
+    private final List<CompilationUnit> compilationUnits;
+    private final Map<CompilationUnit, Set<CompilationUnit>> dependenciesByCompilationUnit;
+    private final Map<CompilationUnit, Integer> indexByCompilationUnit = new IdentityHashMap<>();
+    private final Map<CompilationUnit, Integer> lowLinkByCompilationUnit = new IdentityHashMap<>();
+    private final Deque<CompilationUnit> stack = new ArrayDeque<>();
+    private final Set<CompilationUnit> onStack = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<List<CompilationUnit>> components = new ArrayList<>();
+
+    private StronglyConnectedComponents(
+        List<CompilationUnit> compilationUnits,
+        Map<CompilationUnit, Set<CompilationUnit>> dependenciesByCompilationUnit) {
+      this.compilationUnits = compilationUnits;
+      this.dependenciesByCompilationUnit = dependenciesByCompilationUnit;
+    }
+
+    private List<List<CompilationUnit>> compute() {
+      for (CompilationUnit compilationUnit : compilationUnits) {
+        if (!indexByCompilationUnit.containsKey(compilationUnit)) {
+          visit(compilationUnit);
+        }
+      }
+      return components;
+    }
+
+    /** Tarjan's algorithm, which completes components in reverse topological order. */
+    private void visit(CompilationUnit compilationUnit) {
+      int index = indexByCompilationUnit.size();
+      indexByCompilationUnit.put(compilationUnit, index);
+      lowLinkByCompilationUnit.put(compilationUnit, index);
+      stack.push(compilationUnit);
+      onStack.add(compilationUnit);
+
+      for (CompilationUnit dependency : dependenciesByCompilationUnit.get(compilationUnit)) {
+        if (!indexByCompilationUnit.containsKey(dependency)) {
+          visit(dependency);
+          lowLinkByCompilationUnit.put(
+              compilationUnit,
+              Math.min(
+                  lowLinkByCompilationUnit.get(compilationUnit),
+                  lowLinkByCompilationUnit.get(dependency)));
+        } else if (onStack.contains(dependency)) {
+          lowLinkByCompilationUnit.put(
+              compilationUnit,
+              Math.min(
+                  lowLinkByCompilationUnit.get(compilationUnit),
+                  indexByCompilationUnit.get(dependency)));
+        }
+      }
+
+      if (lowLinkByCompilationUnit.get(compilationUnit).equals(index)) {
+        List<CompilationUnit> component = new ArrayList<>();
+        CompilationUnit member;
+        do {
+          member = stack.pop();
+          onStack.remove(member);
+          component.add(member);
+        } while (member != compilationUnit);
+        components.add(component);
+      }
+    }
+  }
+
+  private static HashCode computeConfigurationDigest(
+      String frontendName, BackendOptions options, List<String> classpathEntries) {
+    Hasher hasher =
+        Hashing.sha256()
+            .newHasher()
+            .putInt(FORMAT_VERSION)
+            .putString(getTranspilerDigest(), UTF_8)
+            .putString(frontendName, UTF_8)
+            .putBoolean(options.getLibraryInfoOutput() != null)
+            .putBoolean(options.getEmitReadableLibraryInfo())
+            .putBoolean(options.getEmitReadableSourceMap())
+            .putBoolean(options.getGenerateKytheIndexingMetadata())
+            .putBoolean(options.getOptimizeAutoValue())
+            .putBoolean(options.isNullMarkedSupported());
+    for (String classpathEntry : classpathEntries) {
+      hasher.putString(getClasspathEntryDigest(classpathEntry), UTF_8);
+    }
+    for (FileInfo nativeSource : options.getNativeSources()) {
+      hasher.putString(nativeSource.targetPath(), UTF_8);
+      hasher.putString(getFileDigest(nativeSource.sourcePath()), UTF_8);
+    }
+    return hasher.hash();
+  }
+
+  /** Returns a digest of the transpiler, so that outputs from other versions are not reused. */
+  private static String getTranspilerDigest() {
+    try {
+      Path transpilerPath =
+          Paths.get(
+              IncrementalCompilation.class
+                  .getProtectionDomain()
+                  .getCodeSource()
+                  .getLocation()
+                  .toURI());
+      return Files.isRegularFile(transpilerPath)
+          ? getFileDigest(transpilerPath.toString())
+          : transpilerPath.toString();
+    } catch (Exception e) {
+      // Outputs are still keyed by the format version.
+      return "";
+    }
+  }
+
+  /**
+   * Returns a digest of the contents of a classpath entry; classpath jars are usually header jars,
+   * so their contents only change with the API they expose.
+   */
+  private static String getClasspathEntryDigest(String classpathEntry) {
+    Path path = Paths.get(classpathEntry);
+    if (Files.isRegularFile(path)) {
+      return getFileDigest(classpathEntry);
+    }
+    if (!Files.isDirectory(path)) {
+      return classpathEntry;
+    }
+    Hasher hasher = Hashing.sha256().newHasher().putString(classpathEntry, UTF_8);
+    try (Stream<Path> files = Files.walk(path)) {
+      files
+          .filter(Files::isRegularFile)
+          .sorted()
+          .map(Path::toString)
+          .forEach(f -> hasher.putString(f, UTF_8).putString(getFileDigest(f), UTF_8));
+    } catch (IOException | UncheckedIOException e) {
+      // Never reuse outputs when the classpath cannot be read.
+      hasher.putLong(System.nanoTime());
+    }
+    return hasher.hash().toString();
+  }
+
+  private static String getFileDigest(String path) {
+    try {
+      return digestByFilePath.get(path).toString();
+    } catch (RuntimeException e) {
+      // Never reuse outputs when the file cannot be read.
+      return Long.toString(System.nanoTime());
+    }
+  }
+
+  /**
+   * Reads a cache entry, which consists of the format version, a digest of the payload and the
+   * payload; returns null if the entry is missing or was not completely and correctly written.
+   */
+  @Nullable
+  private CompilationUnitOutputs readEntry(HashCode key) {
+    Path entryPath = cacheDirectory.resolve(key.toString());
+    try {
+      byte[] entry = Files.readAllBytes(entryPath);
+      if (entry.length < ENTRY_HEADER_SIZE
+          || Ints.fromByteArray(entry) != FORMAT_VERSION
+          || !Arrays.equals(
+              Arrays.copyOfRange(entry, Integer.BYTES, ENTRY_HEADER_SIZE),
+              Hashing.sha256()
+                  .hashBytes(entry, ENTRY_HEADER_SIZE, entry.length - ENTRY_HEADER_SIZE)
+                  .asBytes())) {
+        return null;
+      }
+
+      DataInputStream in =
+          new DataInputStream(
+              new ByteArrayInputStream(
+                  entry, ENTRY_HEADER_SIZE, entry.length - ENTRY_HEADER_SIZE));
+      CompilationUnitOutputs outputs = new CompilationUnitOutputs();
+      int outputCount = in.readInt();
+      for (int i = 0; i < outputCount; i++) {
+        String path = in.readUTF();
+        outputs.addOutput(path, new String(readBytes(in), UTF_8));
+      }
+      int nativeFileCount = in.readInt();
+      for (int i = 0; i < nativeFileCount; i++) {
+        outputs.nativeFilePaths.add(in.readUTF());
+      }
+      outputs.setLibraryInfo(readBytes(in));
+
+      // Mark the entry as recently used.
+      Files.setLastModifiedTime(entryPath, FileTime.fromMillis(System.currentTimeMillis()));
+      return outputs;
+    } catch (IOException e) {
+      // Missing or evicted entry.
+      return null;
+    }
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private void writeEntry(HashCode key, CompilationUnitOutputs outputs) {
+    Path temporaryPath = null;
+    try {
+      ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(payload);
+      out.writeInt(outputs.contentByPath.size());
+      for (Map.Entry<String, String> entry : outputs.contentByPath.entrySet()) {
+        out.writeUTF(entry.getKey());
+        writeBytes(out, entry.getValue().getBytes(UTF_8));
+      }
+      out.writeInt(outputs.nativeFilePaths.size());
+      for (String nativeFilePath : outputs.nativeFilePaths) {
+        out.writeUTF(nativeFilePath);
+      }
+      writeBytes(out, outputs.libraryInfo);
+      byte[] payloadBytes = payload.toByteArray();
+
+      Files.createDirectories(cacheDirectory);
+      temporaryPath = Files.createTempFile(cacheDirectory, key.toString(), TEMPORARY_FILE_SUFFIX);
+      try (OutputStream entry = Files.newOutputStream(temporaryPath)) {
+        entry.write(Ints.toByteArray(FORMAT_VERSION));
+        entry.write(Hashing.sha256().hashBytes(payloadBytes).asBytes());
+        entry.write(payloadBytes);
+      }
+      // Concurrent compilations might be writing the same entry, but they write the same contents.
+      Files.move(
+          temporaryPath,
+          cacheDirectory.resolve(key.toString()),
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      // The cache is only an optimization, the outputs will be regenerated next time.
+      if (temporaryPath != null) {
+        temporaryPath.toFile().delete();
+      }
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
@@ -41,10 +41,12 @@ public abstract class JavaScriptGenerator {
   protected final Type type;
   protected final ClosureGenerationEnvironment environment;
   protected final List<Import> imports;
-  protected final SourceBuilder sourceBuilder = new SourceBuilder();
+  protected final SourceBuilder sourceBuilder;
   protected final Problems problems;
 
-  public JavaScriptGenerator(Problems problems, Type type, List<Import> imports) {
+  public JavaScriptGenerator(
+      Problems problems, Type type, List<Import> imports, boolean recordSourceMappings) {
+    this.sourceBuilder = new SourceBuilder(recordSourceMappings);
     this.problems = problems;
     this.type = type;
     this.imports = imports;
@@ -67,6 +69,10 @@ public abstract class JavaScriptGenerator {
     return sourceBuilder.getMappings();
   }
 
+  public String buildSourceMap(String fileName) {
+    return sourceBuilder.buildSourceMap(fileName);
+  }
+
   public Map<MemberDescriptor, SourcePosition> getOutputSourceInfoByMember() {
     return sourceBuilder.getOutputSourceInfoByMember();
   }
@@ -27,8 +27,9 @@ public class JavaScriptHeaderGenerator extends JavaScriptGenerator {
 
   public static final String FILE_SUFFIX = ".java.js";
 
-  public JavaScriptHeaderGenerator(Problems problems, Type type, List<Import> imports) {
-    super(problems, type, imports);
+  public JavaScriptHeaderGenerator(
+      Problems problems, Type type, List<Import> imports, boolean recordSourceMappings) {
+    super(problems, type, imports, recordSourceMappings);
   }
 
   @Override
@@ -52,8 +52,9 @@ public class JavaScriptImplGenerator extends JavaScriptGenerator {
 
   public static final String FILE_SUFFIX = ".impl.java.js";
 
-  public JavaScriptImplGenerator(Problems problems, Type type, List<Import> imports) {
-    super(problems, type, imports);
+  public JavaScriptImplGenerator(
+      Problems problems, Type type, List<Import> imports, boolean recordSourceMappings) {
+    super(problems, type, imports, recordSourceMappings);
     this.closureTypesGenerator = new ClosureTypesGenerator(environment);
   }
 
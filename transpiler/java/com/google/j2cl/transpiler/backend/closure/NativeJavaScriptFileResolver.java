@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 final class NativeJavaScriptFileResolver {
 
@@ -71,7 +72,7 @@ final class NativeJavaScriptFileResolver {
   private final Map<String, NativeJavaScriptFile> byRelativePath;
   private final Map<String, NativeJavaScriptFile> byFullyQualifiedName;
   private final Problems problems;
-  private final Set<NativeJavaScriptFile> usedFiles = new HashSet<>();
+  private final Set<NativeJavaScriptFile> usedFiles = ConcurrentHashMap.newKeySet();
 
   private NativeJavaScriptFileResolver(
       Map<String, NativeJavaScriptFile> byRelativePath,
@@ -128,6 +129,13 @@ final class NativeJavaScriptFileResolver {
     return matchedFile;
   }
 
+  /** Records that the native file was used by a compilation unit whose output was reused. */
+  public void markAsUsed(String relativeFilePath) {
+    byRelativePath.values().stream()
+        .filter(f -> f.getRelativeFilePath().equals(relativeFilePath))
+        .forEach(usedFiles::add);
+  }
+
   public void checkAllFilesUsed() {
     // We're relying on the fact that we populate all files in the byRelativePath map here. If this
     // no longer holds true we should use the union of all the map values.
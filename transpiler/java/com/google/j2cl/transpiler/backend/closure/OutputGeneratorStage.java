@@ -17,21 +17,33 @@ package com.google.j2cl.transpiler.backend.closure;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.j2cl.common.OutputUtils;
 import com.google.j2cl.common.OutputUtils.Output;
 import com.google.j2cl.common.Problems;
-import com.google.j2cl.common.Problems.FatalError;
+import com.google.j2cl.common.SharedThreadLocal;
 import com.google.j2cl.common.SourcePosition;
 import com.google.j2cl.common.SourceUtils.FileInfo;
 import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.Library;
+import com.google.j2cl.transpiler.ast.MemberDescriptor;
 import com.google.j2cl.transpiler.ast.Type;
 import com.google.j2cl.transpiler.ast.TypeDeclaration;
+import com.google.j2cl.transpiler.backend.closure.IncrementalCompilation.CompilationUnitOutputs;
 import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfoBuilder;
-import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import javax.annotation.Nullable;
 
 /**
@@ -47,6 +59,7 @@ public class OutputGeneratorStage {
   private final boolean shouldGenerateReadableSourceMaps;
   private final boolean shouldGenerateReadableLibraryInfo;
   private final boolean generateKytheIndexingMetadata;
+  private final int renderingParallelism;
 
   public OutputGeneratorStage(
       List<FileInfo> nativeJavaScriptFiles,
@@ -55,6 +68,7 @@ public class OutputGeneratorStage {
       boolean shouldGenerateReadableLibraryInfo,
       boolean shouldGenerateReadableSourceMaps,
       boolean generateKytheIndexingMetadata,
+      int renderingParallelism,
       Problems problems) {
     this.nativeJavaScriptFiles = nativeJavaScriptFiles;
     this.output = output;
@@ -62,6 +76,7 @@ public class OutputGeneratorStage {
     this.shouldGenerateReadableLibraryInfo = shouldGenerateReadableLibraryInfo;
     this.shouldGenerateReadableSourceMaps = shouldGenerateReadableSourceMaps;
     this.generateKytheIndexingMetadata = generateKytheIndexingMetadata;
+    this.renderingParallelism = renderingParallelism;
     this.problems = problems;
   }
 
@@ -75,92 +90,54 @@ public class OutputGeneratorStage {
         NativeJavaScriptFileResolver.create(nativeJavaScriptFiles, problems);
     LibraryInfoBuilder libraryInfoBuilder = new LibraryInfoBuilder();
 
-    for (CompilationUnit compilationUnit : library.getCompilationUnits()) {
-      for (Type type : compilationUnit.getTypes()) {
-        List<Import> imports = ImportGatherer.gatherImports(type);
-        JavaScriptImplGenerator jsImplGenerator =
-            new JavaScriptImplGenerator(problems, type, imports);
+    IncrementalCompilation incrementalCompilation = IncrementalCompilation.get();
 
-        String typeRelativePath = getPackageRelativePath(type.getDeclaration());
-
-        NativeJavaScriptFile matchingNativeFile =
-            compilationUnit.isSynthetic()
+    // Compilation units are rendered ahead on the worker threads, but their outputs are emitted in
+    // order so that the output does not depend on the scheduling of the threads.
+    ExecutorService executorService =
+        renderingParallelism > 1
+            ? Executors.newFixedThreadPool(
+                renderingParallelism, SharedThreadLocal.newThreadFactory())
+            : MoreExecutors.newDirectExecutorService();
+    try {
+      Deque<RenderedCompilationUnit> renderedCompilationUnits = new ArrayDeque<>();
+      for (CompilationUnit compilationUnit : library.getCompilationUnits()) {
+        CompilationUnitOutputs cachedOutputs =
+            incrementalCompilation == null
                 ? null
-                : nativeJavaScriptFileResolver.getMatchingNativeFile(compilationUnit, type);
-
-        if (matchingNativeFile != null) {
-          jsImplGenerator.setNativeSource(matchingNativeFile);
-
-          // Native JsTypes are mere references to external JavaScript types, adding native code
-          // through native.js files does not make sense. Non-native JsEnums on the other hand are
-          // emitted by J2CL but are not JavaScript classes, "native.js" files are not allowed in
-          // this case to avoid surprises.
-          TypeDeclaration typeDeclaration = type.getUnderlyingTypeDeclaration();
-          if (typeDeclaration.isNative() || typeDeclaration.isJsEnum()) {
-            problems.error(
-                "%s '%s' does not support having a '.native.js' file.",
-                typeDeclaration.isJsEnum() ? "JsEnum" : "Native JsType",
-                typeDeclaration.getReadableDescription());
-            continue;
-          }
-
-          // Copy native js file to output.
-          output.write(matchingNativeFile.getRelativeFilePath(), matchingNativeFile.getContent());
-        }
-
-        String javaScriptImplementationSource = jsImplGenerator.renderOutput();
-
-        JavaScriptHeaderGenerator jsHeaderGenerator =
-            new JavaScriptHeaderGenerator(problems, type, imports);
-        String javaScriptHeaderSource = jsHeaderGenerator.renderOutput();
-
-        if (generateKytheIndexingMetadata) {
-          // Inline metadata so that Kythe can create edges between these files and the Java source
-          // file.
-          javaScriptHeaderSource +=
-              renderKytheIndexingMetadata(jsHeaderGenerator.getSourceMappings());
-          javaScriptImplementationSource +=
-              renderKytheIndexingMetadata(jsImplGenerator.getSourceMappings());
-        } else {
-          String sourceMap = renderSourceMap(type, jsImplGenerator.getSourceMappings());
-
-          if (sourceMap != null) {
-            javaScriptImplementationSource +=
-                String.format(
-                    "%n//# sourceMappingURL=%s\n",
-                    type.getDeclaration().getSimpleBinaryName() + SOURCE_MAP_SUFFIX);
-            output.write(typeRelativePath + SOURCE_MAP_SUFFIX, sourceMap);
-          }
-        }
-
-        if (shouldGenerateReadableSourceMaps && !compilationUnit.isSynthetic()) {
-          outputReadableSourceMap(
-              compilationUnit,
-              type,
-              javaScriptImplementationSource,
-              jsImplGenerator.getSourceMappings(),
-              matchingNativeFile);
-        }
-
-        String implRelativePath = typeRelativePath + jsImplGenerator.getSuffix();
-        output.write(implRelativePath, javaScriptImplementationSource);
-
-        String headerRelativePath = typeRelativePath + jsHeaderGenerator.getSuffix();
-        output.write(headerRelativePath, javaScriptHeaderSource);
-
-        if (libraryInfoOutputPath != null || shouldGenerateReadableLibraryInfo) {
-          libraryInfoBuilder.addType(
-              type,
-              headerRelativePath,
-              implRelativePath,
-              jsImplGenerator.getOutputSourceInfoByMember());
+                : incrementalCompilation.getCachedOutputs(compilationUnit);
+        renderedCompilationUnits.add(
+            cachedOutputs != null
+                ? new RenderedCompilationUnit(compilationUnit, cachedOutputs)
+                : new RenderedCompilationUnit(
+                    compilationUnit,
+                    executorService,
+                    p ->
+                        generateOutputs(
+                            compilationUnit,
+                            nativeJavaScriptFileResolver,
+                            incrementalCompilation != null,
+                            p)));
+
+        // Bound the number of rendered compilation units that are waiting to be emitted.
+        if (renderedCompilationUnits.size()
+            > MAX_PENDING_COMPILATION_UNITS_PER_THREAD * renderingParallelism) {
+          emitOutputs(
+              renderedCompilationUnits.remove(),
+              nativeJavaScriptFileResolver,
+              libraryInfoBuilder,
+              incrementalCompilation);
         }
       }
-
-      if (!generateKytheIndexingMetadata && !compilationUnit.isSynthetic()) {
-        // Copy java sources to output.
-        output.copyFile(compilationUnit.getFilePath(), compilationUnit.getPackageRelativePath());
+      while (!renderedCompilationUnits.isEmpty()) {
+        emitOutputs(
+            renderedCompilationUnits.remove(),
+            nativeJavaScriptFileResolver,
+            libraryInfoBuilder,
+            incrementalCompilation);
       }
+    } finally {
+      executorService.shutdownNow();
     }
 
     if (shouldGenerateReadableLibraryInfo) {
@@ -173,6 +150,192 @@ public class OutputGeneratorStage {
 
     // Error if any of the native implementation files were not used.
     nativeJavaScriptFileResolver.checkAllFilesUsed();
+
+    if (incrementalCompilation != null) {
+      incrementalCompilation.trimToSize();
+    }
+  }
+
+  private static final int MAX_PENDING_COMPILATION_UNITS_PER_THREAD = 4;
+
+  /** The outputs of a compilation unit, which might still be being rendered. */
+  private static final class RenderedCompilationUnit {
+    private final CompilationUnit compilationUnit;
+    private final Problems problems = new Problems();
+    private final Future<CompilationUnitOutputs> outputs;
+    private final boolean isCached;
+
+    private RenderedCompilationUnit(
+        CompilationUnit compilationUnit, CompilationUnitOutputs cachedOutputs) {
+      this.compilationUnit = compilationUnit;
+      this.outputs = Futures.immediateFuture(cachedOutputs);
+      this.isCached = true;
+    }
+
+    private RenderedCompilationUnit(
+        CompilationUnit compilationUnit,
+        ExecutorService executorService,
+        Function<Problems, CompilationUnitOutputs> renderer) {
+      this.compilationUnit = compilationUnit;
+      this.outputs = executorService.submit(() -> renderer.apply(problems));
+      this.isCached = false;
+    }
+  }
+
+  /** Emits the outputs of a compilation unit once it has been rendered. */
+  private void emitOutputs(
+      RenderedCompilationUnit renderedCompilationUnit,
+      NativeJavaScriptFileResolver nativeJavaScriptFileResolver,
+      LibraryInfoBuilder libraryInfoBuilder,
+      @Nullable IncrementalCompilation incrementalCompilation) {
+    CompilationUnitOutputs compilationUnitOutputs;
+    try {
+      compilationUnitOutputs = Uninterruptibles.getUninterruptibly(renderedCompilationUnit.outputs);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new AssertionError(e.getCause());
+    } finally {
+      // Problems are reported in compilation unit order, regardless of which thread rendered them.
+      problems.merge(renderedCompilationUnit.problems);
+    }
+
+    CompilationUnit compilationUnit = renderedCompilationUnit.compilationUnit;
+    compilationUnitOutputs.getContentByPath().forEach(output::write);
+    if (renderedCompilationUnit.isCached) {
+      // The compilation unit has not changed, the outputs are from a previous compilation.
+      compilationUnitOutputs
+          .getNativeFilePaths()
+          .forEach(nativeJavaScriptFileResolver::markAsUsed);
+    } else if (incrementalCompilation != null && !renderedCompilationUnit.problems.hasErrors()) {
+      incrementalCompilation.store(compilationUnit, compilationUnitOutputs);
+    }
+
+    if (libraryInfoOutputPath != null || shouldGenerateReadableLibraryInfo) {
+      if (incrementalCompilation != null) {
+        // Library info is assembled from per compilation unit fragments so that it is the same
+        // whether the compilation unit outputs were generated or reused.
+        libraryInfoBuilder.addLibraryInfo(compilationUnitOutputs.getLibraryInfo());
+      } else {
+        compilationUnitOutputs.addLibraryInfoTypesTo(libraryInfoBuilder);
+      }
+    }
+
+    if (!generateKytheIndexingMetadata && !compilationUnit.isSynthetic()) {
+      // Copy java sources to output.
+      output.copyFile(compilationUnit.getFilePath(), compilationUnit.getPackageRelativePath());
+    }
+  }
+
+  /**
+   * Generates the outputs for the types in a compilation unit and returns them.
+   *
+   * <p>Rendering only reads the AST, so compilation units can be rendered concurrently; each
+   * reporting to its own {@code problems}. The library info fragment of the compilation unit is
+   * only built if {@code isIncremental}, since it is only needed to store the outputs.
+   */
+  private CompilationUnitOutputs generateOutputs(
+      CompilationUnit compilationUnit,
+      NativeJavaScriptFileResolver nativeJavaScriptFileResolver,
+      boolean isIncremental,
+      Problems problems) {
+    CompilationUnitOutputs compilationUnitOutputs = new CompilationUnitOutputs();
+
+    for (Type type : compilationUnit.getTypes()) {
+      List<Import> imports = ImportGatherer.gatherImports(type);
+      boolean shouldOutputReadableSourceMap =
+          shouldGenerateReadableSourceMaps && !compilationUnit.isSynthetic();
+      // The mappings are only needed as such by the Kythe metadata and the readable source maps.
+      JavaScriptImplGenerator jsImplGenerator =
+          new JavaScriptImplGenerator(
+              problems,
+              type,
+              imports,
+              generateKytheIndexingMetadata || shouldOutputReadableSourceMap);
+
+      String typeRelativePath = getPackageRelativePath(type.getDeclaration());
+
+      NativeJavaScriptFile matchingNativeFile =
+          compilationUnit.isSynthetic()
+              ? null
+              : nativeJavaScriptFileResolver.getMatchingNativeFile(compilationUnit, type);
+
+      if (matchingNativeFile != null) {
+        jsImplGenerator.setNativeSource(matchingNativeFile);
+
+        // Native JsTypes are mere references to external JavaScript types, adding native code
+        // through native.js files does not make sense. Non-native JsEnums on the other hand are
+        // emitted by J2CL but are not JavaScript classes, "native.js" files are not allowed in
+        // this case to avoid surprises.
+        TypeDeclaration typeDeclaration = type.getUnderlyingTypeDeclaration();
+        if (typeDeclaration.isNative() || typeDeclaration.isJsEnum()) {
+          problems.error(
+              "%s '%s' does not support having a '.native.js' file.",
+              typeDeclaration.isJsEnum() ? "JsEnum" : "Native JsType",
+              typeDeclaration.getReadableDescription());
+          continue;
+        }
+
+        // Copy native js file to output.
+        compilationUnitOutputs.addNativeFile(matchingNativeFile);
+        compilationUnitOutputs.addOutput(
+            matchingNativeFile.getRelativeFilePath(), matchingNativeFile.getContent());
+      }
+
+      String javaScriptImplementationSource = jsImplGenerator.renderOutput();
+
+      JavaScriptHeaderGenerator jsHeaderGenerator =
+          new JavaScriptHeaderGenerator(problems, type, imports, generateKytheIndexingMetadata);
+      String javaScriptHeaderSource = jsHeaderGenerator.renderOutput();
+
+      if (generateKytheIndexingMetadata) {
+        // Inline metadata so that Kythe can create edges between these files and the Java source
+        // file.
+        javaScriptHeaderSource +=
+            renderKytheIndexingMetadata(jsHeaderGenerator.getSourceMappings());
+        javaScriptImplementationSource +=
+            renderKytheIndexingMetadata(jsImplGenerator.getSourceMappings());
+      } else {
+        String sourceMap = SourceMapGeneratorStage.generateSourceMaps(type, jsImplGenerator);
+        javaScriptImplementationSource +=
+            String.format(
+                "%n//# sourceMappingURL=%s\n",
+                type.getDeclaration().getSimpleBinaryName() + SOURCE_MAP_SUFFIX);
+        compilationUnitOutputs.addOutput(typeRelativePath + SOURCE_MAP_SUFFIX, sourceMap);
+      }
+
+      if (shouldOutputReadableSourceMap) {
+        outputReadableSourceMap(
+            compilationUnitOutputs,
+            compilationUnit,
+            type,
+            javaScriptImplementationSource,
+            jsImplGenerator.getSourceMappings(),
+            matchingNativeFile,
+            problems);
+      }
+
+      String implRelativePath = typeRelativePath + jsImplGenerator.getSuffix();
+      compilationUnitOutputs.addOutput(implRelativePath, javaScriptImplementationSource);
+
+      String headerRelativePath = typeRelativePath + jsHeaderGenerator.getSuffix();
+      compilationUnitOutputs.addOutput(headerRelativePath, javaScriptHeaderSource);
+
+      if (libraryInfoOutputPath != null || shouldGenerateReadableLibraryInfo) {
+        Map<MemberDescriptor, SourcePosition> outputSourceInfoByMember =
+            jsImplGenerator.getOutputSourceInfoByMember();
+        compilationUnitOutputs.addLibraryInfoType(
+            libraryInfoBuilder ->
+                libraryInfoBuilder.addType(
+                    type, headerRelativePath, implRelativePath, outputSourceInfoByMember));
+      }
+    }
+
+    if (isIncremental) {
+      LibraryInfoBuilder libraryInfoBuilder = new LibraryInfoBuilder();
+      compilationUnitOutputs.addLibraryInfoTypesTo(libraryInfoBuilder);
+      compilationUnitOutputs.setLibraryInfo(libraryInfoBuilder.toByteArray());
+    }
+    return compilationUnitOutputs;
   }
 
   private static final String SOURCE_MAP_SUFFIX = ".js.map";
@@ -202,24 +365,14 @@ public class OutputGeneratorStage {
     return String.format("%n// Kythe Indexing Metadata:%n// %s", metadata.toJson());
   }
 
-  @Nullable
-  private String renderSourceMap(
-      Type type, Map<SourcePosition, SourcePosition> javaSourcePositionByOutputSourcePosition) {
-    try {
-      return SourceMapGeneratorStage.generateSourceMaps(
-          type, javaSourcePositionByOutputSourcePosition);
-    } catch (IOException e) {
-      problems.fatal(FatalError.CANNOT_WRITE_FILE, e.toString());
-      return null;
-    }
-  }
-
-  private void outputReadableSourceMap(
+  private static void outputReadableSourceMap(
+      CompilationUnitOutputs compilationUnitOutputs,
       CompilationUnit j2clUnit,
       Type type,
       String javaScriptImplementationFileContents,
       Map<SourcePosition, SourcePosition> javaSourcePositionByOutputSourcePosition,
-      NativeJavaScriptFile nativeJavaScriptFile) {
+      NativeJavaScriptFile nativeJavaScriptFile,
+      Problems problems) {
     checkArgument(
         !j2clUnit.isSynthetic(), "Cannot generate sourcemap for synthetic CompilationUnit");
     String readableOutput =
@@ -232,7 +385,7 @@ public class OutputGeneratorStage {
     if (!readableOutput.isEmpty()) {
       String readableSourceMapRelativePath =
           getPackageRelativePath(type.getDeclaration()) + READABLE_MAPPINGS_SUFFIX;
-      output.write(readableSourceMapRelativePath, readableOutput);
+      compilationUnitOutputs.addOutput(readableSourceMapRelativePath, readableOutput);
     }
   }
 
@@ -15,55 +15,14 @@
  */
 package com.google.j2cl.transpiler.backend.closure;
 
-import com.google.debugging.sourcemap.FilePosition;
-import com.google.debugging.sourcemap.SourceMapFormat;
-import com.google.debugging.sourcemap.SourceMapGenerator;
-import com.google.debugging.sourcemap.SourceMapGeneratorFactory;
-import com.google.j2cl.common.SourcePosition;
 import com.google.j2cl.transpiler.ast.Type;
-import java.io.IOException;
-import java.util.Map;
-import java.util.Map.Entry;
 
 /** Generates the source maps. */
 public final class SourceMapGeneratorStage {
 
-  public static String generateSourceMaps(
-      Type type, Map<SourcePosition, SourcePosition> javaSourcePositionByOutputSourcePosition)
-      throws IOException {
-    return renderSourceMapToString(type, javaSourcePositionByOutputSourcePosition);
-  }
-
-  private static String renderSourceMapToString(
-      Type type, Map<SourcePosition, SourcePosition> javaSourcePositionByOutputSourcePosition)
-      throws IOException {
-    SourceMapGenerator sourceMapGenerator =
-        SourceMapGeneratorFactory.getInstance(SourceMapFormat.V3);
-    for (Entry<SourcePosition, SourcePosition> entry :
-        javaSourcePositionByOutputSourcePosition.entrySet()) {
-      SourcePosition javaSourcePosition = entry.getValue();
-      SourcePosition javaScriptSourcePosition = entry.getKey();
-
-      sourceMapGenerator.addMapping(
-          javaSourcePosition.getFileName(),
-          javaSourcePosition.getName(),
-          toFilePosition(javaSourcePosition.getStartFilePosition()),
-          toFilePosition(javaScriptSourcePosition.getStartFilePosition()),
-          toFilePosition(javaScriptSourcePosition.getEndFilePosition()));
-    }
-    StringBuilder sb = new StringBuilder();
+  public static String generateSourceMaps(Type type, JavaScriptImplGenerator jsImplGenerator) {
     String typeName = type.getDeclaration().getSimpleBinaryName();
-    sourceMapGenerator.appendTo(sb, typeName + JavaScriptImplGenerator.FILE_SUFFIX);
-    return sb.toString();
-  }
-
-  /**
-   * Converts a j2cl File Position to a JsCompiler sourcemap File Position.
-   *
-   * @return JsCompiler sourcemap File Position
-   */
-  private static FilePosition toFilePosition(com.google.j2cl.common.FilePosition j2clFilePosition) {
-    return new FilePosition(j2clFilePosition.getLine(), j2clFilePosition.getColumn());
+    return jsImplGenerator.buildSourceMap(typeName + JavaScriptImplGenerator.FILE_SUFFIX);
   }
 
   private SourceMapGeneratorStage() {}
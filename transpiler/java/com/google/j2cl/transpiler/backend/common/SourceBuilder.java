@@ -21,6 +21,7 @@ import static com.google.common.base.Preconditions.checkState;
 import com.google.common.base.CharMatcher;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.j2cl.common.FilePosition;
 import com.google.j2cl.common.SourcePosition;
 import com.google.j2cl.transpiler.ast.MemberDescriptor;
@@ -28,9 +29,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.function.Consumer;
+import javax.annotation.Nullable;
 
 /** Builds source and tracks line numbers using a StringBuilder. */
 public class SourceBuilder {
@@ -48,8 +51,11 @@ public class SourceBuilder {
   private int currentColumn = 0;
   private int currentLength = 0;
   private int currentIndentation = 0;
-  private final SortedMap<SourcePosition, SourcePosition> javaSourceInfoByOutputSourceInfo =
-      new TreeMap<>();
+  /** The mappings in the order they were recorded, or null if they are only encoded. */
+  @Nullable
+  private final List<Entry<SourcePosition, SourcePosition>> javaSourceInfoByOutputSourceInfo;
+
+  private final SourceMapEncoder sourceMapEncoder = new SourceMapEncoder();
   private final Map<MemberDescriptor, SourcePosition> outputSourceInfoByMember = new HashMap<>();
   private boolean finished = false;
 
@@ -59,16 +65,37 @@ public class SourceBuilder {
   private final StringBuilder sb = new StringBuilder();
   private final ArrayList<String> outputs = new ArrayList<>();
 
+  public SourceBuilder() {
+    this(/* recordMappings= */ false);
+  }
+
+  /**
+   * Creates a source builder that, if {@code recordMappings} is set, keeps the mappings to be
+   * returned by {@link #getMappings} in addition to encoding them in the source map.
+   */
+  public SourceBuilder(boolean recordMappings) {
+    this.javaSourceInfoByOutputSourceInfo = recordMappings ? new ArrayList<>() : null;
+  }
+
   public void emitWithMapping(SourcePosition javaSourcePosition, Runnable codeEmitter) {
     checkNotNull(javaSourcePosition);
 
+    if (javaSourcePosition == SourcePosition.NONE) {
+      // Do not record empty mappings.
+      codeEmitter.run();
+      return;
+    }
+
+    sourceMapEncoder.startMapping(currentLine, currentColumn, javaSourcePosition);
     SourcePosition outputSourcePosition = emit(codeEmitter);
+    sourceMapEncoder.endMapping(currentLine, currentColumn);
 
-    if (outputSourcePosition == SourcePosition.NONE || javaSourcePosition == SourcePosition.NONE) {
+    if (outputSourcePosition == SourcePosition.NONE || javaSourceInfoByOutputSourceInfo == null) {
       // Do not record empty mappings.
       return;
     }
-    javaSourceInfoByOutputSourceInfo.put(outputSourcePosition, javaSourcePosition);
+    javaSourceInfoByOutputSourceInfo.add(
+        Maps.immutableEntry(outputSourcePosition, javaSourcePosition));
   }
 
   public void emitWithMemberMapping(MemberDescriptor memberDescriptor, Runnable codeEmitter) {
@@ -135,7 +162,20 @@ public class SourceBuilder {
   }
 
   public SortedMap<SourcePosition, SourcePosition> getMappings() {
-    return javaSourceInfoByOutputSourceInfo;
+    checkState(javaSourceInfoByOutputSourceInfo != null, "The mappings are not recorded.");
+    SortedMap<SourcePosition, SourcePosition> mappings = new TreeMap<>();
+    javaSourceInfoByOutputSourceInfo.forEach(e -> mappings.put(e.getKey(), e.getValue()));
+    return mappings;
+  }
+
+  /**
+   * Returns the source map of the output, named {@code fileName}.
+   *
+   * <p>The source map is encoded as the code is emitted, so that the mappings do not need to be
+   * sorted nor copied.
+   */
+  public String buildSourceMap(String fileName) {
+    return sourceMapEncoder.encode(fileName);
   }
 
   public ImmutableMap<MemberDescriptor, SourcePosition> getOutputSourceInfoByMember() {
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.backend.common;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.j2cl.common.SourcePosition;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Encodes a version 3 source map as the mappings are emitted, in output order.
+ *
+ * <p>Mappings can be nested; the code that follows a nested mapping is mapped again to the
+ * enclosing one. As each segment is only written once a segment at a later position is, a mapping
+ * that turns out to cover no code leaves no trace in the source map.
+ *
+ * <p>The result decodes to the same mappings as the ones produced by the closure source map
+ * generator from the mappings sorted by their start, which is what the transpiler used before. In
+ * particular when nested mappings start at the same position the code of the innermost one is
+ * mapped to the outermost one, and the code that follows it to the mapping that encloses them all.
+ */
+public final class SourceMapEncoder {
+  private static final String BASE64_DIGITS =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+  /** A segment of the mappings, i.e. the source position of the code from an output position. */
+  private static final class Segment {
+    private final int line;
+    private final int column;
+    /** The source position, or null if the code is not mapped. */
+    @Nullable private final SourcePosition sourcePosition;
+    /** The segment before this one if it has not been written yet. */
+    @Nullable private final Segment previousSegment;
+
+    private Segment(
+        int line,
+        int column,
+        @Nullable SourcePosition sourcePosition,
+        @Nullable Segment previousSegment) {
+      this.line = line;
+      this.column = column;
+      this.sourcePosition = sourcePosition;
+      this.previousSegment = previousSegment;
+    }
+
+    private boolean isAt(int line, int column) {
+      return this.line == line && this.column == column;
+    }
+  }
+
+  /** A mapping that has started and not ended yet. */
+  private static final class OpenMapping {
+    private final int line;
+    private final int column;
+    /** The segment that was pending when the mapping started. */
+    @Nullable private final Segment previousPendingSegment;
+    /** The source position of the code that follows the mappings nested in this one. */
+    @Nullable private SourcePosition resumedSourcePosition;
+    /** The enclosing mapping that starts at the same position, if any. */
+    @Nullable private OpenMapping truncatedMapping;
+
+    private OpenMapping(
+        SourcePosition sourcePosition,
+        int line,
+        int column,
+        @Nullable Segment previousPendingSegment) {
+      this.line = line;
+      this.column = column;
+      this.previousPendingSegment = previousPendingSegment;
+      this.resumedSourcePosition = sourcePosition;
+    }
+
+    private boolean isAt(int line, int column) {
+      return this.line == line && this.column == column;
+    }
+  }
+
+  private final Function<SourcePosition, String> sourceNameFunction;
+  private final StringBuilder mappings = new StringBuilder();
+  private final Map<String, Integer> sourceIndexBySourceName = new LinkedHashMap<>();
+  private final Map<String, Integer> nameIndexByName = new LinkedHashMap<>();
+  private final List<OpenMapping> openMappings = new ArrayList<>();
+  /** The last segment, which has not been written yet; the code is unmapped up to the first one. */
+  private Segment pendingSegment = new Segment(0, 0, null, null);
+
+  // The mappings are encoded relative to the previous segment.
+  private int line;
+  private int column;
+  private boolean isFirstSegmentInLine = true;
+  private int sourceIndex;
+  private int sourceLine;
+  private int sourceColumn;
+  private int nameIndex;
+
+  /** Creates an encoder that refers to the sources by their file name. */
+  public SourceMapEncoder() {
+    this(SourcePosition::getFileName);
+  }
+
+  /** Creates an encoder that refers to the sources by the name {@code sourceNameFunction} gives. */
+  public SourceMapEncoder(Function<SourcePosition, String> sourceNameFunction) {
+    this.sourceNameFunction = sourceNameFunction;
+  }
+
+  /** Starts mapping the code at {@code line} and {@code column} to {@code sourcePosition}. */
+  public void startMapping(int line, int column, SourcePosition sourcePosition) {
+    OpenMapping enclosingMapping = getInnermostOpenMapping();
+    OpenMapping mapping = new OpenMapping(sourcePosition, line, column, pendingSegment);
+    if (enclosingMapping != null && enclosingMapping.isAt(line, column)) {
+      // The enclosing mapping starts at the same position and takes precedence, but only until
+      // this mapping ends; the code that follows is mapped to the mapping that encloses both.
+      mapping.resumedSourcePosition = enclosingMapping.resumedSourcePosition;
+      mapping.truncatedMapping = enclosingMapping;
+      int openMappingCount = openMappings.size();
+      enclosingMapping.resumedSourcePosition =
+          openMappingCount > 1
+              ? openMappings.get(openMappingCount - 2).resumedSourcePosition
+              : null;
+      openMappings.add(mapping);
+      return;
+    }
+    openMappings.add(mapping);
+    // The pending segment is kept until the output moves past the start of this mapping, since the
+    // mapping might cover no code.
+    pendingSegment =
+        new Segment(
+            line,
+            column,
+            sourcePosition,
+            pendingSegment.isAt(line, column) ? pendingSegment.previousSegment : pendingSegment);
+  }
+
+  /** Ends the innermost mapping at {@code line} and {@code column}. */
+  public void endMapping(int line, int column) {
+    checkState(!openMappings.isEmpty(), "No mapping to end.");
+    OpenMapping mapping = openMappings.remove(openMappings.size() - 1);
+    if (mapping.isAt(line, column)) {
+      // The mapping covers no code, hence it is dropped.
+      pendingSegment = mapping.previousPendingSegment;
+      if (mapping.truncatedMapping != null) {
+        mapping.truncatedMapping.resumedSourcePosition = mapping.resumedSourcePosition;
+      }
+      return;
+    }
+    OpenMapping enclosingMapping = getInnermostOpenMapping();
+    SourcePosition resumedSourcePosition =
+        enclosingMapping == null ? null : enclosingMapping.resumedSourcePosition;
+    if (pendingSegment.sourcePosition == resumedSourcePosition) {
+      // The code from the pending segment on is already mapped to the same position.
+      return;
+    }
+    if (pendingSegment.isAt(line, column)) {
+      pendingSegment =
+          new Segment(line, column, resumedSourcePosition, pendingSegment.previousSegment);
+      return;
+    }
+    writeSegment(pendingSegment);
+    pendingSegment = new Segment(line, column, resumedSourcePosition, null);
+  }
+
+  @Nullable
+  private OpenMapping getInnermostOpenMapping() {
+    return openMappings.isEmpty() ? null : openMappings.get(openMappings.size() - 1);
+  }
+
+  private void writeSegment(Segment segment) {
+    if (segment.previousSegment != null) {
+      writeSegment(segment.previousSegment);
+    }
+    advanceToLine(segment.line);
+    if (!isFirstSegmentInLine) {
+      mappings.append(',');
+    }
+    isFirstSegmentInLine = false;
+
+    writeVlq(segment.column - column);
+    column = segment.column;
+
+    SourcePosition sourcePosition = segment.sourcePosition;
+    if (sourcePosition == null) {
+      return;
+    }
+    int segmentSourceIndex =
+        getIndex(sourceIndexBySourceName, sourceNameFunction.apply(sourcePosition));
+    writeVlq(segmentSourceIndex - sourceIndex);
+    sourceIndex = segmentSourceIndex;
+    int segmentSourceLine = sourcePosition.getStartFilePosition().getLine();
+    writeVlq(segmentSourceLine - sourceLine);
+    sourceLine = segmentSourceLine;
+    int segmentSourceColumn = sourcePosition.getStartFilePosition().getColumn();
+    writeVlq(segmentSourceColumn - sourceColumn);
+    sourceColumn = segmentSourceColumn;
+    if (sourcePosition.getName() != null) {
+      int segmentNameIndex = getIndex(nameIndexByName, sourcePosition.getName());
+      writeVlq(segmentNameIndex - nameIndex);
+      nameIndex = segmentNameIndex;
+    }
+  }
+
+  private void advanceToLine(int line) {
+    if (line == this.line) {
+      return;
+    }
+    for (; this.line < line; this.line++) {
+      mappings.append(';');
+    }
+    column = 0;
+    isFirstSegmentInLine = true;
+  }
+
+  private static int getIndex(Map<String, Integer> indexByValue, String value) {
+    return indexByValue.computeIfAbsent(value, v -> indexByValue.size());
+  }
+
+  /** Writes {@code value} as a base64 variable length quantity. */
+  private void writeVlq(int value) {
+    // The sign is stored in the least significant bit.
+    long vlq = value < 0 ? ((-(long) value) << 1) | 1 : ((long) value) << 1;
+    do {
+      int digit = (int) (vlq & 0x1f);
+      vlq >>>= 5;
+      mappings.append(BASE64_DIGITS.charAt(vlq != 0 ? digit | 0x20 : digit));
+    } while (vlq != 0);
+  }
+
+  /** Returns the source map for the output file {@code fileName}. */
+  public String encode(String fileName) {
+    checkState(openMappings.isEmpty(), "Some mappings have not ended.");
+    // Once all mappings have ended the code is unmapped from the pending segment on, which only
+    // needs to count the lines up to the end of the last mapping.
+    advanceToLine(pendingSegment.line);
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\n\"version\":3,\n\"file\":");
+    appendJsonString(sb, fileName);
+    sb.append(",\n\"lineCount\":").append(line + 1);
+    sb.append(",\n\"mappings\":\"").append(mappings).append('"');
+    sb.append(",\n\"sources\":");
+    appendJsonArray(sb, sourceIndexBySourceName.keySet());
+    sb.append(",\n\"names\":");
+    appendJsonArray(sb, nameIndexByName.keySet());
+    return sb.append("\n}\n").toString();
+  }
+
+  private static void appendJsonArray(StringBuilder sb, Iterable<String> values) {
+    sb.append('[');
+    String separator = "";
+    for (String value : values) {
+      sb.append(separator);
+      appendJsonString(sb, value);
+      separator = ",";
+    }
+    sb.append(']');
+  }
+
+  private static void appendJsonString(StringBuilder sb, String value) {
+    sb.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    sb.append('"');
+  }
+}
@@ -39,14 +39,17 @@ import com.google.j2cl.transpiler.ast.MethodDescriptor;
 import com.google.j2cl.transpiler.ast.Statement;
 import com.google.j2cl.transpiler.ast.Type;
 import com.google.j2cl.transpiler.ast.TypeDescriptors;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.util.JsonFormat;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntUnaryOperator;
 import javax.annotation.Nullable;
 
 /** Traverse types and gather execution flow information for building call graph. */
@@ -333,8 +336,59 @@ public final class LibraryInfoBuilder {
   }
 
   private int getTypeId(DeclaredTypeDescriptor typeDescriptor) {
+    return getTypeId(typeDescriptor.getQualifiedJsName());
+  }
+
+  private int getTypeId(String qualifiedJsName) {
     // Note that the IDs start from '1' to reserve '0' for NULL_TYPE.
-    return types.computeIfAbsent(typeDescriptor.getQualifiedJsName(), x -> types.size() + 1);
+    return types.computeIfAbsent(qualifiedJsName, x -> types.size() + 1);
+  }
+
+  /**
+   * Adds the types from a serialized library info that was built separately, e.g. for a single
+   * compilation unit, renumbering its type ids into the ones of this builder.
+   */
+  public void addLibraryInfo(byte[] serializedLibraryInfo) {
+    try {
+      addLibraryInfo(LibraryInfo.parseFrom(serializedLibraryInfo));
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private void addLibraryInfo(LibraryInfo other) {
+    List<String> typeNames = other.getTypeNamesList();
+    IntUnaryOperator toTypeId =
+        typeId -> typeId == NULL_TYPE ? NULL_TYPE : getTypeId(typeNames.get(typeId));
+
+    for (TypeInfo typeInfo : other.getTypesList()) {
+      TypeInfo.Builder typeInfoBuilder =
+          typeInfo.toBuilder()
+              .setTypeId(toTypeId.applyAsInt(typeInfo.getTypeId()))
+              .setExtendsType(toTypeId.applyAsInt(typeInfo.getExtendsType()))
+              .clearImplementsTypes()
+              .clearMembers();
+      typeInfo.getImplementsTypesList().stream()
+          .mapToInt(Integer::intValue)
+          .map(toTypeId)
+          .forEach(typeInfoBuilder::addImplementsTypes);
+
+      for (MemberInfo memberInfo : typeInfo.getMembersList()) {
+        MemberInfo.Builder memberInfoBuilder =
+            memberInfo.toBuilder().clearInvokedMethods().clearReferencedTypes();
+        for (MethodInvocation methodInvocation : memberInfo.getInvokedMethodsList()) {
+          memberInfoBuilder.addInvokedMethods(
+              methodInvocation.toBuilder()
+                  .setEnclosingType(toTypeId.applyAsInt(methodInvocation.getEnclosingType())));
+        }
+        memberInfo.getReferencedTypesList().stream()
+            .mapToInt(Integer::intValue)
+            .map(toTypeId)
+            .forEach(memberInfoBuilder::addReferencedTypes);
+        typeInfoBuilder.addMembers(memberInfoBuilder);
+      }
+      libraryInfo.addTypes(typeInfoBuilder);
+    }
   }
 
   private LibraryInfo build() {
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.backend.wasm;
+
+import com.google.j2cl.transpiler.ast.BinaryExpression;
+import com.google.j2cl.transpiler.ast.BooleanLiteral;
+import com.google.j2cl.transpiler.ast.CastExpression;
+import com.google.j2cl.transpiler.ast.Expression;
+import com.google.j2cl.transpiler.ast.FieldAccess;
+import com.google.j2cl.transpiler.ast.NumberLiteral;
+import com.google.j2cl.transpiler.ast.PrefixExpression;
+import com.google.j2cl.transpiler.ast.PrimitiveTypeDescriptor;
+import com.google.j2cl.transpiler.ast.TypeDescriptor;
+import com.google.j2cl.transpiler.ast.TypeDescriptors;
+import javax.annotation.Nullable;
+
+/**
+ * Computes the values of the primitive constant expressions that can be laid out in data segments.
+ *
+ * <p>Values follow the Java semantics of the type of each expression; integral values, including
+ * chars and booleans, are represented as longs and floating point values as doubles.
+ */
+final class ConstantFolder {
+
+  /** Returns the value of {@code expression}, or null if it is not a supported constant. */
+  @Nullable
+  static Number evaluate(Expression expression) {
+    if (expression instanceof NumberLiteral) {
+      NumberLiteral numberLiteral = (NumberLiteral) expression;
+      return convert(numberLiteral.getValue(), numberLiteral.getTypeDescriptor());
+    }
+    if (expression instanceof BooleanLiteral) {
+      return ((BooleanLiteral) expression).getValue() ? 1L : 0L;
+    }
+    if (expression instanceof FieldAccess) {
+      var fieldDescriptor = ((FieldAccess) expression).getTarget();
+      return fieldDescriptor.isCompileTimeConstant() && fieldDescriptor.getConstantValue() != null
+          ? evaluate(fieldDescriptor.getConstantValue())
+          : null;
+    }
+    if (!(expression.getTypeDescriptor() instanceof PrimitiveTypeDescriptor)) {
+      return null;
+    }
+    PrimitiveTypeDescriptor typeDescriptor =
+        (PrimitiveTypeDescriptor) expression.getTypeDescriptor();
+    if (expression instanceof CastExpression) {
+      Number value = evaluate(((CastExpression) expression).getExpression());
+      return value == null ? null : convert(value, typeDescriptor);
+    }
+    if (expression instanceof PrefixExpression) {
+      PrefixExpression prefixExpression = (PrefixExpression) expression;
+      Number value = evaluate(prefixExpression.getOperand());
+      return value == null ? null : evaluatePrefix(prefixExpression, value, typeDescriptor);
+    }
+    if (expression instanceof BinaryExpression) {
+      BinaryExpression binaryExpression = (BinaryExpression) expression;
+      Number left = evaluate(binaryExpression.getLeftOperand());
+      Number right = evaluate(binaryExpression.getRightOperand());
+      return left == null || right == null
+          ? null
+          : evaluateBinary(binaryExpression, left, right, typeDescriptor);
+    }
+    return null;
+  }
+
+  @Nullable
+  private static Number evaluatePrefix(
+      PrefixExpression expression, Number value, PrimitiveTypeDescriptor typeDescriptor) {
+    switch (expression.getOperator()) {
+      case PLUS:
+        return convert(value, typeDescriptor);
+      case MINUS:
+        return isFloatingPoint(typeDescriptor)
+            ? convert(-value.doubleValue(), typeDescriptor)
+            : convert(-value.longValue(), typeDescriptor);
+      case COMPLEMENT:
+        return isFloatingPoint(typeDescriptor) ? null : convert(~value.longValue(), typeDescriptor);
+      case NOT:
+        return value.longValue() == 0 ? 1L : 0L;
+      default:
+        return null;
+    }
+  }
+
+  @Nullable
+  private static Number evaluateBinary(
+      BinaryExpression expression,
+      Number left,
+      Number right,
+      PrimitiveTypeDescriptor typeDescriptor) {
+    if (isFloatingPoint(typeDescriptor)) {
+      double l = left.doubleValue();
+      double r = right.doubleValue();
+      switch (expression.getOperator()) {
+        case PLUS:
+          return convert(l + r, typeDescriptor);
+        case MINUS:
+          return convert(l - r, typeDescriptor);
+        case TIMES:
+          return convert(l * r, typeDescriptor);
+        case DIVIDE:
+          return convert(l / r, typeDescriptor);
+        case REMAINDER:
+          return convert(l % r, typeDescriptor);
+        default:
+          return null;
+      }
+    }
+    if (left instanceof Double || right instanceof Double) {
+      // E.g. a comparison of floating point values.
+      return null;
+    }
+    long l = left.longValue();
+    long r = right.longValue();
+    boolean isLong = TypeDescriptors.isPrimitiveLong(typeDescriptor);
+    switch (expression.getOperator()) {
+      case PLUS:
+        return convert(l + r, typeDescriptor);
+      case MINUS:
+        return convert(l - r, typeDescriptor);
+      case TIMES:
+        return convert(l * r, typeDescriptor);
+      case DIVIDE:
+        return r == 0 ? null : convert(l / r, typeDescriptor);
+      case REMAINDER:
+        return r == 0 ? null : convert(l % r, typeDescriptor);
+      case BIT_AND:
+        return convert(l & r, typeDescriptor);
+      case BIT_OR:
+        return convert(l | r, typeDescriptor);
+      case BIT_XOR:
+        return convert(l ^ r, typeDescriptor);
+      case LEFT_SHIFT:
+        return convert(isLong ? l << r : (int) l << r, typeDescriptor);
+      case RIGHT_SHIFT_SIGNED:
+        return convert(isLong ? l >> r : (int) l >> r, typeDescriptor);
+      case RIGHT_SHIFT_UNSIGNED:
+        return convert(isLong ? l >>> r : (int) l >>> r, typeDescriptor);
+      default:
+        return null;
+    }
+  }
+
+  /** Converts {@code value} to the type {@code typeDescriptor} as a Java cast would. */
+  @Nullable
+  private static Number convert(Number value, TypeDescriptor typeDescriptor) {
+    if (TypeDescriptors.isPrimitiveDouble(typeDescriptor)) {
+      return value.doubleValue();
+    }
+    if (TypeDescriptors.isPrimitiveFloat(typeDescriptor)) {
+      return (double) value.floatValue();
+    }
+    if (TypeDescriptors.isPrimitiveBoolean(typeDescriptor)) {
+      return value;
+    }
+    long longValue = value.longValue();
+    if (value instanceof Double || value instanceof Float) {
+      // Floating point values are converted to long or int first, saturating.
+      longValue =
+          TypeDescriptors.isPrimitiveLong(typeDescriptor)
+              ? (long) value.doubleValue()
+              : (int) value.doubleValue();
+    }
+    if (TypeDescriptors.isPrimitiveLong(typeDescriptor)) {
+      return longValue;
+    }
+    if (TypeDescriptors.isPrimitiveInt(typeDescriptor)) {
+      return (long) (int) longValue;
+    }
+    if (TypeDescriptors.isPrimitiveShort(typeDescriptor)) {
+      return (long) (short) longValue;
+    }
+    if (TypeDescriptors.isPrimitiveChar(typeDescriptor)) {
+      return (long) (char) longValue;
+    }
+    if (TypeDescriptors.isPrimitiveByte(typeDescriptor)) {
+      return (long) (byte) longValue;
+    }
+    return null;
+  }
+
+  private static boolean isFloatingPoint(TypeDescriptor typeDescriptor) {
+    return TypeDescriptors.isPrimitiveFloat(typeDescriptor)
+        || TypeDescriptors.isPrimitiveDouble(typeDescriptor);
+  }
+
+  private ConstantFolder() {}
+}
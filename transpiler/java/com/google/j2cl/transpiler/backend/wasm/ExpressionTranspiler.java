@@ -299,7 +299,15 @@ final class ExpressionTranspiler {
 
       @Override
       public boolean enterMethodCall(MethodCall methodCall) {
-        if (!methodCall.isPolymorphic() || methodCall.getTarget().isNative()) {
+        MethodDescriptor singleImplementation = environment.getSingleImplementation(methodCall);
+        if (singleImplementation != null) {
+          // There is only one method the call can dispatch to, call it directly.
+          renderNonPolymorphicMethodCall(
+              MethodCall.Builder.from(methodCall)
+                  .setTarget(singleImplementation)
+                  .setStaticDispatch(true)
+                  .build());
+        } else if (!methodCall.isPolymorphic() || methodCall.getTarget().isNative()) {
           renderNonPolymorphicMethodCall(methodCall);
         } else {
           renderPolymorphicMethodCall(methodCall);
@@ -338,8 +346,11 @@ final class ExpressionTranspiler {
           // The literal is in a data segment.
           sourceBuilder.append(
               format(
-                  "(array.new_data %s %s (i32.const 0) (i32.const %d))",
-                  arrayType, dataElementName, arrayLiteral.getValueExpressions().size()));
+                  "(array.new_data %s %s (i32.const %d) (i32.const %d))",
+                  arrayType,
+                  dataElementName,
+                  environment.getDataOffsetForLiteral(arrayLiteral),
+                  arrayLiteral.getValueExpressions().size()));
           return false;
         }
 
@@ -0,0 +1,1788 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.backend.wasm;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.j2cl.common.FilePosition;
+import com.google.j2cl.common.SourcePosition;
+import com.google.j2cl.transpiler.backend.common.SourceMapEncoder;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+import javax.annotation.Nullable;
+
+/**
+ * Assembles the WebAssembly text produced by the generators into a binary WasmGC module.
+ *
+ * <p>The generators remain the only source of truth for the contents of the module: they render
+ * the module fields in text form and the encoder translates them as soon as they are added, so
+ * that the text of the function bodies does not need to be held for the whole module.
+ *
+ * <p>Parsing the rendered text back is a deliberate trade off. Emitting structured fields directly
+ * would need a second implementation of every construct that the generators render, which would
+ * have to be kept in sync with the text output by hand. Instead the text is parsed one type at a
+ * time, so that the parse trees are short lived, and J2wasmTranspilerTest checks that binaryen
+ * reads the same module from both outputs. The cost of the parse is measured by
+ * WasmBinaryRenderingBenchmark, which renders the same corpora in both forms. The corpora are
+ * compiled with the JRE there, since a module can only be encoded if it defines all its types.
+ *
+ * <p>Only the subset of the text format that the generators emit is supported, i.e. folded
+ * instructions, inline imports and exports, and the instructions of the GC, exception handling
+ * and stringref proposals as understood by binaryen.
+ *
+ * <p>The source positions that the generators annotate the code with, i.e. the {@code ;;@
+ * path:line:column} comments that binaryen understands, are kept and mapped to the offsets of the
+ * instructions in the module, so that the module can be accompanied by a source map.
+ */
+final class WasmBinaryEncoder {
+  // Section ids.
+  private static final int CUSTOM_SECTION = 0;
+  private static final int TYPE_SECTION = 1;
+  private static final int IMPORT_SECTION = 2;
+  private static final int FUNCTION_SECTION = 3;
+  private static final int GLOBAL_SECTION = 6;
+  private static final int EXPORT_SECTION = 7;
+  private static final int ELEMENT_SECTION = 9;
+  private static final int CODE_SECTION = 10;
+  private static final int DATA_SECTION = 11;
+  private static final int DATA_COUNT_SECTION = 12;
+  private static final int STRING_SECTION = 14;
+
+  // Subsections of the name section.
+  private static final int FUNCTION_NAMES = 1;
+  private static final int LOCAL_NAMES = 2;
+  private static final int TYPE_NAMES = 4;
+  private static final int GLOBAL_NAMES = 7;
+  private static final int DATA_NAMES = 9;
+  private static final int FIELD_NAMES = 10;
+  private static final int TAG_NAMES = 11;
+
+  private static final int GC_PREFIX = 0xfb;
+  private static final int MISC_PREFIX = 0xfc;
+
+  private static final int BLOCK = 0x02;
+  private static final int LOOP = 0x03;
+  private static final int IF = 0x04;
+  private static final int ELSE = 0x05;
+  private static final int TRY = 0x06;
+  private static final int CATCH = 0x07;
+  private static final int END = 0x0b;
+  private static final int CATCH_ALL = 0x19;
+  private static final int EMPTY_BLOCK_TYPE = 0x40;
+
+  private static final ImmutableMap<String, Integer> VALUE_TYPES =
+      ImmutableMap.<String, Integer>builder()
+          .put("i32", 0x7f)
+          .put("i64", 0x7e)
+          .put("f32", 0x7d)
+          .put("f64", 0x7c)
+          .put("v128", 0x7b)
+          .put("i8", 0x78)
+          .put("i16", 0x77)
+          .put("funcref", 0x70)
+          .put("externref", 0x6f)
+          .put("anyref", 0x6e)
+          .put("eqref", 0x6d)
+          .put("i31ref", 0x6c)
+          .put("structref", 0x6b)
+          .put("arrayref", 0x6a)
+          .put("nullref", 0x71)
+          .put("nullexternref", 0x72)
+          .put("nullfuncref", 0x73)
+          .put("stringref", 0x67)
+          .build();
+
+  private static final ImmutableMap<String, Integer> ABSTRACT_HEAP_TYPES =
+      ImmutableMap.<String, Integer>builder()
+          .put("func", 0x70)
+          .put("extern", 0x6f)
+          .put("any", 0x6e)
+          .put("eq", 0x6d)
+          .put("i31", 0x6c)
+          .put("struct", 0x6b)
+          .put("array", 0x6a)
+          .put("none", 0x71)
+          .put("noextern", 0x72)
+          .put("nofunc", 0x73)
+          .put("string", 0x67)
+          .put("stringview_wtf8", 0x66)
+          .put("stringview_wtf16", 0x62)
+          .put("stringview_iter", 0x61)
+          .build();
+
+  /**
+   * Opcodes of the instructions that are encoded without custom handling, keyed by their name.
+   *
+   * <p>Prefixed opcodes carry the prefix in the bits above the lowest 16.
+   */
+  private static final ImmutableMap<String, Integer> OPCODES = createOpcodes();
+
+  private static ImmutableMap<String, Integer> createOpcodes() {
+    Map<String, Integer> opcodes = new LinkedHashMap<>();
+    opcodes.put("unreachable", 0x00);
+    opcodes.put("nop", 0x01);
+    opcodes.put("br", 0x0c);
+    opcodes.put("br_if", 0x0d);
+    opcodes.put("br_table", 0x0e);
+    opcodes.put("return", 0x0f);
+    opcodes.put("call", 0x10);
+    opcodes.put("call_ref", 0x14);
+    opcodes.put("throw", 0x08);
+    opcodes.put("rethrow", 0x09);
+    opcodes.put("drop", 0x1a);
+    opcodes.put("select", 0x1b);
+    opcodes.put("local.get", 0x20);
+    opcodes.put("local.set", 0x21);
+    opcodes.put("local.tee", 0x22);
+    opcodes.put("global.get", 0x23);
+    opcodes.put("global.set", 0x24);
+    opcodes.put("i32.const", 0x41);
+    opcodes.put("i64.const", 0x42);
+    opcodes.put("f32.const", 0x43);
+    opcodes.put("f64.const", 0x44);
+
+    // The numeric instructions are numbered consecutively in the order of the specification.
+    int opcode = 0x45;
+    for (String type : new String[] {"i32", "i64"}) {
+      for (String operation :
+          new String[] {
+            "eqz", "eq", "ne", "lt_s", "lt_u", "gt_s", "gt_u", "le_s", "le_u", "ge_s", "ge_u"
+          }) {
+        opcodes.put(type + "." + operation, opcode++);
+      }
+    }
+    for (String type : new String[] {"f32", "f64"}) {
+      for (String operation : new String[] {"eq", "ne", "lt", "gt", "le", "ge"}) {
+        opcodes.put(type + "." + operation, opcode++);
+      }
+    }
+    for (String type : new String[] {"i32", "i64"}) {
+      for (String operation :
+          new String[] {
+            "clz", "ctz", "popcnt", "add", "sub", "mul", "div_s", "div_u", "rem_s", "rem_u", "and",
+            "or", "xor", "shl", "shr_s", "shr_u", "rotl", "rotr"
+          }) {
+        opcodes.put(type + "." + operation, opcode++);
+      }
+    }
+    for (String type : new String[] {"f32", "f64"}) {
+      for (String operation :
+          new String[] {
+            "abs", "neg", "ceil", "floor", "trunc", "nearest", "sqrt", "add", "sub", "mul", "div",
+            "min", "max", "copysign"
+          }) {
+        opcodes.put(type + "." + operation, opcode++);
+      }
+    }
+    for (String conversion :
+        new String[] {
+          "i32.wrap_i64",
+          "i32.trunc_f32_s",
+          "i32.trunc_f32_u",
+          "i32.trunc_f64_s",
+          "i32.trunc_f64_u",
+          "i64.extend_i32_s",
+          "i64.extend_i32_u",
+          "i64.trunc_f32_s",
+          "i64.trunc_f32_u",
+          "i64.trunc_f64_s",
+          "i64.trunc_f64_u",
+          "f32.convert_i32_s",
+          "f32.convert_i32_u",
+          "f32.convert_i64_s",
+          "f32.convert_i64_u",
+          "f32.demote_f64",
+          "f64.convert_i32_s",
+          "f64.convert_i32_u",
+          "f64.convert_i64_s",
+          "f64.convert_i64_u",
+          "f64.promote_f32",
+          "i32.reinterpret_f32",
+          "i64.reinterpret_f64",
+          "f32.reinterpret_i32",
+          "f64.reinterpret_i64",
+          "i32.extend8_s",
+          "i32.extend16_s",
+          "i64.extend8_s",
+          "i64.extend16_s",
+          "i64.extend32_s"
+        }) {
+      opcodes.put(conversion, opcode++);
+    }
+    checkState(opcode == 0xc5);
+
+    opcode = 0;
+    for (String conversion :
+        new String[] {
+          "i32.trunc_sat_f32_s",
+          "i32.trunc_sat_f32_u",
+          "i32.trunc_sat_f64_s",
+          "i32.trunc_sat_f64_u",
+          "i64.trunc_sat_f32_s",
+          "i64.trunc_sat_f32_u",
+          "i64.trunc_sat_f64_s",
+          "i64.trunc_sat_f64_u"
+        }) {
+      opcodes.put(conversion, MISC_PREFIX << 16 | opcode++);
+    }
+
+    opcodes.put("ref.null", 0xd0);
+    opcodes.put("ref.is_null", 0xd1);
+    opcodes.put("ref.func", 0xd2);
+    opcodes.put("ref.eq", 0xd3);
+    opcodes.put("ref.as_non_null", 0xd4);
+
+    // GC instructions.
+    String[] gcInstructions = {
+      "struct.new",
+      "struct.new_default",
+      "struct.get",
+      "struct.get_s",
+      "struct.get_u",
+      "struct.set",
+      "array.new",
+      "array.new_default",
+      "array.new_fixed",
+      "array.new_data",
+      "array.new_elem",
+      "array.get",
+      "array.get_s",
+      "array.get_u",
+      "array.set",
+      "array.len",
+      "array.fill",
+      "array.copy",
+      "array.init_data",
+      "array.init_elem",
+      "ref.test",
+      "ref.test null",
+      "ref.cast",
+      "ref.cast null",
+      "br_on_cast",
+      "br_on_cast_fail",
+      "any.convert_extern",
+      "extern.convert_any",
+      "ref.i31",
+      "i31.get_s",
+      "i31.get_u"
+    };
+    for (int i = 0; i < gcInstructions.length; i++) {
+      opcodes.put(gcInstructions[i], GC_PREFIX << 16 | i);
+    }
+    // Names used by binaryen before the GC proposal settled on the ones above.
+    opcodes.put("extern.internalize", opcodes.get("any.convert_extern"));
+    opcodes.put("extern.externalize", opcodes.get("extern.convert_any"));
+
+    // Stringref instructions.
+    opcodes.put("string.const", GC_PREFIX << 16 | 0x82);
+    opcodes.put("string.concat", GC_PREFIX << 16 | 0x88);
+    opcodes.put("string.eq", GC_PREFIX << 16 | 0x89);
+    opcodes.put("string.as_wtf16", GC_PREFIX << 16 | 0x98);
+    opcodes.put("stringview_wtf16.length", GC_PREFIX << 16 | 0x99);
+    opcodes.put("stringview_wtf16.get_codeunit", GC_PREFIX << 16 | 0x9a);
+    opcodes.put("stringview_wtf16.slice", GC_PREFIX << 16 | 0x9c);
+    opcodes.put("string.compare", GC_PREFIX << 16 | 0xa8);
+    opcodes.put("string.from_code_point", GC_PREFIX << 16 | 0xa9);
+    opcodes.put("string.new_wtf16_array", GC_PREFIX << 16 | 0xb1);
+    opcodes.put("string.encode_wtf16_array", GC_PREFIX << 16 | 0xb3);
+    return ImmutableMap.copyOf(opcodes);
+  }
+
+  // Type definitions.
+  private final Buffer typeSection = new Buffer();
+  private int typeSectionEntryCount;
+  private final Map<String, Integer> typeIndexByName = new HashMap<>();
+  private final Map<Integer, Map<String, Integer>> fieldIndexByNameByTypeIndex = new HashMap<>();
+  private final Map<Integer, List<String>> fieldNamesByTypeIndex = new LinkedHashMap<>();
+  private final List<String> typeNames = new ArrayList<>();
+  private final Map<String, Integer> implicitFunctionTypeIndexBySignature = new HashMap<>();
+
+  // Imports. Functions and tags that are imported take the lowest indices of their index spaces.
+  private final Buffer importSection = new Buffer();
+  private int importCount;
+  private final List<FunctionDeclaration> importedFunctions = new ArrayList<>();
+  private final Map<String, Integer> tagIndexByName = new HashMap<>();
+  private final List<String> tagNames = new ArrayList<>();
+
+  // Functions defined in the module.
+  private final Buffer functionSection = new Buffer();
+  private final Buffer codeSection = new Buffer();
+  private final List<FunctionDeclaration> definedFunctions = new ArrayList<>();
+  private final Map<String, FunctionDeclaration> functionsByName = new HashMap<>();
+  private final Set<String> declaredFunctionReferences = new LinkedHashSet<>();
+  private final Map<String, String> exportedFunctionNameByExportName = new LinkedHashMap<>();
+
+  // Globals.
+  private final Buffer globalSection = new Buffer();
+  private final Map<String, Integer> globalIndexByName = new HashMap<>();
+  private final List<String> globalNames = new ArrayList<>();
+
+  // Passive data segments.
+  private final Buffer dataSection = new Buffer();
+  private final Map<String, Integer> dataIndexByName = new HashMap<>();
+  private final List<String> dataNames = new ArrayList<>();
+
+  // String constants, deduplicated by their encoded contents.
+  private final Map<String, Integer> stringIndexByContents = new LinkedHashMap<>();
+
+  /** The encoded module, which holds the offsets of the annotated instructions. */
+  @Nullable private Buffer encodedModule;
+
+  /** A function of the module, either imported or defined. */
+  private static final class FunctionDeclaration {
+    private final String name;
+    private final boolean isImport;
+    private final List<String> localNames;
+
+    private FunctionDeclaration(String name, boolean isImport, List<String> localNames) {
+      this.name = name;
+      this.isImport = isImport;
+      this.localNames = localNames;
+    }
+  }
+
+  /** Translates the module fields in {@code text}, e.g. types, globals, imports and functions. */
+  void addModuleFields(String text) {
+    for (SExpression field : SExpression.parse(text)) {
+      addModuleField(field);
+    }
+  }
+
+  private void addModuleField(SExpression field) {
+    switch (field.getHead()) {
+      case "module":
+        field.getChildren().stream().skip(1).forEach(this::addModuleField);
+        break;
+      case "rec":
+        addRecGroup(field.getChildren().subList(1, field.getChildren().size()));
+        break;
+      case "type":
+        addRecGroup(Collections.singletonList(field));
+        break;
+      case "import":
+        addImport(field);
+        break;
+      case "func":
+        addFunction(field);
+        break;
+      case "global":
+        addGlobal(field);
+        break;
+      case "data":
+        addData(field);
+        break;
+      case "elem":
+        addElementDeclarations(field);
+        break;
+      case "export":
+        addExport(field);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported module field " + field);
+    }
+  }
+
+  /**
+   * Returns the binary encoding of the module.
+   *
+   * <p>If {@code sourceMapUrl} is not null the module refers to its source map at that location,
+   * which is then returned by {@link #getSourceMap}.
+   */
+  byte[] encode(@Nullable String sourceMapUrl) {
+    Buffer module = new Buffer();
+    // Magic number and version.
+    module.writeBytes(new byte[] {0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+
+    writeSection(module, TYPE_SECTION, typeSectionEntryCount, typeSection);
+    writeSection(module, IMPORT_SECTION, importCount, importSection);
+    writeSection(module, FUNCTION_SECTION, definedFunctions.size(), functionSection);
+    if (!stringIndexByContents.isEmpty()) {
+      writeSection(module, STRING_SECTION, encodeStrings());
+    }
+    writeSection(module, GLOBAL_SECTION, globalNames.size(), globalSection);
+    writeSection(module, EXPORT_SECTION, exportedFunctionNameByExportName.size(), encodeExports());
+    writeSection(
+        module, ELEMENT_SECTION, declaredFunctionReferences.isEmpty() ? 0 : 1, encodeElements());
+    if (!dataNames.isEmpty()) {
+      // The data count is required for the instructions that refer to data segments.
+      Buffer dataCount = new Buffer();
+      dataCount.writeUnsigned(dataNames.size());
+      writeSection(module, DATA_COUNT_SECTION, dataCount);
+    }
+    writeSection(module, CODE_SECTION, definedFunctions.size(), codeSection);
+    writeSection(module, DATA_SECTION, dataNames.size(), dataSection);
+    writeSection(module, CUSTOM_SECTION, encodeNames());
+    if (sourceMapUrl != null) {
+      Buffer sourceMappingUrl = new Buffer();
+      sourceMappingUrl.writeName("sourceMappingURL".getBytes(UTF_8));
+      sourceMappingUrl.writeName(sourceMapUrl.getBytes(UTF_8));
+      writeSection(module, CUSTOM_SECTION, sourceMappingUrl);
+    }
+
+    // Function references are resolved last since imported functions, which are numbered first,
+    // can be declared anywhere in the module.
+    Map<String, Integer> functionIndexByName = new HashMap<>();
+    for (FunctionDeclaration function : getFunctionsInIndexOrder()) {
+      functionIndexByName.put(function.name, functionIndexByName.size());
+    }
+    module.resolveFunctionReferences(
+        name -> checkNotNull(functionIndexByName.get(name), "Undefined function %s", name));
+    encodedModule = module;
+    return module.toByteArray();
+  }
+
+  /**
+   * Returns the source map of the last encoded module, named {@code fileName}.
+   *
+   * <p>A module is a single line for the purposes of source maps, where the column of a mapping is
+   * the offset of the instruction in the module.
+   */
+  String getSourceMap(String fileName) {
+    checkState(encodedModule != null, "The module has not been encoded.");
+    List<SourceLocation> locations = new ArrayList<>(encodedModule.sourceLocations);
+    // Instructions are mostly added in order, except for the immediates of folded instructions.
+    locations.sort(Comparator.comparingInt(l -> l.offset));
+
+    // The annotations refer to the sources by path, which is kept as is in the source map.
+    SourceMapEncoder sourceMapEncoder = new SourceMapEncoder(SourcePosition::getFilePath);
+    for (int i = 0; i < locations.size(); i++) {
+      SourceLocation location = locations.get(i);
+      int endOffset =
+          i + 1 < locations.size() ? locations.get(i + 1).offset : encodedModule.size();
+      if (endOffset == location.offset) {
+        // The innermost location of an instruction is the most precise.
+        continue;
+      }
+      sourceMapEncoder.startMapping(0, location.offset, location.toSourcePosition());
+      sourceMapEncoder.endMapping(0, endOffset);
+    }
+    return sourceMapEncoder.encode(fileName);
+  }
+
+  private static void writeSection(Buffer module, int id, int entryCount, Buffer contents) {
+    if (entryCount == 0) {
+      return;
+    }
+    Buffer section = new Buffer();
+    section.writeUnsigned(entryCount);
+    section.writeBuffer(contents);
+    writeSection(module, id, section);
+  }
+
+  private static void writeSection(Buffer module, int id, Buffer contents) {
+    module.write(id);
+    module.writeSizedBuffer(contents);
+  }
+
+  private List<FunctionDeclaration> getFunctionsInIndexOrder() {
+    List<FunctionDeclaration> functions = new ArrayList<>(importedFunctions);
+    functions.addAll(definedFunctions);
+    return functions;
+  }
+
+  /* Types. */
+
+  private void addRecGroup(List<SExpression> typeDefinitions) {
+    // Number all the types in the group first since they can refer to each other.
+    int firstIndex = typeNames.size();
+    for (SExpression typeDefinition : typeDefinitions) {
+      checkArgument(
+          typeDefinition.isList("type"), "Expected a type definition: %s", typeDefinition);
+      String name = typeDefinition.getChild(1).getAtom();
+      checkState(
+          typeIndexByName.putIfAbsent(name, typeNames.size()) == null,
+          "Duplicate type %s",
+          name);
+      typeNames.add(name);
+    }
+
+    if (typeDefinitions.size() != 1) {
+      typeSection.write(0x4e);
+      typeSection.writeUnsigned(typeDefinitions.size());
+    }
+    for (int i = 0; i < typeDefinitions.size(); i++) {
+      writeSubType(firstIndex + i, typeDefinitions.get(i).getChild(2));
+    }
+    typeSectionEntryCount++;
+  }
+
+  private void writeSubType(int typeIndex, SExpression type) {
+    if (!type.isList("sub")) {
+      // A type with no declared supertypes is final.
+      writeCompositeType(typeIndex, type);
+      return;
+    }
+    List<SExpression> children = type.getChildren();
+    int position = 1;
+    boolean isFinal = children.get(position).isAtom("final");
+    if (isFinal) {
+      position++;
+    }
+    List<Integer> superTypeIndices = new ArrayList<>();
+    while (children.get(position).isAtom()) {
+      superTypeIndices.add(getTypeIndex(children.get(position++).getAtom()));
+    }
+    typeSection.write(isFinal ? 0x4f : 0x50);
+    typeSection.writeUnsigned(superTypeIndices.size());
+    superTypeIndices.forEach(typeSection::writeUnsigned);
+    writeCompositeType(typeIndex, children.get(position));
+  }
+
+  private void writeCompositeType(int typeIndex, SExpression type) {
+    switch (type.getHead()) {
+      case "struct":
+        {
+          Buffer fields = new Buffer();
+          Map<String, Integer> fieldIndexByName = new HashMap<>();
+          List<String> fieldNames = new ArrayList<>();
+          for (SExpression field : type.getChildren().subList(1, type.getChildren().size())) {
+            checkArgument(field.isList("field"), "Expected a field: %s", field);
+            List<SExpression> children = field.getChildren();
+            if (isIdentifier(children.get(1))) {
+              String name = children.get(1).getAtom();
+              fieldIndexByName.put(name, fieldNames.size());
+              fieldNames.add(name);
+              writeFieldType(fields, children.get(2));
+            } else {
+              // Anonymous fields can be declared together.
+              for (SExpression fieldType : children.subList(1, children.size())) {
+                fieldNames.add(null);
+                writeFieldType(fields, fieldType);
+              }
+            }
+          }
+          typeSection.write(0x5f);
+          typeSection.writeUnsigned(fieldNames.size());
+          typeSection.writeBuffer(fields);
+          fieldIndexByNameByTypeIndex.put(typeIndex, fieldIndexByName);
+          if (!fieldIndexByName.isEmpty()) {
+            fieldNamesByTypeIndex.put(typeIndex, fieldNames);
+          }
+          break;
+        }
+      case "array":
+        typeSection.write(0x5e);
+        writeFieldType(typeSection, type.getChild(1));
+        break;
+      case "func":
+        writeFunctionType(typeSection, type.getChildren());
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported type " + type);
+    }
+  }
+
+  private void writeFieldType(Buffer buffer, SExpression fieldType) {
+    boolean isMutable = fieldType.isList("mut");
+    writeValueType(buffer, isMutable ? fieldType.getChild(1) : fieldType);
+    buffer.write(isMutable ? 0x01 : 0x00);
+  }
+
+  /** Writes the function type declared by the {@code param} and {@code result} in {@code nodes}. */
+  private void writeFunctionType(Buffer buffer, List<SExpression> nodes) {
+    Buffer parameters = new Buffer();
+    int parameterCount = 0;
+    Buffer results = new Buffer();
+    int resultCount = 0;
+    for (SExpression node : nodes) {
+      if (node.isList("param")) {
+        parameterCount += writeValueTypes(parameters, node);
+      } else if (node.isList("result")) {
+        resultCount += writeValueTypes(results, node);
+      }
+    }
+    buffer.write(0x60);
+    buffer.writeUnsigned(parameterCount);
+    buffer.writeBuffer(parameters);
+    buffer.writeUnsigned(resultCount);
+    buffer.writeBuffer(results);
+  }
+
+  /** Writes the types in a {@code param} or {@code result} declaration, returning their number. */
+  private int writeValueTypes(Buffer buffer, SExpression declaration) {
+    List<SExpression> children = declaration.getChildren();
+    if (children.size() > 1 && isIdentifier(children.get(1))) {
+      // A named parameter declares a single type.
+      writeValueType(buffer, children.get(2));
+      return 1;
+    }
+    children.subList(1, children.size()).forEach(t -> writeValueType(buffer, t));
+    return children.size() - 1;
+  }
+
+  private void writeValueType(Buffer buffer, SExpression type) {
+    if (type.isAtom()) {
+      buffer.write(
+          checkNotNull(VALUE_TYPES.get(type.getAtom()), "Unsupported value type %s", type));
+      return;
+    }
+    checkArgument(type.isList("ref"), "Unsupported value type %s", type);
+    boolean isNullable = type.getChild(1).isAtom("null");
+    buffer.write(isNullable ? 0x63 : 0x64);
+    writeHeapType(buffer, type.getChild(isNullable ? 2 : 1).getAtom());
+  }
+
+  private void writeHeapType(Buffer buffer, String heapType) {
+    if (heapType.startsWith("$")) {
+      buffer.writeSigned(getTypeIndex(heapType));
+      return;
+    }
+    buffer.write(
+        checkNotNull(ABSTRACT_HEAP_TYPES.get(heapType), "Unsupported heap type %s", heapType));
+  }
+
+  private int getTypeIndex(String name) {
+    return checkNotNull(typeIndexByName.get(name), "Undefined type %s", name);
+  }
+
+  /**
+   * Returns the index of the function type declared by the {@code param} and {@code result} in
+   * {@code nodes}.
+   *
+   * <p>As in the text format, a function that does not refer to a type explicitly gets a type of
+   * its own that is shared with the functions with the same signature.
+   */
+  private int getImplicitFunctionTypeIndex(List<SExpression> nodes) {
+    Buffer signature = new Buffer();
+    writeFunctionType(signature, nodes);
+    String key = new String(signature.toByteArray(), ISO_8859_1);
+    Integer typeIndex = implicitFunctionTypeIndexBySignature.get(key);
+    if (typeIndex == null) {
+      typeIndex = typeNames.size();
+      typeNames.add(null);
+      typeSection.writeBuffer(signature);
+      typeSectionEntryCount++;
+      implicitFunctionTypeIndexBySignature.put(key, typeIndex);
+    }
+    return typeIndex;
+  }
+
+  /** Returns the index of the type referred by the {@code (type $t)} in {@code nodes}, if any. */
+  @Nullable
+  private Integer getExplicitTypeIndex(List<SExpression> nodes) {
+    return nodes.stream()
+        .filter(n -> n.isList("type"))
+        .findFirst()
+        .map(n -> getTypeIndex(n.getChild(1).getAtom()))
+        .orElse(null);
+  }
+
+  private int getFunctionTypeIndex(List<SExpression> nodes) {
+    Integer typeIndex = getExplicitTypeIndex(nodes);
+    return typeIndex != null ? typeIndex : getImplicitFunctionTypeIndex(nodes);
+  }
+
+  /* Imports and exports. */
+
+  private void addImport(SExpression field) {
+    SExpression descriptor = field.getChild(3);
+    String name = descriptor.getChild(1).getAtom();
+    List<SExpression> declarations =
+        descriptor.getChildren().subList(2, descriptor.getChildren().size());
+    switch (descriptor.getHead()) {
+      case "func":
+        addFunctionImport(
+            name, field.getChild(1), field.getChild(2), getFunctionTypeIndex(declarations));
+        break;
+      case "tag":
+        writeImportName(field.getChild(1), field.getChild(2));
+        importSection.write(0x04);
+        // Exception attribute.
+        importSection.write(0x00);
+        importSection.writeUnsigned(getFunctionTypeIndex(declarations));
+        tagIndexByName.put(name, tagNames.size());
+        tagNames.add(name);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported import " + field);
+    }
+  }
+
+  private void addFunctionImport(
+      String name, SExpression module, SExpression importName, int typeIndex) {
+    writeImportName(module, importName);
+    importSection.write(0x00);
+    importSection.writeUnsigned(typeIndex);
+    FunctionDeclaration function =
+        new FunctionDeclaration(name, /* isImport= */ true, new ArrayList<>());
+    importedFunctions.add(function);
+    declareFunction(function);
+  }
+
+  private void writeImportName(SExpression module, SExpression name) {
+    importSection.writeName(module.getStringContents());
+    importSection.writeName(name.getStringContents());
+    importCount++;
+  }
+
+  private void declareFunction(FunctionDeclaration function) {
+    checkState(
+        functionsByName.putIfAbsent(function.name, function) == null,
+        "Duplicate function %s",
+        function.name);
+  }
+
+  private void addExport(SExpression field) {
+    SExpression descriptor = field.getChild(2);
+    checkArgument(descriptor.isList("func"), "Unsupported export %s", field);
+    addFunctionExport(field.getChild(1), descriptor.getChild(1).getAtom());
+  }
+
+  private void addFunctionExport(SExpression exportName, String functionName) {
+    String name = new String(exportName.getStringContents(), UTF_8);
+    checkState(
+        exportedFunctionNameByExportName.putIfAbsent(name, functionName) == null,
+        "Duplicate export %s",
+        name);
+  }
+
+  private Buffer encodeExports() {
+    Buffer exports = new Buffer();
+    exportedFunctionNameByExportName.forEach(
+        (exportName, functionName) -> {
+          exports.writeName(exportName.getBytes(UTF_8));
+          exports.write(0x00);
+          exports.writeFunctionReference(functionName);
+        });
+    return exports;
+  }
+
+  private void addElementDeclarations(SExpression field) {
+    List<SExpression> children = field.getChildren();
+    checkArgument(
+        children.get(1).isAtom("declare") && children.get(2).isAtom("func"),
+        "Unsupported element segment %s",
+        field);
+    children.subList(3, children.size()).forEach(f -> declaredFunctionReferences.add(f.getAtom()));
+  }
+
+  private Buffer encodeElements() {
+    // All the functions that are referenced by ref.func are declared in a single segment.
+    Buffer elements = new Buffer();
+    elements.write(0x03);
+    // Element kind for functions.
+    elements.write(0x00);
+    elements.writeUnsigned(declaredFunctionReferences.size());
+    declaredFunctionReferences.forEach(elements::writeFunctionReference);
+    return elements;
+  }
+
+  /* Functions. */
+
+  private void addFunction(SExpression field) {
+    List<SExpression> children = field.getChildren();
+    String name = children.get(1).getAtom();
+    List<SExpression> declarations = children.subList(2, children.size());
+
+    SExpression inlineImport = null;
+    for (SExpression declaration : declarations) {
+      if (declaration.isList("import")) {
+        inlineImport = declaration;
+      } else if (declaration.isList("export")) {
+        addFunctionExport(declaration.getChild(1), name);
+      }
+    }
+    int typeIndex = getFunctionTypeIndex(declarations);
+    if (inlineImport != null) {
+      addFunctionImport(name, inlineImport.getChild(1), inlineImport.getChild(2), typeIndex);
+      return;
+    }
+
+    functionSection.writeUnsigned(typeIndex);
+    List<String> localNames = new ArrayList<>();
+    FunctionDeclaration function = new FunctionDeclaration(name, /* isImport= */ false, localNames);
+    definedFunctions.add(function);
+    declareFunction(function);
+
+    // Parameters are the first locals.
+    int position = 0;
+    while (position < declarations.size() && !isInstruction(declarations.get(position))) {
+      SExpression declaration = declarations.get(position);
+      if (declaration.isList("param")) {
+        addLocalNames(localNames, declaration);
+      }
+      position++;
+    }
+
+    Buffer locals = new Buffer();
+    int localGroupCount = 0;
+    for (SExpression declaration : declarations) {
+      if (declaration.isList("local")) {
+        int count = addLocalNames(localNames, declaration);
+        List<SExpression> types = declaration.getChildren();
+        for (SExpression type : types.subList(types.size() - count, types.size())) {
+          locals.writeUnsigned(1);
+          writeValueType(locals, type);
+          localGroupCount++;
+        }
+      }
+    }
+
+    Buffer body = new Buffer();
+    body.writeUnsigned(localGroupCount);
+    body.writeBuffer(locals);
+    // The location of the method itself annotates the declarations that precede the code.
+    declarations.subList(0, position).stream()
+        .map(d -> d.sourceLocation)
+        .filter(Objects::nonNull)
+        .findFirst()
+        .ifPresent(body::addSourceLocation);
+    new InstructionEncoder(body, localNames)
+        .encodeInstructions(declarations.subList(position, declarations.size()));
+    body.write(END);
+    codeSection.writeSizedBuffer(body);
+  }
+
+  private static boolean isInstruction(SExpression node) {
+    if (node.isAtom()) {
+      return true;
+    }
+    switch (node.getHead()) {
+      case "type":
+      case "import":
+      case "export":
+      case "param":
+      case "result":
+      case "local":
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  /** Records the names of a {@code param} or {@code local} declaration, returning their number. */
+  private static int addLocalNames(List<String> localNames, SExpression declaration) {
+    List<SExpression> children = declaration.getChildren();
+    if (isIdentifier(children.get(1))) {
+      localNames.add(children.get(1).getAtom());
+      return 1;
+    }
+    localNames.addAll(Collections.nCopies(children.size() - 1, null));
+    return children.size() - 1;
+  }
+
+  /* Globals, data and strings. */
+
+  private void addGlobal(SExpression field) {
+    String name = field.getChild(1).getAtom();
+    SExpression type = field.getChild(2);
+    boolean isMutable = type.isList("mut");
+    writeValueType(globalSection, isMutable ? type.getChild(1) : type);
+    globalSection.write(isMutable ? 0x01 : 0x00);
+    List<SExpression> children = field.getChildren();
+    new InstructionEncoder(globalSection, Collections.emptyList())
+        .encodeInstructions(children.subList(3, children.size()));
+    globalSection.write(END);
+
+    // The global is only visible after its initializer.
+    checkState(
+        globalIndexByName.putIfAbsent(name, globalNames.size()) == null,
+        "Duplicate global %s",
+        name);
+    globalNames.add(name);
+  }
+
+  private void addData(SExpression field) {
+    List<SExpression> children = field.getChildren();
+    String name = children.get(1).getAtom();
+    ByteArrayOutputStream contents = new ByteArrayOutputStream();
+    for (SExpression string : children.subList(2, children.size())) {
+      checkArgument(string.isString(), "Unsupported data segment %s", field);
+      contents.writeBytes(string.getStringContents());
+    }
+    // Passive segment.
+    dataSection.write(0x01);
+    dataSection.writeName(contents.toByteArray());
+    checkState(
+        dataIndexByName.putIfAbsent(name, dataNames.size()) == null, "Duplicate data %s", name);
+    dataNames.add(name);
+  }
+
+  private int getStringIndex(SExpression string) {
+    String contents = new String(string.getStringContents(), ISO_8859_1);
+    return stringIndexByContents.computeIfAbsent(contents, c -> stringIndexByContents.size());
+  }
+
+  private Buffer encodeStrings() {
+    Buffer strings = new Buffer();
+    // Reserved byte for the deferred strings section, followed by the strings.
+    strings.write(0x00);
+    strings.writeUnsigned(stringIndexByContents.size());
+    stringIndexByContents.keySet().forEach(s -> strings.writeName(s.getBytes(ISO_8859_1)));
+    return strings;
+  }
+
+  /* Names. */
+
+  private Buffer encodeNames() {
+    Buffer names = new Buffer();
+    names.writeName("name".getBytes(UTF_8));
+
+    List<FunctionDeclaration> functions = getFunctionsInIndexOrder();
+    List<String> functionNames = new ArrayList<>();
+    functions.forEach(f -> functionNames.add(f.name));
+    writeNameSubsection(names, FUNCTION_NAMES, functionNames);
+
+    Buffer localNames = new Buffer();
+    int functionsWithLocalNames = 0;
+    for (int i = 0; i < functions.size(); i++) {
+      List<String> functionLocalNames = functions.get(i).localNames;
+      if (functionLocalNames.stream().anyMatch(n -> n != null)) {
+        localNames.writeUnsigned(i);
+        localNames.writeBuffer(encodeNameMap(functionLocalNames));
+        functionsWithLocalNames++;
+      }
+    }
+    writeNameSubsection(names, LOCAL_NAMES, functionsWithLocalNames, localNames);
+
+    writeNameSubsection(names, TYPE_NAMES, typeNames);
+    writeNameSubsection(names, GLOBAL_NAMES, globalNames);
+    writeNameSubsection(names, DATA_NAMES, dataNames);
+
+    Buffer fieldNames = new Buffer();
+    fieldNamesByTypeIndex.forEach(
+        (typeIndex, typeFieldNames) -> {
+          fieldNames.writeUnsigned(typeIndex);
+          fieldNames.writeBuffer(encodeNameMap(typeFieldNames));
+        });
+    writeNameSubsection(names, FIELD_NAMES, fieldNamesByTypeIndex.size(), fieldNames);
+
+    writeNameSubsection(names, TAG_NAMES, tagNames);
+    return names;
+  }
+
+  private static void writeNameSubsection(Buffer names, int id, List<String> entityNames) {
+    if (entityNames.stream().allMatch(n -> n == null)) {
+      return;
+    }
+    names.write(id);
+    names.writeSizedBuffer(encodeNameMap(entityNames));
+  }
+
+  private static void writeNameSubsection(Buffer names, int id, int entryCount, Buffer contents) {
+    if (entryCount == 0) {
+      return;
+    }
+    Buffer subsection = new Buffer();
+    subsection.writeUnsigned(entryCount);
+    subsection.writeBuffer(contents);
+    names.write(id);
+    names.writeSizedBuffer(subsection);
+  }
+
+  /** Encodes the names of the entities in {@code names}, skipping the ones that are unnamed. */
+  private static Buffer encodeNameMap(List<String> names) {
+    Buffer nameMap = new Buffer();
+    int count = 0;
+    Buffer entries = new Buffer();
+    for (int i = 0; i < names.size(); i++) {
+      String name = names.get(i);
+      if (name == null) {
+        continue;
+      }
+      entries.writeUnsigned(i);
+      // Drop the "$" prefix of the identifier.
+      entries.writeName(name.substring(1).getBytes(UTF_8));
+      count++;
+    }
+    nameMap.writeUnsigned(count);
+    nameMap.writeBuffer(entries);
+    return nameMap;
+  }
+
+  /** Encodes the instructions in a function body or constant expression. */
+  private final class InstructionEncoder {
+    private final Buffer buffer;
+    private final Map<String, Integer> localIndexByName = new HashMap<>();
+    /** The labels of the enclosing blocks, innermost last; unlabeled blocks have null labels. */
+    private final List<String> labels = new ArrayList<>();
+
+    private InstructionEncoder(Buffer buffer, List<String> localNames) {
+      this.buffer = buffer;
+      for (int i = 0; i < localNames.size(); i++) {
+        if (localNames.get(i) != null) {
+          localIndexByName.put(localNames.get(i), i);
+        }
+      }
+    }
+
+    private void encodeInstructions(List<SExpression> instructions) {
+      for (int i = 0; i < instructions.size(); i++) {
+        SExpression instruction = instructions.get(i);
+        if (instruction.sourceLocation != null) {
+          buffer.addSourceLocation(instruction.sourceLocation);
+        }
+        if (instruction.isList()) {
+          encodeFoldedInstruction(instruction);
+          continue;
+        }
+        // A plain instruction takes its immediates from the nodes that follow it.
+        Cursor immediates = new Cursor(instructions, i + 1);
+        writeInstruction(buffer, instruction.getAtom(), immediates);
+        i = immediates.position - 1;
+      }
+    }
+
+    private void encodeFoldedInstruction(SExpression instruction) {
+      List<SExpression> children = instruction.getChildren();
+      switch (instruction.getHead()) {
+        case "block":
+        case "loop":
+          {
+            Cursor cursor = new Cursor(children, 1);
+            String label = cursor.nextLabelDeclaration();
+            buffer.write(instruction.getHead().equals("block") ? BLOCK : LOOP);
+            writeBlockType(buffer, cursor);
+            encodeBlockBody(label, cursor.remaining());
+            buffer.write(END);
+            return;
+          }
+        case "if":
+          {
+            Cursor cursor = new Cursor(children, 1);
+            String label = cursor.nextLabelDeclaration();
+            Buffer blockType = new Buffer();
+            writeBlockType(blockType, cursor);
+            SExpression thenClause = null;
+            SExpression elseClause = null;
+            for (SExpression child : cursor.remaining()) {
+              if (child.isList("then")) {
+                thenClause = child;
+              } else if (child.isList("else")) {
+                elseClause = child;
+              } else {
+                // The condition.
+                encodeInstructions(Collections.singletonList(child));
+              }
+            }
+            buffer.write(IF);
+            buffer.writeBuffer(blockType);
+            encodeBlockBody(label, getClauseInstructions(checkNotNull(thenClause)));
+            if (elseClause != null) {
+              buffer.write(ELSE);
+              encodeBlockBody(label, getClauseInstructions(elseClause));
+            }
+            buffer.write(END);
+            return;
+          }
+        case "try":
+          encodeTry(instruction);
+          return;
+        default:
+          // The immediates come first, then the operands.
+          Cursor cursor = new Cursor(children, 1);
+          Buffer encodedInstruction = new Buffer();
+          writeInstruction(encodedInstruction, instruction.getHead(), cursor);
+          encodeInstructions(cursor.remaining());
+          buffer.writeBuffer(encodedInstruction);
+      }
+    }
+
+    private List<SExpression> getClauseInstructions(SExpression clause) {
+      return clause.getChildren().subList(1, clause.getChildren().size());
+    }
+
+    private void encodeTry(SExpression instruction) {
+      Cursor cursor = new Cursor(instruction.getChildren(), 1);
+      String label = cursor.nextLabelDeclaration();
+      buffer.write(TRY);
+      writeBlockType(buffer, cursor);
+      labels.add(label);
+      for (SExpression clause : cursor.remaining()) {
+        List<SExpression> children = clause.getChildren();
+        switch (clause.getHead()) {
+          case "do":
+            encodeInstructions(children.subList(1, children.size()));
+            break;
+          case "catch":
+            buffer.write(CATCH);
+            buffer.writeUnsigned(getTagIndex(children.get(1).getAtom()));
+            encodeCatchBody(children.subList(2, children.size()));
+            break;
+          case "catch_all":
+            buffer.write(CATCH_ALL);
+            encodeInstructions(children.subList(1, children.size()));
+            break;
+          default:
+            throw new IllegalArgumentException("Unsupported try clause " + clause);
+        }
+      }
+      labels.remove(labels.size() - 1);
+      buffer.write(END);
+    }
+
+    /**
+     * Encodes the body of a catch clause.
+     *
+     * <p>The generators bind the exception in a block, i.e. {@code (block (local.set $e (pop
+     * externref)) ...)}, which has no direct binary equivalent since the block would need to take
+     * the exception as a parameter; instead the exception is stored before entering the block.
+     */
+    private void encodeCatchBody(List<SExpression> instructions) {
+      if (!instructions.isEmpty() && instructions.get(0).isList("block")) {
+        SExpression block = instructions.get(0);
+        List<SExpression> children = block.getChildren();
+        int position = 1;
+        while (position < children.size()
+            && (isIdentifier(children.get(position)) || !isInstruction(children.get(position)))) {
+          position++;
+        }
+        if (position < children.size()
+            && children.get(position).isList("local.set")
+            && children.get(position).getChildren().stream().anyMatch(c -> c.isList("pop"))) {
+          encodeInstructions(children.subList(position, position + 1));
+          List<SExpression> remainingChildren = new ArrayList<>(children);
+          remainingChildren.remove(position);
+          encodeInstructions(Collections.singletonList(SExpression.list(remainingChildren)));
+          encodeInstructions(instructions.subList(1, instructions.size()));
+          return;
+        }
+      }
+      encodeInstructions(instructions);
+    }
+
+    private void encodeBlockBody(String label, List<SExpression> instructions) {
+      labels.add(label);
+      encodeInstructions(instructions);
+      labels.remove(labels.size() - 1);
+    }
+
+    private void writeBlockType(Buffer out, Cursor cursor) {
+      List<SExpression> declarations = new ArrayList<>();
+      while (cursor.hasNext()
+          && (cursor.peek().isList("type")
+              || cursor.peek().isList("param")
+              || cursor.peek().isList("result"))) {
+        declarations.add(cursor.next());
+      }
+      Integer typeIndex = getExplicitTypeIndex(declarations);
+      if (typeIndex != null) {
+        out.writeSigned(typeIndex);
+        return;
+      }
+      boolean hasParameters = declarations.stream().anyMatch(d -> d.isList("param"));
+      Buffer results = new Buffer();
+      int resultCount = 0;
+      for (SExpression declaration : declarations) {
+        resultCount += writeValueTypes(results, declaration);
+      }
+      if (!hasParameters && resultCount == 0) {
+        out.write(EMPTY_BLOCK_TYPE);
+      } else if (!hasParameters && resultCount == 1) {
+        out.writeBuffer(results);
+      } else {
+        out.writeSigned(getImplicitFunctionTypeIndex(declarations));
+      }
+    }
+
+    /** Writes the opcode and the immediates of a non structured instruction. */
+    private void writeInstruction(Buffer out, String name, Cursor immediates) {
+      switch (name) {
+        case "pop":
+          // The value is already on the stack at the beginning of a catch clause.
+          immediates.next();
+          return;
+        case "ref.test":
+        case "ref.cast":
+          {
+            SExpression type = immediates.next();
+            boolean isNullable;
+            String heapType;
+            if (type.isList("ref")) {
+              isNullable = type.getChild(1).isAtom("null");
+              heapType = type.getChild(isNullable ? 2 : 1).getAtom();
+            } else {
+              isNullable = type.isAtom("null");
+              heapType = isNullable ? immediates.next().getAtom() : type.getAtom();
+            }
+            writeOpcode(out, isNullable ? name + " null" : name);
+            writeHeapType(out, heapType);
+            return;
+          }
+        default:
+          break;
+      }
+
+      writeOpcode(out, name);
+      switch (name) {
+        case "local.get":
+        case "local.set":
+        case "local.tee":
+          out.writeUnsigned(resolveIndex(immediates.next().getAtom(), localIndexByName));
+          break;
+        case "global.get":
+        case "global.set":
+          out.writeUnsigned(resolveIndex(immediates.next().getAtom(), globalIndexByName));
+          break;
+        case "call":
+        case "ref.func":
+          out.writeFunctionReference(immediates.next().getAtom());
+          break;
+        case "br":
+        case "br_if":
+          out.writeUnsigned(resolveLabel(immediates.next().getAtom()));
+          break;
+        case "br_table":
+          {
+            List<Integer> targets = new ArrayList<>();
+            while (immediates.hasNext()
+                && immediates.peek().isAtom()
+                && isLabelReference(immediates.peek().getAtom())) {
+              targets.add(resolveLabel(immediates.next().getAtom()));
+            }
+            // The last target is the default one.
+            out.writeUnsigned(targets.size() - 1);
+            targets.forEach(out::writeUnsigned);
+            break;
+          }
+        case "throw":
+          out.writeUnsigned(getTagIndex(immediates.next().getAtom()));
+          break;
+        case "call_ref":
+        case "struct.new":
+        case "struct.new_default":
+        case "array.new":
+        case "array.new_default":
+        case "array.get":
+        case "array.get_s":
+        case "array.get_u":
+        case "array.set":
+        case "array.fill":
+          out.writeUnsigned(getTypeIndex(immediates.next().getAtom()));
+          break;
+        case "struct.get":
+        case "struct.get_s":
+        case "struct.get_u":
+        case "struct.set":
+          {
+            int typeIndex = getTypeIndex(immediates.next().getAtom());
+            out.writeUnsigned(typeIndex);
+            out.writeUnsigned(
+                resolveIndex(
+                    immediates.next().getAtom(),
+                    checkNotNull(
+                        fieldIndexByNameByTypeIndex.get(typeIndex),
+                        "Type %s is not a struct",
+                        typeNames.get(typeIndex))));
+            break;
+          }
+        case "array.new_fixed":
+          out.writeUnsigned(getTypeIndex(immediates.next().getAtom()));
+          out.writeUnsigned(Integer.parseInt(immediates.next().getAtom()));
+          break;
+        case "array.new_data":
+        case "array.init_data":
+          out.writeUnsigned(getTypeIndex(immediates.next().getAtom()));
+          out.writeUnsigned(resolveIndex(immediates.next().getAtom(), dataIndexByName));
+          break;
+        case "array.copy":
+          out.writeUnsigned(getTypeIndex(immediates.next().getAtom()));
+          out.writeUnsigned(getTypeIndex(immediates.next().getAtom()));
+          break;
+        case "ref.null":
+          writeHeapType(out, immediates.next().getAtom());
+          break;
+        case "i32.const":
+          out.writeSigned((int) parseInteger(immediates.next().getAtom()));
+          break;
+        case "i64.const":
+          out.writeSigned(parseInteger(immediates.next().getAtom()));
+          break;
+        case "f32.const":
+          out.writeLittleEndian(parseFloat(immediates.next().getAtom()), 4);
+          break;
+        case "f64.const":
+          out.writeLittleEndian(parseDouble(immediates.next().getAtom()), 8);
+          break;
+        case "string.const":
+          out.writeUnsigned(getStringIndex(immediates.next()));
+          break;
+        default:
+          break;
+      }
+    }
+
+    private int resolveLabel(String label) {
+      if (!label.startsWith("$")) {
+        return Integer.parseInt(label);
+      }
+      int index = labels.lastIndexOf(label);
+      checkState(index != -1, "Undefined label %s", label);
+      return labels.size() - 1 - index;
+    }
+  }
+
+  private int getTagIndex(String name) {
+    return checkNotNull(tagIndexByName.get(name), "Undefined tag %s", name);
+  }
+
+  private static void writeOpcode(Buffer buffer, String name) {
+    int opcode = checkNotNull(OPCODES.get(name), "Unsupported instruction %s", name);
+    int prefix = opcode >>> 16;
+    if (prefix == 0) {
+      buffer.write(opcode);
+      return;
+    }
+    buffer.write(prefix);
+    buffer.writeUnsigned(opcode & 0xffff);
+  }
+
+  private static boolean isLabelReference(String atom) {
+    return atom.startsWith("$") || Character.isDigit(atom.charAt(0));
+  }
+
+  private static int resolveIndex(String reference, Map<String, Integer> indexByName) {
+    if (!reference.startsWith("$")) {
+      return Integer.parseInt(reference);
+    }
+    return checkNotNull(indexByName.get(reference), "Undefined reference %s", reference);
+  }
+
+  /* Numbers. */
+
+  private static long parseInteger(String text) {
+    text = text.replace("_", "");
+    boolean isNegative = text.startsWith("-");
+    if (isNegative || text.startsWith("+")) {
+      text = text.substring(1);
+    }
+    long magnitude =
+        text.startsWith("0x")
+            ? Long.parseUnsignedLong(text.substring(2), 16)
+            : Long.parseUnsignedLong(text);
+    return isNegative ? -magnitude : magnitude;
+  }
+
+  private static long parseFloat(String text) {
+    text = text.replace("_", "");
+    boolean isNegative = text.startsWith("-");
+    String magnitude = isNegative || text.startsWith("+") ? text.substring(1) : text;
+    int bits;
+    if (magnitude.equals("inf")) {
+      bits = 0x7f800000;
+    } else if (magnitude.equals("nan")) {
+      bits = 0x7fc00000;
+    } else if (magnitude.startsWith("nan:0x")) {
+      bits = 0x7f800000 | (int) Long.parseLong(magnitude.substring(6), 16);
+    } else {
+      return Float.floatToRawIntBits(Float.parseFloat(toJavaNumber(text)));
+    }
+    return isNegative ? bits | 0x80000000 : bits;
+  }
+
+  private static long parseDouble(String text) {
+    text = text.replace("_", "");
+    boolean isNegative = text.startsWith("-");
+    String magnitude = isNegative || text.startsWith("+") ? text.substring(1) : text;
+    long bits;
+    if (magnitude.equals("inf")) {
+      bits = 0x7ff0000000000000L;
+    } else if (magnitude.equals("nan")) {
+      bits = 0x7ff8000000000000L;
+    } else if (magnitude.startsWith("nan:0x")) {
+      bits = 0x7ff0000000000000L | Long.parseLong(magnitude.substring(6), 16);
+    } else {
+      return Double.doubleToRawLongBits(Double.parseDouble(toJavaNumber(text)));
+    }
+    return isNegative ? bits | 0x8000000000000000L : bits;
+  }
+
+  /** Adds the binary exponent that Java requires in hexadecimal floating point numbers. */
+  private static String toJavaNumber(String text) {
+    return text.contains("0x") && !text.contains("p") && !text.contains("P") ? text + "p0" : text;
+  }
+
+  /** A byte buffer that can hold references to functions that are resolved at the end. */
+  private static final class Buffer extends ByteArrayOutputStream {
+    /** Size of the padded LEB128 encoding of a function index. */
+    private static final int FUNCTION_REFERENCE_SIZE = 5;
+
+    private final List<Integer> functionReferenceOffsets = new ArrayList<>();
+    private final List<String> functionReferenceNames = new ArrayList<>();
+    private final List<SourceLocation> sourceLocations = new ArrayList<>();
+
+    /** Records that the code written next originates from {@code location}. */
+    void addSourceLocation(SourceLocation location) {
+      sourceLocations.add(location.atOffset(size()));
+    }
+
+    void writeUnsigned(long value) {
+      do {
+        int b = (int) (value & 0x7f);
+        value >>>= 7;
+        write(value != 0 ? b | 0x80 : b);
+      } while (value != 0);
+    }
+
+    void writeSigned(long value) {
+      while (true) {
+        int b = (int) (value & 0x7f);
+        value >>= 7;
+        boolean isDone = (value == 0 && (b & 0x40) == 0) || (value == -1 && (b & 0x40) != 0);
+        write(isDone ? b : b | 0x80);
+        if (isDone) {
+          return;
+        }
+      }
+    }
+
+    void writeLittleEndian(long value, int size) {
+      for (int i = 0; i < size; i++, value >>>= 8) {
+        write((int) (value & 0xff));
+      }
+    }
+
+    void writeName(byte[] name) {
+      writeUnsigned(name.length);
+      writeBytes(name);
+    }
+
+    /**
+     * Writes a placeholder for the index of function {@code name}.
+     *
+     * <p>The index is written with a fixed size encoding so that it can be patched in place.
+     */
+    void writeFunctionReference(String name) {
+      functionReferenceOffsets.add(size());
+      functionReferenceNames.add(name);
+      for (int i = 0; i < FUNCTION_REFERENCE_SIZE; i++) {
+        write(0);
+      }
+    }
+
+    void writeBuffer(Buffer other) {
+      for (int i = 0; i < other.functionReferenceOffsets.size(); i++) {
+        functionReferenceOffsets.add(size() + other.functionReferenceOffsets.get(i));
+        functionReferenceNames.add(other.functionReferenceNames.get(i));
+      }
+      for (SourceLocation location : other.sourceLocations) {
+        sourceLocations.add(location.atOffset(size() + location.offset));
+      }
+      write(other.buf, 0, other.size());
+    }
+
+    void writeSizedBuffer(Buffer other) {
+      writeUnsigned(other.size());
+      writeBuffer(other);
+    }
+
+    void resolveFunctionReferences(ToIntFunction<String> indexByName) {
+      for (int i = 0; i < functionReferenceOffsets.size(); i++) {
+        int offset = functionReferenceOffsets.get(i);
+        int index = indexByName.applyAsInt(functionReferenceNames.get(i));
+        for (int j = 0; j < FUNCTION_REFERENCE_SIZE; j++, index >>>= 7) {
+          buf[offset + j] =
+              (byte) (j < FUNCTION_REFERENCE_SIZE - 1 ? (index & 0x7f) | 0x80 : index & 0x7f);
+        }
+      }
+    }
+  }
+
+  /** A position in the Java sources, at an offset in the buffer that holds its code. */
+  private static final class SourceLocation {
+    private final String path;
+    private final int line;
+    private final int column;
+    private final int offset;
+
+    private SourceLocation(String path, int line, int column, int offset) {
+      this.path = path;
+      this.line = line;
+      this.column = column;
+      this.offset = offset;
+    }
+
+    /** Parses an annotation of the form {@code path:line:column}. */
+    private static SourceLocation parse(String annotation) {
+      int columnSeparator = annotation.lastIndexOf(':');
+      int lineSeparator = annotation.lastIndexOf(':', columnSeparator - 1);
+      checkArgument(lineSeparator > 0, "Invalid source annotation %s", annotation);
+      return new SourceLocation(
+          annotation.substring(0, lineSeparator),
+          Integer.parseInt(annotation.substring(lineSeparator + 1, columnSeparator)),
+          Integer.parseInt(annotation.substring(columnSeparator + 1)),
+          0);
+    }
+
+    private SourceLocation atOffset(int offset) {
+      return new SourceLocation(path, line, column, offset);
+    }
+
+    private SourcePosition toSourcePosition() {
+      FilePosition filePosition =
+          FilePosition.newBuilder()
+              // Lines in the annotations are 1-based.
+              .setLine(line - 1)
+              .setColumn(column)
+              // The offset in the Java file is unknown and not needed for source maps.
+              .setByteOffset(-1)
+              .build();
+      return SourcePosition.newBuilder()
+          .setFilePath(path)
+          .setStartFilePosition(filePosition)
+          .setEndFilePosition(filePosition)
+          .build();
+    }
+  }
+
+  /** A position in a sequence of nodes, from which immediates and operands are read. */
+  private static final class Cursor {
+    private final List<SExpression> nodes;
+    private int position;
+
+    private Cursor(List<SExpression> nodes, int position) {
+      this.nodes = nodes;
+      this.position = position;
+    }
+
+    private boolean hasNext() {
+      return position < nodes.size();
+    }
+
+    private SExpression peek() {
+      return nodes.get(position);
+    }
+
+    private SExpression next() {
+      checkState(hasNext(), "Missing immediate after %s", nodes.get(position - 1));
+      return nodes.get(position++);
+    }
+
+    /** Returns the label of a structured instruction, if it declares one. */
+    @Nullable
+    private String nextLabelDeclaration() {
+      return hasNext() && isIdentifier(peek()) ? next().getAtom() : null;
+    }
+
+    private List<SExpression> remaining() {
+      return nodes.subList(position, nodes.size());
+    }
+  }
+
+  private static boolean isIdentifier(SExpression node) {
+    return node.isAtom() && node.getAtom().startsWith("$");
+  }
+
+  /** A node of the text format, i.e. a keyword, identifier or number, a string, or a list. */
+  private static final class SExpression {
+    @Nullable private final String atom;
+    private final boolean isString;
+    @Nullable private final List<SExpression> children;
+    /** The source location annotation that precedes the node, if any. */
+    @Nullable private SourceLocation sourceLocation;
+
+    private SExpression(@Nullable String atom, boolean isString, List<SExpression> children) {
+      this.atom = atom;
+      this.isString = isString;
+      this.children = children;
+    }
+
+    private static SExpression list(List<SExpression> children) {
+      return new SExpression(null, false, children);
+    }
+
+    private boolean isList() {
+      return children != null;
+    }
+
+    private boolean isList(String head) {
+      return isList() && !children.isEmpty() && children.get(0).isAtom(head);
+    }
+
+    private boolean isAtom() {
+      return atom != null && !isString;
+    }
+
+    private boolean isAtom(String value) {
+      return isAtom() && atom.equals(value);
+    }
+
+    private boolean isString() {
+      return isString;
+    }
+
+    private String getAtom() {
+      checkState(isAtom(), "Expected an atom: %s", this);
+      return atom;
+    }
+
+    /** Returns the keyword that starts a list. */
+    private String getHead() {
+      return isList() && !children.isEmpty() && children.get(0).isAtom()
+          ? children.get(0).getAtom()
+          : "";
+    }
+
+    private List<SExpression> getChildren() {
+      checkState(isList(), "Expected a list: %s", this);
+      return children;
+    }
+
+    private SExpression getChild(int index) {
+      List<SExpression> children = getChildren();
+      checkState(index < children.size(), "Missing element %s in %s", index, this);
+      return children.get(index);
+    }
+
+    /** Returns the bytes denoted by a string. */
+    private byte[] getStringContents() {
+      checkState(isString, "Expected a string: %s", this);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(atom.length());
+      for (int i = 0; i < atom.length(); ) {
+        char c = atom.charAt(i);
+        if (c != '\\') {
+          int codePoint = atom.codePointAt(i);
+          bytes.writeBytes(new String(Character.toChars(codePoint)).getBytes(UTF_8));
+          i += Character.charCount(codePoint);
+          continue;
+        }
+        char escaped = atom.charAt(i + 1);
+        i += 2;
+        switch (escaped) {
+          case 't':
+            bytes.write('\t');
+            break;
+          case 'n':
+            bytes.write('\n');
+            break;
+          case 'r':
+            bytes.write('\r');
+            break;
+          case '"':
+          case '\'':
+          case '\\':
+            bytes.write(escaped);
+            break;
+          case 'u':
+            {
+              // Unicode escape, i.e. "u{hex}" after the backslash.
+              int end = atom.indexOf('}', i);
+              int codePoint = Integer.parseInt(atom.substring(i + 1, end), 16);
+              bytes.writeBytes(new String(Character.toChars(codePoint)).getBytes(UTF_8));
+              i = end + 1;
+              break;
+            }
+          default:
+            bytes.write(Integer.parseInt(atom.substring(i - 1, i + 1), 16));
+            i++;
+        }
+      }
+      return bytes.toByteArray();
+    }
+
+    /**
+     * Parses the nodes in {@code text}, skipping comments.
+     *
+     * <p>Source location annotations are attached to the node that follows them.
+     */
+    private static List<SExpression> parse(String text) {
+      List<List<SExpression>> openLists = new ArrayList<>();
+      List<SourceLocation> openListLocations = new ArrayList<>();
+      List<SExpression> nodes = new ArrayList<>();
+      SourceLocation pendingLocation = null;
+      int length = text.length();
+      int i = 0;
+      while (i < length) {
+        char c = text.charAt(i);
+        if (Character.isWhitespace(c)) {
+          i++;
+        } else if (text.startsWith(";;", i)) {
+          int end = text.indexOf('\n', i);
+          end = end == -1 ? length : end;
+          if (text.startsWith(";;@ ", i)) {
+            pendingLocation = SourceLocation.parse(text.substring(i + 4, end).trim());
+          }
+          i = end;
+        } else if (text.startsWith("(;", i)) {
+          int end = text.indexOf(";)", i + 2);
+          checkArgument(end != -1, "Unterminated comment");
+          i = end + 2;
+        } else if (c == '(') {
+          openLists.add(nodes);
+          openListLocations.add(pendingLocation);
+          pendingLocation = null;
+          nodes = new ArrayList<>();
+          i++;
+        } else if (c == ')') {
+          checkArgument(!openLists.isEmpty(), "Unbalanced parenthesis at %s", i);
+          SExpression list = list(nodes);
+          list.sourceLocation = openListLocations.remove(openListLocations.size() - 1);
+          nodes = openLists.remove(openLists.size() - 1);
+          nodes.add(list);
+          i++;
+        } else if (c == '"') {
+          int end = i + 1;
+          while (text.charAt(end) != '"') {
+            end += text.charAt(end) == '\\' ? 2 : 1;
+          }
+          SExpression string =
+              new SExpression(text.substring(i + 1, end), /* isString= */ true, null);
+          string.sourceLocation = pendingLocation;
+          pendingLocation = null;
+          nodes.add(string);
+          i = end + 1;
+        } else {
+          int end = i;
+          while (end < length && !isDelimiter(text.charAt(end))) {
+            end++;
+          }
+          SExpression atom = new SExpression(text.substring(i, end), /* isString= */ false, null);
+          atom.sourceLocation = pendingLocation;
+          pendingLocation = null;
+          nodes.add(atom);
+          i = end;
+        }
+      }
+      checkArgument(openLists.isEmpty(), "Unbalanced parenthesis");
+      return nodes;
+    }
+
+    private static boolean isDelimiter(char c) {
+      return Character.isWhitespace(c) || c == '(' || c == ')' || c == '"' || c == ';';
+    }
+
+    @Override
+    public String toString() {
+      if (isString) {
+        return "\"" + atom + "\"";
+      }
+      if (atom != null) {
+        return atom;
+      }
+      StringBuilder sb = new StringBuilder("(");
+      for (SExpression child : children) {
+        if (sb.length() > 1) {
+          sb.append(' ');
+        }
+        sb.append(child);
+      }
+      return sb.append(')').toString();
+    }
+  }
+}
@@ -32,8 +32,8 @@ import com.google.j2cl.transpiler.ast.Field;
 import com.google.j2cl.transpiler.ast.FieldDescriptor;
 import com.google.j2cl.transpiler.ast.Library;
 import com.google.j2cl.transpiler.ast.Method;
+import com.google.j2cl.transpiler.ast.MethodCall;
 import com.google.j2cl.transpiler.ast.MethodDescriptor;
-import com.google.j2cl.transpiler.ast.NumberLiteral;
 import com.google.j2cl.transpiler.ast.PrimitiveTypeDescriptor;
 import com.google.j2cl.transpiler.ast.Type;
 import com.google.j2cl.transpiler.ast.TypeDeclaration;
@@ -48,6 +48,8 @@ import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /** Generates all the syntactic .wat constructs for wasm. */
 public class WasmConstructsGenerator {
@@ -60,9 +62,23 @@ public class WasmConstructsGenerator {
     this.builder = builder;
   }
 
-  void emitDataSegments(Library library) {
+  public void emitDataSegments(Library library) {
+    int[] literalCount = {0};
+    long[] dataSize = {0};
+    long[] inlineCodeSize = {0};
     library.accept(
         new AbstractVisitor() {
+          @Override
+          public boolean enterMethodCall(MethodCall methodCall) {
+            // Strings that are created from their characters read them from the string literal
+            // pool; this is visited before the array literal so that it is not emitted on its own.
+            ArrayLiteral characters = getStringLiteralCharacters(methodCall);
+            if (characters != null) {
+              environment.registerPooledStringLiteral(characters, getStringValue(characters));
+            }
+            return true;
+          }
+
           @Override
           public void exitArrayLiteral(ArrayLiteral arrayLiteral) {
             if (canBeMovedToDataSegment(arrayLiteral)
@@ -72,15 +88,104 @@ public class WasmConstructsGenerator {
               builder.newLine();
               builder.append(
                   format("(data %s \"%s\")", dataElementName, toDataString(arrayLiteral)));
+              literalCount[0]++;
+              dataSize[0] += getDataSize(arrayLiteral);
+              inlineCodeSize[0] += getInlineCodeSize(arrayLiteral);
             }
           }
         });
+    emitStringLiteralPool();
+
+    if (literalCount[0] > 0) {
+      builder.newLine();
+      builder.append(
+          format(
+              ";; %d array literals take %d bytes of data instead of about %d bytes of code.",
+              literalCount[0], dataSize[0], inlineCodeSize[0]));
+    }
+  }
+
+  /**
+   * Returns the characters of a string literal if {@code methodCall} creates the string from them,
+   * which is how string literals are materialized when strings are not backed by stringref.
+   */
+  @Nullable
+  private static ArrayLiteral getStringLiteralCharacters(MethodCall methodCall) {
+    MethodDescriptor target = methodCall.getTarget();
+    if (!target.getName().equals("fromInternalArray")
+        || !TypeDescriptors.isJavaLangString(target.getEnclosingTypeDescriptor())
+        || methodCall.getArguments().size() != 1
+        || !(methodCall.getArguments().get(0) instanceof ArrayLiteral)) {
+      return null;
+    }
+    ArrayLiteral arrayLiteral = (ArrayLiteral) methodCall.getArguments().get(0);
+    return canBeMovedToDataSegment(arrayLiteral) ? arrayLiteral : null;
   }
 
-  private boolean canBeMovedToDataSegment(ArrayLiteral arrayLiteral) {
+  private static String getStringValue(ArrayLiteral characters) {
+    StringBuilder sb = new StringBuilder(characters.getValueExpressions().size());
+    for (Expression expression : characters.getValueExpressions()) {
+      sb.append((char) ConstantFolder.evaluate(expression).longValue());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Emits the characters of all the string literals as a single data segment of UTF-16 code units,
+   * from which each literal is materialized the first time it is accessed.
+   */
+  private void emitStringLiteralPool() {
+    if (environment.getPooledStringLiterals().isEmpty()) {
+      return;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String value : environment.getPooledStringLiterals()) {
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        sb.append(StringUtils.escapeAsUtf8(c & 0xFF));
+        sb.append(StringUtils.escapeAsUtf8(c >>> 8));
+      }
+    }
+    builder.newLine();
+    builder.append(
+        format("(data %s \"%s\")", WasmGenerationEnvironment.STRING_LITERAL_POOL_NAME, sb));
+  }
+
+  /**
+   * Returns true if all the values of a primitive array literal are known at compile time, which
+   * includes constant expressions like {@code -1}, {@code (byte) 0xff} or {@code 1 << 3} besides
+   * plain literals.
+   */
+  private static boolean canBeMovedToDataSegment(ArrayLiteral arrayLiteral) {
     return TypeDescriptors.isNonVoidPrimitiveType(
             arrayLiteral.getTypeDescriptor().getComponentTypeDescriptor())
-        && arrayLiteral.getValueExpressions().stream().allMatch(NumberLiteral.class::isInstance);
+        && arrayLiteral.getValueExpressions().stream()
+            .allMatch(e -> ConstantFolder.evaluate(e) != null);
+  }
+
+  private static int getDataSize(ArrayLiteral arrayLiteral) {
+    PrimitiveTypeDescriptor componentTypeDescriptor =
+        (PrimitiveTypeDescriptor) arrayLiteral.getTypeDescriptor().getComponentTypeDescriptor();
+    return arrayLiteral.getValueExpressions().size() * (componentTypeDescriptor.getWidth() / 8);
+  }
+
+  /** Returns the size of the constant instructions that the literal would have been encoded as. */
+  private static int getInlineCodeSize(ArrayLiteral arrayLiteral) {
+    TypeDescriptor componentTypeDescriptor =
+        arrayLiteral.getTypeDescriptor().getComponentTypeDescriptor();
+    int size = 0;
+    for (Expression expression : arrayLiteral.getValueExpressions()) {
+      if (TypeDescriptors.isPrimitiveFloat(componentTypeDescriptor)) {
+        size += 5;
+      } else if (TypeDescriptors.isPrimitiveDouble(componentTypeDescriptor)) {
+        size += 9;
+      } else {
+        // The opcode followed by the value as a signed LEB128.
+        long value = ConstantFolder.evaluate(expression).longValue();
+        size += 1 + (64 - Long.numberOfLeadingZeros(value < 0 ? ~value : value)) / 7 + 1;
+      }
+    }
+    return size;
   }
 
   /**
@@ -96,15 +201,14 @@ public class WasmConstructsGenerator {
     // Preallocate the stringbuilder to hold the encoded data since its size its already known.
     StringBuilder sb = new StringBuilder(valueExpressions.size() * (sizeInBits / 8));
     for (Expression expression : valueExpressions) {
-      NumberLiteral literal = (NumberLiteral) expression;
+      Number constant = ConstantFolder.evaluate(expression);
       long value;
-      PrimitiveTypeDescriptor typeDescriptor = literal.getTypeDescriptor();
-      if (TypeDescriptors.isPrimitiveFloat(typeDescriptor)) {
-        value = Float.floatToRawIntBits(literal.getValue().floatValue());
-      } else if (TypeDescriptors.isPrimitiveDouble(typeDescriptor)) {
-        value = Double.doubleToRawLongBits(literal.getValue().doubleValue());
+      if (TypeDescriptors.isPrimitiveFloat(componentTypeDescriptor)) {
+        value = Float.floatToRawIntBits(constant.floatValue());
+      } else if (TypeDescriptors.isPrimitiveDouble(componentTypeDescriptor)) {
+        value = Double.doubleToRawLongBits(constant.doubleValue());
       } else {
-        value = literal.getValue().longValue();
+        value = constant.longValue();
       }
 
       for (int s = sizeInBits; s > 0; s -= 8, value >>>= 8) {
@@ -285,7 +389,20 @@ public class WasmConstructsGenerator {
   }
 
   private void renderVtableStruct(Type type, Collection<MethodDescriptor> methods) {
-    emitWasmStruct(type, environment::getWasmVtableTypeName, () -> renderVtableEntries(methods));
+    emitWasmStruct(
+        type,
+        environment::getWasmVtableTypeName,
+        () -> renderVtableEntries(getUsedVtableSlots(methods)));
+  }
+
+  /**
+   * Returns the methods whose vtable slots are read by some call.
+   *
+   * <p>Slots are removed consistently from the vtables of all types, so that the vtable of a class
+   * is still an extension of the vtable of its superclass.
+   */
+  private List<MethodDescriptor> getUsedVtableSlots(Collection<MethodDescriptor> methods) {
+    return methods.stream().filter(environment::isVtableSlotUsed).collect(toImmutableList());
   }
 
   private void renderVtableEntries(Collection<MethodDescriptor> methodDescriptors) {
@@ -577,7 +694,8 @@ public class WasmConstructsGenerator {
             environment.getWasmVtableGlobalName(typeDeclaration),
             environment.getWasmVtableTypeName(typeDeclaration)));
     builder.indent();
-    emitVtableInitialization(typeDeclaration, wasmTypeLayout.getAllPolymorphicMethods());
+    emitVtableInitialization(
+        typeDeclaration, getUsedVtableSlots(wasmTypeLayout.getAllPolymorphicMethods()));
     builder.unindent();
     builder.newLine();
     builder.append(")");
@@ -692,6 +810,7 @@ public class WasmConstructsGenerator {
     ImmutableList<MethodDescriptor> interfaceMethodImplementations =
         interfaceDeclaration.getDeclaredMethodDescriptors().stream()
             .filter(MethodDescriptor::isPolymorphic)
+            .filter(environment::isVtableSlotUsed)
             .map(wasmTypeLayout::getImplementationMethod)
             .collect(toImmutableList());
     emitVtableInitialization(interfaceDeclaration, interfaceMethodImplementations);
@@ -729,6 +848,11 @@ public class WasmConstructsGenerator {
     boolean hasSuperType = type.getSuperTypeDescriptor() != null;
     builder.newLine();
     builder.append(String.format("(type %s (sub ", structNamer.apply(type.getTypeDescriptor())));
+    if (environment.isEffectivelyFinal(type.getDeclaration())) {
+      // No struct extends the structs of classes that are not extended, which lets the engine
+      // simplify casts to them.
+      builder.append("final ");
+    }
     if (hasSuperType) {
       builder.append(format("%s ", structNamer.apply(type.getSuperTypeDescriptor())));
     }
@@ -788,16 +912,21 @@ public class WasmConstructsGenerator {
    * them.
    */
   void emitForEachType(Library library, Consumer<Type> emitter, String comment) {
-    library
+    streamTypesSupertypesFirst(library).forEach(type -> emitForType(type, emitter, comment));
+  }
+
+  /** Calls the emitter for {@code type}, surrounding its code with begin and end comments. */
+  void emitForType(Type type, Consumer<Type> emitter, String comment) {
+    emitBeginCodeComment(type, comment);
+    emitter.accept(type);
+    emitEndCodeComment(type, comment);
+  }
+
+  /** Returns the types in the library in the order in which they are emitted. */
+  static Stream<Type> streamTypesSupertypesFirst(Library library) {
+    return library
         .streamTypes()
-        // Emit the types supertypes first.
-        .sorted(Comparator.comparing(t -> t.getDeclaration().getClassHierarchyDepth()))
-        .forEach(
-            type -> {
-              emitBeginCodeComment(type, comment);
-              emitter.accept(type);
-              emitEndCodeComment(type, comment);
-            });
+        .sorted(Comparator.comparing(t -> t.getDeclaration().getClassHierarchyDepth()));
   }
 
   private void emitBeginCodeComment(Type type, String section) {
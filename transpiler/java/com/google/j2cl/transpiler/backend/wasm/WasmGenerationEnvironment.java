@@ -18,17 +18,21 @@ package com.google.j2cl.transpiler.backend.wasm;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static java.lang.String.format;
 import static java.util.Comparator.comparingInt;
 
 import com.google.common.base.Predicates;
 import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.SetMultimap;
+import com.google.j2cl.transpiler.ast.AbstractVisitor;
 import com.google.j2cl.transpiler.ast.ArrayLiteral;
 import com.google.j2cl.transpiler.ast.ArrayTypeDescriptor;
 import com.google.j2cl.transpiler.ast.AstUtils;
@@ -38,6 +42,7 @@ import com.google.j2cl.transpiler.ast.FieldDescriptor;
 import com.google.j2cl.transpiler.ast.HasName;
 import com.google.j2cl.transpiler.ast.Library;
 import com.google.j2cl.transpiler.ast.Method;
+import com.google.j2cl.transpiler.ast.MethodCall;
 import com.google.j2cl.transpiler.ast.MethodDescriptor;
 import com.google.j2cl.transpiler.ast.NameDeclaration;
 import com.google.j2cl.transpiler.ast.PrimitiveTypeDescriptor;
@@ -48,10 +53,16 @@ import com.google.j2cl.transpiler.ast.TypeDescriptor;
 import com.google.j2cl.transpiler.ast.TypeDescriptors;
 import com.google.j2cl.transpiler.backend.common.UniqueNamesResolver;
 import com.google.j2cl.transpiler.backend.wasm.JsImportsGenerator.Imports;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.Function;
 import javax.annotation.Nullable;
 
@@ -383,6 +394,45 @@ public class WasmGenerationEnvironment {
     return dataNameByLiteral.get(arrayLiteral);
   }
 
+  /** The name of the data segment that holds the characters of all the string literals. */
+  static final String STRING_LITERAL_POOL_NAME = "$string.literals";
+
+  /** The offset, in characters, of each string literal in the pool. */
+  private final Map<String, Integer> stringLiteralPoolOffsetByValue = new LinkedHashMap<>();
+
+  private int stringLiteralPoolLength;
+
+  /** The byte offset of the array literals within the data segment they share. */
+  private final Map<ArrayLiteral, Integer> dataOffsetByLiteral = new HashMap<>();
+
+  /**
+   * Registers the characters of the string literal {@code value} to be read from the string
+   * literal pool, where each distinct literal is stored once.
+   */
+  public void registerPooledStringLiteral(ArrayLiteral arrayLiteral, String value) {
+    int offset =
+        stringLiteralPoolOffsetByValue.computeIfAbsent(
+            value,
+            v -> {
+              int start = stringLiteralPoolLength;
+              stringLiteralPoolLength += v.length();
+              return start;
+            });
+    dataNameByLiteral.put(arrayLiteral, STRING_LITERAL_POOL_NAME);
+    // Characters are 2 bytes wide.
+    dataOffsetByLiteral.put(arrayLiteral, offset * 2);
+  }
+
+  /** Returns the byte offset of the literal in its data segment. */
+  public int getDataOffsetForLiteral(ArrayLiteral arrayLiteral) {
+    return dataOffsetByLiteral.getOrDefault(arrayLiteral, 0);
+  }
+
+  /** Returns the string literals in the pool, in the order they are laid out. */
+  Set<String> getPooledStringLiterals() {
+    return stringLiteralPoolOffsetByValue.keySet();
+  }
+
   private int numberOfInterfaceSlots = -1;
 
   int getNumberOfInterfaceSlots() {
@@ -392,6 +442,12 @@ public class WasmGenerationEnvironment {
     return numberOfInterfaceSlots;
   }
 
+  /** Returns the number of interfaces that share the interface slots. */
+  int getNumberOfInterfacesWithSlots() {
+    checkState(!isModular);
+    return slotByInterfaceTypeDeclaration.size();
+  }
+
   private final JsImportsGenerator.Imports jsImports;
 
   public JsImportsGenerator.Imports getJsImports() {
@@ -403,10 +459,24 @@ public class WasmGenerationEnvironment {
   }
 
   private boolean isModular;
+  private final boolean isClosedWorld;
   private Library library;
 
   WasmGenerationEnvironment(Library library, Imports jsImports, boolean isModular) {
+    this(library, jsImports, isModular, /* isClosedWorld= */ false);
+  }
+
+  /**
+   * Creates the environment to generate {@code library}.
+   *
+   * <p>When {@code isClosedWorld} is set the library is assumed to contain the whole program, which
+   * allows calls to be devirtualized using class hierarchy analysis.
+   */
+  WasmGenerationEnvironment(
+      Library library, Imports jsImports, boolean isModular, boolean isClosedWorld) {
+    checkArgument(!isModular || !isClosedWorld);
     this.isModular = isModular;
+    this.isClosedWorld = isClosedWorld;
     this.library = library;
 
     // Resolve variable names into unique wasm identifiers.
@@ -443,6 +513,12 @@ public class WasmGenerationEnvironment {
       assignInterfaceSlots(library);
     }
 
+    if (isClosedWorld) {
+      collectSingleImplementations(library);
+      collectUsedVtableSlots(library);
+      collectClassesWithSubclasses(library);
+    }
+
     this.jsImports = jsImports;
   }
 
@@ -487,11 +563,14 @@ public class WasmGenerationEnvironment {
    * section 4.3 of "Efficient type inclusion tests" by Vitek et al (OOPSLA 97). Although the ideas
    * presented in the paper are for performing "instanceof" checks, they generalize to interface
    * dispatch.
+   *
+   * <p>Assigning slots amounts to coloring the graph where interfaces that are implemented by the
+   * same class conflict. Two greedy colorings are computed and the one that needs fewer slots is
+   * kept, since neither heuristic is better than the other for all hierarchies.
    */
   private void assignInterfaceSlots(Library library) {
     SetMultimap<TypeDeclaration, TypeDeclaration> concreteTypesByInterface =
         LinkedHashMultimap.create();
-    SetMultimap<Integer, TypeDeclaration> classesBySlot = LinkedHashMultimap.create();
 
     // Traverse all classes collecting the interfaces they implement. Actual vtable
     // instances are only required for concrete classes, because they provide the references to the
@@ -509,30 +588,51 @@ public class WasmGenerationEnvironment {
 
     // Traverse and assign interfaces by most implemented to least implemented so that widely
     // implemented interfaces get lower slot numbers.
-    concreteTypesByInterface.keySet().stream()
-        .sorted(
-            comparingInt((TypeDeclaration td) -> concreteTypesByInterface.get(td).size())
-                .reversed())
-        .forEach(i -> assignFirstNonConflictingSlot(i, concreteTypesByInterface, classesBySlot));
-    numberOfInterfaceSlots = classesBySlot.keySet().size();
+    ImmutableList<TypeDeclaration> interfaces =
+        concreteTypesByInterface.keySet().stream()
+            .sorted(
+                comparingInt((TypeDeclaration td) -> concreteTypesByInterface.get(td).size())
+                    .reversed())
+            .collect(toImmutableList());
+
+    Map<TypeDeclaration, Integer> firstFitSlotByInterface = new HashMap<>();
+    SetMultimap<Integer, TypeDeclaration> classesBySlot = LinkedHashMultimap.create();
+    interfaces.forEach(
+        i ->
+            assignFirstNonConflictingSlot(
+                i, concreteTypesByInterface, classesBySlot, firstFitSlotByInterface));
+    int numberOfFirstFitSlots = classesBySlot.keySet().size();
+
+    Map<TypeDeclaration, Integer> saturationSlotByInterface =
+        assignSlotsBySaturation(interfaces, concreteTypesByInterface);
+    int numberOfSaturationSlots = getNumberOfSlots(saturationSlotByInterface);
+
+    if (numberOfSaturationSlots < numberOfFirstFitSlots) {
+      slotByInterfaceTypeDeclaration.putAll(saturationSlotByInterface);
+      numberOfInterfaceSlots = numberOfSaturationSlots;
+    } else {
+      slotByInterfaceTypeDeclaration.putAll(firstFitSlotByInterface);
+      numberOfInterfaceSlots = numberOfFirstFitSlots;
+    }
   }
 
   /** Assigns the lowest non conflicting slot to {@code interfaceToAssign}. */
-  private void assignFirstNonConflictingSlot(
+  private static void assignFirstNonConflictingSlot(
       TypeDeclaration interfaceToAssign,
       SetMultimap<TypeDeclaration, TypeDeclaration> concreteTypesByInterface,
-      SetMultimap<Integer, TypeDeclaration> concreteTypesBySlot) {
+      SetMultimap<Integer, TypeDeclaration> concreteTypesBySlot,
+      Map<TypeDeclaration, Integer> slotByInterface) {
     int slot =
         getFirstNonConflictingSlot(
             interfaceToAssign, concreteTypesBySlot, concreteTypesByInterface);
-    slotByInterfaceTypeDeclaration.put(interfaceToAssign, slot);
+    slotByInterface.put(interfaceToAssign, slot);
     // Add all the concrete implementors for that interface to the assigned slot, to mark
     // that slot as already used in all those types.
     concreteTypesBySlot.putAll(slot, concreteTypesByInterface.get(interfaceToAssign));
   }
 
   /** Finds the lowest non-conflicting slot for {@code interface}. */
-  private int getFirstNonConflictingSlot(
+  private static int getFirstNonConflictingSlot(
       TypeDeclaration interfaceToAssign,
       SetMultimap<Integer, TypeDeclaration> concreteTypesBySlot,
       SetMultimap<TypeDeclaration, TypeDeclaration> concreteTypesByInterface) {
@@ -549,4 +649,218 @@ public class WasmGenerationEnvironment {
     // Couldn't find an existing slot that is not conflicting, return a new slot.
     return numberOfSlots;
   }
+
+  /**
+   * Assigns slots coloring the conflict graph with the DSatur heuristic (Brelaz, CACM 1979).
+   *
+   * <p>Instead of following a fixed order, the next interface to be assigned is the one whose
+   * conflicting interfaces already use the most distinct slots, breaking ties by the number of
+   * conflicting interfaces and then by the order in {@code interfaces}.
+   */
+  private static Map<TypeDeclaration, Integer> assignSlotsBySaturation(
+      List<TypeDeclaration> interfaces,
+      SetMultimap<TypeDeclaration, TypeDeclaration> concreteTypesByInterface) {
+    SetMultimap<TypeDeclaration, TypeDeclaration> interfacesByConcreteType =
+        Multimaps.invertFrom(concreteTypesByInterface, LinkedHashMultimap.create());
+
+    // Only interfaces that are implemented by the same class conflict, which keeps the graph
+    // sparse compared to all the interfaces in the application.
+    SetMultimap<TypeDeclaration, TypeDeclaration> conflictingInterfacesByInterface =
+        LinkedHashMultimap.create();
+    for (TypeDeclaration interfaceDeclaration : interfaces) {
+      for (TypeDeclaration concreteType : concreteTypesByInterface.get(interfaceDeclaration)) {
+        conflictingInterfacesByInterface.putAll(
+            interfaceDeclaration, interfacesByConcreteType.get(concreteType));
+      }
+      conflictingInterfacesByInterface.remove(interfaceDeclaration, interfaceDeclaration);
+    }
+
+    // The saturation of an interface is the number of distinct slots used by the interfaces that
+    // conflict with it; it is kept up to date as slots are assigned.
+    int[] saturations = new int[interfaces.size()];
+    int[] degrees = new int[interfaces.size()];
+    BitSet[] conflictingSlotsByIndex = new BitSet[interfaces.size()];
+    Map<TypeDeclaration, Integer> indexByInterface = new HashMap<>();
+    for (int i = 0; i < interfaces.size(); i++) {
+      degrees[i] = conflictingInterfacesByInterface.get(interfaces.get(i)).size();
+      conflictingSlotsByIndex[i] = new BitSet();
+      indexByInterface.put(interfaces.get(i), i);
+    }
+
+    // Orders the unassigned interfaces so that the next one to be assigned comes first.
+    TreeSet<Integer> unassignedInterfaces =
+        new TreeSet<>(
+            comparingInt((Integer i) -> saturations[i])
+                .thenComparingInt(i -> degrees[i])
+                .reversed()
+                .thenComparingInt(i -> i));
+    for (int i = 0; i < interfaces.size(); i++) {
+      unassignedInterfaces.add(i);
+    }
+
+    Map<TypeDeclaration, Integer> slotByInterface = new HashMap<>();
+    while (!unassignedInterfaces.isEmpty()) {
+      int index = unassignedInterfaces.pollFirst();
+      TypeDeclaration interfaceToAssign = interfaces.get(index);
+      int slot = conflictingSlotsByIndex[index].nextClearBit(0);
+      slotByInterface.put(interfaceToAssign, slot);
+      for (TypeDeclaration conflictingInterface :
+          conflictingInterfacesByInterface.get(interfaceToAssign)) {
+        int conflictingIndex = indexByInterface.get(conflictingInterface);
+        if (conflictingSlotsByIndex[conflictingIndex].get(slot)
+            || !unassignedInterfaces.remove(conflictingIndex)) {
+          // Either the saturation does not change or the interface has already been assigned.
+          continue;
+        }
+        // Reinserted once updated, since its position depends on the saturation.
+        conflictingSlotsByIndex[conflictingIndex].set(slot);
+        saturations[conflictingIndex]++;
+        unassignedInterfaces.add(conflictingIndex);
+      }
+    }
+    return slotByInterface;
+  }
+
+  private static int getNumberOfSlots(Map<TypeDeclaration, Integer> slotByInterface) {
+    return slotByInterface.values().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1;
+  }
+
+  /**
+   * The method that implements each polymorphic method in all the classes that can be instantiated,
+   * indexed by the type that declares it and its mangled name; the implementation is {@code null}
+   * when there is more than one.
+   */
+  private final Map<TypeDeclaration, Map<String, MethodDescriptor>>
+      singleImplementationByMangledNameByType = new HashMap<>();
+
+  /** The vtable slots that are read by polymorphic calls. */
+  private final Set<String> usedVtableSlots = new HashSet<>();
+
+  /** The classes that are extended by some class in the library. */
+  private final Set<TypeDeclaration> classesWithSubclasses = new HashSet<>();
+
+  /**
+   * Returns the only method that {@code methodCall} can dispatch to, or {@code null} if the call
+   * needs to be dispatched dynamically.
+   */
+  @Nullable
+  MethodDescriptor getSingleImplementation(MethodCall methodCall) {
+    if (!isClosedWorld || !canBeDevirtualized(methodCall)) {
+      return null;
+    }
+    MethodDescriptor target = methodCall.getTarget();
+    Map<String, MethodDescriptor> singleImplementationByMangledName =
+        singleImplementationByMangledNameByType.get(
+            target.getEnclosingTypeDescriptor().getTypeDeclaration());
+    return singleImplementationByMangledName == null
+        ? null
+        : singleImplementationByMangledName.get(target.getMangledName());
+  }
+
+  /** Returns whether the vtable slot for {@code methodDescriptor} needs to be emitted. */
+  boolean isVtableSlotUsed(MethodDescriptor methodDescriptor) {
+    return !isClosedWorld || usedVtableSlots.contains(getVtableSlot(methodDescriptor));
+  }
+
+  /** Returns whether no class in the program extends {@code typeDeclaration}. */
+  boolean isEffectivelyFinal(TypeDeclaration typeDeclaration) {
+    return isClosedWorld
+        && !typeDeclaration.isInterface()
+        && !classesWithSubclasses.contains(typeDeclaration);
+  }
+
+  private static boolean canBeDevirtualized(MethodCall methodCall) {
+    MethodDescriptor target = methodCall.getTarget();
+    // Calls that are rendered as direct calls, or through the intrinsic that marks calls without
+    // side effects, are left alone.
+    return methodCall.isPolymorphic()
+        && !target.isNative()
+        && !target.isJsOverlay()
+        && !target.isSideEffectFree()
+        && !target.getEnclosingTypeDescriptor().isJsFunctionInterface();
+  }
+
+  /**
+   * Resolves, for every polymorphic method, the implementations that calls to it can reach.
+   *
+   * <p>Only instances of the concrete classes that get a vtable exist at runtime, so the targets of
+   * a call are the implementations of the method in the concrete subtypes of the type that declares
+   * it.
+   */
+  private void collectSingleImplementations(Library library) {
+    library
+        .streamTypes()
+        .filter(Predicates.not(Type::isInterface))
+        .filter(Predicates.not(Type::isNative))
+        .map(Type::getDeclaration)
+        .filter(Predicates.not(TypeDeclaration::isAbstract))
+        .filter(t -> t.getWasmInfo() == null)
+        .filter(t -> !AstUtils.isNonNativeJsEnum(t.toUnparameterizedTypeDescriptor()))
+        .forEach(
+            concreteType -> {
+              WasmTypeLayout wasmTypeLayout = getWasmTypeLayout(concreteType);
+              for (TypeDeclaration superType : concreteType.getAllSuperTypesIncludingSelf()) {
+                Map<String, MethodDescriptor> singleImplementationByMangledName =
+                    singleImplementationByMangledNameByType.computeIfAbsent(
+                        superType, t -> new HashMap<>());
+                superType.getDeclaredMethodDescriptors().stream()
+                    .filter(MethodDescriptor::isPolymorphic)
+                    .forEach(
+                        m ->
+                            recordImplementation(
+                                singleImplementationByMangledName,
+                                m.getMangledName(),
+                                wasmTypeLayout.getImplementationMethod(m)));
+              }
+            });
+  }
+
+  private void recordImplementation(
+      Map<String, MethodDescriptor> singleImplementationByMangledName,
+      String mangledName,
+      @Nullable MethodDescriptor implementation) {
+    if (implementation == null
+        || implementation.isAbstract()
+        || implementation.isNative()
+        || implementation.getWasmInfo() != null) {
+      // The method cannot be called directly.
+      singleImplementationByMangledName.put(mangledName, null);
+      return;
+    }
+    if (!singleImplementationByMangledName.containsKey(mangledName)) {
+      singleImplementationByMangledName.put(mangledName, implementation);
+      return;
+    }
+    MethodDescriptor singleImplementation = singleImplementationByMangledName.get(mangledName);
+    if (singleImplementation != null
+        && !getMethodImplementationName(singleImplementation)
+            .equals(getMethodImplementationName(implementation))) {
+      singleImplementationByMangledName.put(mangledName, null);
+    }
+  }
+
+  /** Collects the vtable slots that are still read after devirtualization. */
+  private void collectUsedVtableSlots(Library library) {
+    library.accept(
+        new AbstractVisitor() {
+          @Override
+          public void exitMethodCall(MethodCall methodCall) {
+            // Mirrors the choice made when rendering calls.
+            if (methodCall.isPolymorphic()
+                && !methodCall.getTarget().isNative()
+                && getSingleImplementation(methodCall) == null) {
+              usedVtableSlots.add(getVtableSlot(methodCall.getTarget()));
+            }
+          }
+        });
+  }
+
+  private void collectClassesWithSubclasses(Library library) {
+    library
+        .streamTypes()
+        .map(Type::getDeclaration)
+        .map(TypeDeclaration::getSuperTypeDeclaration)
+        .filter(Objects::nonNull)
+        .forEach(classesWithSubclasses::add);
+  }
 }
@@ -17,11 +17,16 @@ package com.google.j2cl.transpiler.backend.wasm;
 
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Predicates.not;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.j2cl.common.OutputUtils;
 import com.google.j2cl.common.OutputUtils.Output;
 import com.google.j2cl.common.Problems;
+import com.google.j2cl.common.SharedThreadLocal;
 import com.google.j2cl.common.SourcePosition;
 import com.google.j2cl.transpiler.ast.AbstractVisitor;
 import com.google.j2cl.transpiler.ast.ArrayTypeDescriptor;
@@ -37,12 +42,18 @@ import com.google.j2cl.transpiler.ast.Variable;
 import com.google.j2cl.transpiler.backend.common.SourceBuilder;
 import com.google.j2cl.transpiler.backend.wasm.JsImportsGenerator.Imports;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 /** Generates all the outputs for Wasm compilation. */
@@ -51,19 +62,22 @@ public class WasmGeneratorStage {
   private final Problems problems;
   private final Output output;
   private final Path libraryInfoOutputPath;
+  private final int renderingParallelism;
   private WasmGenerationEnvironment environment;
 
   /** Returns a generator stage that can emit code as strings. */
   public WasmGeneratorStage(Library library, Problems problems) {
-    this(null, null, problems);
+    this(null, null, /* renderingParallelism= */ 1, problems);
     this.environment =
         new WasmGenerationEnvironment(
             library, JsImportsGenerator.collectImports(library, problems), /* isModular= */ true);
   }
 
-  private WasmGeneratorStage(Output output, Path libraryInfoOutputPath, Problems problems) {
+  private WasmGeneratorStage(
+      Output output, Path libraryInfoOutputPath, int renderingParallelism, Problems problems) {
     this.output = output;
     this.libraryInfoOutputPath = libraryInfoOutputPath;
+    this.renderingParallelism = renderingParallelism;
     this.problems = problems;
   }
 
@@ -72,8 +86,13 @@ public class WasmGeneratorStage {
   }
 
   public static void generateModularOutput(
-      Library library, Output output, Path libraryInfoOutputPath, Problems problems) {
-    new WasmGeneratorStage(output, libraryInfoOutputPath, problems).generateModularOutput(library);
+      Library library,
+      Output output,
+      Path libraryInfoOutputPath,
+      int renderingParallelism,
+      Problems problems) {
+    new WasmGeneratorStage(output, libraryInfoOutputPath, renderingParallelism, problems)
+        .generateModularOutput(library);
   }
 
   private void generateModularOutput(Library library) {
@@ -126,9 +145,11 @@ public class WasmGeneratorStage {
             generator.emitForEachType(
                 library, generator::renderModularTypeStructs, "type definition"));
 
-    emitToFile(
-        "functions.wat",
-        generator -> generator.emitForEachType(library, generator::renderTypeMethods, "methods"));
+    List<String> functions = new ArrayList<>();
+    renderMethodsForEachType(library, functions::add);
+    if (!functions.isEmpty()) {
+      output.write("functions.wat", ImmutableList.copyOf(functions));
+    }
 
     emitToFile(
         "globals.wat",
@@ -160,14 +181,27 @@ public class WasmGeneratorStage {
   }
 
   public static void generateMonolithicOutput(
-      Library library, Output output, Path libraryInfoOutputPath, Problems problems) {
-    new WasmGeneratorStage(output, libraryInfoOutputPath, problems)
-        .generateMonolithicOutput(library);
+      Library library,
+      Output output,
+      Path libraryInfoOutputPath,
+      boolean emitBinary,
+      boolean isClosedWorld,
+      int renderingParallelism,
+      boolean reportStatistics,
+      Problems problems) {
+    new WasmGeneratorStage(output, libraryInfoOutputPath, renderingParallelism, problems)
+        .generateMonolithicOutput(library, emitBinary, isClosedWorld, reportStatistics);
   }
 
-  private void generateMonolithicOutput(Library library) {
+  private void generateMonolithicOutput(
+      Library library, boolean emitBinary, boolean isClosedWorld, boolean reportStatistics) {
     copyJavaSources(library);
-    generateWasmModule(library);
+    generateWasmModule(library, emitBinary, isClosedWorld);
+    if (reportStatistics) {
+      problems.info(
+          "The itables have %d slots for %d implemented interfaces.",
+          environment.getNumberOfInterfaceSlots(), environment.getNumberOfInterfacesWithSlots());
+    }
     generateJsImportsFile();
   }
 
@@ -180,17 +214,117 @@ public class WasmGeneratorStage {
                     compilationUnit.getFilePath(), compilationUnit.getPackageRelativePath()));
   }
 
-  private void generateWasmModule(Library library) {
+  private void generateWasmModule(Library library, boolean emitBinary, boolean isClosedWorld) {
     environment =
         new WasmGenerationEnvironment(
-            library, JsImportsGenerator.collectImports(library, problems));
-    SourceBuilder builder = new SourceBuilder();
-    WasmConstructsGenerator generator = new WasmConstructsGenerator(environment, builder);
+            library,
+            JsImportsGenerator.collectImports(library, problems),
+            /* isModular= */ false,
+            isClosedWorld);
 
     List<ArrayTypeDescriptor> usedNativeArrayTypes = collectUsedNativeArrayTypes(library);
 
+    if (emitBinary) {
+      generateWasmBinaryModule(library, usedNativeArrayTypes);
+    } else {
+      generateWasmTextModule(library, usedNativeArrayTypes);
+    }
+    output.write("namemap", emitNameMapping(library));
+  }
+
+  private void generateWasmTextModule(
+      Library library, List<ArrayTypeDescriptor> usedNativeArrayTypes) {
+    SourceBuilder builder = new SourceBuilder();
+    WasmConstructsGenerator generator = new WasmConstructsGenerator(environment, builder);
+
     builder.appendln(";;; Code generated by J2WASM");
     builder.append("(module");
+    emitModuleDeclarations(generator, library, usedNativeArrayTypes);
+
+    // Last, emit all methods at the very end so that the synthetic code generated above does
+    // not inherit an incorrect source position.
+    renderMethodsForEachType(library, builder::append);
+
+    builder.newLine();
+    builder.append(")");
+    output.write("module.wat", builder.buildToList());
+  }
+
+  /**
+   * Emits the module in binary form.
+   *
+   * <p>The module is rendered in text form by the same generators and assembled as it is rendered;
+   * the methods are rendered one type at a time so that the text of all the function bodies is
+   * never held in memory at once. The source positions that annotate the text are mapped to the
+   * code in the module by the source map that accompanies it.
+   */
+  private void generateWasmBinaryModule(
+      Library library, List<ArrayTypeDescriptor> usedNativeArrayTypes) {
+    WasmBinaryEncoder encoder = new WasmBinaryEncoder();
+    encoder.addModuleFields(
+        emitToString(
+            generator -> emitModuleDeclarations(generator, library, usedNativeArrayTypes)));
+    renderMethodsForEachType(library, encoder::addModuleFields);
+    output.write("module.wasm", encoder.encode("module.wasm.map"));
+    output.write("module.wasm.map", encoder.getSourceMap("module.wasm"));
+  }
+
+  /**
+   * Renders the methods of each type in the library, supertypes first, and passes the code of each
+   * type to the consumer in that order.
+   *
+   * <p>The environment is not modified while rendering methods, so types are rendered ahead on the
+   * worker threads when the rendering parallelism allows it; the output is the same regardless of
+   * the number of threads.
+   */
+  private void renderMethodsForEachType(Library library, Consumer<String> consumer) {
+    ImmutableList<Type> types =
+        WasmConstructsGenerator.streamTypesSupertypesFirst(library).collect(toImmutableList());
+
+    ExecutorService executorService =
+        renderingParallelism > 1
+            ? Executors.newFixedThreadPool(
+                renderingParallelism, SharedThreadLocal.newThreadFactory())
+            : MoreExecutors.newDirectExecutorService();
+    try {
+      Deque<Future<String>> renderedTypes = new ArrayDeque<>();
+      for (Type type : types) {
+        renderedTypes.add(
+            executorService.submit(
+                () ->
+                    emitToString(
+                        generator ->
+                            generator.emitForType(type, generator::renderTypeMethods, "methods"))));
+
+        // Bound the number of rendered types that are waiting to be emitted.
+        if (renderedTypes.size() > MAX_PENDING_TYPES_PER_THREAD * renderingParallelism) {
+          consumer.accept(getRenderedCode(renderedTypes.remove()));
+        }
+      }
+      while (!renderedTypes.isEmpty()) {
+        consumer.accept(getRenderedCode(renderedTypes.remove()));
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private static final int MAX_PENDING_TYPES_PER_THREAD = 16;
+
+  private static String getRenderedCode(Future<String> renderedType) {
+    try {
+      return Uninterruptibles.getUninterruptibly(renderedType);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new AssertionError(e.getCause());
+    }
+  }
+
+  /** Emits all the module fields other than the functions that implement the methods. */
+  private static void emitModuleDeclarations(
+      WasmConstructsGenerator generator,
+      Library library,
+      List<ArrayTypeDescriptor> usedNativeArrayTypes) {
     // Emit all types at the beginning of the module.
     generator.emitLibraryRecGroup(library, usedNativeArrayTypes);
 
@@ -204,20 +338,15 @@ public class WasmGeneratorStage {
 
     // Emit intrinsics imports
     generator.emitImportsForBinaryenIntrinsics();
-
-    // Last, emit all methods at the very end so that the synthetic code generated above does
-    // not inherit an incorrect source position.
-    generator.emitForEachType(library, generator::renderTypeMethods, "methods");
-
-    builder.newLine();
-    builder.append(")");
-    output.write("module.wat", builder.buildToList());
-    output.write("namemap", emitNameMapping(library));
   }
 
   public static void generateWasmExportMethods(
       List<Method> methods, Output output, Problems problems) {
-    new WasmGeneratorStage(output, /* libraryInfoOutputPath= */ null, problems)
+    new WasmGeneratorStage(
+            output,
+            /* libraryInfoOutputPath= */ null,
+            /* renderingParallelism= */ 1,
+            problems)
         .generateWasmExportMethods(methods);
   }
 
@@ -41,7 +41,8 @@ public enum Frontend {
               /* useTargetPath= */ options.getGenerateKytheIndexingMetadata(),
               options.getForbiddenAnnotations());
       problems.abortIfHasErrors();
-      return CompilationUnitBuilder.build(compilationUnitsAndTypeBindings, parser);
+      return CompilationUnitBuilder.build(
+          compilationUnitsAndTypeBindings, parser, options.getResolveDescriptorsEagerly());
     }
 
     @Override
@@ -56,7 +57,8 @@ public enum Frontend {
           .parseFiles(
               options.getSources(),
               /* useTargetPath= */ options.getGenerateKytheIndexingMetadata(),
-              options.getForbiddenAnnotations());
+              options.getForbiddenAnnotations(),
+              options.getResolveDescriptorsEagerly());
     }
 
     @Override
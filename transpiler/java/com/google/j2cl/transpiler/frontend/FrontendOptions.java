@@ -31,4 +31,11 @@ public interface FrontendOptions {
   ImmutableList<String> getKotlincOptions();
 
   ImmutableList<String> getForbiddenAnnotations();
+
+  /**
+   * Whether the descriptors are used from multiple threads, in which case the properties that they
+   * would otherwise compute lazily from the frontend model are computed before the frontend
+   * returns.
+   */
+  boolean getResolveDescriptorsEagerly();
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.frontend.common;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipFile;
+
+/**
+ * Keeps the jars in the classpath open across compilations that run in the same process.
+ *
+ * <p>While a jar is open, the JDK shares its parsed central directory with every other opening of
+ * the same unmodified file. Frontends open all the jars in the classpath anew for each compilation;
+ * keeping them open here across the requests of a persistent worker avoids re-reading and
+ * re-indexing jars that did not change between requests.
+ *
+ * <p>Note that the gain relies on an implementation detail of the JDK: {@link ZipFile} instances
+ * opened on the same file share a {@code ZipFile.Source} only while at least one of them is open.
+ * On a JDK that does not share it, keeping the jars open here only costs file descriptors.
+ *
+ * <p>At most {@code j2cl.frontend.classpathcachesize} jars are kept open, evicting the least
+ * recently used ones. Each open jar holds a file descriptor, so the default stays well below the
+ * usual limit of open files per process.
+ */
+public final class ClasspathJarCache {
+
+  private static final int CACHE_SIZE =
+      Integer.parseInt(System.getProperty("j2cl.frontend.classpathcachesize", "128"));
+
+  /** An open jar, together with the attributes of the file it was opened from. */
+  private static final class OpenJar {
+    private final ZipFile zipFile;
+    private final FileTime lastModified;
+    private final long size;
+
+    private OpenJar(ZipFile zipFile, BasicFileAttributes attributes) {
+      this.zipFile = zipFile;
+      this.lastModified = attributes.lastModifiedTime();
+      this.size = attributes.size();
+    }
+
+    private boolean isUpToDate(BasicFileAttributes attributes) {
+      return lastModified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+    }
+  }
+
+  private static final Cache<String, OpenJar> openJarByPath =
+      CacheBuilder.newBuilder()
+          .maximumSize(CACHE_SIZE)
+          .removalListener(ClasspathJarCache::close)
+          .build();
+
+  /** Makes sure the jars in {@code classpathEntries} are kept open. */
+  public static void retain(Iterable<String> classpathEntries) {
+    if (CACHE_SIZE == 0) {
+      return;
+    }
+    for (String classpathEntry : classpathEntries) {
+      if (classpathEntry.endsWith(".jar")) {
+        retain(classpathEntry);
+      }
+    }
+  }
+
+  private static void retain(String jarPath) {
+    Path path = Paths.get(jarPath);
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      OpenJar openJar = openJarByPath.getIfPresent(jarPath);
+      if (openJar != null && openJar.isUpToDate(attributes)) {
+        return;
+      }
+      // If the jar was modified the stale entry is replaced and closed by the removal listener.
+      // Racing with another thread here can at worst open the jar twice, which is harmless.
+      openJarByPath.put(jarPath, new OpenJar(new ZipFile(path.toFile()), attributes));
+    } catch (IOException e) {
+      // The frontend reports unreadable classpath entries, there is nothing to cache here.
+    }
+  }
+
+  private static void close(RemovalNotification<String, OpenJar> notification) {
+    try {
+      notification.getValue().zipFile.close();
+    } catch (IOException e) {
+      // Nothing to do, the jar was only kept open to speed up future compilations.
+    }
+  }
+
+  private ClasspathJarCache() {}
+}
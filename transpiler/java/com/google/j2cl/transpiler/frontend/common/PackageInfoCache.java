@@ -18,23 +18,35 @@ package com.google.j2cl.transpiler.frontend.common;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.Arrays.stream;
+import static java.util.stream.Collectors.joining;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.j2cl.common.OutputUtils;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.Problems.FatalError;
+import com.google.j2cl.common.SharedThreadLocal;
+import com.google.j2cl.common.bazel.FileCache;
 import com.google.j2objc.annotations.ObjectiveCName;
+import java.io.File;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 import jsinterop.annotations.JsPackage;
 import org.jspecify.nullness.NullMarked;
@@ -52,6 +64,9 @@ import org.jspecify.nullness.NullMarked;
  * multiple class path entries contain the same packages but with different package info files,
  * depending on what arbitrary set of class path entries do or do not happen to be included in the
  * current compile.
+ *
+ * <p>The cache is shared by all the threads that participate in a compilation, hence accesses to
+ * it are synchronized.
  */
 public class PackageInfoCache {
 
@@ -96,8 +111,22 @@ public class PackageInfoCache {
    */
   public static final PackageReport DEFAULT_PACKAGE_REPORT = PackageReport.newBuilder().build();
 
-  /** Allows for the initialization/retrieval of one shared PackageInfoCache instance per thread. */
-  private static final ThreadLocal<PackageInfoCache> packageInfoCacheStorage = new ThreadLocal<>();
+  private static final int JAR_CACHE_SIZE =
+      Integer.parseInt(System.getProperty("j2cl.frontend.packageinfocachesize", "5000"));
+
+  /**
+   * Maximum number of distinct sets of annotation origins, see {@link #computeAnnotationsKey}, for
+   * which the reports of a jar are kept.
+   */
+  private static final int ANNOTATION_ORIGINS_PER_JAR = 16;
+
+  /** The annotations that determine the contents of a package report. */
+  private static final ImmutableList<Class<?>> PACKAGE_REPORT_ANNOTATIONS =
+      ImmutableList.of(JsPackage.class, ObjectiveCName.class, NullMarked.class);
+
+  /** Allows for the initialization/retrieval of one shared PackageInfoCache per compilation. */
+  private static final SharedThreadLocal<PackageInfoCache> packageInfoCacheStorage =
+      new SharedThreadLocal<>();
 
   @VisibleForTesting
   public static void clear() {
@@ -144,10 +173,26 @@ public class PackageInfoCache {
   private final Map<String, PackageReport> packageReportBySpecificPackagePath = new HashMap<>();
   private final Map<String, PackageReport> packageReportByTypeName = new HashMap<>();
   private final ClassLoader resourcesClassLoader;
+  private final String annotationsKey;
 
   private PackageInfoCache(ClassLoader resourcesClassLoader, Problems problems) {
     this.resourcesClassLoader = resourcesClassLoader;
     this.problems = problems;
+    this.annotationsKey = computeAnnotationsKey();
+  }
+
+  /**
+   * Returns a key that identifies the class path entries where the annotations of package reports
+   * are found.
+   *
+   * <p>The annotations in a package-info class are resolved against the whole classpath, and the
+   * ones that cannot be resolved are dropped. Hence the report for a package in a jar only depends
+   * on the rest of the classpath through where, and whether, the annotations are found.
+   */
+  private String computeAnnotationsKey() {
+    return PACKAGE_REPORT_ANNOTATIONS.stream()
+        .map(a -> String.valueOf(findOriginClassPathEntry(a.getName())))
+        .collect(joining(File.pathSeparator));
   }
 
   /**
@@ -176,7 +221,7 @@ public class PackageInfoCache {
    * example if this class has also been globbed into some other library that is a dependency of
    * this one.
    */
-  public void markAsSource(String topLevelTypeSourceName) {
+  public synchronized void markAsSource(String topLevelTypeSourceName) {
     propagateSpecificInfo(SOURCE_CLASS_PATH_ENTRY, topLevelTypeSourceName);
   }
 
@@ -184,7 +229,7 @@ public class PackageInfoCache {
    * Specify the JavaScript namespace and whether it defines a null marked scope for a given package
    * (as identified by the combination of class path entry and package path).
    */
-  public void setPackageProperties(
+  public synchronized void setPackageProperties(
       String classPathEntry,
       String packagePath,
       String packageJsNamespace,
@@ -267,7 +312,7 @@ public class PackageInfoCache {
     return topLevelTypeSourceName.substring(0, lastDotIndex);
   }
 
-  private PackageReport getPackageReport(String topLevelTypeSourceName) {
+  private synchronized PackageReport getPackageReport(String topLevelTypeSourceName) {
     if (packageReportByTypeName.containsKey(topLevelTypeSourceName)) {
       return packageReportByTypeName.get(topLevelTypeSourceName);
     }
@@ -295,16 +340,72 @@ public class PackageInfoCache {
 
   private void parsePackageInfo(
       String classPathEntry, String packagePath, String topLevelTypeSourceName) {
-    
+    setReportForPackage(
+        classPathEntry, packagePath, getBytecodePackageReport(classPathEntry, packagePath));
+    propagateSpecificInfo(classPathEntry, topLevelTypeSourceName);
+  }
+
+  /**
+   * Returns the report for a package in a class path entry, reusing the one computed by a previous
+   * compile that found the annotations in the same class path entries if the class path entry is a
+   * jar that has not been modified since.
+   */
+  private PackageReport getBytecodePackageReport(String classPathEntry, String packagePath) {
+    Map<String, PackageReport> packageReportByPackagePath =
+        getPackageReportByPackagePathInJar(classPathEntry, annotationsKey);
+    if (packageReportByPackagePath == null) {
+      return parseBytecodePackageReport(classPathEntry, packagePath);
+    }
+
+    PackageReport packageReport = packageReportByPackagePath.get(packagePath);
+    if (packageReport == null) {
+      packageReport = parseBytecodePackageReport(classPathEntry, packagePath);
+      packageReportByPackagePath.put(packagePath, packageReport);
+    }
+    return packageReport;
+  }
+
+  private PackageReport parseBytecodePackageReport(String classPathEntry, String packagePath) {
     Annotation[] packageAnnotations = findBytecodePackageAnnotations(classPathEntry, packagePath);
 
-    setPackageProperties(
-        classPathEntry,
-        packagePath,
-        getPackageJsNamespace(packageAnnotations),
-        getPackageObjectiveCName(packageAnnotations),
-        hasNullMarkedAnnotation(packageAnnotations));
-    propagateSpecificInfo(classPathEntry, topLevelTypeSourceName);
+    return PackageReport.newBuilder()
+        .setJsNamespace(getPackageJsNamespace(packageAnnotations))
+        .setObjectiveCName(getPackageObjectiveCName(packageAnnotations))
+        .setNullMarked(hasNullMarkedAnnotation(packageAnnotations))
+        .build();
+  }
+
+  /**
+   * Package reports for the package-info.class files in classpath jars, which are shared by all
+   * the compiles that run in the same process, e.g. the requests of a persistent worker.
+   *
+   * <p>The reports depend on the contents of the jar and on where the annotations are resolved
+   * from, hence they are kept per set of annotation origins and discarded when the jar is modified.
+   */
+  private static final FileCache<Cache<String, Map<String, PackageReport>>>
+      packageReportsByAnnotationsKeyByJarPath =
+          new FileCache<>(
+              p -> CacheBuilder.newBuilder().maximumSize(ANNOTATION_ORIGINS_PER_JAR).build(),
+              JAR_CACHE_SIZE);
+
+  /**
+   * Returns the cached package reports for the jar {@code classPathEntry} when the annotations are
+   * found as identified by {@code annotationsKey}, or null if the class path entry is not a jar.
+   */
+  @Nullable
+  private static Map<String, PackageReport> getPackageReportByPackagePathInJar(
+      String classPathEntry, String annotationsKey) {
+    if (!classPathEntry.startsWith("file:") || !classPathEntry.endsWith(".jar")) {
+      return null;
+    }
+    try {
+      return packageReportsByAnnotationsKeyByJarPath
+          .get(Paths.get(new URI(classPathEntry)).toString())
+          .get(annotationsKey, ConcurrentHashMap::new);
+    } catch (URISyntaxException | ExecutionException | RuntimeException e) {
+      // Not a path that can be tracked, skip the cache.
+      return null;
+    }
   }
 
   @Nullable
@@ -16,11 +16,13 @@
 package com.google.j2cl.transpiler.frontend.javac;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.j2cl.transpiler.frontend.common.FrontendConstants.HAS_NO_SIDE_EFFECTS_ANNOTATION_NAME;
 import static com.google.j2cl.transpiler.frontend.common.FrontendConstants.UNCHECKED_CAST_ANNOTATION_NAME;
 
 import com.google.common.base.Predicates;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -30,6 +32,7 @@ import com.google.j2cl.common.SourcePosition;
 import com.google.j2cl.transpiler.ast.ArrayTypeDescriptor;
 import com.google.j2cl.transpiler.ast.BinaryOperator;
 import com.google.j2cl.transpiler.ast.DeclaredTypeDescriptor;
+import com.google.j2cl.transpiler.ast.DeclaredTypeDescriptor.DescriptorFactory;
 import com.google.j2cl.transpiler.ast.FieldDescriptor;
 import com.google.j2cl.transpiler.ast.IntersectionTypeDescriptor;
 import com.google.j2cl.transpiler.ast.JsEnumInfo;
@@ -70,12 +73,15 @@ import com.sun.tools.javac.code.Types;
 import com.sun.tools.javac.model.JavacElements;
 import com.sun.tools.javac.model.JavacTypes;
 import com.sun.tools.javac.util.Context;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.function.BiFunction;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import javax.annotation.Nullable;
@@ -98,20 +104,98 @@ import javax.lang.model.type.IntersectionType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 
-/** Utility functions to interact with JavaC internal representations. */
+/**
+ * Utility functions to interact with JavaC internal representations.
+ *
+ * <p>Javac symbols are not thread safe, and descriptors created here compute some of their
+ * properties lazily from them. When the descriptors are going to be used from multiple threads
+ * those computations are all run by {@link #resolveDeferredComputations} before the frontend
+ * returns, so that the symbols are only ever accessed from the thread of the frontend.
+ */
 class JavaEnvironment {
   JavacTypes javacTypes;
   Types internalTypes;
   JavacElements elements;
 
-  JavaEnvironment(Context context, Collection<String> wellKnownQualifiedBinaryNames) {
+  /**
+   * The deferred computations that have not run yet, or {@code null} if they are left to run on
+   * demand.
+   */
+  @Nullable private final Queue<Supplier<?>> pendingDeferredComputations;
+
+  private boolean deferredComputationsResolved = false;
+
+  JavaEnvironment(
+      Context context,
+      Collection<String> wellKnownQualifiedBinaryNames,
+      boolean resolveDescriptorsEagerly) {
     this.javacTypes = JavacTypes.instance(context);
     this.internalTypes = Types.instance(context);
     this.elements = JavacElements.instance(context);
+    this.pendingDeferredComputations = resolveDescriptorsEagerly ? new ArrayDeque<>() : null;
 
     initWellKnownTypes(wellKnownQualifiedBinaryNames);
   }
 
+  /**
+   * Returns a supplier for a descriptor property that is computed lazily.
+   *
+   * <p>If descriptors are resolved eagerly the supplier remembers its value and is recorded to be
+   * run by {@link #resolveDeferredComputations}.
+   */
+  private <T> Supplier<T> deferred(Supplier<T> supplier) {
+    if (pendingDeferredComputations == null) {
+      return supplier;
+    }
+    Supplier<T> memoizedSupplier = Suppliers.memoize(supplier::get);
+    pendingDeferredComputations.add(memoizedSupplier);
+    return memoizedSupplier;
+  }
+
+  /**
+   * Returns a factory for a property of the descriptor of {@code classType} that is computed
+   * lazily.
+   *
+   * <p>Parameterized types are left out of the eager resolution since their members might refer to
+   * ever more deeply nested parameterizations, e.g. a method of {@code A<T>} that returns {@code
+   * A<A<T>>}. Once the deferred computations have been resolved, their properties are computed
+   * instead by {@code specializer} from the ones of the unparameterized type descriptor.
+   */
+  private <T> DescriptorFactory<T> deferred(
+      DeclaredType classType,
+      Supplier<T> supplier,
+      BiFunction<DeclaredTypeDescriptor, Map<TypeVariable, TypeDescriptor>, T> specializer) {
+    if (pendingDeferredComputations == null || !isParameterized(classType)) {
+      Supplier<T> deferredSupplier = deferred(supplier);
+      return typeDescriptor -> deferredSupplier.get();
+    }
+    return typeDescriptor ->
+        deferredComputationsResolved
+            ? specializer.apply(
+                typeDescriptor.toUnparameterizedTypeDescriptor(),
+                typeDescriptor.getLocalParameterization())
+            : supplier.get();
+  }
+
+  /** Whether {@code classType} is a parameterization of a generic type other than its own. */
+  private boolean isParameterized(DeclaredType classType) {
+    return ((Type) classType).isParameterized()
+        && !internalTypes.isSameType((Type) classType, (Type) classType.asElement().asType());
+  }
+
+  /**
+   * Runs all the deferred computations, including the ones created while doing so, after which the
+   * descriptors created by this environment no longer access the symbols.
+   */
+  void resolveDeferredComputations() {
+    checkState(pendingDeferredComputations != null);
+    Supplier<?> deferredComputation;
+    while ((deferredComputation = pendingDeferredComputations.poll()) != null) {
+      deferredComputation.get();
+    }
+    deferredComputationsResolved = true;
+  }
+
   private void initWellKnownTypes(Collection<String> wellKnownQualifiedBinaryNames) {
     if (TypeDescriptors.isInitialized()) {
       return;
@@ -381,7 +465,7 @@ class JavaEnvironment {
     }
 
     Supplier<TypeDescriptor> boundTypeDescriptorFactory =
-        () -> createTypeDescriptor(typeVariable.getUpperBound());
+        deferred(() -> createTypeDescriptor(typeVariable.getUpperBound()));
 
     List<String> classComponents = getClassComponents(typeVariable);
     return TypeVariable.newBuilder()
@@ -397,7 +481,7 @@ class JavaEnvironment {
 
   private TypeVariable createWildcardTypeVariable(TypeMirror bound) {
     return TypeVariable.newBuilder()
-        .setUpperBoundTypeDescriptorSupplier(() -> createTypeDescriptor(bound))
+        .setUpperBoundTypeDescriptorSupplier(deferred(() -> createTypeDescriptor(bound)))
         .setWildcard(true)
         .setName("?")
         .setUniqueKey("::?::" + (bound != null ? bound.toString() : ""))
@@ -997,28 +1081,35 @@ class JavaEnvironment {
       return cachedTypeDescriptor;
     }
 
-    Supplier<ImmutableList<MethodDescriptor>> declaredMethods =
-        () ->
-            getDeclaredMethods((ClassType) classType).stream()
-                .map(
-                    methodDeclarationPair ->
-                        createMethodDescriptor(
-                            createDeclaredTypeDescriptor(classType, inNullMarkedScope),
-                            methodDeclarationPair.getMethodSymbol(),
-                            methodDeclarationPair.getDeclarationMethodSymbol()))
-                .collect(toImmutableList());
+    DescriptorFactory<ImmutableList<MethodDescriptor>> declaredMethods =
+        deferred(
+            classType,
+            () ->
+                getDeclaredMethods((ClassType) classType).stream()
+                    .map(
+                        methodDeclarationPair ->
+                            createMethodDescriptor(
+                                createDeclaredTypeDescriptor(classType, inNullMarkedScope),
+                                methodDeclarationPair.getMethodSymbol(),
+                                methodDeclarationPair.getDeclarationMethodSymbol()))
+                    .collect(toImmutableList()),
+            (declaration, parameterization) ->
+                declaration.getDeclaredMethodDescriptors().stream()
+                    .map(m -> m.specializeTypeVariables(parameterization))
+                    .collect(toImmutableList()));
 
     Supplier<ImmutableList<FieldDescriptor>> declaredFields =
-        () ->
-            ((TypeElement) classType.asElement())
-                .getEnclosedElements().stream()
-                    .filter(
-                        element ->
-                            element.getKind() == ElementKind.FIELD
-                                || element.getKind() == ElementKind.ENUM_CONSTANT)
-                    .map(VariableElement.class::cast)
-                    .map(this::createFieldDescriptor)
-                    .collect(toImmutableList());
+        deferred(
+            () ->
+                ((TypeElement) classType.asElement())
+                    .getEnclosedElements().stream()
+                        .filter(
+                            element ->
+                                element.getKind() == ElementKind.FIELD
+                                    || element.getKind() == ElementKind.ENUM_CONSTANT)
+                        .map(VariableElement.class::cast)
+                        .map(this::createFieldDescriptor)
+                        .collect(toImmutableList()));
 
     TypeDeclaration typeDeclaration = createDeclarationForType((TypeElement) classType.asElement());
 
@@ -1028,33 +1119,56 @@ class JavaEnvironment {
             .setTypeDeclaration(typeDeclaration)
             .setEnclosingTypeDescriptor(createDeclaredTypeDescriptor(classType.getEnclosingType()))
             .setSuperTypeDescriptorFactory(
-                td ->
-                    td.isInterface()
-                        ? null
-                        : createDeclaredTypeDescriptor(
-                            javacTypes.directSupertypes(classType).stream()
-                                .filter(Predicates.not(Type::isInterface))
-                                .findFirst()
-                                .orElse(null),
-                            inNullMarkedScope))
+                deferred(
+                    classType,
+                    () ->
+                        typeDeclaration.isInterface()
+                            ? null
+                            : createDeclaredTypeDescriptor(
+                                javacTypes.directSupertypes(classType).stream()
+                                    .filter(Predicates.not(Type::isInterface))
+                                    .findFirst()
+                                    .orElse(null),
+                                inNullMarkedScope),
+                    (declaration, parameterization) ->
+                        declaration.getSuperTypeDescriptor() != null
+                            ? (DeclaredTypeDescriptor)
+                                declaration
+                                    .getSuperTypeDescriptor()
+                                    .specializeTypeVariables(parameterization)
+                            : null))
             .setInterfaceTypeDescriptorsFactory(
-                td ->
-                    createTypeDescriptors(
-                        javacTypes.directSupertypes(classType).stream()
-                            .filter(Type::isInterface)
-                            .collect(toImmutableList()),
-                        inNullMarkedScope,
-                        DeclaredTypeDescriptor.class))
+                deferred(
+                    classType,
+                    () ->
+                        createTypeDescriptors(
+                            javacTypes.directSupertypes(classType).stream()
+                                .filter(Type::isInterface)
+                                .collect(toImmutableList()),
+                            inNullMarkedScope,
+                            DeclaredTypeDescriptor.class),
+                    (declaration, parameterization) ->
+                        declaration.getInterfaceTypeDescriptors().stream()
+                            .map(
+                                t ->
+                                    (DeclaredTypeDescriptor)
+                                        t.specializeTypeVariables(parameterization))
+                            .collect(toImmutableList())))
             .setSingleAbstractMethodDescriptorFactory(
-                td -> {
-                  MethodSymbol functionalInterfaceMethod = getFunctionalInterfaceMethod(classType);
-                  return createMethodDescriptor(
-                      td,
-                      (MethodSymbol)
-                          functionalInterfaceMethod.asMemberOf(
-                              ((ClassSymbol) classType.asElement()).asType(), internalTypes),
-                      getFunctionalInterfaceMethodDecl(classType));
-                })
+                deferred(
+                    () -> {
+                      MethodSymbol functionalInterfaceMethod =
+                          getFunctionalInterfaceMethod(classType);
+                      if (functionalInterfaceMethod == null) {
+                        return null;
+                      }
+                      return createMethodDescriptor(
+                          createDeclaredTypeDescriptor(classType, inNullMarkedScope),
+                          (MethodSymbol)
+                              functionalInterfaceMethod.asMemberOf(
+                                  ((ClassSymbol) classType.asElement()).asType(), internalTypes),
+                          getFunctionalInterfaceMethodDecl(classType));
+                    }))
             .setTypeArgumentDescriptors(
                 createTypeDescriptors(getTypeArguments(classType), inNullMarkedScope))
             .setDeclaredFieldDescriptorsFactory(declaredFields)
@@ -1212,32 +1326,35 @@ class JavaEnvironment {
     boolean isFinal = isFinal(typeElement);
 
     Supplier<ImmutableList<MethodDescriptor>> declaredMethods =
-        () -> {
-          ImmutableList.Builder<MethodDescriptor> listBuilder = ImmutableList.builder();
-          for (MethodSymbol methodElement :
-              typeElement.getEnclosedElements().stream()
-                  .filter(
-                      element ->
-                          element.getKind() == ElementKind.METHOD
-                              || element.getKind() == ElementKind.CONSTRUCTOR)
-                  .map(MethodSymbol.class::cast)
-                  .collect(toImmutableList())) {
-            MethodDescriptor methodDescriptor = createDeclarationMethodDescriptor(methodElement);
-            listBuilder.add(methodDescriptor);
-          }
-          return listBuilder.build();
-        };
+        deferred(
+            () -> {
+              ImmutableList.Builder<MethodDescriptor> listBuilder = ImmutableList.builder();
+              for (MethodSymbol methodElement :
+                  typeElement.getEnclosedElements().stream()
+                      .filter(
+                          element ->
+                              element.getKind() == ElementKind.METHOD
+                                  || element.getKind() == ElementKind.CONSTRUCTOR)
+                      .map(MethodSymbol.class::cast)
+                      .collect(toImmutableList())) {
+                MethodDescriptor methodDescriptor =
+                    createDeclarationMethodDescriptor(methodElement);
+                listBuilder.add(methodDescriptor);
+              }
+              return listBuilder.build();
+            });
 
     Supplier<ImmutableList<FieldDescriptor>> declaredFields =
-        () ->
-            typeElement.getEnclosedElements().stream()
-                .filter(
-                    element ->
-                        element.getKind() == ElementKind.FIELD
-                            || element.getKind() == ElementKind.ENUM_CONSTANT)
-                .map(VariableElement.class::cast)
-                .map(this::createFieldDescriptor)
-                .collect(toImmutableList());
+        deferred(
+            () ->
+                typeElement.getEnclosedElements().stream()
+                    .filter(
+                        element ->
+                            element.getKind() == ElementKind.FIELD
+                                || element.getKind() == ElementKind.ENUM_CONSTANT)
+                    .map(VariableElement.class::cast)
+                    .map(this::createFieldDescriptor)
+                    .collect(toImmutableList()));
 
     JsEnumInfo jsEnumInfo = JsInteropUtils.getJsEnumInfo(typeElement);
 
@@ -1248,14 +1365,15 @@ class JavaEnvironment {
         .setClassComponents(getClassComponents(typeElement))
         .setEnclosingTypeDeclaration(createDeclarationForType(getEnclosingType(typeElement)))
         .setInterfaceTypeDescriptorsFactory(
-            () ->
-                createTypeDescriptors(
-                    typeElement.getInterfaces(),
-                    isNullMarked,
-                    DeclaredTypeDescriptor.class,
-                    typeElement))
+            deferred(
+                () ->
+                    createTypeDescriptors(
+                        typeElement.getInterfaces(),
+                        isNullMarked,
+                        DeclaredTypeDescriptor.class,
+                        typeElement)))
         .setUnparameterizedTypeDescriptorFactory(
-            () -> createDeclaredTypeDescriptor(typeElement.asType()))
+            deferred(() -> createDeclaredTypeDescriptor(typeElement.asType())))
         .setHasAbstractModifier(isAbstract)
         .setKind(getKindFromTypeBinding(typeElement))
         .setAnnotation(isAnnotation(typeElement))
@@ -1275,13 +1393,15 @@ class JavaEnvironment {
             typeElement.getSimpleName() != null ? typeElement.getSimpleName().toString() : null)
         .setPackageName(packageName)
         .setSuperTypeDescriptorFactory(
-            () ->
-                (DeclaredTypeDescriptor)
-                    applyNullabilityAnnotations(
-                        createDeclaredTypeDescriptor(typeElement.getSuperclass(), isNullMarked),
-                        typeElement,
-                        position ->
-                            position.type == TargetType.CLASS_EXTENDS && position.type_index == -1))
+            deferred(
+                () ->
+                    (DeclaredTypeDescriptor)
+                        applyNullabilityAnnotations(
+                            createDeclaredTypeDescriptor(typeElement.getSuperclass(), isNullMarked),
+                            typeElement,
+                            position ->
+                                position.type == TargetType.CLASS_EXTENDS
+                                    && position.type_index == -1)))
         .setTypeParameterDescriptors(
             typeParameterElements.stream()
                 .map(TypeParameterElement::asType)
@@ -62,7 +62,10 @@ public class JavacParser {
   /** Returns a map from file paths to compilation units after Javac parsing. */
   @Nullable
   public List<CompilationUnit> parseFiles(
-      List<FileInfo> filePaths, boolean useTargetPath, ImmutableList<String> forbiddenAnnotations) {
+      List<FileInfo> filePaths,
+      boolean useTargetPath,
+      ImmutableList<String> forbiddenAnnotations,
+      boolean resolveDescriptorsEagerly) {
 
     if (filePaths.isEmpty()) {
       return ImmutableList.of();
@@ -106,9 +109,17 @@ public class JavacParser {
       }
 
       JavaEnvironment javaEnvironment =
-          new JavaEnvironment(task.getContext(), TypeDescriptors.getWellKnownTypeNames());
+          new JavaEnvironment(
+              task.getContext(),
+              TypeDescriptors.getWellKnownTypeNames(),
+              resolveDescriptorsEagerly);
 
-      return CompilationUnitBuilder.build(javacCompilationUnits, javaEnvironment);
+      ImmutableList<CompilationUnit> compilationUnits =
+          CompilationUnitBuilder.build(javacCompilationUnits, javaEnvironment);
+      if (resolveDescriptorsEagerly) {
+        javaEnvironment.resolveDeferredComputations();
+      }
+      return compilationUnits;
     } catch (IOException e) {
       problems.fatal(FatalError.valueOf(e.getMessage()));
       return null;
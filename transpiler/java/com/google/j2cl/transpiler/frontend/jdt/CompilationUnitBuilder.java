@@ -1413,14 +1413,17 @@ public class CompilationUnitBuilder extends AbstractCompilationUnitBuilder {
   }
 
   public static List<CompilationUnit> build(
-      CompilationUnitsAndTypeBindings compilationUnitsAndTypeBindings, JdtParser jdtParser) {
+      CompilationUnitsAndTypeBindings compilationUnitsAndTypeBindings,
+      JdtParser jdtParser,
+      boolean resolveDescriptorsEagerly) {
     JdtEnvironment environment =
         new JdtEnvironment(
             PackageAnnotationsResolver.create(
                 compilationUnitsAndTypeBindings.getCompilationUnitsByFilePath().entrySet().stream()
                     .filter(e -> e.getKey().endsWith("package-info.java"))
                     .map(Entry::getValue),
-                jdtParser));
+                jdtParser),
+            resolveDescriptorsEagerly);
 
     Map<String, org.eclipse.jdt.core.dom.CompilationUnit> jdtUnitsByFilePath =
         compilationUnitsAndTypeBindings.getCompilationUnitsByFilePath();
@@ -1428,9 +1431,16 @@ public class CompilationUnitBuilder extends AbstractCompilationUnitBuilder {
     CompilationUnitBuilder compilationUnitBuilder =
         new CompilationUnitBuilder(wellKnownTypeBindings, environment);
 
-    return jdtUnitsByFilePath.entrySet().stream()
-        .map(entry -> compilationUnitBuilder.buildCompilationUnit(entry.getKey(), entry.getValue()))
-        .collect(toImmutableList());
+    List<CompilationUnit> compilationUnits =
+        jdtUnitsByFilePath.entrySet().stream()
+            .map(
+                entry ->
+                    compilationUnitBuilder.buildCompilationUnit(entry.getKey(), entry.getValue()))
+            .collect(toImmutableList());
+    if (resolveDescriptorsEagerly) {
+      environment.resolveDeferredComputations();
+    }
+    return compilationUnits;
   }
 
   private CompilationUnitBuilder(
@@ -23,6 +23,7 @@ import static com.google.j2cl.transpiler.frontend.common.FrontendConstants.UNCHE
 import static com.google.j2cl.transpiler.frontend.common.FrontendConstants.WASM_ANNOTATION_NAME;
 
 import com.google.common.base.Splitter;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -33,6 +34,7 @@ import com.google.j2cl.transpiler.ast.ArrayLength;
 import com.google.j2cl.transpiler.ast.ArrayTypeDescriptor;
 import com.google.j2cl.transpiler.ast.BinaryOperator;
 import com.google.j2cl.transpiler.ast.DeclaredTypeDescriptor;
+import com.google.j2cl.transpiler.ast.DeclaredTypeDescriptor.DescriptorFactory;
 import com.google.j2cl.transpiler.ast.Expression;
 import com.google.j2cl.transpiler.ast.FieldAccess;
 import com.google.j2cl.transpiler.ast.FieldDescriptor;
@@ -53,6 +55,7 @@ import com.google.j2cl.transpiler.ast.TypeVariable;
 import com.google.j2cl.transpiler.ast.Variable;
 import com.google.j2cl.transpiler.ast.Visibility;
 import com.google.j2cl.transpiler.frontend.common.Nullability;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -60,6 +63,8 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.function.BiFunction;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
@@ -75,7 +80,14 @@ import org.eclipse.jdt.core.dom.Modifier;
 import org.eclipse.jdt.core.dom.PostfixExpression;
 import org.eclipse.jdt.core.dom.PrefixExpression;
 
-/** Environment used to manipulate JDT internal representations. */
+/**
+ * Environment used to manipulate JDT internal representations.
+ *
+ * <p>JDT bindings are not thread safe, and descriptors created here compute some of their
+ * properties lazily from them. When the descriptors are going to be used from multiple threads
+ * those computations are all run by {@link #resolveDeferredComputations} before the frontend
+ * returns, so that the bindings are only ever accessed from the thread of the frontend.
+ */
 public class JdtEnvironment {
   private final Map<ITypeBinding, DeclaredTypeDescriptor>
       cachedDeclaredTypeDescriptorByTypeBindingInNullMarkedScope = new HashMap<>();
@@ -94,6 +106,14 @@ public class JdtEnvironment {
 
   private final PackageAnnotationsResolver packageAnnotationsResolver;
 
+  /**
+   * The deferred computations that have not run yet, or {@code null} if they are left to run on
+   * demand.
+   */
+  @Nullable private final Queue<Supplier<?>> pendingDeferredComputations;
+
+  private boolean deferredComputationsResolved = false;
+
   /**
    * Creates a JdtEnvironment to allow construction of type model objects from Java sources and
    * classfiles.
@@ -104,11 +124,67 @@ public class JdtEnvironment {
   @CanIgnoreReturnValue
   public JdtEnvironment(JdtParser jdtParser, Collection<String> wellKnownTypesBinaryNames) {
     this.packageAnnotationsResolver = PackageAnnotationsResolver.create(Stream.of(), jdtParser);
+    this.pendingDeferredComputations = null;
     this.initWellKnownTypes(jdtParser.resolveBindings(wellKnownTypesBinaryNames));
   }
 
-  public JdtEnvironment(PackageAnnotationsResolver packageAnnotationsResolver) {
+  public JdtEnvironment(
+      PackageAnnotationsResolver packageAnnotationsResolver, boolean resolveDescriptorsEagerly) {
     this.packageAnnotationsResolver = packageAnnotationsResolver;
+    this.pendingDeferredComputations = resolveDescriptorsEagerly ? new ArrayDeque<>() : null;
+  }
+
+  /**
+   * Returns a supplier for a descriptor property that is computed lazily.
+   *
+   * <p>If descriptors are resolved eagerly the supplier remembers its value and is recorded to be
+   * run by {@link #resolveDeferredComputations}.
+   */
+  private <T> Supplier<T> deferred(Supplier<T> supplier) {
+    if (pendingDeferredComputations == null) {
+      return supplier;
+    }
+    Supplier<T> memoizedSupplier = Suppliers.memoize(supplier::get);
+    pendingDeferredComputations.add(memoizedSupplier);
+    return memoizedSupplier;
+  }
+
+  /**
+   * Returns a factory for a property of the descriptor of {@code typeBinding} that is computed
+   * lazily.
+   *
+   * <p>Parameterized types are left out of the eager resolution since their members might refer to
+   * ever more deeply nested parameterizations, e.g. a method of {@code A<T>} that returns {@code
+   * A<A<T>>}. Once the deferred computations have been resolved, their properties are computed
+   * instead by {@code specializer} from the ones of the unparameterized type descriptor.
+   */
+  private <T> DescriptorFactory<T> deferred(
+      ITypeBinding typeBinding,
+      Supplier<T> supplier,
+      BiFunction<DeclaredTypeDescriptor, Map<TypeVariable, TypeDescriptor>, T> specializer) {
+    if (pendingDeferredComputations == null || !typeBinding.isParameterizedType()) {
+      Supplier<T> deferredSupplier = deferred(supplier);
+      return typeDescriptor -> deferredSupplier.get();
+    }
+    return typeDescriptor ->
+        deferredComputationsResolved
+            ? specializer.apply(
+                typeDescriptor.toUnparameterizedTypeDescriptor(),
+                typeDescriptor.getLocalParameterization())
+            : supplier.get();
+  }
+
+  /**
+   * Runs all the deferred computations, including the ones created while doing so, after which the
+   * descriptors created by this environment no longer access the bindings.
+   */
+  public void resolveDeferredComputations() {
+    checkState(pendingDeferredComputations != null);
+    Supplier<?> deferredComputation;
+    while ((deferredComputation = pendingDeferredComputations.poll()) != null) {
+      deferredComputation.get();
+    }
+    deferredComputationsResolved = true;
   }
 
   @Nullable
@@ -358,7 +434,7 @@ public class JdtEnvironment {
       boolean inNullMarkedScope,
       NullabilityAnnotation nullabilityAnnotation) {
     Supplier<TypeDescriptor> upperBoundTypeDescriptorFactory =
-        () -> getUpperBoundTypeDescriptor(typeBinding, inNullMarkedScope);
+        deferred(() -> getUpperBoundTypeDescriptor(typeBinding, inNullMarkedScope));
 
     String uniqueKey = typeBinding.getKey();
     if ((typeBinding.isWildcardType() || typeBinding.isCapture())
@@ -1043,22 +1119,61 @@ public class JdtEnvironment {
                 enclosingTypeDescriptor != null ? enclosingTypeDescriptor.toNonNullable() : null)
             // Create the super types in the @NullMarked context of the type
             .setSuperTypeDescriptorFactory(
-                () ->
-                    createDeclaredTypeDescriptor(
-                        typeBinding.getSuperclass(), typeDeclaration.isNullMarked()))
+                deferred(
+                    typeBinding,
+                    () ->
+                        createDeclaredTypeDescriptor(
+                            typeBinding.getSuperclass(), typeDeclaration.isNullMarked()),
+                    (declaration, parameterization) ->
+                        declaration.getSuperTypeDescriptor() != null
+                            ? (DeclaredTypeDescriptor)
+                                declaration
+                                    .getSuperTypeDescriptor()
+                                    .specializeTypeVariables(parameterization)
+                            : null))
             .setInterfaceTypeDescriptorsFactory(
-                () ->
-                    createTypeDescriptors(
-                        typeBinding.getInterfaces(),
-                        typeDeclaration.isNullMarked(),
-                        DeclaredTypeDescriptor.class))
+                deferred(
+                    typeBinding,
+                    () ->
+                        createTypeDescriptors(
+                            typeBinding.getInterfaces(),
+                            typeDeclaration.isNullMarked(),
+                            DeclaredTypeDescriptor.class),
+                    (declaration, parameterization) ->
+                        declaration.getInterfaceTypeDescriptors().stream()
+                            .map(
+                                t ->
+                                    (DeclaredTypeDescriptor)
+                                        t.specializeTypeVariables(parameterization))
+                            .collect(toImmutableList())))
             .setTypeArgumentDescriptors(
                 getTypeArgumentTypeDescriptors(typeBinding, inNullMarkedScope))
             .setDeclaredFieldDescriptorsFactory(
-                () -> createFieldDescriptorsOrderedById(typeBinding.getDeclaredFields()))
+                deferred(
+                    typeBinding,
+                    () -> createFieldDescriptorsOrderedById(typeBinding.getDeclaredFields()),
+                    (declaration, parameterization) ->
+                        declaration.getDeclaredFieldDescriptors().stream()
+                            .map(f -> f.specializeTypeVariables(parameterization))
+                            .collect(toImmutableList())))
             .setDeclaredMethodDescriptorsFactory(
-                () -> createMethodDescriptors(typeBinding.getDeclaredMethods()))
-            .setSingleAbstractMethodDescriptorFactory(() -> getFunctionInterfaceMethod(typeBinding))
+                deferred(
+                    typeBinding,
+                    () -> createMethodDescriptors(typeBinding.getDeclaredMethods()),
+                    (declaration, parameterization) ->
+                        declaration.getDeclaredMethodDescriptors().stream()
+                            .map(m -> m.specializeTypeVariables(parameterization))
+                            .collect(toImmutableList())))
+            .setSingleAbstractMethodDescriptorFactory(
+                deferred(
+                    typeBinding,
+                    () -> getFunctionInterfaceMethod(typeBinding),
+                    (declaration, parameterization) ->
+                        declaration.getSingleAbstractMethodDescriptor() != null
+                            ? declaration
+                                .getSingleAbstractMethodDescriptor()
+                                .specializeTypeVariables(parameterization)
+                            : null))
             .build();
     putTypeDescriptorInCache(inNullMarkedScope, typeBinding, typeDescriptor);
     return typeDescriptor;
@@ -1174,19 +1289,24 @@ public class JdtEnvironment {
             .setClassComponents(getClassComponents(typeBinding))
             .setEnclosingTypeDeclaration(createDeclarationForType(typeBinding.getDeclaringClass()))
             .setEnclosingMethodDescriptorFactory(
-                () ->
-                    createMethodDescriptor(
-                        declaringMemberBinding instanceof IMethodBinding
-                            ? (IMethodBinding) declaringMemberBinding
-                            : null))
+                deferred(
+                    () ->
+                        createMethodDescriptor(
+                            declaringMemberBinding instanceof IMethodBinding
+                                ? (IMethodBinding) declaringMemberBinding
+                                : null)))
             .setSuperTypeDescriptorFactory(
-                () -> createDeclaredTypeDescriptor(typeBinding.getSuperclass(), isNullMarked))
+                deferred(
+                    () -> createDeclaredTypeDescriptor(typeBinding.getSuperclass(), isNullMarked)))
             .setInterfaceTypeDescriptorsFactory(
-                () ->
-                    createTypeDescriptors(
-                        typeBinding.getInterfaces(), isNullMarked, DeclaredTypeDescriptor.class))
+                deferred(
+                    () ->
+                        createTypeDescriptors(
+                            typeBinding.getInterfaces(),
+                            isNullMarked,
+                            DeclaredTypeDescriptor.class)))
             .setUnparameterizedTypeDescriptorFactory(
-                () -> createDeclaredTypeDescriptor(typeBinding, isNullMarked))
+                deferred(() -> createDeclaredTypeDescriptor(typeBinding, isNullMarked)))
             .setHasAbstractModifier(isAbstract)
             .setKind(getKindFromTypeBinding(typeBinding))
             .setAnnotation(typeBinding.isAnnotation())
@@ -1221,11 +1341,11 @@ public class JdtEnvironment {
                     .collect(toImmutableList()))
             .setVisibility(getVisibility(typeBinding))
             .setDeclaredMethodDescriptorsFactory(
-                () -> createMethodDescriptors(typeBinding.getDeclaredMethods()))
+                deferred(() -> createMethodDescriptors(typeBinding.getDeclaredMethods())))
             .setDeclaredFieldDescriptorsFactory(
-                () -> createFieldDescriptorsOrderedById(typeBinding.getDeclaredFields()))
+                deferred(() -> createFieldDescriptorsOrderedById(typeBinding.getDeclaredFields())))
             .setMemberTypeDeclarationsFactory(
-                () -> createTypeDeclarations(typeBinding.getDeclaredTypes()))
+                deferred(() -> createTypeDeclarations(typeBinding.getDeclaredTypes())))
             .setUnusableByJsSuppressed(
                 JsInteropAnnotationUtils.isUnusableByJsSuppressed(typeBinding))
             .setDeprecated(isDeprecated(typeBinding))
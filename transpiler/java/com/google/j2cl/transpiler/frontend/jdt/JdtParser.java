@@ -21,6 +21,7 @@ import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.Problems.FatalError;
 import com.google.j2cl.common.SourceUtils.FileInfo;
 import com.google.j2cl.transpiler.ast.TypeDescriptors;
+import com.google.j2cl.transpiler.frontend.common.ClasspathJarCache;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -61,6 +62,10 @@ public class JdtParser {
 
     this.classpathEntries = ImmutableList.copyOf(classpathEntries);
     this.problems = problems;
+
+    // Keep the classpath jars open so that JDT does not need to re-read and re-index them from
+    // scratch in every compilation that runs in a persistent worker.
+    ClasspathJarCache.retain(this.classpathEntries);
   }
 
   /** Returns a map from file paths to compilation units after JDT parsing. */
@@ -21,6 +21,7 @@ import com.google.j2cl.transpiler.ast.BinaryOperator;
 import com.google.j2cl.transpiler.ast.BooleanLiteral;
 import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.ConditionalExpression;
+import com.google.j2cl.transpiler.ast.Expression;
 import com.google.j2cl.transpiler.ast.Node;
 
 /**
@@ -38,7 +39,7 @@ public class RecoverShortcutBooleanOperator extends NormalizationPass {
         new AbstractRewriter() {
           @Override
           public Node rewriteConditionalExpression(ConditionalExpression conditionalExpression) {
-            if (conditionalExpression.getTrueExpression() == BooleanLiteral.get(true)) {
+            if (isBooleanLiteral(conditionalExpression.getTrueExpression(), true)) {
               return BinaryExpression.newBuilder()
                   .setOperator(BinaryOperator.CONDITIONAL_OR)
                   .setLeftOperand(conditionalExpression.getConditionExpression())
@@ -46,7 +47,7 @@ public class RecoverShortcutBooleanOperator extends NormalizationPass {
                   .build();
             }
 
-            if (conditionalExpression.getFalseExpression() == BooleanLiteral.get(false)) {
+            if (isBooleanLiteral(conditionalExpression.getFalseExpression(), false)) {
               return BinaryExpression.newBuilder()
                   .setOperator(BinaryOperator.CONDITIONAL_AND)
                   .setLeftOperand(conditionalExpression.getConditionExpression())
@@ -58,4 +59,8 @@ public class RecoverShortcutBooleanOperator extends NormalizationPass {
           }
         });
   }
+
+  private static boolean isBooleanLiteral(Expression expression, boolean value) {
+    return expression instanceof BooleanLiteral && ((BooleanLiteral) expression).getValue() == value;
+  }
 }
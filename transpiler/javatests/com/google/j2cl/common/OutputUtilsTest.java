@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.common;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.j2cl.common.OutputUtils.Output;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class OutputUtilsTest {
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testDirectoryOutput_lastWriteWins() throws IOException {
+    Path outputPath = temporaryFolder.newFolder("output").toPath();
+    Path copiedFile = temporaryFolder.newFile("copied.txt").toPath();
+    Files.write(copiedFile, "copied".getBytes(UTF_8));
+
+    Problems problems = new Problems();
+    try (Output output = OutputUtils.initOutput(outputPath, problems)) {
+      writeEntries(output, copiedFile);
+    }
+
+    assertThat(problems.hasErrors()).isFalse();
+    assertThat(Files.readString(outputPath.resolve("a/b.js"))).isEqualTo("third");
+    assertThat(Files.readString(outputPath.resolve("a/c.js"))).isEqualTo("other");
+    assertThat(Files.readString(outputPath.resolve("d.js"))).isEqualTo("copied");
+  }
+
+  @Test
+  public void testZipOutput_lastWriteWins() throws IOException {
+    Path outputPath = temporaryFolder.getRoot().toPath().resolve("output.zip");
+    Path copiedFile = temporaryFolder.newFile("copied.txt").toPath();
+    Files.write(copiedFile, "copied".getBytes(UTF_8));
+
+    Problems problems = new Problems();
+    try (Output output = OutputUtils.initOutput(outputPath, problems)) {
+      writeEntries(output, copiedFile);
+    }
+
+    assertThat(problems.hasErrors()).isFalse();
+    // Entries keep the position of their first write.
+    assertThat(readZip(outputPath))
+        .containsExactly("a/", "", "a/b.js", "third", "d.js", "copied", "a/c.js", "other")
+        .inOrder();
+  }
+
+  @Test
+  public void testDirectoryOutput_multipleThreads() throws IOException {
+    Path outputPath = temporaryFolder.newFolder("output").toPath();
+
+    Problems problems = new Problems();
+    try (Output output = OutputUtils.getDirOutput(outputPath, problems, 8)) {
+      // Consecutive files, which are written by different threads, share their directories, which
+      // are created on demand.
+      for (int i = 0; i < 1000; i++) {
+        output.write(getNestedPath(i), "content" + i);
+      }
+    }
+
+    assertThat(problems.hasErrors()).isFalse();
+    for (int i = 0; i < 1000; i++) {
+      assertThat(Files.readString(outputPath.resolve(getNestedPath(i)))).isEqualTo("content" + i);
+    }
+  }
+
+  private static String getNestedPath(int i) {
+    return String.format("a%d/b%d/c%d.js", i / 64, i / 8, i);
+  }
+
+  private static void writeEntries(Output output, Path copiedFile) {
+    output.write("a/b.js", "first");
+    output.write("d.js", "overwritten");
+    output.write("a/c.js", ImmutableList.of("ot", "her"));
+    output.write("a/b.js", "second".getBytes(UTF_8));
+    output.copyFile(copiedFile.toString(), "d.js");
+    output.write("a/b.js", ImmutableList.of("thi", "rd"));
+  }
+
+  private static Map<String, String> readZip(Path zipPath) throws IOException {
+    Map<String, String> contentByEntryName = new LinkedHashMap<>();
+    try (InputStream inputStream = Files.newInputStream(zipPath);
+        ZipInputStream zipInputStream = new ZipInputStream(inputStream)) {
+      for (ZipEntry entry = zipInputStream.getNextEntry();
+          entry != null;
+          entry = zipInputStream.getNextEntry()) {
+        assertThat(contentByEntryName).doesNotContainKey(entry.getName());
+        contentByEntryName.put(entry.getName(), new String(zipInputStream.readAllBytes(), UTF_8));
+      }
+    }
+    return contentByEntryName;
+  }
+}
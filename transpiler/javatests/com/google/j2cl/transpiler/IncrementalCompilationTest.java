@@ -0,0 +1,161 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.j2cl.transpiler.TranspilerTester.newTesterWithDefaults;
+
+import com.google.common.collect.ImmutableList;
+import com.google.j2cl.transpiler.TranspilerTester.TranspileResult;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+/** Tests for the reuse of the outputs cached by previous compilations. */
+public class IncrementalCompilationTest extends TestCase {
+
+  private static final FileTime UNUSED = FileTime.fromMillis(0);
+
+  private Path cacheDirectory;
+
+  @Override
+  protected void setUp() throws IOException {
+    cacheDirectory = Files.createTempDirectory("incremental_cache");
+  }
+
+  public void testUnchangedCompilationUnitsAreReused() throws Exception {
+    compileIncrementally("Hello", "count");
+    assertThat(getEntries()).hasSize(4);
+    markEntriesAsUnused();
+
+    compileIncrementally("Hello", "count");
+    assertThat(getEntries()).hasSize(4);
+    assertThat(getUnusedEntries()).isEmpty();
+  }
+
+  public void testDependencyChangeInvalidatesDependents() throws Exception {
+    compileIncrementally("Hello", "count");
+    markEntriesAsUnused();
+
+    compileIncrementally("Hello", "size");
+    // Only Dependency and its dependent User are compiled again.
+    assertThat(getEntries()).hasSize(6);
+    assertThat(getUnusedEntries()).hasSize(2);
+  }
+
+  public void testConstantChangeInvalidatesAll() throws Exception {
+    compileIncrementally("Hello", "count");
+    markEntriesAsUnused();
+
+    // References to the constant are folded, so its dependents are not known.
+    compileIncrementally("Bye", "count");
+    assertThat(getEntries()).hasSize(8);
+    assertThat(getUnusedEntries()).hasSize(4);
+  }
+
+  public void testCorruptedEntriesAreNotReused() throws Exception {
+    compileIncrementally("Hello", "count");
+    ImmutableList<Path> entries = getEntries();
+    assertThat(entries).hasSize(4);
+
+    // Trim an entry, as if the compilation had been interrupted while writing it.
+    byte[] trimmedEntry = Files.readAllBytes(entries.get(0));
+    Files.write(entries.get(0), Arrays.copyOf(trimmedEntry, trimmedEntry.length / 2));
+    // Change the contents of another one without changing its length.
+    byte[] corruptedEntry = Files.readAllBytes(entries.get(1));
+    corruptedEntry[corruptedEntry.length - 1] ^= 1;
+    Files.write(entries.get(1), corruptedEntry);
+    // And leave another one empty.
+    Files.write(entries.get(2), new byte[0]);
+
+    compileIncrementally("Hello", "count");
+
+    // The broken entries were written again.
+    markEntriesAsUnused();
+    compileIncrementally("Hello", "count");
+    assertThat(getEntries()).hasSize(4);
+    assertThat(getUnusedEntries()).isEmpty();
+  }
+
+  /**
+   * Compiles the library incrementally and checks that the output is the same as the output of a
+   * compilation from scratch.
+   */
+  private void compileIncrementally(String greeting, String methodName) throws IOException {
+    TranspileResult incrementalResult =
+        compile(greeting, methodName, "-incrementalCacheDir", cacheDirectory.toString());
+    incrementalResult.assertOutputFilesAreSame(compile(greeting, methodName));
+  }
+
+  private static TranspileResult compile(String greeting, String methodName, String... args) {
+    // Every compilation writes the sources to a different directory, so outputs are reused
+    // regardless of where the sources are.
+    return newTesterWithDefaults()
+        .addArgs(args)
+        .addCompilationUnit(
+            "test.Constants",
+            "public class Constants {",
+            "  public static final String GREETING = \"" + greeting + "\";",
+            "}")
+        .addCompilationUnit(
+            "test.Dependency",
+            "public class Dependency {",
+            "  public static int " + methodName + "() { return 1; }",
+            "}")
+        .addCompilationUnit(
+            "test.User",
+            "public class User {",
+            "  public String greet() {",
+            "    return Constants.GREETING + Dependency." + methodName + "();",
+            "  }",
+            "}")
+        .addCompilationUnit(
+            "test.Unrelated",
+            "public class Unrelated {",
+            "  public String greet() { return \"Hi\"; }",
+            "}")
+        .assertTranspileSucceeds()
+        .assertNoWarnings();
+  }
+
+  private void markEntriesAsUnused() throws IOException {
+    for (Path entry : getEntries()) {
+      Files.setLastModifiedTime(entry, UNUSED);
+    }
+  }
+
+  private ImmutableList<Path> getUnusedEntries() throws IOException {
+    ImmutableList.Builder<Path> unusedEntries = ImmutableList.builder();
+    for (Path entry : getEntries()) {
+      if (Files.getLastModifiedTime(entry).equals(UNUSED)) {
+        unusedEntries.add(entry);
+      }
+    }
+    return unusedEntries.build();
+  }
+
+  private ImmutableList<Path> getEntries() throws IOException {
+    try (Stream<Path> entries = Files.list(cacheDirectory)) {
+      return entries
+          .filter(p -> !p.getFileName().toString().endsWith(".tmp"))
+          .sorted()
+          .collect(toImmutableList());
+    }
+  }
+}
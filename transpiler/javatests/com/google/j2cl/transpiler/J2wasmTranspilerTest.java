@@ -13,12 +13,26 @@
  */
 package com.google.j2cl.transpiler;
 
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
 import static com.google.j2cl.transpiler.TranspilerTester.newTesterWithDefaultsWasm;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.base.Splitter;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.SetMultimap;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.j2cl.transpiler.TranspilerTester.TranspileResult;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import junit.framework.TestCase;
 
 /** Tests for J2wasm transpilation. */
@@ -114,6 +128,255 @@ public final class J2wasmTranspilerTest extends TestCase {
             "Invalid entry point syntax in 'wasm\\.entrypoint.Main#m.*'.");
   }
 
+  public void testEmitBinaryModule() throws IOException {
+    TranspileResult result =
+        newTesterWithDefaultsWasm()
+            .addCompilationUnit(
+                "wasm.binary.Main",
+                "class Main {",
+                "  static int[] values = {1, 2, 3};",
+                "  static String name = \"main\";",
+                "  public static int main() {",
+                "    try {",
+                "      return values[0] + name.length();",
+                "    } catch (RuntimeException e) {",
+                "      return -1;",
+                "    }",
+                "  }",
+                "}")
+            .addArgs("-generateWasmExport", "wasm.binary.Main#main", "-wasmEmitBinary")
+            .assertTranspileSucceeds()
+            .assertOutputFilesExist("module.wasm", "module.wasm.map")
+            .assertOutputFilesDoNotExist("module.wat");
+
+    byte[] module = Files.readAllBytes(result.getOutputPath().resolve("module.wasm"));
+    // Magic number and version.
+    assertThat(Arrays.copyOf(module, 8))
+        .isEqualTo(new byte[] {0x00, 0x61, 0x73, 0x6d, 0x01, 0x00, 0x00, 0x00});
+    assertThat(new String(module, ISO_8859_1)).contains("sourceMappingURL\u000fmodule.wasm.map");
+    assertThat(Files.readString(result.getOutputPath().resolve("module.wasm.map")))
+        .contains("wasm/binary/Main.java");
+  }
+
+  public void testBinaryModuleMatchesTextModule() throws Exception {
+    String[] mainCompilationUnit = {
+      "import java.util.ArrayList;",
+      "import java.util.List;",
+      "class Main {",
+      "  static int[] values = {1, 2, 3};",
+      "  static String name = \"main\";",
+      "  interface Shape {",
+      "    double area();",
+      "  }",
+      "  public static int main() {",
+      "    List<Shape> shapes = new ArrayList<>();",
+      "    shapes.add(() -> 2.5);",
+      "    double total = 0;",
+      "    for (Shape shape : shapes) {",
+      "      total += shape.area();",
+      "    }",
+      "    try {",
+      "      return values[(int) total] + name.length();",
+      "    } catch (RuntimeException e) {",
+      "      return -1;",
+      "    }",
+      "  }",
+      "}"
+    };
+    TranspileResult textResult =
+        newTesterWithDefaultsWasm()
+            .addCompilationUnit("wasm.binary.Main", mainCompilationUnit)
+            .addArgs("-generateWasmExport", "wasm.binary.Main#main")
+            .assertTranspileSucceeds();
+    TranspileResult binaryResult =
+        newTesterWithDefaultsWasm()
+            .addCompilationUnit("wasm.binary.Main", mainCompilationUnit)
+            .addArgs("-generateWasmExport", "wasm.binary.Main#main", "-wasmEmitBinary")
+            .assertTranspileSucceeds();
+
+    // Both modules are read and validated by binaryen, which prints them in the same canonical
+    // text form if they are the same module. This covers the whole JRE, which is compiled from
+    // source with the test.
+    assertThat(disassemble(binaryResult.getOutputPath().resolve("module.wasm")))
+        .isEqualTo(disassemble(textResult.getOutputPath().resolve("module.wat")));
+  }
+
+  /** Reads and validates a module with binaryen and returns it in its canonical text form. */
+  private static String disassemble(Path module) throws IOException, InterruptedException {
+    Path disassembledModule = Files.createTempFile("module", ".wat");
+    Process process =
+        new ProcessBuilder(
+                System.getProperty("j2cl.wasmopt"),
+                module.toString(),
+                "--enable-exception-handling",
+                "--enable-gc",
+                "--enable-reference-types",
+                "--enable-sign-ext",
+                "--enable-strings",
+                "--enable-nontrapping-float-to-int",
+                "--enable-bulk-memory",
+                // Source positions are only kept as comments in the text module.
+                "--strip-debug",
+                "-S",
+                "-o",
+                disassembledModule.toString())
+            .redirectErrorStream(true)
+            .start();
+    String log = new String(process.getInputStream().readAllBytes(), UTF_8);
+    assertWithMessage("wasm-opt failed for %s:%n%s", module.getFileName(), log)
+        .that(process.waitFor())
+        .isEqualTo(0);
+    return Files.readString(disassembledModule);
+  }
+
+  public void testClosedWorldDevirtualizesCalls() throws IOException {
+    TranspileResult result =
+        newTesterWithDefaultsWasm()
+            .addCompilationUnit(
+                "wasm.closedworld.Main",
+                "interface Shape {",
+                "  int area();",
+                "}",
+                "class Square implements Shape {",
+                "  public int area() {",
+                "    return 4;",
+                "  }",
+                "}",
+                "class Main {",
+                "  public static int main() {",
+                "    Shape shape = new Square();",
+                "    return shape.area();",
+                "  }",
+                "}")
+            .addArgs("-generateWasmExport", "wasm.closedworld.Main#main", "-wasmClosedWorld")
+            .assertTranspileSucceeds();
+
+    String module = Files.readString(result.getOutputPath().resolve("module.wat"));
+    assertThat(module).contains("(call $m_area__int@wasm.closedworld.Square ");
+    assertThat(module).doesNotContain("(call_ref $function.m_area__int ");
+    assertThat(module).contains("(type $wasm.closedworld.Square (sub final ");
+  }
+
+  public void testConstantArrayLiteralsUseDataSegments() throws IOException {
+    TranspileResult result =
+        newTesterWithDefaultsWasm()
+            .addCompilationUnit(
+                "wasm.data.Main",
+                "class Main {",
+                "  static final int SHIFT = 3;",
+                "  static final byte[] BYTES = {(byte) 0xff, -1, 1 << SHIFT};",
+                "  static final int[][] MATRIX = {{1, 2}, {-3, ~4}};",
+                "  public static int main() {",
+                "    return BYTES[0] + MATRIX[1][1];",
+                "  }",
+                "}")
+            .addArgs("-generateWasmExport", "wasm.data.Main#main")
+            .assertTranspileSucceeds();
+
+    String module = Files.readString(result.getOutputPath().resolve("module.wat"));
+    assertThat(module).contains("(data $arrayliteral@wasm.data.Main-1 \"\\FF\\FF\\08\")");
+    // -3 and ~4 as little endian ints.
+    assertThat(module)
+        .contains("(data $arrayliteral@wasm.data.Main-3 \"\\FD\\FF\\FF\\FF\\FB\\FF\\FF\\FF\")");
+    assertThat(module).contains(" array literals take ");
+  }
+
+  public void testInterfaceSlotsColorTheConflictGraph() throws IOException {
+    int size = 24;
+    String module = transpileInterfaceSlotsHierarchy(getCrownHierarchy(size));
+
+    // The A interfaces share one slot and the B interfaces share another one, so no class has two
+    // interfaces in the same slot.
+    SetMultimap<String, Integer> slotsByInterfaceKind = getSlotsByInterfaceKind(module);
+    assertThat(slotsByInterfaceKind.get("A")).hasSize(1);
+    assertThat(slotsByInterfaceKind.get("B")).hasSize(1);
+    assertThat(slotsByInterfaceKind.get("A")).containsNoneIn(slotsByInterfaceKind.get("B"));
+    // Fewer slots than assigning them in order, which needs one for each pair of interfaces.
+    assertThat(getNumberOfItableSlots(module)).isLessThan(size);
+  }
+
+  public void testInterfaceSlotsKeepAssignmentInOrderOnTies() throws IOException {
+    // The clique of interfaces needs as many slots with either assignment, which makes the crown
+    // fit in the slots either way.
+    int cliqueSize = 16;
+    List<String> code = getCrownHierarchy(3);
+    StringBuilder clique = new StringBuilder("class Clique implements K0");
+    code.add("interface K0 {}");
+    for (int i = 1; i < cliqueSize; i++) {
+      code.add(String.format("interface K%d {}", i));
+      clique.append(String.format(", K%d", i));
+    }
+    code.add(clique.append(" {}").toString());
+    String module = transpileInterfaceSlotsHierarchy(code);
+
+    // The crown is assigned in order, where the A interfaces take one slot each.
+    SetMultimap<String, Integer> slotsByInterfaceKind = getSlotsByInterfaceKind(module);
+    assertThat(slotsByInterfaceKind.get("A")).containsExactly(0, 1, 2);
+    assertThat(slotsByInterfaceKind.get("B")).containsExactly(0, 1, 2);
+    assertThat(getNumberOfItableSlots(module)).isEqualTo(cliqueSize);
+  }
+
+  /**
+   * Returns a crown graph of interfaces, where A{i} and B{j} are implemented by the same class when
+   * i and j differ.
+   *
+   * <p>The classes are declared so that assigning the lowest free slot in order of first use takes
+   * one slot for each pair of interfaces, while two slots are enough.
+   */
+  private static List<String> getCrownHierarchy(int size) {
+    List<String> code = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      code.add(String.format("interface A%d {}", i));
+      code.add(String.format("interface B%d {}", i));
+    }
+    code.add("class Padding implements A0 {}");
+    for (int i = 1; i < size; i++) {
+      code.add(String.format("class C%d_%d implements B%d, A%d {}", i, i - 1, i - 1, i));
+    }
+    code.add(String.format("class C0_%d implements A0, B%d {}", size - 1, size - 1));
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        if (i != j && i != j + 1 && !(i == 0 && j == size - 1)) {
+          code.add(String.format("class C%d_%d implements A%d, B%d {}", i, j, i, j));
+        }
+      }
+    }
+    return code;
+  }
+
+  private static String transpileInterfaceSlotsHierarchy(List<String> code) throws IOException {
+    TranspileResult result =
+        newTesterWithDefaultsWasm()
+            .addCompilationUnit(
+                "wasm.slots.Main",
+                ImmutableList.<String>builder()
+                    .addAll(code)
+                    .add("class Main {", "  public static void main() {}", "}")
+                    .build()
+                    .toArray(new String[0]))
+            .addArgs("-generateWasmExport", "wasm.slots.Main#main")
+            .assertTranspileSucceeds();
+    return Files.readString(result.getOutputPath().resolve("module.wat"));
+  }
+
+  /** Returns the slots used by the A and B interfaces in the itables of the classes. */
+  private static SetMultimap<String, Integer> getSlotsByInterfaceKind(String module) {
+    SetMultimap<String, Integer> slotsByInterfaceKind = HashMultimap.create();
+    Matcher matcher =
+        Pattern.compile("\\(field \\$slot(\\d+) \\(ref \\$wasm\\.slots\\.([AB])\\d+\\.vtable\\)\\)")
+            .matcher(module);
+    while (matcher.find()) {
+      slotsByInterfaceKind.put(matcher.group(2), Integer.parseInt(matcher.group(1)));
+    }
+    return slotsByInterfaceKind;
+  }
+
+  private static int getNumberOfItableSlots(String module) {
+    int itableStart = module.indexOf("(type $itable (sub (struct");
+    String itable = module.substring(itableStart, module.indexOf(")))", itableStart));
+    return Splitter.on("(field ").splitToList(itable).size() - 1;
+  }
+
   @CanIgnoreReturnValue
   private TranspileResult assertTranspileSucceeds(String compilationUnitName, String... code) {
     return newTesterWithDefaultsWasm()
@@ -13,9 +13,13 @@
  */
 package com.google.j2cl.transpiler;
 
+import static com.google.common.truth.Truth.assertThat;
 import static com.google.j2cl.transpiler.TranspilerTester.newTesterWithDefaults;
+import static com.google.j2cl.transpiler.TranspilerTester.newTesterWithDefaultsWasm;
 
 import com.google.j2cl.transpiler.TranspilerTester.TranspileResult;
+import java.io.IOException;
+import java.nio.file.Files;
 import junit.framework.TestCase;
 
 /** Test to run the transpiler twice and possibly uncover static state within the transpiler. */
@@ -25,12 +29,128 @@ public class RerunningJ2clTranspilerTest extends TestCase {
     compileJre().assertOutputFilesAreSame(compileJre());
   }
 
-  private static TranspileResult compileJre() throws Exception {
+  public void testCompileJreInParallel() throws Exception {
+    TranspileResult serialResult = compileJre();
+    serialResult.assertOutputFilesAreSame(compileJre("-passParallelism", "4"));
+    serialResult.assertOutputFilesAreSame(compileJre("-passParallelism", "4", "-fusePasses"));
+  }
+
+  public void testCompileJreWithRenderingParallelism() throws Exception {
+    compileJre().assertOutputFilesAreSame(compileJre("-renderingParallelism", "4"));
+  }
+
+  public void testCompileJreForWasmWithRenderingParallelism() throws Exception {
+    TranspileResult serialResult = compileJreForWasm("WASM");
+    TranspileResult parallelResult = compileJreForWasm("WASM", "-renderingParallelism", "4");
+    assertFilesAreIdentical(serialResult, parallelResult, "module.wat");
+    serialResult.assertOutputFilesAreSame(parallelResult);
+  }
+
+  public void testCompileJreForModularWasmWithRenderingParallelism() throws Exception {
+    TranspileResult serialResult = compileJreForWasm("WASM_MODULAR");
+    TranspileResult parallelResult =
+        compileJreForWasm("WASM_MODULAR", "-renderingParallelism", "4");
+    assertFilesAreIdentical(serialResult, parallelResult, "functions.wat");
+    serialResult.assertOutputFilesAreSame(parallelResult);
+  }
+
+  public void testCompileInParallelWithJavac() throws Exception {
+    // The javac frontend does not handle all of the JRE yet, use a library that exercises the
+    // descriptors of generic and raw types instead.
+    TranspileResult serialResult = compileGenericLibrary("-frontend", "JAVAC");
+    serialResult.assertOutputFilesAreSame(
+        compileGenericLibrary("-frontend", "JAVAC", "-passParallelism", "4"));
+    serialResult.assertOutputFilesAreSame(
+        compileGenericLibrary("-frontend", "JAVAC", "-passParallelism", "4", "-fusePasses"));
+    serialResult.assertOutputFilesAreSame(
+        compileGenericLibrary("-frontend", "JAVAC", "-renderingParallelism", "4"));
+  }
+
+  private static TranspileResult compileJre(String... args) throws Exception {
     return newTesterWithDefaults()
+        .addArgs(args)
         .setNativeSourcePathArg("transpiler/javatests/com/google/j2cl/transpiler/libjre_native.jar")
         .addSourcePathArg(
             "transpiler/javatests/com/google/j2cl/transpiler/jre_bundle_deploy-src.jar")
         .assertTranspileSucceeds()
         .assertNoWarnings();
   }
+
+  private static TranspileResult compileJreForWasm(String backend, String... args)
+      throws Exception {
+    // The JRE sources are added by the Wasm defaults.
+    return newTesterWithDefaultsWasm()
+        .addArgs("-backend", backend)
+        .addArgs(args)
+        .assertTranspileSucceeds();
+  }
+
+  private static void assertFilesAreIdentical(
+      TranspileResult expected, TranspileResult actual, String fileName) throws IOException {
+    assertThat(Files.readAllBytes(actual.getOutputPath().resolve(fileName)))
+        .isEqualTo(Files.readAllBytes(expected.getOutputPath().resolve(fileName)));
+  }
+
+  private static TranspileResult compileGenericLibrary(String... args) throws Exception {
+    return newTesterWithDefaults()
+        .addArgs(args)
+        .addCompilationUnit(
+            "test.Container",
+            "import java.util.function.Function;",
+            "public interface Container<T> extends Iterable<T> {",
+            "  T get(int index);",
+            "  int size();",
+            "  default <R> Container<R> map(Function<? super T, ? extends R> fn) {",
+            "    return new MappedContainer<T, R>(this, fn);",
+            "  }",
+            "}")
+        .addCompilationUnit(
+            "test.MappedContainer",
+            "import java.util.function.Function;",
+            "public class MappedContainer<T, R> extends ListContainer<R> {",
+            "  private final Container<T> source;",
+            "  private final Function<? super T, ? extends R> fn;",
+            "  MappedContainer(Container<T> source, Function<? super T, ? extends R> fn) {",
+            "    this.source = source;",
+            "    this.fn = fn;",
+            "  }",
+            "  @Override public R get(int index) { return fn.apply(source.get(index)); }",
+            "  @Override public int size() { return source.size(); }",
+            "}")
+        .addCompilationUnit(
+            "test.ListContainer",
+            "import java.util.ArrayList;",
+            "import java.util.Iterator;",
+            "import java.util.List;",
+            "public abstract class ListContainer<T> implements Container<T> {",
+            "  @Override public Iterator<T> iterator() {",
+            "    List<T> list = new ArrayList<>();",
+            "    for (int i = 0; i < size(); i++) {",
+            "      list.add(get(i));",
+            "    }",
+            "    return list.iterator();",
+            "  }",
+            "}")
+        .addCompilationUnit(
+            "test.Strings",
+            "import java.util.Comparator;",
+            "public class Strings extends ListContainer<String> implements Comparator<String> {",
+            "  private final String[] values;",
+            "  public Strings(String... values) { this.values = values; }",
+            "  @Override public String get(int index) { return values[index]; }",
+            "  @Override public int size() { return values.length; }",
+            "  @Override public int compare(String a, String b) { return a.compareTo(b); }",
+            "  @SuppressWarnings(\"rawtypes\")",
+            "  public static int lengths(Container raw) {",
+            "    Container<Integer> lengths = new Strings(\"a\", \"bc\").map(String::length);",
+            "    int sum = raw.size();",
+            "    for (int length : lengths) {",
+            "      sum += length;",
+            "    }",
+            "    return sum;",
+            "  }",
+            "}")
+        .assertTranspileSucceeds()
+        .assertNoWarnings();
+  }
 }
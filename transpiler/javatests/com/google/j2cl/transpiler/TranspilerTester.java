@@ -419,6 +419,7 @@ public class TranspilerTester {
           assertThat(Files.readAllLines(actualPath))
               .containsExactlyElementsIn(Files.readAllLines(expectedPath))
               .inOrder();
+          assertThat(Files.readAllBytes(actualPath)).isEqualTo(Files.readAllBytes(expectedPath));
         }
       }
 
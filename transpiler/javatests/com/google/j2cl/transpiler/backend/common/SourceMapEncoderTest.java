@@ -0,0 +1,256 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.backend.common;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.common.base.Splitter;
+import com.google.debugging.sourcemap.SourceMapConsumerV3;
+import com.google.debugging.sourcemap.SourceMapFormat;
+import com.google.debugging.sourcemap.SourceMapGenerator;
+import com.google.debugging.sourcemap.SourceMapGeneratorFactory;
+import com.google.j2cl.common.FilePosition;
+import com.google.j2cl.common.SourcePosition;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class SourceMapEncoderTest {
+
+  @Test
+  public void testEncode_noMappings() {
+    SourceMapEncoder encoder = new SourceMapEncoder();
+
+    assertThat(encoder.encode("Foo.impl.java.js"))
+        .isEqualTo(
+            "{\n"
+                + "\"version\":3,\n"
+                + "\"file\":\"Foo.impl.java.js\",\n"
+                + "\"lineCount\":1,\n"
+                + "\"mappings\":\"\",\n"
+                + "\"sources\":[],\n"
+                + "\"names\":[]\n"
+                + "}\n");
+  }
+
+  @Test
+  public void testEncode_negativeDeltas() {
+    SourceMapEncoder encoder = new SourceMapEncoder();
+    encoder.startMapping(0, 0, sourcePosition("Foo.java", 10, 5));
+    encoder.endMapping(0, 4);
+    encoder.startMapping(0, 4, sourcePosition("Foo.java", 2, 1));
+    encoder.endMapping(0, 8);
+
+    // The second segment moves 8 lines and 4 columns back in the source.
+    assertThat(getMappings(encoder)).isEqualTo("AAUK,IARJ");
+  }
+
+  @Test
+  public void testEncode_multiDigitValues() {
+    SourceMapEncoder encoder = new SourceMapEncoder();
+    encoder.startMapping(0, 0, sourcePosition("Foo.java", 1000, 16));
+    encoder.endMapping(0, 2000);
+    encoder.startMapping(0, 2000, sourcePosition("Foo.java", 0, 0));
+    encoder.endMapping(0, 2001);
+
+    // 1000 is "w+B", 16 is "gB", 2000 is "g9D", -1000 is "x+B" and -16 is "hB".
+    assertThat(getMappings(encoder)).isEqualTo("AAw+BgB,g9DAx+BhB");
+  }
+
+  @Test
+  public void testEncode_multipleLines() {
+    SourceMapEncoder encoder = new SourceMapEncoder();
+    encoder.startMapping(0, 2, sourcePosition("Foo.java", 1, 2));
+    encoder.endMapping(1, 3);
+    encoder.startMapping(3, 4, sourcePosition("Foo.java", 5, 6));
+    encoder.endMapping(3, 9);
+
+    // The code before, between and after the mappings is unmapped and the columns are relative to
+    // the start of each line.
+    assertThat(getMappings(encoder)).isEqualTo("A,EACE;G;;IAII");
+    assertThat(encoder.encode("Foo.impl.java.js")).contains("\"lineCount\":4");
+  }
+
+  @Test
+  public void testEncode_nestedMappings() {
+    SourceMapEncoder encoder = new SourceMapEncoder();
+    encoder.startMapping(0, 0, sourcePosition("Foo.java", 1, 0));
+    encoder.startMapping(0, 4, sourcePosition("Foo.java", 1, 8));
+    encoder.endMapping(0, 6);
+    encoder.endMapping(0, 10);
+
+    // The code after the nested mapping is mapped to the enclosing one again.
+    assertThat(getMappings(encoder)).isEqualTo("AACA,IAAQ,EAAR");
+  }
+
+  @Test
+  public void testEncode_nestedMappingsStartingAtTheSamePosition() {
+    SourceMapEncoder encoder = new SourceMapEncoder();
+    encoder.startMapping(0, 0, sourcePosition("Foo.java", 1, 0));
+    encoder.startMapping(0, 2, sourcePosition("Foo.java", 2, 0));
+    encoder.startMapping(0, 2, sourcePosition("Foo.java", 3, 0));
+    encoder.endMapping(0, 4);
+    encoder.endMapping(0, 6);
+    encoder.endMapping(0, 8);
+
+    // The code of the innermost mapping is mapped to the outer one that starts at the same
+    // position, the code that follows to the mapping that encloses them.
+    assertThat(getMappings(encoder)).isEqualTo("AACA,EACA,EADA");
+  }
+
+  @Test
+  public void testEncode_emptyMappingsAreDropped() {
+    SourceMapEncoder encoder = new SourceMapEncoder();
+    encoder.startMapping(0, 0, sourcePosition("Foo.java", 1, 0));
+    encoder.endMapping(0, 4);
+    encoder.startMapping(0, 6, sourcePosition("Bar.java", 7, 7));
+    encoder.endMapping(0, 6);
+
+    assertThat(getMappings(encoder)).isEqualTo("AACA");
+    assertThat(encoder.encode("Foo.impl.java.js")).contains("\"sources\":[\"Foo.java\"]");
+  }
+
+  @Test
+  public void testEncode_sourcesAndNames() {
+    SourceMapEncoder encoder = new SourceMapEncoder();
+    encoder.startMapping(0, 0, sourcePosition("Foo.java", 1, 0, "foo"));
+    encoder.startMapping(0, 3, sourcePosition("Bar.java", 2, 0, "bar"));
+    encoder.endMapping(0, 5);
+    encoder.startMapping(0, 6, sourcePosition("Foo.java", 4, 2, "foo"));
+    encoder.endMapping(0, 7);
+    encoder.endMapping(0, 9);
+
+    assertThat(encoder.encode("Foo.impl.java.js"))
+        .isEqualTo(
+            "{\n"
+                + "\"version\":3,\n"
+                + "\"file\":\"Foo.impl.java.js\",\n"
+                + "\"lineCount\":1,\n"
+                + "\"mappings\":\"AACAA,GCCAC,EDDAD,CAGEA,CAHFA\",\n"
+                + "\"sources\":[\"Foo.java\",\"Bar.java\"],\n"
+                + "\"names\":[\"foo\",\"bar\"]\n"
+                + "}\n");
+  }
+
+  /**
+   * Checks that the encoded source maps decode to the same mappings as the ones produced by the
+   * closure source map generator, which the transpiler used before, on randomly nested mappings.
+   */
+  @Test
+  public void testEncode_matchesClosureSourceMapGenerator() throws Exception {
+    for (int seed = 0; seed < 200; seed++) {
+      Random random = new Random(seed);
+      SourceBuilder sourceBuilder = new SourceBuilder(/* recordMappings= */ true);
+      emitRandomCode(sourceBuilder, random, 0);
+      String output = sourceBuilder.build();
+
+      SourceMapConsumerV3 expected = new SourceMapConsumerV3();
+      expected.parse(generateWithClosure(sourceBuilder.getMappings()));
+      SourceMapConsumerV3 actual = new SourceMapConsumerV3();
+      actual.parse(sourceBuilder.buildSourceMap("Foo.impl.java.js"));
+
+      List<String> lines = Splitter.on('\n').splitToList(output);
+      for (int line = 0; line < lines.size(); line++) {
+        for (int column = 0; column <= lines.get(line).length(); column++) {
+          // The consumer takes 1-based lines and columns.
+          assertWithMessage("Mapping at %s:%s with seed %s", line, column, seed)
+              .that(actual.getMappingForLine(line + 1, column + 1))
+              .isEqualTo(expected.getMappingForLine(line + 1, column + 1));
+        }
+      }
+    }
+  }
+
+  private static void emitRandomCode(SourceBuilder sourceBuilder, Random random, int depth) {
+    int count = random.nextInt(4);
+    for (int i = 0; i < count; i++) {
+      switch (random.nextInt(depth < 6 ? 5 : 2)) {
+        case 0:
+          sourceBuilder.append("x".repeat(1 + random.nextInt(4)));
+          break;
+        case 1:
+          sourceBuilder.newLine();
+          break;
+        default:
+          // Mappings may be empty, nested or start at the same position as the enclosing one.
+          sourceBuilder.emitWithMapping(
+              sourcePosition(
+                  "F" + random.nextInt(3) + ".java",
+                  random.nextInt(50),
+                  random.nextInt(30),
+                  random.nextInt(3) == 0 ? "n" + random.nextInt(4) : null),
+              () -> emitRandomCode(sourceBuilder, random, depth + 1));
+      }
+    }
+  }
+
+  /** Generates the source map as the closure backend did before it encoded them itself. */
+  private static String generateWithClosure(Map<SourcePosition, SourcePosition> mappings)
+      throws Exception {
+    SourceMapGenerator sourceMapGenerator =
+        SourceMapGeneratorFactory.getInstance(SourceMapFormat.V3);
+    mappings.forEach(
+        (outputSourcePosition, javaSourcePosition) ->
+            sourceMapGenerator.addMapping(
+                javaSourcePosition.getFileName(),
+                javaSourcePosition.getName(),
+                toClosureFilePosition(javaSourcePosition.getStartFilePosition()),
+                toClosureFilePosition(outputSourcePosition.getStartFilePosition()),
+                toClosureFilePosition(outputSourcePosition.getEndFilePosition())));
+    StringBuilder sb = new StringBuilder();
+    sourceMapGenerator.appendTo(sb, "Foo.impl.java.js");
+    return sb.toString();
+  }
+
+  private static com.google.debugging.sourcemap.FilePosition toClosureFilePosition(
+      FilePosition filePosition) {
+    return new com.google.debugging.sourcemap.FilePosition(
+        filePosition.getLine(), filePosition.getColumn());
+  }
+
+  private static String getMappings(SourceMapEncoder encoder) {
+    String sourceMap = encoder.encode("Foo.impl.java.js");
+    int start = sourceMap.indexOf("\"mappings\":\"") + "\"mappings\":\"".length();
+    return sourceMap.substring(start, sourceMap.indexOf('"', start));
+  }
+
+  private static SourcePosition sourcePosition(String fileName, int line, int column) {
+    return sourcePosition(fileName, line, column, null);
+  }
+
+  private static SourcePosition sourcePosition(
+      String fileName, int line, int column, String name) {
+    FilePosition filePosition =
+        FilePosition.newBuilder()
+            .setLine(line)
+            .setColumn(column)
+            // Only needs to be consistent with the line and column.
+            .setByteOffset(line * 1000 + column)
+            .build();
+    SourcePosition.Builder builder =
+        SourcePosition.newBuilder()
+            .setFilePath("java/" + fileName)
+            .setStartFilePosition(filePosition)
+            .setEndFilePosition(filePosition);
+    if (name != null) {
+      builder.setName(name);
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.benchmarks;
+
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.j2cl.common.OutputUtils;
+import com.google.j2cl.common.OutputUtils.Output;
+import com.google.j2cl.common.Problems;
+import com.google.j2cl.common.SourceUtils;
+import com.google.j2cl.transpiler.J2clTranspilerOptions;
+import com.google.j2cl.transpiler.PassRunner;
+import com.google.j2cl.transpiler.ast.Library;
+import com.google.j2cl.transpiler.backend.Backend;
+import com.google.j2cl.transpiler.frontend.Frontend;
+import com.google.j2cl.transpiler.passes.NormalizationPass;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * A transpilation of a corpus that is driven one phase at a time, so that each phase can be
+ * measured on its own.
+ *
+ * <p>The compiler keeps its state in thread locals, hence each compilation runs all its phases in a
+ * thread of its own, as {@code J2clTranspiler} does.
+ */
+final class Compilation implements AutoCloseable {
+  /** The values of the properties read by the JRE, the same as in the transpiler tests. */
+  private static final ImmutableMap<String, String> JRE_DEFINES =
+      ImmutableMap.<String, String>builder()
+          .put("J2WASM_DEBUG", "TRUE")
+          .put("jre.strictFpToString", "DISABLED")
+          .put("jre.checkedMode", "ENABLED")
+          .put("jre.checks.checkLevel", "NORMAL")
+          .put("jre.checks.bounds", "AUTO")
+          .put("jre.checks.api", "AUTO")
+          .put("jre.checks.numeric", "AUTO")
+          .put("jre.checks.type", "AUTO")
+          .put("jre.logging.logLevel", "ALL")
+          .put("jre.logging.simpleConsoleHandler", "ENABLED")
+          .put("jre.classMetadata", "SIMPLE")
+          .buildOrThrow();
+
+  private final ExecutorService compilationThread = Executors.newSingleThreadExecutor();
+  private final Problems problems = new Problems();
+  private final J2clTranspilerOptions options;
+  private final Path outputDirectory;
+  private final Output output;
+  private Library library;
+  private PassRunner passRunner;
+
+  Compilation(Corpus corpus, Frontend frontend, Backend backend) {
+    this(corpus, frontend, backend, UnaryOperator.identity());
+  }
+
+  /**
+   * Creates a compilation whose options are further customized by {@code optionsCustomizer}, e.g.
+   * to enable features that are off by default.
+   */
+  Compilation(
+      Corpus corpus,
+      Frontend frontend,
+      Backend backend,
+      UnaryOperator<J2clTranspilerOptions.Builder> optionsCustomizer) {
+    this(corpus, frontend, backend, /* includeJreSources= */ false, optionsCustomizer);
+  }
+
+  /**
+   * Creates a Wasm compilation of the corpus together with the JRE sources, so that the module is
+   * complete as it is in the transpiler tests, e.g. to be encoded in binary form.
+   */
+  static Compilation newCompleteWasmModuleCompilation(
+      Corpus corpus, UnaryOperator<J2clTranspilerOptions.Builder> optionsCustomizer) {
+    return new Compilation(
+        corpus, Frontend.JDT, Backend.WASM, /* includeJreSources= */ true, optionsCustomizer);
+  }
+
+  private Compilation(
+      Corpus corpus,
+      Frontend frontend,
+      Backend backend,
+      boolean includeJreSources,
+      UnaryOperator<J2clTranspilerOptions.Builder> optionsCustomizer) {
+    try {
+      this.outputDirectory = Files.createTempDirectory("j2cl-benchmark");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.output = OutputUtils.initOutput(outputDirectory.resolve("output"), problems);
+    J2clTranspilerOptions.Builder optionsBuilder =
+        J2clTranspilerOptions.newBuilder()
+            .setSources(
+                SourceUtils.getAllSources(getSources(corpus, backend, includeJreSources), problems)
+                    .filter(f -> f.sourcePath().endsWith(".java"))
+                    .collect(toImmutableList()))
+            .setNativeSources(
+                SourceUtils.getAllSources(corpus.getNativeSources(backend), problems)
+                    .collect(toImmutableList()))
+            .setClasspaths(getClasspath(backend))
+            .setOutput(output)
+            .setLibraryInfoOutput(
+                backend == Backend.CLOSURE ? outputDirectory.resolve("library_info.pb") : null)
+            .setEmitReadableLibraryInfo(false)
+            .setEmitReadableSourceMap(false)
+            .setGenerateKytheIndexingMetadata(false)
+            .setFrontend(frontend)
+            .setBackend(backend)
+            .setWasmEntryPointStrings(ImmutableList.of())
+            .setDefinesForWasm(includeJreSources ? JRE_DEFINES : ImmutableMap.of())
+            // As in the readable examples, some of which have non native JsEnums.
+            .setWasmEnableNonNativeJsEnum(backend.isWasm())
+            .setKotlincOptions(ImmutableList.of())
+            .setForbiddenAnnotations(ImmutableList.of());
+    this.options = optionsCustomizer.apply(optionsBuilder).build(problems);
+  }
+
+  /** Parses the sources into the library. */
+  void parse() {
+    run(
+        () -> {
+          options.getBackend().initializeCompilation(options);
+          library = options.getFrontend().getLibrary(options, problems);
+          // Created after the frontend has run, as the transpiler does.
+          passRunner = new PassRunner(options, problems);
+        });
+  }
+
+  /** Runs all the passes of the backend, including its restriction checks. */
+  void runAllPasses() {
+    run(
+        () -> {
+          desugar();
+          passRunner.runPasses(
+              library, "normalization", options.getBackend().getPassFactories(options));
+        });
+  }
+
+  /** Runs all the passes of the backend that precede the normalization pass {@code passName}. */
+  void runPassesBefore(String passName) {
+    run(
+        () -> {
+          desugar();
+          List<Supplier<NormalizationPass>> passFactories =
+              options.getBackend().getPassFactories(options);
+          passRunner.runPasses(
+              library,
+              "normalization",
+              passFactories.subList(0, getPassIndex(passFactories, passName)));
+        });
+  }
+
+  /** Runs the normalization pass {@code passName} of the backend. */
+  void runPass(String passName) {
+    run(
+        () -> {
+          List<Supplier<NormalizationPass>> passFactories =
+              options.getBackend().getPassFactories(options);
+          passRunner.runPasses(
+              library,
+              "normalization",
+              ImmutableList.of(passFactories.get(getPassIndex(passFactories, passName))));
+        });
+  }
+
+  /** Renders the outputs of the backend. */
+  void generateOutputs() {
+    run(() -> options.getBackend().generateOutputs(options, library, problems));
+  }
+
+  private void desugar() {
+    passRunner.runPasses(library, "desugaring", options.getBackend().getDesugaringPassFactories());
+    options.getBackend().checkRestrictions(options, library, problems);
+  }
+
+  private static int getPassIndex(List<Supplier<NormalizationPass>> passFactories, String name) {
+    for (int i = 0; i < passFactories.size(); i++) {
+      if (passFactories.get(i).get().getClass().getSimpleName().equals(name)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Unknown pass " + name);
+  }
+
+  /** Runs {@code phase} in the compilation thread, failing if it reports any error. */
+  private void run(Runnable phase) {
+    try {
+      Uninterruptibles.getUninterruptibly(compilationThread.submit(phase));
+    } catch (ExecutionException e) {
+      if (!(e.getCause() instanceof Problems.Exit)) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new AssertionError(e.getCause());
+      }
+    }
+    checkState(!problems.hasErrors(), "Compilation failed: %s", problems.getErrors());
+  }
+
+  @Override
+  public void close() {
+    compilationThread.shutdownNow();
+    if (passRunner != null) {
+      passRunner.close();
+    }
+    output.close();
+    try {
+      MoreFiles.deleteRecursively(outputDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static ImmutableList<String> getSources(
+      Corpus corpus, Backend backend, boolean includeJreSources) {
+    if (!includeJreSources) {
+      return corpus.getSources(backend);
+    }
+    String jreSources = System.getProperty("j2cl.benchmarks.wasmJreSources");
+    checkState(jreSources != null, "No JRE sources set for %s.", backend);
+    return ImmutableList.<String>builder()
+        .addAll(corpus.getSources(backend))
+        .add(jreSources)
+        .build();
+  }
+
+  private static ImmutableList<String> getClasspath(Backend backend) {
+    String classpath =
+        System.getProperty(
+            backend.isWasm() ? "j2cl.benchmarks.wasmClasspath" : "j2cl.benchmarks.classpath");
+    checkState(classpath != null, "No classpath set for %s.", backend);
+    return ImmutableList.copyOf(Splitter.on(File.pathSeparatorChar).split(classpath));
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.benchmarks;
+
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.j2cl.transpiler.backend.Backend;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+/**
+ * The sources that are transpiled by the benchmarks.
+ *
+ * <p>Corpora are read from the J2CL source tree, which is located by the {@code
+ * j2cl.benchmarks.root} system property, or when unset by the workspace directory of {@code bazel
+ * run}. Files are listed in a fixed order so that every run transpiles exactly the same input.
+ */
+public enum Corpus {
+  /** The box2d sample, as compiled by {@code //samples/box2d/src/main/java}. */
+  BOX2D("samples/box2d/src/main/java") {
+    @Override
+    boolean isIncluded(Path relativePath, Backend backend) {
+      String path = relativePath.toString();
+      if (backend == Backend.KOTLIN) {
+        return !path.startsWith("org/jbox2d/gwtemul/");
+      }
+      // The other backends use the super sources in gwtemul.
+      return !path.equals("org/jbox2d/common/PlatformMathUtils.java")
+          && !path.equals("org/jbox2d/common/Timer.java");
+    }
+  },
+  /** The guava sample, which exercises the guava classes on the classpath. */
+  GUAVA("samples/guava/src/main/java"),
+  /** The readable examples that compile on their own for all the backends. */
+  READABLE("transpiler/javatests/com/google/j2cl/readable/java") {
+    /**
+     * Examples that are left out because they need annotation processors or libraries of their
+     * own, or are not transpiled by all the backends.
+     */
+    private final ImmutableSet<String> excludedExamples =
+        ImmutableSet.of(
+            "accidentaloverride",
+            "anonymousinnerclass",
+            "aptgeneratordep",
+            "aptgeneratorplugin",
+            "autovalue",
+            "bridgejsmethod",
+            "bridgemethods",
+            "exportimport",
+            "externs",
+            "genericanddefaultmethods",
+            "genericconstructor",
+            "gwtincompatible",
+            "importglobaljstypes",
+            "innerclassinitorder",
+            "intersectiontype",
+            "j2kt",
+            "j2ktnotpassing",
+            "jsasync",
+            "jsfunction",
+            "jsmemberinnativetype",
+            "jsmethod",
+            "jsoverlay",
+            "jsproperties",
+            "jstypecastsinstanceof",
+            "jsvarargs",
+            "libraryinfo",
+            "markimplementornativetypes",
+            "nativeinjection",
+            "nativejstypeobjectmethods",
+            "nativejstypes",
+            "nativekttypes",
+            "nativetype",
+            "packageinfo",
+            "srcjar",
+            "staticjsmembers",
+            "subnativejstype",
+            "transitivejsoverlayimport",
+            "typeannotations",
+            "typewildcards");
+
+    @Override
+    boolean isIncluded(Path relativePath, Backend backend) {
+      return !excludedExamples.contains(relativePath.getName(0).toString())
+          // Only the sources are taken, including those in subpackages, not the expected outputs.
+          && !relativePath.getName(1).toString().startsWith("output_");
+    }
+  };
+
+  private final String relativeRoot;
+
+  Corpus(String relativeRoot) {
+    this.relativeRoot = relativeRoot;
+  }
+
+  boolean isIncluded(Path relativePath, Backend backend) {
+    return true;
+  }
+
+  /** Returns the Java sources of the corpus for {@code backend}. */
+  ImmutableList<String> getSources(Backend backend) {
+    return listFiles(".java", backend);
+  }
+
+  /** Returns the native JavaScript sources of the corpus for {@code backend}. */
+  ImmutableList<String> getNativeSources(Backend backend) {
+    return backend == Backend.CLOSURE ? listFiles(".native.js", backend) : ImmutableList.of();
+  }
+
+  private ImmutableList<String> listFiles(String extension, Backend backend) {
+    Path root = getSourceTreeRoot().resolve(relativeRoot);
+    try (Stream<Path> files = Files.walk(root)) {
+      ImmutableList<String> paths =
+          files
+              .filter(p -> p.toString().endsWith(extension))
+              .filter(p -> isIncluded(root.relativize(p), backend))
+              .map(Path::toString)
+              .sorted()
+              .collect(toImmutableList());
+      checkState(extension.endsWith("js") || !paths.isEmpty(), "No sources found in %s", root);
+      return paths;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static Path getSourceTreeRoot() {
+    String root = System.getProperty("j2cl.benchmarks.root");
+    if (root == null) {
+      root = System.getenv("BUILD_WORKSPACE_DIRECTORY");
+    }
+    checkState(
+        root != null,
+        "The location of the J2CL source tree needs to be set with -Dj2cl.benchmarks.root.");
+    return Paths.get(root);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.benchmarks;
+
+import com.google.j2cl.transpiler.backend.Backend;
+import com.google.j2cl.transpiler.frontend.Frontend;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures individual passes that dominate the normalization time.
+ *
+ * <p>Each pass runs on the AST produced by the passes that precede it in the backend, as it does
+ * in a real compilation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+public class HotPassBenchmark {
+
+  /** Backend and name of the measured pass, separated by a colon. */
+  @Param({
+    "CLOSURE:InsertStringConversions",
+    "CLOSURE:InsertNarrowingReferenceConversions",
+    "CLOSURE:InsertUnboxingConversions",
+    "CLOSURE:InsertBoxingConversions",
+    "CLOSURE:InsertNarrowingPrimitiveConversions",
+    "CLOSURE:InsertWideningPrimitiveConversions",
+    "CLOSURE:NormalizeLongs",
+    "WASM:ImplementFinallyViaControlFlow"
+  })
+  public String pass;
+
+  @Param({"BOX2D", "GUAVA", "READABLE"})
+  public Corpus corpus;
+
+  private Compilation compilation;
+  private String passName;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    int separatorIndex = pass.indexOf(':');
+    Backend backend = Backend.valueOf(pass.substring(0, separatorIndex));
+    passName = pass.substring(separatorIndex + 1);
+    compilation = new Compilation(corpus, Frontend.JDT, backend);
+    compilation.parse();
+    compilation.runPassesBefore(passName);
+  }
+
+  @Benchmark
+  public void runPass() {
+    compilation.runPass(passName);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    compilation.close();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.benchmarks;
+
+import com.google.j2cl.transpiler.backend.Backend;
+import com.google.j2cl.transpiler.frontend.Frontend;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures running the complete list of passes of each backend on a parsed corpus, as the
+ * transpiler runs them with the given pass fusion and parallelism.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+public class PassesBenchmark {
+
+  @Param({"CLOSURE", "WASM", "KOTLIN"})
+  public Backend backend;
+
+  @Param({"BOX2D", "GUAVA", "READABLE"})
+  public Corpus corpus;
+
+  @Param({"false", "true"})
+  public boolean fusePasses;
+
+  @Param({"1", "4"})
+  public int passParallelism;
+
+  private Compilation compilation;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    compilation =
+        new Compilation(
+            corpus,
+            Frontend.JDT,
+            backend,
+            o -> o.setFusePasses(fusePasses).setPassParallelism(passParallelism));
+    compilation.parse();
+  }
+
+  @Benchmark
+  public void runAllPasses() {
+    compilation.runAllPasses();
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    compilation.close();
+  }
+}
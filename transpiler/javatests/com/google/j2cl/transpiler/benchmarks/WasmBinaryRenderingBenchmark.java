@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures rendering the Wasm module of a fully normalized corpus in text and in binary form, the
+ * difference being mostly the cost of parsing the rendered text back to encode it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+public class WasmBinaryRenderingBenchmark {
+
+  @Param({"false", "true"})
+  public boolean wasmEmitBinary;
+
+  /**
+   * The corpora are compiled with the JRE so that the modules are complete; the guava sample is
+   * left out since guava needs classes that the Wasm JRE does not have.
+   */
+  @Param({"BOX2D", "READABLE"})
+  public Corpus corpus;
+
+  private Compilation compilation;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    compilation =
+        Compilation.newCompleteWasmModuleCompilation(
+            corpus, o -> o.setWasmEmitBinary(wasmEmitBinary));
+    compilation.parse();
+    compilation.runAllPasses();
+  }
+
+  @Benchmark
+  public void generateOutputs() {
+    compilation.generateOutputs();
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    compilation.close();
+  }
+}